@@ -0,0 +1,220 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.BaseDataStructure;
+
+import java.util.Arrays;
+
+/**
+ * Compact byte encoding of packed point arrays (points of stride floats one
+ * after the other, e.g. PeakCurve's (rt, mz, intensity) triples) with the
+ * retention time and m/z columns stored as delta-encoded scaled integers
+ * (zigzag varints), the other columns as raw float bits.
+ * <p>
+ * Error bound of the decoded values:
+ * <ul>
+ * <li>retention time: |decoded - original| &lt;= RT_STEP (1e-5 min)</li>
+ * <li>m/z: |decoded - original| &lt;= MZ_MAX_ERROR_PPM (0.1 ppm) of the
+ * original; m/z is quantized in steps of MZ_STEP_PPM of the first m/z of the
+ * array, the rest of the error is float rounding</li>
+ * <li>other columns: exact</li>
+ * </ul>
+ * The bound is checked when encoding; a column with a value that wouldn't
+ * stay within it (e.g. not finite, or not positive m/z) is stored as raw
+ * floats.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class FixedPointCodec {
+
+    public static final double RT_STEP = 1e-5;
+    public static final double MZ_STEP_PPM = 0.05;
+    public static final double MZ_MAX_ERROR_PPM = 0.1;
+
+    //column modes
+    private static final byte RAW = 0;
+    private static final byte FIXED_RT = 1;
+    private static final byte FIXED_MZ = 2;
+
+    private byte[] Bytes;
+    private int Pos;
+
+    private FixedPointCodec(byte[] bytes) {
+        Bytes = bytes;
+    }
+
+    /**
+     * @param rtcol column of retention times, -1 for none
+     * @param mzcol column of m/z values, -1 for none
+     */
+    public static byte[] Encode(float[] packed, int stride, int rtcol, int mzcol) {
+        int count = packed.length / stride;
+        FixedPointCodec out = new FixedPointCodec(new byte[16 + packed.length * 3]);
+        out.WriteVarLong(count);
+        for (int col = 0; col < stride; col++) {
+            if (col == rtcol && FitsRT(packed, stride, col, count)) {
+                out.Write(FIXED_RT);
+                long last = 0;
+                for (int i = 0; i < count; i++) {
+                    long q = Math.round(packed[i * stride + col] / RT_STEP);
+                    out.WriteZigZag(q - last);
+                    last = q;
+                }
+            } else if (col == mzcol && FitsMz(packed, stride, col, count)) {
+                out.Write(FIXED_MZ);
+                float ref = packed[col];
+                out.WriteInt(Float.floatToIntBits(ref));
+                double step = ref * MZ_STEP_PPM * 1e-6;
+                long last = 0;
+                for (int i = 0; i < count; i++) {
+                    long k = Math.round((packed[i * stride + col] - ref) / step);
+                    out.WriteZigZag(k - last);
+                    last = k;
+                }
+            } else {
+                out.Write(RAW);
+                for (int i = 0; i < count; i++) {
+                    out.WriteInt(Float.floatToIntBits(packed[i * stride + col]));
+                }
+            }
+        }
+        return Arrays.copyOf(out.Bytes, out.Pos);
+    }
+
+    public static float[] Decode(byte[] bytes, int stride) {
+        FixedPointCodec in = new FixedPointCodec(bytes);
+        int count = (int) in.ReadVarLong();
+        float[] packed = new float[count * stride];
+        for (int col = 0; col < stride; col++) {
+            switch (in.Read()) {
+                case FIXED_RT: {
+                    long q = 0;
+                    for (int i = 0; i < count; i++) {
+                        q += in.ReadZigZag();
+                        packed[i * stride + col] = (float) (q * RT_STEP);
+                    }
+                    break;
+                }
+                case FIXED_MZ: {
+                    float ref = Float.intBitsToFloat(in.ReadInt());
+                    double step = ref * MZ_STEP_PPM * 1e-6;
+                    long k = 0;
+                    for (int i = 0; i < count; i++) {
+                        k += in.ReadZigZag();
+                        packed[i * stride + col] = (float) (ref + k * step);
+                    }
+                    break;
+                }
+                default: {
+                    for (int i = 0; i < count; i++) {
+                        packed[i * stride + col] = Float.intBitsToFloat(in.ReadInt());
+                    }
+                }
+            }
+        }
+        return packed;
+    }
+
+    private static boolean FitsRT(float[] packed, int stride, int col, int count) {
+        for (int i = 0; i < count; i++) {
+            float rt = packed[i * stride + col];
+            if (Float.isNaN(rt) || Float.isInfinite(rt) || Math.abs(rt) > 1e6f) {
+                return false;
+            }
+            float decoded = (float) (Math.round(rt / RT_STEP) * RT_STEP);
+            if (Math.abs(decoded - rt) > RT_STEP) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean FitsMz(float[] packed, int stride, int col, int count) {
+        if (count == 0) {
+            return false;
+        }
+        float ref = packed[col];
+        if (!(ref > 0f) || Float.isInfinite(ref)) {
+            return false;
+        }
+        double step = ref * MZ_STEP_PPM * 1e-6;
+        for (int i = 0; i < count; i++) {
+            float mz = packed[i * stride + col];
+            if (!(mz > 0f) || Float.isInfinite(mz)) {
+                return false;
+            }
+            float decoded = (float) (ref + Math.round((mz - ref) / step) * step);
+            if (Math.abs(decoded - mz) > mz * MZ_MAX_ERROR_PPM * 1e-6) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void Write(byte b) {
+        if (Pos == Bytes.length) {
+            Bytes = Arrays.copyOf(Bytes, Bytes.length * 2);
+        }
+        Bytes[Pos++] = b;
+    }
+
+    private void WriteInt(int v) {
+        Write((byte) (v >>> 24));
+        Write((byte) (v >>> 16));
+        Write((byte) (v >>> 8));
+        Write((byte) v);
+    }
+
+    private void WriteVarLong(long v) {
+        while ((v & ~0x7FL) != 0) {
+            Write((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        Write((byte) v);
+    }
+
+    private void WriteZigZag(long v) {
+        WriteVarLong((v << 1) ^ (v >> 63));
+    }
+
+    private byte Read() {
+        return Bytes[Pos++];
+    }
+
+    private int ReadInt() {
+        return ((Bytes[Pos++] & 0xFF) << 24) | ((Bytes[Pos++] & 0xFF) << 16) | ((Bytes[Pos++] & 0xFF) << 8) | (Bytes[Pos++] & 0xFF);
+    }
+
+    private long ReadVarLong() {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = Bytes[Pos++];
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+
+    private long ReadZigZag() {
+        long v = ReadVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -73,6 +73,24 @@ public class InstrumentParameter implements Serializable{
     public int MinPeakPerPeakCurve = 1;
     public float MinMZ=200;
     public int MinFrag=10;
+    public boolean StreamingScanDecoder = true;
+    //Number of DIA windows whose MS2 scans are read together in one pass, 0: read window by window
+    public int DIAWindowsInFlight = 4;
+    //Keep the processed (centroided, denoised) scans in a binary cache file next to the raw file for re-runs
+    public boolean CacheProcessedScans = false;
+    //Number of decoded MS1 scans queued for peak curve tracing while the file is read, 0: load all MS1 scans first
+    public int PeakCurveScanQueue = 32;
+    //Scans read together are merged into one sequential read when at most ReadAheadGap bytes apart, up to ReadAheadMaxRead bytes per read
+    public long ReadAheadGap = 1 << 20;
+    public int ReadAheadMaxRead = 64 << 20;
+    //Keep the raw and smoothed points of detected peak curves as packed float arrays instead of point objects
+    public boolean PackPeakCurves = true;
+    //Where the peaks of loaded scans are kept: Heap, OffHeap (direct buffers) or Mapped (memory-mapped scratch file next to the raw file)
+    public String ScanPeakStorage = "Heap";
+    //Write the retention times and m/z of peak curves as fixed-point integers in the serialization files (see FixedPointCodec for the error bound)
+    public boolean CompactPeakEncoding = false;
+    //Trace peak curves on all threads by splitting the m/z range into shards (same curves as single-threaded tracing), only when the scans are kept on the heap
+    public boolean ParallelPeakCurveTracing = true;
 
     public void WriteParamSerialization(String mzXMLFileName) {
         try {
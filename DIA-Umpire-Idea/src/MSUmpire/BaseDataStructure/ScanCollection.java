@@ -19,9 +19,12 @@
  */
 package MSUmpire.BaseDataStructure;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
 import org.apache.avalon.framework.activity.Disposable;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
 
 /**
  *
@@ -39,6 +42,31 @@ public class ScanCollection implements Disposable{
     private int Resolution;
     private float MinPrecursorInt = Float.MAX_VALUE;
     public TreeMap<Float, Integer> ElutionTimeToScanNoMap;
+    //When set, the peaks of added scans are moved out of the heap and ScanHashMap keeps header-only ScanData
+    private ScanPeakStore PeakStore;
+    //ScanHashMap and ElutionTimeToScanNoMap as sorted arrays, null until needed and after a change
+    private volatile ScanIndex Index;
+    private volatile RTIndex ElutionTimeIndex;
+
+    //Scans in scan number order
+    private static class ScanIndex {
+
+        int[] ScanNos;
+        ScanData[] Scans;
+        //position of the closest MS1 scan at or before each position, -1 if none
+        int[] PrevMS1;
+        //positions in retention time order (scan number order for equal times) and their retention times
+        int[] RTOrder;
+        float[] SortedRTs;
+    }
+
+    private static class RTIndex {
+
+        TreeMap<Float, Integer> Map;
+        int Size;
+        float[] RTs;
+        int[] ScanNos;
+    }
 
     public ScanCollection(int Resolution) {
         Comparator<Float> cmp = new Comparator<Float>() {
@@ -75,9 +103,31 @@ public class ScanCollection implements Disposable{
         return ms2descening;
     }
 
+    /**
+     * Keeps the peaks of the scans added from now on in store; GetScan()
+     * then returns a ScanData with the peaks read back from the store. Scans
+     * iterated directly from ScanHashMap only have their header, use
+     * ScanData.Load() for their peaks.
+     */
+    public void SetPeakStore(ScanPeakStore store) {
+        PeakStore = store;
+    }
+
+    public ScanPeakStore GetPeakStore() {
+        return PeakStore;
+    }
+
     public void AddScan(ScanData scan) {
         if (!ScanHashMap.containsKey(scan.Num)) {
+            if (PeakStore != null) {
+                try {
+                    scan.MoveToStore(PeakStore);
+                } catch (IOException ex) {
+                    Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+                }
+            }
             ScanHashMap.put(scan.Num, scan);
+            Index = null;
 
             if (scan.MsLevel == 1) {
                 NumScanLevel1++;
@@ -98,24 +148,19 @@ public class ScanCollection implements Disposable{
     }
 
     public ScanData GetParentMSScan(int ScanNo) {
-        ScanData scan = null;
-        Entry<Integer, ScanData> floorEntry = ScanHashMap.floorEntry(ScanNo);
-        Set entryset = ScanHashMap.entrySet();
-        Integer preScanNo = null;
-        ScanData PreScan = null;
-        while ((preScanNo = ScanHashMap.lowerKey(ScanNo)) != null) {
-            PreScan = ScanHashMap.get(preScanNo);
-            if (PreScan.MsLevel == 1) {
-                break;
-            }
-            ScanNo = preScanNo;
+        ScanIndex index = GetScanIndex();
+        int pos = LowerBound(index.ScanNos, ScanNo) - 1;
+        if (pos < 0) {
+            return null;
         }
-        return PreScan;
+        //no MS1 scan before: the first scan, as walking down the scan numbers did
+        int parent = index.PrevMS1[pos] != -1 ? index.PrevMS1[pos] : 0;
+        return index.Scans[parent].Load();
     }
 
     public ScanData GetScan(int ScanNO) {
         if (ScanHashMap.containsKey(ScanNO)) {
-            return ScanHashMap.get(ScanNO);
+            return ScanHashMap.get(ScanNO).Load();
         }
         return null;
     }
@@ -125,23 +170,164 @@ public class ScanCollection implements Disposable{
     }
 
     public void CentoridingAllScans(int Resolution, float MiniIntF) {
-        for (ScanData scan : ScanHashMap.values()) {
+        for (Entry<Integer, ScanData> entry : ScanHashMap.entrySet()) {
+            ScanData scan = entry.getValue().Load();
             scan.Centroiding(Resolution, MiniIntF);
+            UpdateScan(entry, scan);
         }
     }
 
-    public int GetScanNoByRT(float RT) {
-        int ScanNo = 0;
-        if (RT <= ElutionTimeToScanNoMap.firstKey()) {
-            ScanNo = ElutionTimeToScanNoMap.firstEntry().getValue();
+    //Puts back a scan changed after Load(), its old stored peaks are left unused
+    private void UpdateScan(Entry<Integer, ScanData> entry, ScanData scan) {
+        if (scan == entry.getValue()) {
+            return;
+        }
+        if (PeakStore != null) {
+            try {
+                scan.MoveToStore(PeakStore);
+            } catch (IOException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
+        }
+        entry.setValue(scan);
+        Index = null;
+    }
+
+    private ScanIndex GetScanIndex() {
+        ScanIndex index = Index;
+        if (index == null) {
+            index = BuildScanIndex();
+            Index = index;
+        }
+        return index;
+    }
+
+    private ScanIndex BuildScanIndex() {
+        int size = ScanHashMap.size();
+        final ScanIndex index = new ScanIndex();
+        index.ScanNos = new int[size];
+        index.Scans = new ScanData[size];
+        index.PrevMS1 = new int[size];
+        final float[] rts = new float[size];
+        int lastms1 = -1;
+        boolean sorted = true;
+        int i = 0;
+        for (Entry<Integer, ScanData> entry : ScanHashMap.entrySet()) {
+            ScanData scan = entry.getValue();
+            index.ScanNos[i] = entry.getKey();
+            index.Scans[i] = scan;
+            rts[i] = scan.RetentionTime;
+            if (scan.MsLevel == 1) {
+                lastms1 = i;
+            }
+            index.PrevMS1[i] = lastms1;
+            if (i > 0 && rts[i] < rts[i - 1]) {
+                sorted = false;
+            }
+            i++;
+        }
+        index.RTOrder = new int[size];
+        if (sorted) {
+            for (i = 0; i < size; i++) {
+                index.RTOrder[i] = i;
+            }
+            index.SortedRTs = rts;
         } else {
-            if (RT >= ElutionTimeToScanNoMap.lastKey()) {
-                ScanNo = ElutionTimeToScanNoMap.lastEntry().getValue();
+            Integer[] order = new Integer[size];
+            for (i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Float.compare(rts[o1], rts[o2]);
+                }
+            });
+            index.SortedRTs = new float[size];
+            for (i = 0; i < size; i++) {
+                index.RTOrder[i] = order[i];
+                index.SortedRTs[i] = rts[order[i]];
+            }
+        }
+        return index;
+    }
+
+    private RTIndex GetRTIndex() {
+        RTIndex index = ElutionTimeIndex;
+        if (index == null || index.Map != ElutionTimeToScanNoMap || index.Size != ElutionTimeToScanNoMap.size()) {
+            index = new RTIndex();
+            index.Map = ElutionTimeToScanNoMap;
+            index.Size = ElutionTimeToScanNoMap.size();
+            index.RTs = new float[index.Size];
+            index.ScanNos = new int[index.Size];
+            int i = 0;
+            for (Entry<Float, Integer> entry : ElutionTimeToScanNoMap.entrySet()) {
+                index.RTs[i] = entry.getKey();
+                index.ScanNos[i] = entry.getValue();
+                i++;
+            }
+            ElutionTimeIndex = index;
+        }
+        return index;
+    }
+
+    //First position whose value is >= key
+    private static int LowerBound(int[] values, int key) {
+        int lower = 0;
+        int upper = values.length;
+        while (lower < upper) {
+            int middle = (lower + upper) >>> 1;
+            if (values[middle] < key) {
+                lower = middle + 1;
+            } else {
+                upper = middle;
+            }
+        }
+        return lower;
+    }
+
+    private static int LowerBound(float[] values, float key) {
+        int lower = 0;
+        int upper = values.length;
+        while (lower < upper) {
+            int middle = (lower + upper) >>> 1;
+            if (Float.compare(values[middle], key) < 0) {
+                lower = middle + 1;
+            } else {
+                upper = middle;
+            }
+        }
+        return lower;
+    }
+
+    //First position whose value is > key
+    private static int UpperBound(float[] values, float key) {
+        int lower = 0;
+        int upper = values.length;
+        while (lower < upper) {
+            int middle = (lower + upper) >>> 1;
+            if (Float.compare(values[middle], key) <= 0) {
+                lower = middle + 1;
             } else {
-                ScanNo = ElutionTimeToScanNoMap.lowerEntry(RT).getValue();
+                upper = middle;
             }
         }
-        return ScanNo;
+        return lower;
+    }
+
+    public int GetScanNoByRT(float RT) {
+        RTIndex index = GetRTIndex();
+        if (index.Size == 0) {
+            throw new NoSuchElementException();
+        }
+        if (Float.compare(RT, index.RTs[0]) <= 0) {
+            return index.ScanNos[0];
+        }
+        if (Float.compare(RT, index.RTs[index.Size - 1]) >= 0) {
+            return index.ScanNos[index.Size - 1];
+        }
+        //the scan with the highest retention time lower than RT
+        return index.ScanNos[LowerBound(index.RTs, RT) - 1];
     }
     
     public ScanCollection GetSubCollectionByElutionTimeAndMZ(float startTime, float endTime, float startmz, float endmz, int msLevel, boolean IsAddCalibrationScan) {
@@ -160,16 +346,17 @@ public class ScanCollection implements Disposable{
         StartScanNo = GetScanNoByRT(startTime);
         EndScanNo = GetScanNoByRT(endTime);
 
-        NavigableMap<Integer, ScanData> SubScaNavigableMap = ScanHashMap.subMap(StartScanNo, true, EndScanNo, true);
-        for (ScanData scan : SubScaNavigableMap.values()) {
+        ScanIndex index = GetScanIndex();
+        for (int i = LowerBound(index.ScanNos, StartScanNo); i < index.ScanNos.length && index.ScanNos[i] <= EndScanNo; i++) {
+            ScanData scan = index.Scans[i];
             if (endmz == -1) {
-                if (((msLevel == 0 || scan.MsLevel == msLevel) && (IsAddCalibrationScan == true || scan.Scantype != "calibration")) && scan.PointCount() > 0 && scan.TotIonCurrent() > 0) {
+                if (((msLevel == 0 || scan.MsLevel == msLevel) && (IsAddCalibrationScan == true || scan.Scantype != "calibration")) && scan.PeakCount() > 0 && scan.TotIonCurrent() > 0) {
                     scanCollection.AddScan(scan);
                 }
             } else //filter mz
             {
-                if (((msLevel == 0 || scan.MsLevel == msLevel) && (IsAddCalibrationScan == true || scan.Scantype != "calibration")) && scan.PointCount() > 0 && scan.TotIonCurrent() > 0) {
-                    scanCollection.AddScan(scan.GetNewSubScanBymzRange(startmz, endmz));
+                if (((msLevel == 0 || scan.MsLevel == msLevel) && (IsAddCalibrationScan == true || scan.Scantype != "calibration")) && scan.PeakCount() > 0 && scan.TotIonCurrent() > 0) {
+                    scanCollection.AddScan(scan.Load().GetNewSubScanBymzRange(startmz, endmz));
                 }
             }
         }
@@ -179,10 +366,15 @@ public class ScanCollection implements Disposable{
 
     public XYPointCollection GetTIC() {
         if (_tic == null) {
-            _tic = new XYPointCollection();
-            for (ScanData scan : ScanHashMap.values()) {
-                _tic.AddPoint(scan.RetentionTime, scan.TotIonCurrent());
+            ScanIndex index = GetScanIndex();
+            int size = index.RTOrder.length;
+            float[] tic = new float[size];
+            for (int i = 0; i < size; i++) {
+                tic[i] = index.Scans[index.RTOrder[i]].TotIonCurrent();
             }
+            XYPointCollection collection = new XYPointCollection();
+            collection.AddPoints(index.SortedRTs, tic, size);
+            _tic = collection;
         }
         return _tic;
     }
@@ -191,7 +383,8 @@ public class ScanCollection implements Disposable{
     public XYPointCollection GetBasePeak() {
         if (_basepeak == null) {
             _tic = new XYPointCollection();
-            for (ScanData scan : ScanHashMap.values()) {
+            for (ScanData handle : ScanHashMap.values()) {
+                ScanData scan = handle.Load();
                 float TIC = 0;
                 for (int i = 0; i < scan.PointCount(); i++) {
                     float intensity = scan.Data.get(i).getY();
@@ -206,16 +399,52 @@ public class ScanCollection implements Disposable{
     }
 
     public XYPointCollection GetXIC(float startMZ, float endMZ) {
-        XYPointCollection xic = new XYPointCollection();
-        for (ScanData scan : ScanHashMap.values()) {
-            float intensity = 0f;
-            XYPointCollection submz = scan.GetSubSetByXRange(startMZ, endMZ);
-            for (int i = 0; i < submz.PointCount(); i++) {
-                intensity += submz.Data.get(i).getY();
+        return GetXIC(startMZ, endMZ, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+    }
+
+    //Summed intensity of the peaks between startMZ and endMZ of each scan between startRT and endRT
+    public XYPointCollection GetXIC(float startMZ, float endMZ, float startRT, float endRT) {
+        return GetXICs(new float[]{startMZ}, new float[]{endMZ}, startRT, endRT)[0];
+    }
+
+    /**
+     * Extracts the XICs of many m/z ranges over one RT range, reading each
+     * scan once.
+     *
+     * @return the XIC of each startMZ[i]-endMZ[i] range
+     */
+    public XYPointCollection[] GetXICs(float[] startMZ, float[] endMZ, float startRT, float endRT) {
+        ScanIndex index = GetScanIndex();
+        int first = LowerBound(index.SortedRTs, startRT);
+        int last = UpperBound(index.SortedRTs, endRT);
+        int count = Math.max(0, last - first);
+        float[][] intensity = new float[startMZ.length][count];
+        for (int i = 0; i < count; i++) {
+            ScanData scan = index.Scans[index.RTOrder[first + i]].Load();
+            int size = scan.PointCount();
+            if (size == 0) {
+                continue;
+            }
+            for (int t = 0; t < startMZ.length; t++) {
+                float sum = 0f;
+                for (int pk = Math.max(0, scan.GetLowerIndexOfX(startMZ[t])); pk < size; pk++) {
+                    float x = scan.Data.GetX(pk);
+                    if (x >= startMZ[t] && x <= endMZ[t]) {
+                        sum += scan.Data.GetY(pk);
+                    } else if (x > endMZ[t]) {
+                        break;
+                    }
+                }
+                intensity[t][i] = sum;
             }
-            xic.AddPoint(scan.RetentionTime, intensity);
         }
-        return xic;
+        float[] rt = Arrays.copyOfRange(index.SortedRTs, first, first + count);
+        XYPointCollection[] xics = new XYPointCollection[startMZ.length];
+        for (int t = 0; t < startMZ.length; t++) {
+            xics[t] = new XYPointCollection();
+            xics[t].AddPoints(rt, intensity[t], count);
+        }
+        return xics;
     }
 
     public float GetElutionTimeByScanNo(int scanNo) {
@@ -233,13 +462,21 @@ public class ScanCollection implements Disposable{
             ScanHashMap.clear();
             this.ScanHashMap = null;
         }
+        Index = null;
+        ElutionTimeIndex = null;
+        if (PeakStore != null) {
+            PeakStore.Close();
+            PeakStore = null;
+        }
     }
 
     public void RemoveBackground(int mslevel, float background) {
-        for (ScanData scan : ScanHashMap.values()) {
-            if(scan.MsLevel==mslevel){
+        for (Entry<Integer, ScanData> entry : ScanHashMap.entrySet()) {
+            if(entry.getValue().MsLevel==mslevel){
+                ScanData scan = entry.getValue().Load();
                 scan.background=background;
                 scan.RemoveSignalBelowBG();
+                UpdateScan(entry, scan);
             }
         }
     }
@@ -19,6 +19,10 @@
  */
 package MSUmpire.BaseDataStructure;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  *
  * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
@@ -47,6 +51,10 @@ public class ScanData extends XYPointCollection{
     public XYPointCollection TopPeakScan;
     public float windowWideness;
     public String scanType;
+    //Peaks moved to a ScanPeakStore by MoveToStore(), Data is empty then
+    private transient ScanPeakStore PeakStore;
+    private long PeakAddress;
+    private int StoredPointCount;
 
     public void Centroiding(int Resolution, float MinMZ) {
         CentroidingbyLocalMaximum(Resolution, MinMZ);
@@ -77,6 +85,7 @@ public class ScanData extends XYPointCollection{
 
     public void RemoveSignalBelowBG() {
         SortedXYCollectionClass newData = new SortedXYCollectionClass();
+        newData.BeginBulkLoad();
         for (int i = 0; i < Data.size(); i++) {
             if (Data.get(i).getY() > background) {
                 newData.add(Data.get(i));
@@ -88,6 +97,9 @@ public class ScanData extends XYPointCollection{
     }
 
     public float TotIonCurrent() {
+        if (_totIonCurrent == 0f && PeakStore != null) {
+            _totIonCurrent = Load().TotIonCurrent();
+        }
         if (_totIonCurrent == 0f) {
             for (int i = 0; i < PointCount(); i++) {
                 _totIonCurrent += Data.get(i).getY();
@@ -124,9 +136,167 @@ public class ScanData extends XYPointCollection{
         return newscanData;
     }
 
+    /**
+     * Moves the peaks to store and keeps only the scan header on the heap,
+     * {@link #Load()} gives the scan with its peaks again.
+     */
+    public void MoveToStore(ScanPeakStore store) throws IOException {
+        if (PeakStore != null) {
+            return;
+        }
+        int count = PointCount();
+        float[] x = new float[count];
+        float[] y = new float[count];
+        for (int i = 0; i < count; i++) {
+            XYData pt = Data.get(i);
+            x[i] = pt.getX();
+            y[i] = pt.getY();
+        }
+        PeakAddress = store.Put(x, y, count);
+        StoredPointCount = count;
+        PeakStore = store;
+        Data = new SortedXYCollectionClass();
+    }
+
+    public boolean IsStored() {
+        return PeakStore != null;
+    }
+
+    //Number of peaks, also for a scan whose peaks are in a ScanPeakStore
+    public int PeakCount() {
+        return PeakStore != null ? StoredPointCount : PointCount();
+    }
+
+    /**
+     * Returns this scan, or for a scan moved to a ScanPeakStore a new
+     * ScanData with the same header and the stored peaks (changes to it are
+     * not written back to the store).
+     */
+    public ScanData Load() {
+        if (PeakStore == null) {
+            return this;
+        }
+        ScanData scan = new ScanData();
+        CopyHeader(scan);
+        float[] x = new float[StoredPointCount];
+        float[] y = new float[StoredPointCount];
+        PeakStore.Get(PeakAddress, StoredPointCount, x, y);
+        scan.AddPoints(x, y, StoredPointCount);
+        scan.MaxY = MaxY;
+        return scan;
+    }
+
+    private void CopyHeader(ScanData scan) {
+        scan.Num = Num;
+        scan.MsLevel = MsLevel;
+        scan.RetentionTime = RetentionTime;
+        scan.StartMz = StartMz;
+        scan.EndMz = EndMz;
+        scan.BasePeakMz = BasePeakMz;
+        scan.BasePeakIntensity = BasePeakIntensity;
+        scan._totIonCurrent = _totIonCurrent;
+        scan.PrecursorMz = PrecursorMz;
+        scan.PrecursorCharge = PrecursorCharge;
+        scan.ActivationMethod = ActivationMethod;
+        scan.PrecursorIntensity = PrecursorIntensity;
+        scan.Scantype = Scantype;
+        scan.precision = precision;
+        scan.compressionType = compressionType;
+        scan.centroided = centroided;
+        scan.precursorScanNum = precursorScanNum;
+        scan.PeaksCountString = PeaksCountString;
+        scan.background = background;
+        scan.MGFTitle = MGFTitle;
+        scan.TopPeakScan = TopPeakScan;
+        scan.windowWideness = windowWideness;
+        scan.scanType = scanType;
+    }
+
     public ScanData GetNewSubScanBymzRange(float startmz, float endmz) {
         ScanData newScanData = CloneScanData();
         newScanData.Data = GetSubSetByXRange(startmz, endmz).Data;
         return newScanData;
     }
+
+    //Binary form of the scan header and points, used by the processed scan cache
+    public void WriteBinary(DataOutput out) throws IOException {
+        out.writeInt(Num);
+        out.writeInt(MsLevel);
+        out.writeFloat(RetentionTime);
+        out.writeFloat(StartMz);
+        out.writeFloat(EndMz);
+        out.writeFloat(BasePeakMz);
+        out.writeFloat(BasePeakIntensity);
+        out.writeFloat(_totIonCurrent);
+        out.writeFloat(PrecursorMz);
+        out.writeInt(PrecursorCharge);
+        WriteString(out, ActivationMethod);
+        out.writeFloat(PrecursorIntensity);
+        WriteString(out, Scantype);
+        out.writeInt(precision);
+        WriteString(out, compressionType);
+        out.writeBoolean(centroided);
+        out.writeInt(precursorScanNum);
+        out.writeInt(PeaksCountString);
+        out.writeFloat(background);
+        WriteString(out, MGFTitle);
+        out.writeFloat(windowWideness);
+        WriteString(out, scanType);
+        out.writeFloat(MaxY);
+        int count = PointCount();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            XYData pt = Data.get(i);
+            out.writeFloat(pt.getX());
+            out.writeFloat(pt.getY());
+        }
+    }
+
+    public static ScanData ReadBinary(DataInput in) throws IOException {
+        ScanData scan = new ScanData();
+        scan.Num = in.readInt();
+        scan.MsLevel = in.readInt();
+        scan.RetentionTime = in.readFloat();
+        scan.StartMz = in.readFloat();
+        scan.EndMz = in.readFloat();
+        scan.BasePeakMz = in.readFloat();
+        scan.BasePeakIntensity = in.readFloat();
+        scan._totIonCurrent = in.readFloat();
+        scan.PrecursorMz = in.readFloat();
+        scan.PrecursorCharge = in.readInt();
+        scan.ActivationMethod = ReadString(in);
+        scan.PrecursorIntensity = in.readFloat();
+        scan.Scantype = ReadString(in);
+        scan.precision = in.readInt();
+        scan.compressionType = ReadString(in);
+        scan.centroided = in.readBoolean();
+        scan.precursorScanNum = in.readInt();
+        scan.PeaksCountString = in.readInt();
+        scan.background = in.readFloat();
+        scan.MGFTitle = ReadString(in);
+        scan.windowWideness = in.readFloat();
+        scan.scanType = ReadString(in);
+        float maxy = in.readFloat();
+        int count = in.readInt();
+        float[] x = new float[count];
+        float[] y = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = in.readFloat();
+            y[i] = in.readFloat();
+        }
+        scan.AddPoints(x, y, count);
+        scan.MaxY = maxy;
+        return scan;
+    }
+
+    private static void WriteString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String ReadString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
 }
@@ -0,0 +1,161 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.BaseDataStructure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only store of scan peaks outside the Java heap, either in direct
+ * byte buffers ("OffHeap") or in a memory-mapped scratch file next to the raw
+ * file ("Mapped"), used by {@link ScanCollection#SetPeakStore}.
+ * <p>
+ * The store is made of fixed size chunks; the m/z values of a scan are
+ * followed by its intensities in one chunk, and a scan larger than a chunk
+ * gets a chunk of its own. Stored peaks can be read by several threads at
+ * the same time.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class ScanPeakStore {
+
+    private static final int ChunkSize = 64 << 20;
+
+    private final boolean Mapped;
+    private final String RawFile;
+    private File ScratchFile;
+    private RandomAccessFile fileHandler;
+    private long FileLength = 0;
+    private final ArrayList<ByteBuffer> Chunks = new ArrayList<>();
+    private int Position = 0;
+    private long StoredBytes = 0;
+
+    private ScanPeakStore(boolean Mapped, String RawFile) {
+        this.Mapped = Mapped;
+        this.RawFile = RawFile;
+    }
+
+    /**
+     * Creates the store for the given InstrumentParameter.ScanPeakStorage
+     * mode; the scratch file of "Mapped" is created next to RawFile when the
+     * first scan is stored.
+     *
+     * @return null for "Heap"
+     */
+    public static ScanPeakStore Create(String mode, String RawFile) {
+        if ("OffHeap".equalsIgnoreCase(mode)) {
+            return new ScanPeakStore(false, RawFile);
+        }
+        if ("Mapped".equalsIgnoreCase(mode)) {
+            return new ScanPeakStore(true, RawFile);
+        }
+        return null;
+    }
+
+    /**
+     * Stores the first count points of x/y.
+     *
+     * @return the address to read them back with {@link #Get}
+     */
+    public synchronized long Put(float[] x, float[] y, int count) throws IOException {
+        int length = count * 8;
+        if (Chunks.isEmpty() || Position + length > Chunks.get(Chunks.size() - 1).capacity()) {
+            NewChunk(Math.max(ChunkSize, length));
+        }
+        ByteBuffer chunk = Chunks.get(Chunks.size() - 1);
+        long address = ((long) (Chunks.size() - 1) << 32) | Position;
+        FloatBuffer buffer = View(chunk, Position);
+        buffer.put(x, 0, count);
+        buffer.put(y, 0, count);
+        Position += length;
+        StoredBytes += length;
+        return address;
+    }
+
+    /**
+     * Reads count points stored at address into x/y.
+     */
+    public void Get(long address, int count, float[] x, float[] y) {
+        ByteBuffer chunk;
+        synchronized (this) {
+            chunk = Chunks.get((int) (address >>> 32));
+        }
+        FloatBuffer buffer = View(chunk, (int) address);
+        buffer.get(x, 0, count);
+        buffer.get(y, 0, count);
+    }
+
+    public synchronized long StoredBytes() {
+        return StoredBytes;
+    }
+
+    /**
+     * Releases the chunks and deletes the scratch file, stored peaks can't be
+     * read afterwards.
+     */
+    public synchronized void Close() {
+        Chunks.clear();
+        Position = 0;
+        if (fileHandler != null) {
+            try {
+                fileHandler.close();
+            } catch (IOException ex) {
+                Logger.getRootLogger().warn("Closing " + ScratchFile + " failed: " + ex.getMessage());
+            }
+            fileHandler = null;
+            ScratchFile.delete();
+        }
+    }
+
+    private void NewChunk(int size) throws IOException {
+        ByteBuffer chunk;
+        if (Mapped) {
+            if (fileHandler == null) {
+                File dir = new File(FilenameUtils.getFullPath(new File(RawFile).getAbsolutePath()));
+                ScratchFile = File.createTempFile(FilenameUtils.getBaseName(RawFile) + "_", ".ScanPeaks", dir);
+                ScratchFile.deleteOnExit();
+                fileHandler = new RandomAccessFile(ScratchFile, "rw");
+                FileLength = 0;
+            }
+            chunk = fileHandler.getChannel().map(FileChannel.MapMode.READ_WRITE, FileLength, size);
+            FileLength += size;
+        } else {
+            chunk = ByteBuffer.allocateDirect(size);
+        }
+        Chunks.add(chunk);
+        Position = 0;
+    }
+
+    //Float view starting at offset, duplicate() keeps the shared position untouched
+    private static FloatBuffer View(ByteBuffer chunk, int offset) {
+        ByteBuffer buffer = chunk.duplicate();
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.position(offset);
+        return buffer.asFloatBuffer();
+    }
+}
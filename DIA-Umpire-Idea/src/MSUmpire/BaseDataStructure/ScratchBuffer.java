@@ -0,0 +1,170 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.BaseDataStructure;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-thread scratch arrays for the temporary arrays used while processing
+ * one scan or one peak curve. An array is only reallocated when a larger one
+ * is requested, so once the arrays of a worker thread have grown to the
+ * largest scan or curve, processing allocates nothing.
+ * <p>
+ * Each caller uses its own slot (the constants below); the array of a slot
+ * is only valid until the same slot is requested again on the same thread,
+ * and must not be kept or handed to another thread.
+ * <p>
+ * The counters tell how many arrays were requested, and how many of them
+ * (and how many bytes) had to be allocated, summed over all threads. They
+ * are LongAdders, so that counting doesn't make the worker threads contend
+ * on a shared cache line, and their size doesn't grow with the number of
+ * threads that ever had a buffer.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class ScratchBuffer {
+
+    public static final int BACKGROUND_INTENSITY = 0;
+    public static final int WAVELET_X = 1;
+    public static final int WAVELET_Y = 2;
+    public static final int WAVELET_CWT = 3;
+    public static final int CORR_BIN_A = 4;
+    public static final int CORR_BIN_B = 5;
+    public static final int BSPLINE_KNOTS = 6;
+    public static final int BATCH_RT = 7;
+    public static final int BATCH_INTENSITY = 8;
+    public static final int SMOOTH_X = 9;
+    public static final int SMOOTH_Y = 10;
+    private static final int SLOTS = 11;
+    //slots of Doubles()
+    public static final int FFT_DATA_RE = 0;
+    public static final int FFT_DATA_IM = 1;
+    public static final int FFT_WORK_RE = 2;
+    public static final int FFT_WORK_IM = 3;
+    private static final int DOUBLE_SLOTS = 4;
+
+    private static final LongAdder REQUESTS = new LongAdder();
+    private static final LongAdder ALLOCATIONS = new LongAdder();
+    private static final LongAdder ALLOCATED_BYTES = new LongAdder();
+
+    private static final ThreadLocal<ScratchBuffer> BUFFERS = new ThreadLocal<ScratchBuffer>() {
+        @Override
+        protected ScratchBuffer initialValue() {
+            return new ScratchBuffer();
+        }
+    };
+
+    public static ScratchBuffer Get() {
+        return BUFFERS.get();
+    }
+
+    private final float[][] FloatArrays = new float[SLOTS][];
+    private final double[][] DoubleArrays = new double[DOUBLE_SLOTS][];
+
+    private ScratchBuffer() {
+        for (int i = 0; i < SLOTS; i++) {
+            FloatArrays[i] = new float[0];
+        }
+        for (int i = 0; i < DOUBLE_SLOTS; i++) {
+            DoubleArrays[i] = new double[0];
+        }
+    }
+
+    /**
+     * @return the array of slot, with at least size elements; the content is
+     * whatever the last user of the slot left
+     */
+    public float[] Floats(int slot, int size) {
+        REQUESTS.increment();
+        float[] array = FloatArrays[slot];
+        if (array.length < size) {
+            array = new float[Math.max(size, array.length + (array.length >> 1))];
+            CountAllocation(array.length * 4L);
+            FloatArrays[slot] = array;
+        }
+        return array;
+    }
+
+    /**
+     * @return the array of slot, with the first size elements set to 0
+     */
+    public float[] ZeroedFloats(int slot, int size) {
+        float[] array = Floats(slot, size);
+        Arrays.fill(array, 0, size, 0f);
+        return array;
+    }
+
+    /**
+     * Same as Floats(), for the double slots
+     */
+    public double[] Doubles(int slot, int size) {
+        REQUESTS.increment();
+        double[] array = DoubleArrays[slot];
+        if (array.length < size) {
+            array = new double[Math.max(size, array.length + (array.length >> 1))];
+            CountAllocation(array.length * 8L);
+            DoubleArrays[slot] = array;
+        }
+        return array;
+    }
+
+    public double[] ZeroedDoubles(int slot, int size) {
+        double[] array = Doubles(slot, size);
+        Arrays.fill(array, 0, size, 0.0);
+        return array;
+    }
+
+    /**
+     * Records an allocation made by another reusable buffer of the current
+     * thread (e.g. the growth of BinaryPeakDecoder's arrays), so it shows in
+     * the same counters.
+     */
+    public static void CountAllocation(long bytes) {
+        ALLOCATIONS.increment();
+        ALLOCATED_BYTES.add(bytes);
+    }
+
+    public static long RequestCount() {
+        return REQUESTS.sum();
+    }
+
+    public static long AllocationCount() {
+        return ALLOCATIONS.sum();
+    }
+
+    public static long AllocatedBytes() {
+        return ALLOCATED_BYTES.sum();
+    }
+
+    /**
+     * Drops the counts of all threads. Only exact if no other thread is using
+     * its buffers at the time.
+     */
+    public static void ResetCounters() {
+        REQUESTS.reset();
+        ALLOCATIONS.reset();
+        ALLOCATED_BYTES.reset();
+    }
+
+    public static String CounterSummary() {
+        return "Scratch buffers: " + RequestCount() + " requests, " + AllocationCount() + " allocations (" + AllocatedBytes() / 1024 + " KB)";
+    }
+}
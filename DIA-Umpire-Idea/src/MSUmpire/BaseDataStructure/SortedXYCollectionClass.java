@@ -51,7 +51,7 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
     @Override
     public boolean isEmpty() {
         if (!Finalized) {
-            return getRoot() == null;
+            return UnfinalizedSize() == 0;
         }
         return size == 0;
     }
@@ -108,8 +108,33 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
         }
     }
     
+    /**
+     * Stores the points directly as the finalized array, without building the
+     * tree. Only done when the collection is empty and x is in ascending
+     * order, otherwise nothing is changed and false is returned.
+     */
+    public boolean LoadSortedArray(float[] x, float[] y, int count) {
+        if (Finalized || UnfinalizedSize() > 0) {
+            return false;
+        }
+        for (int i = 1; i < count; i++) {
+            if (x[i] < x[i - 1]) {
+                return false;
+            }
+        }
+        SortedArray = new float[2][];
+        SortedArray[0] = Arrays.copyOf(x, count);
+        SortedArray[1] = Arrays.copyOf(y, count);
+        size = count;
+        Finalized = true;
+        return true;
+    }
+
     @Override
     public void Finalize() {
+        if (Finalized && SortedArray != null) {
+            return;
+        }
         FinalizedSortedArray = toArray();
         ClearTree();
         Finalized = true;
@@ -131,10 +156,24 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
         return (XYData) findNodeAtIndex(index).getValue();
     }
 
+    public float GetX(int index) {
+        if (Finalized) {
+            return SortedArray[0][index];
+        }
+        return get(index).getX();
+    }
+
+    public float GetY(int index) {
+        if (Finalized) {
+            return SortedArray[1][index];
+        }
+        return get(index).getY();
+    }
+
     @Override
     public int size() {
         if (!Finalized) {
-            return (getRoot() == null) ? 0 : 1 + getRoot().GetNumOfChildren();
+            return UnfinalizedSize();
         }
         return size;
     }
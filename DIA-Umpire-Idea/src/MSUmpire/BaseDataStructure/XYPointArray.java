@@ -0,0 +1,391 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.BaseDataStructure;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import org.apache.avalon.framework.activity.Disposable;
+
+/**
+ * Collection of two dimensional points stored as two parallel float arrays
+ * (8 bytes per point) instead of one XYData object per point in a tree.
+ * Points are appended unsorted and sorted by x once, by {@link #Finalize()}
+ * or by the first query; points with equal x keep the order they were added
+ * in, as in {@link SortedXYCollectionClass}. Call Finalize() before sharing
+ * a collection between threads.
+ * <p>
+ * The methods have the same names and results as the ones of
+ * {@link XYPointCollection}, both implement {@link XYPointSet} and they can
+ * be converted into each other. PeakCurve keeps its smoothed signal in one.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class XYPointArray implements XYPointSet, Disposable, Serializable {
+
+    private static final long serialVersionUID = 7341924416357182L;
+
+    public float MaxY;
+    private float[] X;
+    private float[] Y;
+    private int size = 0;
+    private boolean Sorted = true;
+
+    public XYPointArray() {
+        this(16);
+    }
+
+    public XYPointArray(int capacity) {
+        X = new float[Math.max(1, capacity)];
+        Y = new float[Math.max(1, capacity)];
+    }
+
+    public static XYPointArray FromXYPointCollection(XYPointCollection collection) {
+        XYPointArray array = new XYPointArray(collection.PointCount());
+        for (int i = 0; i < collection.PointCount(); i++) {
+            XYData point = collection.Data.get(i);
+            array.AddPoint(point.getX(), point.getY());
+        }
+        array.MaxY = collection.MaxY;
+        return array;
+    }
+
+    public XYPointCollection ToXYPointCollection() {
+        Finalize();
+        XYPointCollection collection = new XYPointCollection();
+        collection.AddPoints(X, Y, size);
+        collection.MaxY = MaxY;
+        return collection;
+    }
+
+    public void AddPoint(float x, float y) {
+        if (size == X.length) {
+            int capacity = size + (size >> 1) + 1;
+            X = Arrays.copyOf(X, capacity);
+            Y = Arrays.copyOf(Y, capacity);
+        }
+        if (Sorted && size > 0 && Float.compare(x, X[size - 1]) < 0) {
+            Sorted = false;
+        }
+        X[size] = x;
+        Y[size++] = y;
+        if (MaxY < y) {
+            MaxY = y;
+        }
+    }
+
+    public void AddPoint(XYData point) {
+        AddPoint(point.getX(), point.getY());
+    }
+
+    public void AddPoints(float[] x, float[] y, int count) {
+        for (int i = 0; i < count; i++) {
+            AddPoint(x[i], y[i]);
+        }
+    }
+
+    /**
+     * Sorts the points by x (stable) and trims the arrays to the number of
+     * points.
+     */
+    public void Finalize() {
+        if (!Sorted) {
+            Sort();
+            Sorted = true;
+        }
+        if (X.length != size && size > 0) {
+            X = Arrays.copyOf(X, size);
+            Y = Arrays.copyOf(Y, size);
+        }
+    }
+
+    public int PointCount() {
+        return size;
+    }
+
+    public float GetX(int index) {
+        EnsureSorted();
+        return X[index];
+    }
+
+    public float GetY(int index) {
+        EnsureSorted();
+        return Y[index];
+    }
+
+    public XYData Get(int index) {
+        EnsureSorted();
+        return new XYData(X[index], Y[index]);
+    }
+
+    public float GetSumX() {
+        float sum = 0f;
+        for (int i = 0; i < size; i++) {
+            sum += X[i];
+        }
+        return sum;
+    }
+
+    public float GetSumY() {
+        float sum = 0f;
+        for (int i = 0; i < size; i++) {
+            sum += Y[i];
+        }
+        return sum;
+    }
+
+    public XYData GetHighestPeakInMzWindow(float targetmz, float PPM) {
+        float lowmz = InstrumentParameter.GetMzByPPM(targetmz, 1, PPM);
+        int startidx = GetLowerIndexOfX(lowmz);
+        int closetidx = -1;
+        for (int idx = startidx; idx < size; idx++) {
+            if (InstrumentParameter.CalcPPM(targetmz, X[idx]) <= PPM) {
+                if (closetidx == -1 || Y[idx] > Y[closetidx]) {
+                    closetidx = idx;
+                }
+            } else if (X[idx] > targetmz) {
+                break;
+            }
+        }
+        return closetidx == -1 ? null : new XYData(X[closetidx], Y[closetidx]);
+    }
+
+    public void CentroidingbyLocalMaximum(int Resolution, float MinMZ) {
+        if (size == 0) {
+            return;
+        }
+        EnsureSorted();
+        int oldcount = size;
+        float[] OldX = X;
+        float[] OldY = Y;
+        int startindex = GetHigherIndexOfX(MinMZ);
+        float maxintensity = OldY[startindex];
+        float maxmz = OldX[startindex];
+        float gap = maxmz / Resolution;
+        X = new float[16];
+        Y = new float[16];
+        size = 0;
+        for (int i = startindex + 1; i < oldcount; i++) {
+            if (OldX[i] - maxmz < gap) {
+                if (OldY[i] > maxintensity) {
+                    maxintensity = OldY[i];
+                    maxmz = OldX[i];
+                    gap = OldX[i] / Resolution;
+                }
+            } else {
+                AddPoint(maxmz, maxintensity);
+                maxintensity = OldY[i];
+                maxmz = OldX[i];
+                gap = OldX[i] / Resolution;
+            }
+        }
+        Finalize();
+    }
+
+    public int GetLowerIndexOfX(float x) {
+        EnsureSorted();
+        if (size == 0) {
+            return 0;
+        }
+        int lower = 0;
+        int upper = size - 1;
+        if (x - X[upper] >= 0) {
+            return upper;
+        }
+        if (x - X[0] <= 0) {
+            return 0;
+        }
+        while (lower <= upper) {
+            int middle = (lower + upper) / 2;
+            float comparisonResult = x - X[middle];
+            if (comparisonResult == 0) {
+                while (middle - 1 >= 0 && X[middle - 1] == x) {
+                    middle--;
+                }
+                return middle;
+            } else if (comparisonResult < 0) {
+                upper = middle - 1;
+            } else {
+                lower = middle + 1;
+            }
+        }
+        if (upper < 0) {
+            return 0;
+        }
+        while (upper > 0 && X[upper] >= x) {
+            upper--;
+        }
+        return upper;
+    }
+
+    public int GetHigherIndexOfX(float x) {
+        EnsureSorted();
+        if (size == 0) {
+            return 0;
+        }
+        int lower = 0;
+        int upper = size - 1;
+        if (x - X[upper] >= 0) {
+            return upper;
+        }
+        if (x - X[0] <= 0) {
+            return 0;
+        }
+        while (lower <= upper) {
+            int middle = (lower + upper) / 2;
+            float comparisonResult = x - X[middle];
+            if (comparisonResult == 0) {
+                while (middle - 1 >= 0 && X[middle - 1] == x) {
+                    middle--;
+                }
+                return middle;
+            } else if (comparisonResult < 0) {
+                upper = middle - 1;
+            } else {
+                lower = middle + 1;
+            }
+        }
+        if (lower > size - 1) {
+            return size - 1;
+        }
+        while (lower < size - 1 && X[lower] <= x) {
+            lower++;
+        }
+        return lower;
+    }
+
+    public int GetClosetIndexOfX(float x) {
+        EnsureSorted();
+        if (size == 0) {
+            return 0;
+        }
+        int lower = 0;
+        int upper = size - 1;
+        if (x - X[upper] >= 0) {
+            return upper;
+        }
+        if (x - X[0] <= 0) {
+            return 0;
+        }
+        while (lower <= upper) {
+            int middle = (lower + upper) / 2;
+            float comparisonResult = x - X[middle];
+            if (comparisonResult == 0) {
+                return middle;
+            } else if (comparisonResult < 0) {
+                upper = middle - 1;
+            } else {
+                lower = middle + 1;
+            }
+        }
+        if (Math.abs(x - X[lower]) > Math.abs(x - X[upper])) {
+            return upper;
+        } else {
+            return lower;
+        }
+    }
+
+    public XYData GetPoinByXLower(float x) {
+        return Get(GetLowerIndexOfX(x));
+    }
+
+    public XYData GetPoinByXCloset(float x) {
+        return Get(GetClosetIndexOfX(x));
+    }
+
+    public XYData GetPoinByXHigher(float x) {
+        return Get(GetHigherIndexOfX(x));
+    }
+
+    public XYPointArray GetSubSetByXRange(float xlower, float xupper) {
+        if (size == 0) {
+            return null;
+        }
+        int start = GetLowerIndexOfX(xlower);
+        if (start < 0) {
+            start = 0;
+        }
+        int end = start;
+        while (end < size && X[end] <= xupper) {
+            end++;
+        }
+        XYPointArray NewXYCollection = new XYPointArray(end - start);
+        for (int i = start; i < end; i++) {
+            if (X[i] >= xlower) {
+                NewXYCollection.AddPoint(X[i], Y[i]);
+            }
+        }
+        return NewXYCollection;
+    }
+
+    private void EnsureSorted() {
+        if (!Sorted) {
+            Finalize();
+        }
+    }
+
+    //Stable bottom-up merge sort of the points by x
+    private void Sort() {
+        float[] SrcX = X;
+        float[] SrcY = Y;
+        float[] DstX = new float[size];
+        float[] DstY = new float[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int left = 0; left < size; left += 2 * width) {
+                int mid = Math.min(left + width, size);
+                int right = Math.min(left + 2 * width, size);
+                int i = left;
+                int j = mid;
+                int k = left;
+                while (i < mid && j < right) {
+                    if (Float.compare(SrcX[j], SrcX[i]) < 0) {
+                        DstX[k] = SrcX[j];
+                        DstY[k++] = SrcY[j++];
+                    } else {
+                        DstX[k] = SrcX[i];
+                        DstY[k++] = SrcY[i++];
+                    }
+                }
+                while (i < mid) {
+                    DstX[k] = SrcX[i];
+                    DstY[k++] = SrcY[i++];
+                }
+                while (j < right) {
+                    DstX[k] = SrcX[j];
+                    DstY[k++] = SrcY[j++];
+                }
+            }
+            float[] tmp = SrcX;
+            SrcX = DstX;
+            DstX = tmp;
+            tmp = SrcY;
+            SrcY = DstY;
+            DstY = tmp;
+        }
+        X = SrcX;
+        Y = SrcY;
+    }
+
+    @Override
+    public void dispose() {
+        X = new float[1];
+        Y = new float[1];
+        size = 0;
+    }
+}
@@ -29,7 +29,7 @@ import org.apache.avalon.framework.activity.Disposable;
  *
  * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
  */
-public class XYPointCollection implements Disposable,Serializable {
+public class XYPointCollection implements XYPointSet, Disposable,Serializable {
     private static final long serialVersionUID = 654648165471L;
 
     public float MaxY;
@@ -80,6 +80,20 @@ public class XYPointCollection implements Disposable,Serializable {
         }
     }
     
+    //Adds the first count points of x/y, in one step if the collection is empty and x is already sorted
+    public void AddPoints(float[] x, float[] y, int count) {
+        if (!Data.LoadSortedArray(x, y, count)) {
+            for (int i = 0; i < count; i++) {
+                this.Data.add(new XYData(x[i], y[i]));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (MaxY < y[i]) {
+                MaxY = y[i];
+            }
+        }
+    }
+
     public void AddPointKeepMaxIfCloseValueExisted(float x, float y, float ppm) {
         boolean insert = true;
         if (this.Data.size() > 0) {
@@ -132,6 +146,14 @@ public class XYPointCollection implements Disposable,Serializable {
         return Data.size();
     }
 
+    public float GetX(int index) {
+        return Data.GetX(index);
+    }
+
+    public float GetY(int index) {
+        return Data.GetY(index);
+    }
+
     public void CentroidingbyLocalMaximum(int Resolution, float MinMZ) {
         if (Data.size() == 0) {
             return;
@@ -144,6 +166,7 @@ public class XYPointCollection implements Disposable,Serializable {
         float maxmz = pt.getX();
         float gap = pt.getX() / Resolution;
         Data = new SortedXYCollectionClass();
+        Data.BeginBulkLoad();
         for (int i = startindex+1; i < oldcount; i++) {
             XYData pti = DataTemp.get(i);
             if (pti.getX() - maxmz < gap) {
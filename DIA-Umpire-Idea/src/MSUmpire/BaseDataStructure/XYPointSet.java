@@ -0,0 +1,54 @@
+/*
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics,
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.BaseDataStructure;
+
+/**
+ * Read access to a collection of two dimensional points sorted by x, shared
+ * by {@link XYPointCollection} (one XYData per point) and
+ * {@link XYPointArray} (parallel float arrays).
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public interface XYPointSet {
+
+    int PointCount();
+
+    float GetX(int index);
+
+    float GetY(int index);
+
+    float GetSumX();
+
+    float GetSumY();
+
+    XYData GetHighestPeakInMzWindow(float targetmz, float PPM);
+
+    int GetLowerIndexOfX(float x);
+
+    int GetHigherIndexOfX(float x);
+
+    int GetClosetIndexOfX(float x);
+
+    XYData GetPoinByXLower(float x);
+
+    XYData GetPoinByXCloset(float x);
+
+    XYData GetPoinByXHigher(float x);
+}
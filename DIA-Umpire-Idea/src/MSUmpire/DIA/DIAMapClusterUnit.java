@@ -108,7 +108,7 @@ public class DIAMapClusterUnit implements Runnable{
                      }
                  } else {
                      ClusterIndex = Integer.parseInt(WindowClusterIndex);
-                     if (DIAWindow.UnFragIonClu2Cur.containsKey(ClusterIndex)) {
+                     if (DIAWindow.UnFragIonClu2Cur.ContainsKey(ClusterIndex)) {
                          PeakCluster Cluster = DIAWindow.PeakClusters.get(ClusterIndex - 1);
                          if (Cluster.Charge == psm.Charge && Math.abs(Cluster.TargetMz() - psm.ObserPrecursorMz()) < 0.01f && Math.abs(Cluster.PeakHeightRT[0] - psm.RetentionTime) < 0.1f) {
                              Cluster.Identified = true;
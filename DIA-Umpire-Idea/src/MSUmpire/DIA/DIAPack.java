@@ -49,6 +49,7 @@ import MSUmpire.UmpireSearchDataStructure.PepIonCandidate;
 import MSUmpire.UmpireSearchDataStructure.PepIonLib;
 import MSUmpire.UmpireSearchDataStructure.SortedPepCandidate;
 import MSUmpire.spectrumparser.DIA_Setting;
+import MSUmpire.spectrumparser.mzMLParser;
 import MSUmpire.spectrumparser.mzXMLParser;
 import java.io.BufferedReader;
 import java.io.File;
@@ -65,6 +66,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
@@ -168,11 +170,27 @@ public class DIAPack {
         dIA_Setting.F_DIA_WindowSize = size;
     }
 
+    /**
+     * Uses a parser whose indices were built already (by IndexWarmUp)
+     * instead of opening the file again in GetMzXML(), call after
+     * LoadParams() and LoadDIASetting().
+     */
+    public void SetMzXML(mzXMLParser parser) {
+        parser.NoCPUs = NoCPUs;
+        parser.parameter = parameter;
+        mzXML = parser;
+        dIA_Setting = mzXML.dIA_Setting;
+    }
+
     public mzXMLParser GetMzXML() {
 
         if (mzXML == null) {
             try {
-                mzXML = new mzXMLParser(Filename, parameter, dIA_Setting.dataType, dIA_Setting, NoCPUs);
+                if ("mzML".equalsIgnoreCase(FilenameUtils.getExtension(Filename))) {
+                    mzXML = new mzMLParser(Filename, parameter, dIA_Setting.dataType, dIA_Setting, NoCPUs);
+                } else {
+                    mzXML = new mzXMLParser(Filename, parameter, dIA_Setting.dataType, dIA_Setting, NoCPUs);
+                }
             } catch (Exception ex) {
                 Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
                 Logger.getRootLogger().error("Read mzXML file:" + Filename + " failed.");
@@ -1368,8 +1386,8 @@ public class DIAPack {
                 int ClusterIndex = ScanClusterMap.get(psm.ScanNo);
                 for (LCMSPeakDIAMS2 DIAWindow : DIAWindows) {
                     if (DIAWindow.DIA_MZ_Range.getX() <= psm.ObserPrecursorMz() && DIAWindow.DIA_MZ_Range.getY() >= psm.ObserPrecursorMz()) {
-                        if (DIAWindow.FragmentsClu2Cur.containsKey(ClusterIndex)) {
-                            ArrayList<PrecursorFragmentPairEdge> fragments = DIAWindow.FragmentsClu2Cur.get(ClusterIndex);
+                        if (DIAWindow.FragmentsClu2Cur.ContainsKey(ClusterIndex)) {
+                            List<PrecursorFragmentPairEdge> fragments = DIAWindow.FragmentsClu2Cur.Get(ClusterIndex);
                             ArrayList<PrecursorFragmentPairEdge> newlist = new ArrayList<>();
                             ArrayList<Float> CorrArrayList = new ArrayList<>();
                             for (PrecursorFragmentPairEdge fragmentClusterUnit : fragments) {
@@ -1397,11 +1415,7 @@ public class DIAPack {
                                     InlcudeIndex.add(fragmentClusterUnit.PeakCurveIndexB);
                                     for (FragmentPeak frag : peptide.FragmentPeaks) {
                                         if (InstrumentParameter.CalcPPM(fragmentClusterUnit.FragmentMz, frag.FragMZ) < parameter.MS2PPM) {
-                                            if (!DIAWindow.MatchedFragmentMap.containsKey(fragmentClusterUnit.PeakCurveIndexB)) {
-                                                ArrayList<PrecursorFragmentPairEdge> ClusterList = new ArrayList<>();
-                                                DIAWindow.MatchedFragmentMap.put(fragmentClusterUnit.PeakCurveIndexB, ClusterList);
-                                            }
-                                            DIAWindow.MatchedFragmentMap.get(fragmentClusterUnit.PeakCurveIndexB).add(fragmentClusterUnit);
+                                            DIAWindow.MatchedFragmentMap.Add(fragmentClusterUnit.PeakCurveIndexB, fragmentClusterUnit);
 ////                                        if (InstrumentParameter.CalcPPM(fragmentClusterUnit.FragmentMz, frag.FragMZ) < parameter.MS2PPM) {
 ////                                            if (DIAWindow.WindowID.equals("1074_1100") && fragmentClusterUnit.PeakCurveIndexB == 45063) {
 ////                                                System.out.println(frag.IonType);
@@ -1433,15 +1447,11 @@ public class DIAPack {
                 int ClusterIndex = Integer.parseInt(ScanClusterMap.get(psm.ScanNo));
                 for (LCMSPeakDIAMS2 DIAWindow : DIAWindows) {
                     if (DIAWindow.DIA_MZ_Range.getX() <= psm.ObserPrecursorMz() && DIAWindow.DIA_MZ_Range.getY() >= psm.ObserPrecursorMz()) {
-                        if (DIAWindow.UnFragIonClu2Cur.containsKey(ClusterIndex)) {
-                            for (PrecursorFragmentPairEdge fragmentClusterUnit : DIAWindow.UnFragIonClu2Cur.get(ClusterIndex)) {
+                        if (DIAWindow.UnFragIonClu2Cur.ContainsKey(ClusterIndex)) {
+                            for (PrecursorFragmentPairEdge fragmentClusterUnit : DIAWindow.UnFragIonClu2Cur.Get(ClusterIndex)) {
                                 for (FragmentPeak frag : peptide.FragmentPeaks) {
                                     if (InstrumentParameter.CalcPPM(fragmentClusterUnit.FragmentMz, frag.FragMZ) < parameter.MS2PPM) {
-                                        if (!DIAWindow.MatchedFragmentMap.containsKey(fragmentClusterUnit.PeakCurveIndexB)) {
-                                            ArrayList<PrecursorFragmentPairEdge> ClusterList = new ArrayList<>();
-                                            DIAWindow.MatchedFragmentMap.put(fragmentClusterUnit.PeakCurveIndexB, ClusterList);
-                                        }
-                                        DIAWindow.MatchedFragmentMap.get(fragmentClusterUnit.PeakCurveIndexB).add(fragmentClusterUnit);
+                                        DIAWindow.MatchedFragmentMap.Add(fragmentClusterUnit.PeakCurveIndexB, fragmentClusterUnit);
                                         break;
                                     }
                                 }
@@ -1465,12 +1475,11 @@ public class DIAPack {
         FileWriter writer = new FileWriter(FilenameUtils.getFullPath(Filename) + "/" + FilenameUtils.getBaseName(Filename) + "_SharedFragment.xls");
         writer.write("ID\tWindow\tFragIndex\tPrecursorIndex\tmz\tCorr\tApexDelta\tintensity\tPrecursorMz\tPrecursorCharge\n");
         for (LCMSPeakDIAMS2 DIAWindow : DIAWindows) {
-            for (ArrayList<PrecursorFragmentPairEdge> fragmments : DIAWindow.MatchedFragmentMap.values()) {
-                for (PrecursorFragmentPairEdge frag : fragmments) {
-                    //PeakCluster cluster=ms1lcms.PeakClusters.get(frag.PeakCurveIndexA-1);
-                    writer.write(DIAWindow.WindowID + "_" + frag.PeakCurveIndexB + "\t" + DIAWindow.WindowID + "\t" + frag.PeakCurveIndexB + "\t" + frag.PeakCurveIndexA + "\t" + frag.FragmentMz + "\t" + frag.Correlation + "\t" + frag.ApexDelta + "\t" + frag.Intensity + "\n");
-                    //writer.write(DIAWindow.WindowID+"_"+ frag.PeakCurveIndexB+"\t"+DIAWindow.WindowID+"\t"+frag.PeakCurveIndexB+"\t"+frag.PeakCurveIndexA+"\t"+frag.FragmentMz+"\t"+frag.Correlation+"\t"+frag.ApexDelta+"\t"+frag.Intensity+"\t"+cluster.TargetMz()+"\t"+cluster.Charge+"\n");
-                }
+            for (int pos = 0; pos < DIAWindow.MatchedFragmentMap.EdgeCount(); pos++) {
+                PrecursorFragmentPairEdge frag = DIAWindow.MatchedFragmentMap.GetEdge(pos);
+                //PeakCluster cluster=ms1lcms.PeakClusters.get(frag.PeakCurveIndexA-1);
+                writer.write(DIAWindow.WindowID + "_" + frag.PeakCurveIndexB + "\t" + DIAWindow.WindowID + "\t" + frag.PeakCurveIndexB + "\t" + frag.PeakCurveIndexA + "\t" + frag.FragmentMz + "\t" + frag.Correlation + "\t" + frag.ApexDelta + "\t" + frag.Intensity + "\n");
+                //writer.write(DIAWindow.WindowID+"_"+ frag.PeakCurveIndexB+"\t"+DIAWindow.WindowID+"\t"+frag.PeakCurveIndexB+"\t"+frag.PeakCurveIndexA+"\t"+frag.FragmentMz+"\t"+frag.Correlation+"\t"+frag.ApexDelta+"\t"+frag.Intensity+"\t"+cluster.TargetMz()+"\t"+cluster.Charge+"\n");
             }
         }
         writer.close();
@@ -1494,8 +1503,8 @@ public class DIAPack {
         ExecutorService executorPool = Executors.newFixedThreadPool(NoCPUs);
         for (LCMSPeakDIAMS2 DIAwindow : DIAWindows) {
             for (PeakCluster ms1cluster : ms1lcms.PeakClusters) {
-                if (DIAwindow.DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIAwindow.DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && DIAwindow.FragmentsClu2Cur.containsKey(ms1cluster.Index)) {
-                    PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, DIAwindow.FragmentsClu2Cur.get(ms1cluster.Index), parameter);
+                if (DIAwindow.DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIAwindow.DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && DIAwindow.FragmentsClu2Cur.ContainsKey(ms1cluster.Index)) {
+                    PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, DIAwindow.FragmentsClu2Cur.Get(ms1cluster.Index), parameter);
                     executorPool.execute(mSMSProcessing);
                     if (!ScanList.containsKey(ms1cluster.Index)) {
                         ScanList.put(ms1cluster.Index, new ArrayList<PseudoMSMSProcessing>());
@@ -1504,8 +1513,8 @@ public class DIAPack {
                 }
             }
             for (PeakCluster ms1cluster : DIAwindow.PeakClusters) {
-                if (DIAwindow.DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIAwindow.DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && DIAwindow.UnFragIonClu2Cur.containsKey(ms1cluster.Index)) {
-                    PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, DIAwindow.UnFragIonClu2Cur.get(ms1cluster.Index), parameter);
+                if (DIAwindow.DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIAwindow.DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && DIAwindow.UnFragIonClu2Cur.ContainsKey(ms1cluster.Index)) {
+                    PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, DIAwindow.UnFragIonClu2Cur.Get(ms1cluster.Index), parameter);
                     executorPool.execute(mSMSProcessing);
                     UnfragScanList.put(DIAwindow.WindowID + ";" + ms1cluster.Index, mSMSProcessing);
                 }
@@ -2037,14 +2046,28 @@ public class DIAPack {
     public void DIAMS2PeakDetection() throws SQLException, IOException, InterruptedException, ExecutionException, FileNotFoundException, Exception {
         int count = 1;
         //CreateSWATHTables();
-        for (LCMSPeakDIAMS2 DIAwindow : DIAWindows) {
-            Logger.getRootLogger().info("Processing DIA MS2 (mz range):" + DIAwindow.DIA_MZ_Range.getX() + "_" + DIAwindow.DIA_MZ_Range.getY() + "( " + (count++) + "/" + GetMzXML().dIA_Setting.DIAWindows.size() + " )");
-            DIAwindow.ExportFragmentPeak = ExportFragmentPeak;
-            DIAwindow.ExportPeakClusterTable = ExportPeakClusterTable;
-            DIAwindow.PeakDetectionPFGrouping(ms1lcms);
-            DIAwindow.ClearAllPeaks();
-            Logger.getRootLogger().info("==================================================================================");
+        if (parameter.DIAWindowsInFlight > 0) {
+            //read the MS2 scans of DIAWindowsInFlight windows per pass over the file while the windows are processed
+            ArrayList<XYData> windows = new ArrayList<>();
+            for (LCMSPeakDIAMS2 DIAwindow : DIAWindows) {
+                windows.add(DIAwindow.DIA_MZ_Range);
+            }
+            GetMzXML().StartDIAMS2Demultiplexer(windows, parameter.DIAWindowsInFlight);
         }
+        try {
+            for (LCMSPeakDIAMS2 DIAwindow : DIAWindows) {
+                Logger.getRootLogger().info("Processing DIA MS2 (mz range):" + DIAwindow.DIA_MZ_Range.getX() + "_" + DIAwindow.DIA_MZ_Range.getY() + "( " + (count++) + "/" + GetMzXML().dIA_Setting.DIAWindows.size() + " )");
+                DIAwindow.ExportFragmentPeak = ExportFragmentPeak;
+                DIAwindow.ExportPeakClusterTable = ExportPeakClusterTable;
+                DIAwindow.PeakDetectionPFGrouping(ms1lcms);
+                GetMzXML().ReleaseDIAMS2Window(DIAwindow.DIA_MZ_Range);
+                DIAwindow.ClearAllPeaks();
+                Logger.getRootLogger().info("==================================================================================");
+            }
+        } finally {
+            GetMzXML().StopDIAMS2Demultiplexer();
+        }
+        GetMzXML().CloseProcessedScanCache();
         RenameMGF("");
         //}
     }
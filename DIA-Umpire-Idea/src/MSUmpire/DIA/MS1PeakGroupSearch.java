@@ -28,6 +28,7 @@ import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import MSUmpire.MSMSDBSearch.DBSearchParam;
 
 /**
@@ -36,7 +37,7 @@ import MSUmpire.MSMSDBSearch.DBSearchParam;
  */
 public class MS1PeakGroupSearch implements SearchUnit {
 
-    public ArrayList<PrecursorFragmentPairEdge> GroupedFragments;
+    public List<PrecursorFragmentPairEdge> GroupedFragments;
     DBSearchParam parameter;
     public HashMap<Integer, Double> FactorialTable;
     public int BMatch = 0;
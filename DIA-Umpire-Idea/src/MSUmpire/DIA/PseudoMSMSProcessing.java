@@ -23,13 +23,14 @@ import MSUmpire.BaseDataStructure.InstrumentParameter;
 import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 import MSUmpire.PeakDataStructure.PeakCluster;
+import MSUmpire.PeakDataStructure.PrecursorFragmentEdgeTable;
 import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
 import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.List;
 
 /**
  *
@@ -42,9 +43,10 @@ public class PseudoMSMSProcessing implements Runnable{
     public PeakCluster ms1cluster;
     float growth=1f;
     
-    public PseudoMSMSProcessing(PeakCluster ms1cluster, ArrayList<PrecursorFragmentPairEdge> fragments, InstrumentParameter parameter) {        
+    public PseudoMSMSProcessing(PeakCluster ms1cluster, List<PrecursorFragmentPairEdge> fragments, InstrumentParameter parameter) {        
         this.parameter = parameter;
-        this.fragments=fragments;
+        //sorted and filtered here, fragments may be a read-only view of an edge table
+        this.fragments = new ArrayList<>(fragments);
         this.ms1cluster=ms1cluster;
     }
         
@@ -189,10 +191,10 @@ public class PseudoMSMSProcessing implements Runnable{
     }
     
     
-    public void RemoveMatchedFrag(HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> MatchedFragmentMap) {
+    public void RemoveMatchedFrag(PrecursorFragmentEdgeTable MatchedFragmentMap) {
         ArrayList<PrecursorFragmentPairEdge> newlist = new ArrayList<>();
         for (PrecursorFragmentPairEdge fragmentClusterUnit : fragments) {
-            if (!MatchedFragmentMap.containsKey(fragmentClusterUnit.PeakCurveIndexB)) {
+            if (!MatchedFragmentMap.ContainsKey(fragmentClusterUnit.PeakCurveIndexB)) {
                 newlist.add(fragmentClusterUnit);
             }
         }
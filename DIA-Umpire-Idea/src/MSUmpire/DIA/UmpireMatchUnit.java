@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import MSUmpire.MSMSDBSearch.DBSearchParam;
@@ -40,14 +41,14 @@ import org.xmlpull.v1.XmlPullParserException;
 public class UmpireMatchUnit implements Runnable {
 
     public PeakCluster ms1cluster;
-    ArrayList<PrecursorFragmentPairEdge> fragments;
+    List<PrecursorFragmentPairEdge> fragments;
     PepIonLib IonLib;
     DBSearchParam searchpara;
     public ArrayList<MS1PeakGroupSearch> Ranking = new ArrayList<>();
     HashMap<Integer, Double> FactorialTable;
     public ArrayList<PepIonCandidate> candidates;
 
-    public UmpireMatchUnit(PeakCluster ms1cluster, ArrayList<PrecursorFragmentPairEdge> fragments, PepIonLib IonLib, DBSearchParam searchpara, HashMap<Integer, Double> FactorialTable) {
+    public UmpireMatchUnit(PeakCluster ms1cluster, List<PrecursorFragmentPairEdge> fragments, PepIonLib IonLib, DBSearchParam searchpara, HashMap<Integer, Double> FactorialTable) {
         this.ms1cluster = ms1cluster;
         this.fragments = fragments;
         this.IonLib = IonLib;
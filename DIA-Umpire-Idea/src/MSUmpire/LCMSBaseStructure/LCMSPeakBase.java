@@ -31,12 +31,14 @@ import MSUmpire.PeakDataStructure.SortedClusterCollectionClassMZ;
 import MSUmpire.PeakDataStructure.SortedCurveCollectionApexRT;
 import MSUmpire.PeakDataStructure.SortedCurveCollectionMZ;
 import MSUmpire.PeptidePeakClusterDetection.PeakCurveClusteringCorrV2Unit;
+import MSUmpire.SortedListLib.PatchWorkArray;
 import MSUmpire.spectrumparser.mzXMLParser;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.sql.Connection;
@@ -57,7 +59,8 @@ import org.nustaq.serialization.FSTObjectOutput;
  */
 public class LCMSPeakBase {
 
-    public ArrayList<PeakCluster> PeakClusters = new ArrayList<>(1000);
+    //Chunked so that appending never copies the list; PeakCluster.Index is the position in this list + 1
+    public PatchWorkArray<PeakCluster> PeakClusters = new PatchWorkArray<>();
     public SortedClusterCollectionClassMZ MZSortedClusters;
     public SortedClusterCollectionClassApexRT ApexRTSortedClusters;
     public String ScanCollectionName;
@@ -71,7 +74,7 @@ public class LCMSPeakBase {
     public float SNR;
     public ConnectionManager connectionManager;
     public SortedCurveCollectionMZ PeakCurveListMZ = new SortedCurveCollectionMZ();
-    public ArrayList<PeakCurve> UnSortedPeakCurves;
+    public PatchWorkArray<PeakCurve> UnSortedPeakCurves;
     public SortedCurveCollectionApexRT PeakCurveListRT = new SortedCurveCollectionApexRT();
     public ArrayList<PeakCurve> IsolatedPeakCurves;
     public InstrumentParameter parameter;
@@ -93,7 +96,7 @@ public class LCMSPeakBase {
 
     public void ClearRawPeaks() {
         for (PeakCurve peakCurve : PeakCurveListMZ) {
-            peakCurve.GetPeakList().clear();
+            peakCurve.ClearPeakList();
         }
     }
 
@@ -157,6 +160,8 @@ public class LCMSPeakBase {
             }
             peakCurves.add(peakCurve);
         }
+        PeakCurveListMZ.BeginBulkLoad();
+        PeakCurveListRT.BeginBulkLoad();
         PeakCurveListMZ.addAll(peakCurves);
         PeakCurveListRT.addAll(peakCurves);
         PeakCurveListMZ.Finalize();
@@ -167,7 +172,9 @@ public class LCMSPeakBase {
 
     public void GenerateRTSoretedClusterList(boolean reindex) {
         ApexRTSortedClusters = new SortedClusterCollectionClassApexRT();
+        ApexRTSortedClusters.BeginBulkLoad();
         ApexRTSortedClusters.addAll(PeakClusters);
+        ApexRTSortedClusters.Finalize();
 
         if (reindex) {
             for (int i = 0; i < ApexRTSortedClusters.size(); i++) {
@@ -304,7 +311,9 @@ public class LCMSPeakBase {
 
     public void GenerateMZSortedClusterList(boolean reindex) {
         MZSortedClusters = new SortedClusterCollectionClassMZ();
+        MZSortedClusters.BeginBulkLoad();
         MZSortedClusters.addAll(PeakClusters);
+        MZSortedClusters.Finalize();
         if (reindex) {
             for (int i = 0; i < MZSortedClusters.size(); i++) {
                 MZSortedClusters.get(i).Index = i + 1;
@@ -446,6 +455,25 @@ public class LCMSPeakBase {
         return true;        
     }
 
+    //Peak curves written by an older version of PeakCurve are not read back (see PeakCurve.readObject()), the peaks are detected again
+    private boolean IsOlderVersion(Exception ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InvalidClassException) {
+                Logger.getRootLogger().info("Serialization of " + FilenameUtils.getBaseName(ScanCollectionName) + " was written by an older version and is ignored: " + cause.getMessage());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Files written before PeakClusters was a PatchWorkArray hold an ArrayList
+    private static PatchWorkArray<PeakCluster> ToPeakClusterList(Object object) {
+        if (object instanceof PatchWorkArray) {
+            return (PatchWorkArray<PeakCluster>) object;
+        }
+        return new PatchWorkArray<>((Collection<PeakCluster>) object);
+    }
+
     private boolean JavaSerializationPeakClusterRead() {
         if (!new File(FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.ser").exists()) {
             return false;
@@ -455,10 +483,13 @@ public class LCMSPeakBase {
 
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.ser");
             ObjectInputStream in = new ObjectInputStream(fileIn);
-            PeakClusters = (ArrayList<PeakCluster>) in.readObject();
+            PeakClusters = ToPeakClusterList(in.readObject());
             in.close();
             fileIn.close();
         } catch (Exception ex) {
+            if (IsOlderVersion(ex)) {
+                return false;
+            }
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             return false;
         }
@@ -474,10 +505,13 @@ public class LCMSPeakBase {
 
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName)+ "_PeakCluster.serFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
-            PeakClusters = (ArrayList<PeakCluster>) in.readObject();
+            PeakClusters = ToPeakClusterList(in.readObject());
             in.close();
             fileIn.close();            
         } catch (Exception ex) {
+            if (IsOlderVersion(ex)) {
+                return false;
+            }
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             if(FS_PeakClusterRead_v158()){
                 WritePeakClusterSerialization();
@@ -497,7 +531,7 @@ public class LCMSPeakBase {
 
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS");
             de.ruedigermoeller.serialization.FSTObjectInput in = new de.ruedigermoeller.serialization.FSTObjectInput(fileIn);
-            PeakClusters = (ArrayList<PeakCluster>) in.readObject();
+            PeakClusters = ToPeakClusterList(in.readObject());
             in.close();
             fileIn.close();            
         } catch (Exception ex) {
@@ -582,6 +616,9 @@ public class LCMSPeakBase {
             in.close();
             fileIn.close();         
         } catch (Exception ex) {
+            if (IsOlderVersion(ex)) {
+                return false;
+            }
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             return false;
         }
@@ -600,6 +637,9 @@ public class LCMSPeakBase {
             in.close();
             fileIn.close();
         } catch (Exception ex) {
+            if (IsOlderVersion(ex)) {
+                return false;
+            }
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             return false;
         } 
@@ -755,6 +795,7 @@ public class LCMSPeakBase {
     public boolean ReadPeakCurve() {
         boolean done = ReadPeakCurveSerialization();
         if (done) {
+            PeakCurveListRT.BeginBulkLoad();
             PeakCurveListRT.addAll(PeakCurveListMZ);
             PeakCurveListRT.Finalize();
         }
@@ -766,7 +807,7 @@ public class LCMSPeakBase {
         Connection connection = connectionManager.GetConnection();
         Statement state = connection.createStatement();
         //UnIDpeakClusters = new HashMap<>();        
-        PeakClusters = new ArrayList<>();
+        PeakClusters = new PatchWorkArray<>();
         //RTSortedClusters=new SortedClusterCollectionClassRT();
 
         ResultSet rsCluster = state.executeQuery("SELECT * FROM " + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster Order by Cluster_Index");
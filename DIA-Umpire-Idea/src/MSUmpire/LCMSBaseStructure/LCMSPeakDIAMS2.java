@@ -32,6 +32,7 @@ import MSUmpire.DIA.PseudoMSMSProcessing;
 import MSUmpire.DIA.UmpireMatchUnit;
 import MSUmpire.MSMSDBSearch.DBSearchParam;
 import MSUmpire.PeakDataStructure.PeakCluster;
+import MSUmpire.PeakDataStructure.PrecursorFragmentEdgeTable;
 import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
 import MSUmpire.PeptidePeakClusterDetection.PDHandlerDIAMS2;
 import MSUmpire.UmpireSearchDataStructure.PepIonCandidate;
@@ -53,6 +54,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -72,13 +74,13 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
     //public HashMap<String, PeakCluster> UnIDpeakClusters;    
     public XYData DIA_MZ_Range;
     public String WindowID;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> FragmentsClu2Clu;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> FragmentsClu2Cur;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> UnFragIonClu2Clu;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> UnFragIonClu2Cur;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> IsolatedMS1FragmentClustering;
+    public PrecursorFragmentEdgeTable FragmentsClu2Clu;
+    public PrecursorFragmentEdgeTable FragmentsClu2Cur;
+    public PrecursorFragmentEdgeTable UnFragIonClu2Clu;
+    public PrecursorFragmentEdgeTable UnFragIonClu2Cur;
+    public PrecursorFragmentEdgeTable IsolatedMS1FragmentClustering;
     //public HashMap<Integer, ArrayList<PeakOverlapRegion>> FragmentMSDistance;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> MatchedFragmentMap = new HashMap<>();
+    public PrecursorFragmentEdgeTable MatchedFragmentMap = new PrecursorFragmentEdgeTable();
     private DIAPack parentDIA;
 
     public boolean FragmentGroupByCluster = false;
@@ -168,8 +170,8 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         int count = 0;
         for (PeakCluster ms1cluster : ms1lcms.PeakClusters) {
             if (DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIA_MZ_Range.getY() >= ms1cluster.TargetMz()) {
-                if (FragmentsClu2Cur.containsKey(ms1cluster.Index)) {
-                    ArrayList<PrecursorFragmentPairEdge> fragments = FragmentsClu2Cur.get(ms1cluster.Index);
+                if (FragmentsClu2Cur.ContainsKey(ms1cluster.Index)) {
+                    List<PrecursorFragmentPairEdge> fragments = FragmentsClu2Cur.Get(ms1cluster.Index);
                     UmpireMatchUnit match = new UmpireMatchUnit(ms1cluster, fragments, IonLib, searchpara, FactorialTable);
                     ResultList.add(match);
                     executorPool.execute(match);
@@ -211,8 +213,8 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         ArrayList<PseudoMSMSProcessing> ScanList=new ArrayList<>();
         ExecutorService executorPool = Executors.newFixedThreadPool(NoCPUs);
         for (PeakCluster ms1cluster : ms1lcms.PeakClusters) {
-            if (DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && FragmentsClu2Cur.containsKey(ms1cluster.Index)) {
-                PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, FragmentsClu2Cur.get(ms1cluster.Index), parameter);
+            if (DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && FragmentsClu2Cur.ContainsKey(ms1cluster.Index)) {
+                PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, FragmentsClu2Cur.Get(ms1cluster.Index), parameter);
                 executorPool.execute(mSMSProcessing);
                 ScanList.add(mSMSProcessing);                
             }
@@ -230,7 +232,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         FileWriter mgfWriter2 = new FileWriter(mgffile2, true);
         
         for (PseudoMSMSProcessing mSMSProcessing : ScanList) {
-            if(MatchedFragmentMap.size()>0){
+            if(MatchedFragmentMap.KeyCount()>0){
                 mSMSProcessing.RemoveMatchedFrag(MatchedFragmentMap);
             }
             
@@ -281,8 +283,8 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         ArrayList<PseudoMSMSProcessing> ScanList = new ArrayList<>();
         ExecutorService executorPool = Executors.newFixedThreadPool(NoCPUs);
         for (PeakCluster ms1cluster : PeakClusters) {
-            if (DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && UnFragIonClu2Cur.containsKey(ms1cluster.Index)) {
-                PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, UnFragIonClu2Cur.get(ms1cluster.Index), parameter);
+            if (DIA_MZ_Range.getX() <= ms1cluster.TargetMz() && DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && UnFragIonClu2Cur.ContainsKey(ms1cluster.Index)) {
+                PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, UnFragIonClu2Cur.Get(ms1cluster.Index), parameter);
                 executorPool.execute(mSMSProcessing);
                 ScanList.add(mSMSProcessing);
             }
@@ -292,7 +294,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         }
         
         for (PseudoMSMSProcessing mSMSProcessing : ScanList) {
-            if(MatchedFragmentMap.size()>0){
+            if(MatchedFragmentMap.KeyCount()>0){
                 mSMSProcessing.RemoveMatchedFrag(MatchedFragmentMap);
             }
             XYPointCollection Scan = mSMSProcessing.GetScan();
@@ -352,7 +354,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
     private void ReadFragmentClu2CluFromDB() throws SQLException {
         Connection connection = connectionManager.GetConnection();
         Statement state = connection.createStatement();
-        FragmentsClu2Clu = new HashMap<>();
+        FragmentsClu2Clu = new PrecursorFragmentEdgeTable();
         //state.execute("Delete From "+FilenameUtils.getBaseName(ScanCollectionName) + "_SwathPeakCorr where Corr<0.2");
         ResultSet rsCluster = state.executeQuery("SELECT * FROM " + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Clus");
         while (rsCluster.next()) {
@@ -365,11 +367,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             //framentClusterUnit.FragmentGroupidx=rsCluster.getInt("FragGrpIdx");
             //framentClusterUnit.FragmentConsensusCorr=rsCluster.getFloat("FragCorr");
 
-            if (!FragmentsClu2Clu.containsKey(framentClusterUnit.PeakCurveIndexA)) {
-                ArrayList<PrecursorFragmentPairEdge> list = new ArrayList<>();
-                FragmentsClu2Clu.put(framentClusterUnit.PeakCurveIndexA, list);
-            }
-            FragmentsClu2Clu.get(framentClusterUnit.PeakCurveIndexA).add(framentClusterUnit);
+            FragmentsClu2Clu.Add(framentClusterUnit.PeakCurveIndexA, framentClusterUnit);
         }
         state.close();
         connectionManager.CloseConnection();
@@ -379,28 +377,26 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
 
     public void BuildFragmentMS1ranking() {
         FragmentMS1Ranking = new HashMap<>();
-        for (int clusterindex : FragmentsClu2Cur.keySet()) {
-            for (PrecursorFragmentPairEdge framentClusterUnit : FragmentsClu2Cur.get(clusterindex)) {
-                if (!FragmentMS1Ranking.containsKey(framentClusterUnit.PeakCurveIndexB)) {
-                    ArrayList<Float> scorelist = new ArrayList<>();
-                    FragmentMS1Ranking.put(framentClusterUnit.PeakCurveIndexB, scorelist);
-                }
-                FragmentMS1Ranking.get(framentClusterUnit.PeakCurveIndexB).add(framentClusterUnit.Correlation);
+        for (int pos = 0; pos < FragmentsClu2Cur.EdgeCount(); pos++) {
+            PrecursorFragmentPairEdge framentClusterUnit = FragmentsClu2Cur.GetEdge(pos);
+            if (!FragmentMS1Ranking.containsKey(framentClusterUnit.PeakCurveIndexB)) {
+                ArrayList<Float> scorelist = new ArrayList<>();
+                FragmentMS1Ranking.put(framentClusterUnit.PeakCurveIndexB, scorelist);
             }
+            FragmentMS1Ranking.get(framentClusterUnit.PeakCurveIndexB).add(framentClusterUnit.Correlation);
         }
         for (ArrayList<Float> scorelist : FragmentMS1Ranking.values()) {
             Collections.sort(scorelist);
             Collections.reverse(scorelist);
         }
-        for (int clusterindex : FragmentsClu2Cur.keySet()) {
-            for (PrecursorFragmentPairEdge framentClusterUnit : FragmentsClu2Cur.get(clusterindex)) {
-                ArrayList<Float> scorelist = FragmentMS1Ranking.get(framentClusterUnit.PeakCurveIndexB);
-                for (int intidx = 0; intidx < scorelist.size(); intidx++) {
-                    if (scorelist.get(intidx) <= framentClusterUnit.Correlation) {
-                        framentClusterUnit.FragmentMS1Rank = intidx + 1;
-                        framentClusterUnit.FragmentMS1RankScore = (float) framentClusterUnit.FragmentMS1Rank / (float) scorelist.size();
-                        break;
-                    }
+        for (int pos = 0; pos < FragmentsClu2Cur.EdgeCount(); pos++) {
+            PrecursorFragmentPairEdge framentClusterUnit = FragmentsClu2Cur.GetEdge(pos);
+            ArrayList<Float> scorelist = FragmentMS1Ranking.get(framentClusterUnit.PeakCurveIndexB);
+            for (int intidx = 0; intidx < scorelist.size(); intidx++) {
+                if (scorelist.get(intidx) <= framentClusterUnit.Correlation) {
+                    framentClusterUnit.FragmentMS1Rank = intidx + 1;
+                    framentClusterUnit.FragmentMS1RankScore = (float) framentClusterUnit.FragmentMS1Rank / (float) scorelist.size();
+                    break;
                 }
             }
         }
@@ -425,7 +421,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         //System.out.print("Loading precursor-fragment pairs table........");
         Connection connection = connectionManager.GetConnection();
         Statement state = connection.createStatement();
-        FragmentsClu2Cur = new HashMap<>();
+        FragmentsClu2Cur = new PrecursorFragmentEdgeTable();
         //state.execute("Delete From "+FilenameUtils.getBaseName(ScanCollectionName) + "_SwathPeakCorr where Corr<0.2");
         ResultSet rsCluster = state.executeQuery("SELECT * FROM " + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur");
         while (rsCluster.next()) {
@@ -440,21 +436,15 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             //framentClusterUnit.FragmentGroupidx=rsCluster.getInt("FragGrpIdx");
             //framentClusterUnit.FragmentConsensusCorr=rsCluster.getFloat("FragCorr");
 
-            if (!FragmentsClu2Cur.containsKey(framentClusterUnit.PeakCurveIndexA)) {
-                ArrayList<PrecursorFragmentPairEdge> list = new ArrayList<>();
-                FragmentsClu2Cur.put(framentClusterUnit.PeakCurveIndexA, list);
-            }
-            FragmentsClu2Cur.get(framentClusterUnit.PeakCurveIndexA).add(framentClusterUnit);
+            FragmentsClu2Cur.Add(framentClusterUnit.PeakCurveIndexA, framentClusterUnit);
         }
 
-        for (ArrayList<PrecursorFragmentPairEdge> list : FragmentsClu2Cur.values()) {
-            Collections.sort(list, new Comparator<PrecursorFragmentPairEdge>() {
-                @Override
-                public int compare(PrecursorFragmentPairEdge o1, PrecursorFragmentPairEdge o2) {
-                    return Float.compare(o1.FragmentMz, o2.FragmentMz);
-                }
-            });
-        }
+        FragmentsClu2Cur.SortGroups(new Comparator<PrecursorFragmentPairEdge>() {
+            @Override
+            public int compare(PrecursorFragmentPairEdge o1, PrecursorFragmentPairEdge o2) {
+                return Float.compare(o1.FragmentMz, o2.FragmentMz);
+            }
+        });
         state.close();
         connectionManager.CloseConnection();
         //System.out.print("done\n");
@@ -464,7 +454,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         //System.out.print("Loading precursor-fragment pairs (unfragmented ions) table........");
         Connection connection = connectionManager.GetConnection();
         Statement state = connection.createStatement();
-        UnFragIonClu2Cur = new HashMap<>();
+        UnFragIonClu2Cur = new PrecursorFragmentEdgeTable();
         //state.execute("Delete From "+FilenameUtils.getBaseName(ScanCollectionName) + "_SwathPeakCorr where Corr<0.2");
         ResultSet rsCluster = state.executeQuery("SELECT * FROM " + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur");
         while (rsCluster.next()) {
@@ -479,21 +469,15 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             //framentClusterUnit.FragmentGroupidx=rsCluster.getInt("FragGrpIdx");
             //framentClusterUnit.FragmentConsensusCorr=rsCluster.getFloat("FragCorr");
 
-            if (!UnFragIonClu2Cur.containsKey(framentClusterUnit.PeakCurveIndexA)) {
-                ArrayList<PrecursorFragmentPairEdge> list = new ArrayList<>();
-                UnFragIonClu2Cur.put(framentClusterUnit.PeakCurveIndexA, list);
-            }
-            UnFragIonClu2Cur.get(framentClusterUnit.PeakCurveIndexA).add(framentClusterUnit);
+            UnFragIonClu2Cur.Add(framentClusterUnit.PeakCurveIndexA, framentClusterUnit);
         }
 
-        for (ArrayList<PrecursorFragmentPairEdge> list : UnFragIonClu2Cur.values()) {
-            Collections.sort(list, new Comparator<PrecursorFragmentPairEdge>() {
-                @Override
-                public int compare(PrecursorFragmentPairEdge o1, PrecursorFragmentPairEdge o2) {
-                    return Float.compare(o1.FragmentMz, o2.FragmentMz);
-                }
-            });
-        }
+        UnFragIonClu2Cur.SortGroups(new Comparator<PrecursorFragmentPairEdge>() {
+            @Override
+            public int compare(PrecursorFragmentPairEdge o1, PrecursorFragmentPairEdge o2) {
+                return Float.compare(o1.FragmentMz, o2.FragmentMz);
+            }
+        });
         state.close();
         connectionManager.CloseConnection();
         //System.out.println("done");
@@ -535,6 +519,14 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         }
     }
 
+    //Files written by earlier versions hold a HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>
+    private static PrecursorFragmentEdgeTable ToEdgeTable(Object table) {
+        if (table instanceof HashMap) {
+            return PrecursorFragmentEdgeTable.FromHashMap((HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) table);
+        }
+        return (PrecursorFragmentEdgeTable) table;
+    }
+
     private boolean ReadCluster2CurveCorrSerialization() {
         //return JavaSerializationCluster2CurveRead();   
         if (!FSCluster2CurveRead()) {
@@ -555,7 +547,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             Logger.getRootLogger().debug("Reading PrecursorFragmentCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS...");
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName)+ "_Clus2Cur.serFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
-            FragmentsClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
+            FragmentsClu2Cur = ToEdgeTable(in.readObject());
             in.close();
             fileIn.close();
 
@@ -578,7 +570,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             Logger.getRootLogger().debug("v158 PrecursorFragmentCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS...");
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS");
             de.ruedigermoeller.serialization.FSTObjectInput in = new de.ruedigermoeller.serialization.FSTObjectInput(fileIn);
-            FragmentsClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
+            FragmentsClu2Cur = ToEdgeTable(in.readObject());
             in.close();
             fileIn.close();
 
@@ -598,7 +590,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             Logger.getRootLogger().debug("Reading PrecursorFragmentCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.ser...");
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.ser");
             ObjectInputStream in = new ObjectInputStream(fileIn);
-            FragmentsClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
+            FragmentsClu2Cur = ToEdgeTable(in.readObject());
             in.close();
             fileIn.close();
 
@@ -659,7 +651,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             Logger.getRootLogger().debug("Reading UnfragPrecursorFragCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS...");
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
-            UnFragIonClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
+            UnFragIonClu2Cur = ToEdgeTable(in.readObject());
             in.close();
             fileIn.close();
 
@@ -682,7 +674,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             Logger.getRootLogger().debug("v158 UnfragPrecursorFragCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS...");
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS");
             de.ruedigermoeller.serialization.FSTObjectInput in = new de.ruedigermoeller.serialization.FSTObjectInput(fileIn);
-            UnFragIonClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
+            UnFragIonClu2Cur = ToEdgeTable(in.readObject());
             in.close();
             fileIn.close();
 
@@ -702,7 +694,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             Logger.getRootLogger().debug("Reading UnfragPrecursorFragCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.ser...");
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.ser");
             ObjectInputStream in = new ObjectInputStream(fileIn);
-            UnFragIonClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
+            UnFragIonClu2Cur = ToEdgeTable(in.readObject());
             in.close();
             fileIn.close();
 
@@ -758,10 +750,9 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         FileWriter writer = new FileWriter(FilenameUtils.getFullPath(ScanCollectionName) + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.csv");
         writer.write("ID,PeakClusterA,PeakClusterB,Corr,FragmentMz,FragInt,RTOverlapP,ApexDelta\n");
         int id = 0;
-        for (ArrayList<PrecursorFragmentPairEdge> result : FragmentsClu2Cur.values()) {
-            for (PrecursorFragmentPairEdge region : result) {
-                writer.write((id++) + "," + region.PeakCurveIndexA + "," + region.PeakCurveIndexB + "," + region.Correlation + "," + region.FragmentMz + "," + region.Intensity + "," + region.RTOverlapP + "," + region.ApexDelta/*+ "," + region.FragmentConsensusCorr + "," + region.FragmentGroupidx*/ + "\n");
-            }
+        for (int pos = 0; pos < FragmentsClu2Cur.EdgeCount(); pos++) {
+            PrecursorFragmentPairEdge region = FragmentsClu2Cur.GetEdge(pos);
+            writer.write((id++) + "," + region.PeakCurveIndexA + "," + region.PeakCurveIndexB + "," + region.Correlation + "," + region.FragmentMz + "," + region.Intensity + "," + region.RTOverlapP + "," + region.ApexDelta/*+ "," + region.FragmentConsensusCorr + "," + region.FragmentGroupidx*/ + "\n");
         }
         writer.close();
     }
@@ -797,10 +788,9 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         FileWriter writer = new FileWriter(FilenameUtils.getFullPath(ScanCollectionName) + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.csv");
         writer.write("ID,PeakClusterA,PeakClusterB, Corr,FragmentMz,FragInt,RTOverlapP,ApexDelta\n");
         int id = 0;
-        for (ArrayList<PrecursorFragmentPairEdge> result : UnFragIonClu2Cur.values()) {
-            for (PrecursorFragmentPairEdge region : result) {
-                writer.write((id++) + "," + region.PeakCurveIndexA + "," + region.PeakCurveIndexB + "," + region.Correlation + "," + region.FragmentMz + "," + region.Intensity + "," + region.RTOverlapP + "," + region.ApexDelta/*+ "," + region.FragmentConsensusCorr + "," + region.FragmentGroupidx*/ + "\n");
-            }
+        for (int pos = 0; pos < UnFragIonClu2Cur.EdgeCount(); pos++) {
+            PrecursorFragmentPairEdge region = UnFragIonClu2Cur.GetEdge(pos);
+            writer.write((id++) + "," + region.PeakCurveIndexA + "," + region.PeakCurveIndexB + "," + region.Correlation + "," + region.FragmentMz + "," + region.Intensity + "," + region.RTOverlapP + "," + region.ApexDelta/*+ "," + region.FragmentConsensusCorr + "," + region.FragmentGroupidx*/ + "\n");
         }
         writer.close();
     }
@@ -885,10 +875,10 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
     }
 
     public void ExtractFragmentForPeakCluser(PeakCluster Cluster) {        
-        if (FragmentsClu2Cur.containsKey(Cluster.Index)) {
+        if (FragmentsClu2Cur.ContainsKey(Cluster.Index)) {
             Cluster.fraglock.writeLock().lock();
             try {
-                for (PrecursorFragmentPairEdge fragmentClusterUnit : FragmentsClu2Cur.get(Cluster.Index)) {
+                for (PrecursorFragmentPairEdge fragmentClusterUnit : FragmentsClu2Cur.Get(Cluster.Index)) {
                     if (!Cluster.Fragments.contains(fragmentClusterUnit)) {
                         Cluster.Fragments.add(fragmentClusterUnit);
                     }
@@ -900,10 +890,10 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
     }
 
     public void ExtractFragmentForUnfragPeakCluser(PeakCluster Cluster) {
-        if (UnFragIonClu2Cur.containsKey(Cluster.Index)) {
+        if (UnFragIonClu2Cur.ContainsKey(Cluster.Index)) {
             Cluster.fraglock.writeLock().lock();
             try {
-                for (PrecursorFragmentPairEdge fragmentClusterUnit : UnFragIonClu2Cur.get(Cluster.Index)) {
+                for (PrecursorFragmentPairEdge fragmentClusterUnit : UnFragIonClu2Cur.Get(Cluster.Index)) {
                     if (!Cluster.Fragments.contains(fragmentClusterUnit)) {
                         Cluster.Fragments.add(fragmentClusterUnit);
                     }
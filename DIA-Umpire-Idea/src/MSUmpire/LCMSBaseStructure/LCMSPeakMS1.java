@@ -45,6 +45,7 @@ import MSUmpire.SpectraST.SpectraSTSearch;
 import MSUmpire.UmpireSearchDataStructure.PepIonCandidate;
 import MSUmpire.UmpireSearchDataStructure.PepIonLib;
 import MSUmpire.spectrumparser.MGFParser;
+import MSUmpire.spectrumparser.ScanStream;
 import MSUmpire.spectrumparser.mzXMLParser;
 import jMEF.ExpectationMaximization1D;
 import jMEF.MixtureModel;
@@ -353,25 +354,36 @@ public class LCMSPeakMS1 extends LCMSPeakBase {
         if (Resume && ReadIfProcessed()) {
             return;
         }
-        ArrayList<ScanCollection> scanCollections = new ArrayList<>();
         parameter.NoPeakPerMin = (int) (5f / GetmzXML().GetMS1CycleTime());
-        
-        if (MS1Windows == null || MS1Windows.isEmpty()) {
-            GetmzXML().GetAllScanCollectionByMSLabel(true, true, true, false);
-            scanCollections.add(GetmzXML().scanCollection);
-            if (parameter.DetermineBGByID) {
-                DetermineBGByLowIntID(GetmzXML().scanCollection);
+        PDHandlerMS1 detection = new PDHandlerMS1(this, NoCPUs, parameter.MS1PPM);
+
+        if (parameter.PeakCurveScanQueue > 0 && !parameter.DetermineBGByID) {
+            //trace the peak curves while the MS1 scans are read instead of loading all of them first
+            ArrayList<ScanStream> scanStreams = new ArrayList<>();
+            if (MS1Windows == null || MS1Windows.isEmpty()) {
+                scanStreams.add(GetmzXML().StreamScanCollectionByMSLevel(1, parameter.PeakCurveScanQueue));
+            } else {
+                for (XYData window : MS1Windows.keySet()) {
+                    scanStreams.add(GetmzXML().StreamScanCollectionMS1Window(window, parameter.PeakCurveScanQueue));
+                }
             }
-        }
-        else{
-            for( XYData window : MS1Windows.keySet()){
-                scanCollections.add(GetmzXML().GetScanCollectionMS1Window(window, true));
+            detection.DetectPeakCurvesFromStreams(scanStreams);
+        } else {
+            ArrayList<ScanCollection> scanCollections = new ArrayList<>();
+            if (MS1Windows == null || MS1Windows.isEmpty()) {
+                GetmzXML().GetAllScanCollectionByMSLabel(true, true, true, false);
+                scanCollections.add(GetmzXML().scanCollection);
+                if (parameter.DetermineBGByID) {
+                    DetermineBGByLowIntID(GetmzXML().scanCollection);
+                }
+            } else {
+                for (XYData window : MS1Windows.keySet()) {
+                    scanCollections.add(GetmzXML().GetScanCollectionMS1Window(window, true));
+                }
             }
+            detection.DetectPeakCurves(scanCollections);
         }
-        
-        PDHandlerMS1 detection = new PDHandlerMS1(this, NoCPUs, parameter.MS1PPM);        
-        detection.DetectPeakCurves(scanCollections);
-        
+
         if (ExportFragmentPeak) {
             ExportPeakCurveResult();
         }
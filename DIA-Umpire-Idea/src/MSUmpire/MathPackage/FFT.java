@@ -0,0 +1,123 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.MathPackage;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-place iterative radix-2 complex FFT on separate real and imaginary
+ * arrays.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class FFT {
+
+    //cos and sin of 2*pi*k/n for k < n/2, by n; shared and never modified, one entry per power of 2 used
+    private static final ConcurrentHashMap<Integer, double[][]> TwiddleCache = new ConcurrentHashMap<>();
+
+    /**
+     * @return the smallest power of 2 &gt;= n
+     */
+    public static int PowerOf2(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Transforms the first n elements of re and im, n must be a power of 2.
+     * The inverse transform is not scaled, divide by n to get the original
+     * values back.
+     */
+    public static void Transform(double[] re, double[] im, int n, boolean inverse) {
+        Transform(re, im, n, inverse, GetTwiddle(n));
+    }
+
+    /**
+     * Same as {@link #Transform(double[], double[], int, boolean)} with the
+     * twiddle factors of n from {@link #GetTwiddle(int)}, for callers doing
+     * many transforms of the same size.
+     */
+    public static void Transform(double[] re, double[] im, int n, boolean inverse, double[][] twiddle) {
+        if (n < 2) {
+            return;
+        }
+        //bit reversal permutation
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+        double[] cos = twiddle[0];
+        double[] sin = twiddle[1];
+        double sign = inverse ? 1.0 : -1.0;
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            for (int start = 0; start < n; start += len) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Twiddle factors of the transforms of size n (a power of 2), shared and
+     * never modified.
+     */
+    public static double[][] GetTwiddle(int n) {
+        double[][] twiddle = TwiddleCache.get(n);
+        if (twiddle == null) {
+            twiddle = new double[2][n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                double angle = 2 * Math.PI * k / n;
+                twiddle[0][k] = Math.cos(angle);
+                twiddle[1][k] = Math.sin(angle);
+            }
+            double[][] stored = TwiddleCache.putIfAbsent(n, twiddle);
+            if (stored != null) {
+                twiddle = stored;
+            }
+        }
+        return twiddle;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package MSUmpire.MathPackage;
 
+import MSUmpire.BaseDataStructure.ScratchBuffer;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 
 /**
@@ -30,44 +31,44 @@ public class PearsonCorr {
     public float CalcCorrNeighborBin(XYPointCollection CollectionA, XYPointCollection CollectionB) {
         Regression regression = new Regression();
 
-        int num = (int) ((Math.min(CollectionA.Data.get(CollectionA.PointCount() - 1).getX(), CollectionB.Data.get(CollectionB.PointCount() - 1).getX()) - Math.max(CollectionA.Data.get(0).getX(), CollectionB.Data.get(0).getX())) * 100);
+        int num = (int) ((Math.min(CollectionA.Data.GetX(CollectionA.PointCount() - 1), CollectionB.Data.GetX(CollectionB.PointCount() - 1)) - Math.max(CollectionA.Data.GetX(0), CollectionB.Data.GetX(0))) * 100);
         float timeinterval = 1 / 100f;
 
-        float[] arrayA = new float[num];
-        float[] arrayB = new float[num];
+        float[] arrayA = ScratchBuffer.Get().ZeroedFloats(ScratchBuffer.CORR_BIN_A, num);
+        float[] arrayB = ScratchBuffer.Get().ZeroedFloats(ScratchBuffer.CORR_BIN_B, num);
 
-        float start = Math.max(CollectionA.Data.get(0).getX(), CollectionB.Data.get(0).getX());
+        float start = Math.max(CollectionA.Data.GetX(0), CollectionB.Data.GetX(0));
 
         for (int i = 0; i < num - 1; i++) {
             float low = start + i * timeinterval;
             float up = start + (i + 1) * timeinterval;
 
             for (int j = 0; j < CollectionA.PointCount(); j++) {
-                if (CollectionA.Data.get(j).getX() >= low && CollectionA.Data.get(j).getX() < up) {
-                    float intenlow = CollectionA.Data.get(j).getY() * (1 - (CollectionA.Data.get(j).getX() - low) / timeinterval);
-                    float intenup = CollectionA.Data.get(j).getY() * (1 - (up - CollectionA.Data.get(j).getX()) / timeinterval);
+                if (CollectionA.Data.GetX(j) >= low && CollectionA.Data.GetX(j) < up) {
+                    float intenlow = CollectionA.Data.GetY(j) * (1 - (CollectionA.Data.GetX(j) - low) / timeinterval);
+                    float intenup = CollectionA.Data.GetY(j) * (1 - (up - CollectionA.Data.GetX(j)) / timeinterval);
                     if (intenlow > arrayA[i]) {
                         arrayA[i] = intenlow;
                     }
                     if (intenup > arrayA[i + 1]) {
                         arrayA[i + 1] = intenup;
                     }
-                } else if (CollectionA.Data.get(j).getX() > up) {
+                } else if (CollectionA.Data.GetX(j) > up) {
                     break;
                 }
             }
 
             for (int j = 0; j < CollectionB.PointCount(); j++) {
-                if (CollectionB.Data.get(j).getX() >= low && CollectionB.Data.get(j).getX() < up) {
-                    float intenlow = CollectionB.Data.get(j).getY() * (1 - (CollectionB.Data.get(j).getX() - low) / timeinterval);
-                    float intenup = CollectionB.Data.get(j).getY() * (1 - (up - CollectionB.Data.get(j).getX()) / timeinterval);
+                if (CollectionB.Data.GetX(j) >= low && CollectionB.Data.GetX(j) < up) {
+                    float intenlow = CollectionB.Data.GetY(j) * (1 - (CollectionB.Data.GetX(j) - low) / timeinterval);
+                    float intenup = CollectionB.Data.GetY(j) * (1 - (up - CollectionB.Data.GetX(j)) / timeinterval);
                     if (intenlow > arrayB[i]) {
                         arrayB[i] = intenlow;
                     }
                     if (intenup > arrayB[i + 1]) {
                         arrayB[i + 1] = intenup;
                     }
-                } else if (CollectionB.Data.get(j).getX() > up) {
+                } else if (CollectionB.Data.GetX(j) > up) {
                     break;
                 }
             }
@@ -107,17 +108,17 @@ public class PearsonCorr {
 
 //        double[] arrayA = new double[num];
 //        double[] arrayB = new double[num];
-        float[] arrayA = new float[num];
-        float[] arrayB = new float[num];
+        float[] arrayA = ScratchBuffer.Get().ZeroedFloats(ScratchBuffer.CORR_BIN_A, num);
+        float[] arrayB = ScratchBuffer.Get().ZeroedFloats(ScratchBuffer.CORR_BIN_B, num);
 
-        float start = Math.max(CollectionA.Data.get(0).getX(), CollectionB.Data.get(0).getX());
+        float start = Math.max(CollectionA.Data.GetX(0), CollectionB.Data.GetX(0));
 
         int i = 0;
         float low = start;
         float up = start + timeinterval;
 
         for (int j = 0; j < CollectionA.PointCount(); j++) {
-            while (CollectionA.Data.get(j).getX() > up) {
+            while (CollectionA.Data.GetX(j) > up) {
                 i++;
                 low = up;
                 up = low + timeinterval;
@@ -125,9 +126,9 @@ public class PearsonCorr {
             if (i >= num) {
                 break;
             }
-            if (CollectionA.Data.get(j).getX() >= low && CollectionA.Data.get(j).getX() < up) {
-                if (CollectionA.Data.get(j).getY() > arrayA[i]) {
-                    arrayA[i] = CollectionA.Data.get(j).getY();
+            if (CollectionA.Data.GetX(j) >= low && CollectionA.Data.GetX(j) < up) {
+                if (CollectionA.Data.GetY(j) > arrayA[i]) {
+                    arrayA[i] = CollectionA.Data.GetY(j);
                 }
             }
         }
@@ -135,7 +136,7 @@ public class PearsonCorr {
         low = start;
         up = start + timeinterval;
         for (int j = 0; j < CollectionB.PointCount(); j++) {
-            while (CollectionB.Data.get(j).getX() > up) {
+            while (CollectionB.Data.GetX(j) > up) {
                 i++;
                 low = up;
                 up = low + timeinterval;
@@ -143,9 +144,9 @@ public class PearsonCorr {
             if (i >= num) {
                 break;
             }
-            if (CollectionB.Data.get(j).getX() >= low && CollectionB.Data.get(j).getX() < up) {
-                if (CollectionB.Data.get(j).getY() > arrayB[i]) {
-                    arrayB[i] = CollectionB.Data.get(j).getY();
+            if (CollectionB.Data.GetX(j) >= low && CollectionB.Data.GetX(j) < up) {
+                if (CollectionB.Data.GetY(j) > arrayB[i]) {
+                    arrayB[i] = CollectionB.Data.GetY(j);
                 }
             }
         }
@@ -38,8 +38,26 @@ public class FragmentSelection {
     public float freqPercent = 0f;
     public int NoConsecutiveRun = 3;
 
+    //IDs the peptide ions of all the files are joined by
+    IDRegistry Registry;
+
     public FragmentSelection(ArrayList<LCMSID> FileList) {
         this.FileList = FileList;
+        Registry = FileList.isEmpty() ? new IDRegistry() : FileList.get(0).GetRegistry();
+        for (LCMSID IDSummary : FileList) {
+            if (!IDSummary.IsOnRegistry(Registry)) {
+                IDSummary.UseRegistry(Registry);
+            }
+        }
+    }
+
+    //Identified or else mapped peptide ion of the file with the ID in Registry
+    private PepIonID GetPepIon(LCMSID IDSummary, int KeyID) {
+        PepIonID pep = IDSummary.GetPepIonByID(KeyID);
+        if (pep == null) {
+            pep = IDSummary.GetMappedPepIonByID(KeyID);
+        }
+        return pep;
     }
 
     public void ExportResult() {
@@ -61,17 +79,13 @@ public class FragmentSelection {
         }
 
         for (String PepKey : PepFragScore.keySet()) {
+            int KeyID = Registry.PepIons.Find(PepKey);
             int IDNo = 0;
             HashMap<String, Float> fragmentscore = new HashMap<>();
             HashMap<String, Integer> fragmentfreq = new HashMap<>();
 
             for (LCMSID IDSummary : FileList) {
-                PepIonID pep = null;
-                if (IDSummary.GetPepIonList().containsKey(PepKey)) {
-                    pep = IDSummary.GetPepIonList().get(PepKey);
-                } else if (IDSummary.GetMappedPepIonList().containsKey(PepKey)) {
-                    pep = IDSummary.GetMappedPepIonList().get(PepKey);
-                }
+                PepIonID pep = GetPepIon(IDSummary, KeyID);
                 if (pep != null) {
                     IDNo++;
                     for (FragmentPeak frag : pep.FragmentPeaks) {
@@ -112,17 +126,13 @@ public class FragmentSelection {
         }
 
         for (String PepKey : PepFragScore.keySet()) {
+            int KeyID = Registry.PepIons.Find(PepKey);
             HashMap<String, Float> fragmentscore = new HashMap<>();
             HashMap<String, Boolean[]> fragmentIDMap = new HashMap<>();
 
             for (int i = 0; i < FileList.size(); i++) {
                 LCMSID IDSummary = FileList.get(i);
-                PepIonID pep = null;
-                if (IDSummary.GetPepIonList().containsKey(PepKey)) {
-                    pep = IDSummary.GetPepIonList().get(PepKey);
-                } else if (IDSummary.GetMappedPepIonList().containsKey(PepKey)) {
-                    pep = IDSummary.GetMappedPepIonList().get(PepKey);
-                }
+                PepIonID pep = GetPepIon(IDSummary, KeyID);
                 if (pep != null) {
                     for (FragmentPeak frag : pep.FragmentPeaks) {
                         if (!fragmentscore.containsKey(frag.GetFragKey())) {
@@ -326,14 +336,10 @@ public class FragmentSelection {
     public void FillMissingFragScoreMap() {
         for (String PepKey : PepFragScore.keySet()) {
             if (PepFragScore.get(PepKey).isEmpty()) {
+                int KeyID = Registry.PepIons.Find(PepKey);
                 HashMap<String, Float> fragmentscore = new HashMap<>();
                 for (LCMSID IDSummary : FileList) {
-                    PepIonID pep = null;
-                    if (IDSummary.GetPepIonList().containsKey(PepKey)) {
-                        pep = IDSummary.GetPepIonList().get(PepKey);
-                    } else if (IDSummary.GetMappedPepIonList().containsKey(PepKey)) {
-                        pep = IDSummary.GetMappedPepIonList().get(PepKey);
-                    }
+                    PepIonID pep = GetPepIon(IDSummary, KeyID);
                     if (pep != null) {
                         for (FragmentPeak frag : pep.FragmentPeaks) {
                             if (!fragmentscore.containsKey(frag.GetFragKey())) {
@@ -0,0 +1,110 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PSMDataStructure;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact int IDs, and one shared String instance, for the peptide ion keys
+ * (PepIonID.GetKey()), peptide sequences and protein accessions of the
+ * LCMSIDs of one run. LCMSIDs on the same registry (see
+ * LCMSID.UseRegistry()) index their peptide ions by ID, so the cross-file
+ * joins compare ints instead of hashing the mod sequence keys, and a key
+ * read from many files is stored once. A registry is dropped with the run
+ * holding it; the maps of the LCMSIDs stay keyed by String for export.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class IDRegistry {
+
+    public final Keys PepIons = new Keys();
+    public final Keys Peptides = new Keys();
+    public final Keys Proteins = new Keys();
+
+    /**
+     * IDs of one kind of key, starting at 0 and never reused. Known keys are
+     * found without locking.
+     */
+    public static class Keys {
+
+        private final ConcurrentHashMap<String, Integer> IDs = new ConcurrentHashMap<>();
+        private volatile String[] KeyArray = new String[1024];
+        //written after the key it counts, so GetKey() sees the key once it sees the count
+        private volatile int Size = 0;
+
+        /**
+         * @return the ID of key, assigning one if needed
+         */
+        public int GetID(String key) {
+            Integer id = IDs.get(key);
+            return id != null ? id : Assign(key);
+        }
+
+        private synchronized int Assign(String key) {
+            Integer id = IDs.get(key);
+            if (id != null) {
+                return id;
+            }
+            String[] keys = KeyArray;
+            if (Size == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+                KeyArray = keys;
+            }
+            keys[Size] = key;
+            Size = Size + 1;
+            IDs.put(key, Size - 1);
+            return Size - 1;
+        }
+
+        /**
+         * @return the ID of key, -1 if it has none
+         */
+        public int Find(String key) {
+            Integer id = IDs.get(key);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * @return the shared instance of the key of id, null if id is not
+         * assigned
+         */
+        public String GetKey(int id) {
+            if (id < 0 || id >= Size) {
+                return null;
+            }
+            return KeyArray[id];
+        }
+
+        /**
+         * @return the shared instance equal to key
+         */
+        public String Intern(String key) {
+            if (key == null) {
+                return null;
+            }
+            return GetKey(GetID(key));
+        }
+
+        public int Size() {
+            return Size;
+        }
+    }
+}
@@ -51,8 +51,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map.Entry;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
@@ -79,6 +81,10 @@ public class LCMSID implements Serializable {
     public HashMap<String, ProtID> ProteinList;
     public HashMap<String, ProtID> IndisProteinIDList;
     private HashMap<String, PepIonID> MappedPepIonList;
+    //IDs of the run this LCMSID is joined on, and the peptide ions of PepIonList/MappedPepIonList by ID (see UseRegistry())
+    private transient IDRegistry Registry;
+    private transient PepIonID[] PepIonByID;
+    private transient PepIonID[] MappedPepIonByID;
     public HashMap<String, ModificationInfo> ModificationList;
     public HashMap<String, ProtID> PepXMLProteinList;
     public HashMap<String, HashMap<String, PepIonID>> PeptideList;
@@ -285,6 +291,100 @@ public class LCMSID implements Serializable {
     public void SetMappedPepIonList(HashMap<String, PepIonID> list) {
         MappedPepIonList = list;
     }
+
+    /**
+     * Joins this LCMSID to the IDs of a run shared with other LCMSIDs: the
+     * keys of the peptide ion, peptide and protein maps are replaced by the
+     * registry's instances, and the peptide ions are indexed by ID for
+     * GetPepIonByID()/GetMappedPepIonByID(). Peptide ions put into the maps
+     * afterwards are only found by ID if added by AddMappedPepIon(), or
+     * after calling UseRegistry() again.
+     */
+    public void UseRegistry(IDRegistry registry) {
+        Registry = registry;
+        PepIonList = InternKeys(PepIonList, registry.PepIons);
+        MappedPepIonList = InternKeys(MappedPepIonList, registry.PepIons);
+        AssignedPepIonList = InternKeys(AssignedPepIonList, registry.PepIons);
+        ProtXMLPepIonList = InternKeys(ProtXMLPepIonList, registry.PepIons);
+        ProteinList = InternKeys(ProteinList, registry.Proteins);
+        IndisProteinIDList = InternKeys(IndisProteinIDList, registry.Proteins);
+        if (ProteinList != null) {
+            for (ProtID protein : ProteinList.values()) {
+                protein.setAccNo(registry.Proteins.Intern(protein.getAccNo()));
+            }
+        }
+        if (PeptideList != null) {
+            HashMap<String, HashMap<String, PepIonID>> peptides = new HashMap<>(PeptideList.size() * 2);
+            for (Entry<String, HashMap<String, PepIonID>> entry : PeptideList.entrySet()) {
+                peptides.put(registry.Peptides.Intern(entry.getKey()), InternKeys(entry.getValue(), registry.PepIons));
+            }
+            PeptideList = peptides;
+        }
+        PepIonByID = IndexByID(PepIonList);
+        MappedPepIonByID = IndexByID(MappedPepIonList);
+    }
+
+    /**
+     * @return the registry this LCMSID is on, a new one if UseRegistry()
+     * was not called
+     */
+    public IDRegistry GetRegistry() {
+        if (Registry == null) {
+            UseRegistry(new IDRegistry());
+        }
+        return Registry;
+    }
+
+    public boolean IsOnRegistry(IDRegistry registry) {
+        return Registry == registry;
+    }
+
+    private PepIonID[] IndexByID(HashMap<String, PepIonID> map) {
+        PepIonID[] index = new PepIonID[Registry.PepIons.Size()];
+        if (map != null) {
+            for (PepIonID pepIonID : map.values()) {
+                int id = pepIonID.GetKeyID(Registry);
+                if (id >= index.length) {
+                    index = Arrays.copyOf(index, Registry.PepIons.Size());
+                }
+                index[id] = pepIonID;
+            }
+        }
+        return index;
+    }
+
+    //Peptide ion of PepIonList with the ID in GetRegistry(), null if there is none
+    public PepIonID GetPepIonByID(int KeyID) {
+        PepIonID[] index = PepIonByID;
+        return index != null && KeyID >= 0 && KeyID < index.length ? index[KeyID] : null;
+    }
+
+    //Peptide ion of MappedPepIonList with the ID in GetRegistry(), null if there is none
+    public PepIonID GetMappedPepIonByID(int KeyID) {
+        PepIonID[] index = MappedPepIonByID;
+        return index != null && KeyID >= 0 && KeyID < index.length ? index[KeyID] : null;
+    }
+
+    //Adds the peptide ion to MappedPepIonList, keeping the ID index up to date
+    public void AddMappedPepIon(PepIonID pepIonID) {
+        int id = pepIonID.GetKeyID(GetRegistry());
+        MappedPepIonList.put(pepIonID.GetKey(), pepIonID);
+        if (id >= MappedPepIonByID.length) {
+            MappedPepIonByID = Arrays.copyOf(MappedPepIonByID, Math.max(id + 1, Registry.PepIons.Size()));
+        }
+        MappedPepIonByID[id] = pepIonID;
+    }
+
+    private static <V> HashMap<String, V> InternKeys(HashMap<String, V> map, IDRegistry.Keys interner) {
+        if (map == null) {
+            return null;
+        }
+        HashMap<String, V> interned = new HashMap<>(map.size() * 2);
+        for (Entry<String, V> entry : map.entrySet()) {
+            interned.put(interner.Intern(entry.getKey()), entry.getValue());
+        }
+        return interned;
+    }
 //    public void ParseFromXML(String PepFile, float PepScore) throws ParserConfigurationException, SAXException, IOException {
 //        PepXMLParser pepXMLParser = new PepXMLParser(this, PepFile, PepScore);
 //    }
@@ -83,6 +83,25 @@ public class PepIonID implements Serializable {
     public float MS2AlignmentProbability = -1f;
     public float MS1AlignmentLocalProbability= -1f;
     public float MS2AlignmentLocalProbability= -1f;
+    //GetKey() for the ModSequence and Charge it was made from, and its ID in Registry (if any)
+    private transient CachedKey Key;
+
+    private static class CachedKey {
+
+        final String ModSequence;
+        final int Charge;
+        final String Key;
+        final IDRegistry Registry;
+        final int ID;
+
+        CachedKey(String ModSequence, int Charge, String Key, IDRegistry Registry, int ID) {
+            this.ModSequence = ModSequence;
+            this.Charge = Charge;
+            this.Key = Key;
+            this.Registry = Registry;
+            this.ID = ID;
+        }
+    }
 
     public Peptide GetPepFactory() {
         if (peptide == null) {
@@ -263,7 +282,30 @@ public class PepIonID implements Serializable {
     }
 
     public String GetKey() {
-        return ModSequence + "_" + Charge;
+        return GetCachedKey().Key;
+    }
+
+    /**
+     * @return the ID of GetKey() in registry.PepIons, the same for the same
+     * peptide ion in every LCMSID on the registry
+     */
+    public int GetKeyID(IDRegistry registry) {
+        CachedKey key = GetCachedKey();
+        if (key.Registry != registry) {
+            int id = registry.PepIons.GetID(key.Key);
+            key = new CachedKey(ModSequence, Charge, registry.PepIons.GetKey(id), registry, id);
+            Key = key;
+        }
+        return key.ID;
+    }
+
+    private CachedKey GetCachedKey() {
+        CachedKey key = Key;
+        if (key == null || key.ModSequence != ModSequence || key.Charge != Charge) {
+            key = new CachedKey(ModSequence, Charge, ModSequence + "_" + Charge, null, -1);
+            Key = key;
+        }
+        return key;
     }
     
     public boolean IsDecoy(String decoytag) {
@@ -19,7 +19,9 @@
  */
 package MSUmpire.PeakDataStructure;
 
+import MSUmpire.BaseDataStructure.ScratchBuffer;
 import MSUmpire.BaseDataStructure.XYData;
+import MSUmpire.BaseDataStructure.XYPointArray;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 
 /**
@@ -66,6 +68,105 @@ public class Bspline {
         return bsplineCollection;
     }
 
+    /**
+     * Same curve as Run(), evaluated with de Boor's algorithm: the knot span
+     * of each t is found by moving on from the span of the previous t, and
+     * the point is blended from the p+1 control points of the span only, in
+     * O(p^2) instead of the recursive basis functions of every control
+     * point. For p &gt;= 2 the points differ from Run() by rounding only;
+     * for p = 1 the rounding of t at the knots can change the number of
+     * points, so degrees below 2 are left to Run().
+     */
+    public XYPointArray RunDeBoor(XYPointArray data, int PtNum, int smoothDegree) {
+        int p = smoothDegree;
+        int count = data.PointCount();
+        if (count <= p) {
+            return data;
+        }
+        if (p < 2) {
+            return XYPointArray.FromXYPointCollection(Run(data.ToXYPointCollection(), PtNum, smoothDegree));
+        }
+        float[] ctrlX = new float[count];
+        float[] ctrlY = new float[count];
+        for (int i = 0; i < count; i++) {
+            ctrlX[i] = data.GetX(i);
+            ctrlY[i] = data.GetY(i);
+        }
+        float[] x = new float[PtNum + 3];
+        float[] y = new float[PtNum + 3];
+        int size = DeBoor(ctrlX, ctrlY, 0, count, PtNum, p, x, y);
+        XYPointArray bsplineCollection = new XYPointArray(size);
+        bsplineCollection.AddPoints(x, y, size);
+        bsplineCollection.Finalize();
+        return bsplineCollection;
+    }
+
+    /**
+     * The points of RunDeBoor() for the control points ctrlX/ctrlY[offset] to
+     * [offset+count-1] (ascending x, count &gt; p &gt;= 2), written to outX
+     * and outY from index 0; outX and outY need PtNum+3 elements.
+     *
+     * @return the number of points written
+     */
+    public static int DeBoor(float[] ctrlX, float[] ctrlY, int offset, int count, int PtNum, int p, float[] outX, float[] outY) {
+        int n = count - 1;
+        int m = count + p;
+        //same knots as Run(), with the same float rounding
+        float[] knots = ScratchBuffer.Get().Floats(ScratchBuffer.BSPLINE_KNOTS, m + p);
+        for (int i = 0; i <= p; i++) {
+            knots[i] = 0;
+        }
+        float intv = 1.0f / (m - 2 * p);
+        for (int i = 1; i <= (m - 1); i++) {
+            knots[p + i] = knots[p + i - 1] + intv;
+        }
+
+        //the points of t are added from outX[1], outX[0] is kept for the first control point
+        int size = 1;
+        double[] dx = new double[p + 1];
+        double[] dy = new double[p + 1];
+        //t is in [knots[span], knots[span+1]), the basis functions of the highest span used by Run() end at knots[n+p+1]
+        int span = p;
+        for (int i = 0; i <= PtNum; i++) {
+            float t = ((float) i / PtNum);
+            while (span < n + p && t >= knots[span + 1]) {
+                span++;
+            }
+            if (!(t >= knots[span] && t < knots[span + 1])) {
+                outX[size] = 0f;
+                outY[size++] = 0f;
+                continue;
+            }
+            //control points after the last one count as 0
+            for (int j = 0; j <= p; j++) {
+                int ctrl = span - p + j;
+                dx[j] = ctrl <= n ? ctrlX[offset + ctrl] : 0.0;
+                dy[j] = ctrl <= n ? ctrlY[offset + ctrl] : 0.0;
+            }
+            for (int r = 1; r <= p; r++) {
+                for (int j = p; j >= r; j--) {
+                    double alpha = (t - knots[span - p + j]) / (double) (knots[span + 1 + j - r] - knots[span - p + j]);
+                    dx[j] = (1.0 - alpha) * dx[j - 1] + alpha * dx[j];
+                    dy[j] = (1.0 - alpha) * dy[j - 1] + alpha * dy[j];
+                }
+            }
+            outX[size] = (float) dx[p];
+            outY[size++] = (float) dy[p];
+        }
+        if (outX[size - 1] < ctrlX[offset + n]) {
+            outX[size] = ctrlX[offset + n];
+            outY[size++] = ctrlY[offset + n];
+        }
+        if (outX[1] > ctrlX[offset]) {
+            outX[0] = ctrlX[offset];
+            outY[0] = ctrlY[offset];
+        } else {
+            System.arraycopy(outX, 1, outX, 0, --size);
+            System.arraycopy(outY, 1, outY, 0, size);
+        }
+        return size;
+    }
+
     XYData getbspline(XYPointCollection data, float t, int n, int p) {
         XYData pt = new XYData(0, 0);
 
@@ -273,13 +273,14 @@ public class PeakCluster implements Serializable {
             if (peak == null) {
                 break;
             }
-            for (int j = 0; j < peak.GetSmoothedList().PointCount(); j++) {
-                XYData pt = peak.GetSmoothedList().Data.get(j);
-                if (pt.getX() >= startRT && pt.getX() <= endRT) {
-                    PeakArea[i] += pt.getY();
-                    if (pt.getY() > PeakHeight[i]) {
-                        PeakHeight[i] = pt.getY();
-                        PeakHeightRT[i] = pt.getX();
+            for (int j = 0; j < peak.SmoothPointCount(); j++) {
+                float rt = peak.GetSmoothRT(j);
+                float intensity = peak.GetSmoothIntensity(j);
+                if (rt >= startRT && rt <= endRT) {
+                    PeakArea[i] += intensity;
+                    if (intensity > PeakHeight[i]) {
+                        PeakHeight[i] = intensity;
+                        PeakHeightRT[i] = rt;
                     }
                 }
             }
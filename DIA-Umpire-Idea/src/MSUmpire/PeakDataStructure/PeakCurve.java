@@ -19,12 +19,18 @@
  */
 package MSUmpire.PeakDataStructure;
 
+import MSUmpire.BaseDataStructure.FixedPointCodec;
 import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScratchBuffer;
 import MSUmpire.BaseDataStructure.XYData;
+import MSUmpire.BaseDataStructure.XYPointArray;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 import MSUmpire.BaseDataStructure.XYZData;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -42,10 +48,20 @@ import org.jfree.data.xy.XYSeries;
  * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
  */
 public class PeakCurve implements Serializable  {
-    private static final long serialVersionUID = 6498163564821L;
-
-    private ArrayList<XYZData> PeakList;
-    private XYPointCollection SmoothData;
+    //changed when SmoothData became an XYPointArray: files written before are rejected and the peaks detected again
+    private static final long serialVersionUID = 6498163564822L;
+    //written after the fields, as FST does not check serialVersionUID (see readObject())
+    private static final int SERIAL_FORMAT = 3;
+    //degree of the B-spline of DoBspline()
+    public static final int BSPLINE_DEGREE = 2;
+
+    //the points are serialized by writeObject() as packed arrays
+    private transient ArrayList<XYZData> PeakList;
+    private transient XYPointArray SmoothData;
+    //PeakList as (rt, mz, intensity) and SmoothData as (rt, intensity) triples/pairs after Pack()
+    //volatile: the list is set before the packed array is cleared, so a reader seeing null sees the list
+    private transient volatile float[] PackedPeaks;
+    private transient volatile float[] PackedSmooth;
     private float startint = 0f;
     public int Index;
     private float endrt = -1f;
@@ -77,22 +93,39 @@ public class PeakCurve implements Serializable  {
 
     //using B-spline to generate smoothed peak signals
     public void DoBspline() {
+        Unpack();
         for (XYZData point : PeakList) {
-            XYData pt = new XYData(point.getX(), point.getZ());
-            SmoothData.AddPoint(pt);
+            SmoothData.AddPoint(point.getX(), point.getZ());
         }
         Bspline bspline = new Bspline();
-        SmoothData = bspline.Run(SmoothData, (int) Math.max((RTWidth() * parameter.NoPeakPerMin), PeakList.size()), 2);
+        SmoothData = bspline.RunDeBoor(SmoothData, BsplinePtNum(), BSPLINE_DEGREE);
         bspline = null;
     }
 
+    //Number of B-spline segments of DoBspline()
+    public int BsplinePtNum() {
+        return (int) Math.max((RTWidth() * parameter.NoPeakPerMin), PeakCount());
+    }
+
+    /**
+     * Sets the smoothed points to the first count points of x/y (ascending
+     * x), e.g. the B-spline computed by Bspline.DeBoor() for a batch of
+     * curves; the same as DoBspline() when they are its points.
+     */
+    public void SetSmoothData(float[] x, float[] y, int count) {
+        Unpack();
+        SmoothData = new XYPointArray(count);
+        SmoothData.AddPoints(x, y, count);
+        SmoothData.Finalize();
+    }
+
     public void DoInterpolation() {
+        Unpack();
         for (XYZData point : PeakList) {
-            XYData pt = new XYData(point.getX(), point.getZ());
-            SmoothData.AddPoint(pt);
+            SmoothData.AddPoint(point.getX(), point.getZ());
         }
         LinearInterpolation interpo = new LinearInterpolation();
-        SmoothData = interpo.Run(SmoothData, (int) Math.max((RTWidth() * parameter.NoPeakPerMin), PeakList.size()));
+        SmoothData = XYPointArray.FromXYPointCollection(interpo.Run(SmoothData.ToXYPointCollection(), (int) Math.max((RTWidth() * parameter.NoPeakPerMin), PeakList.size())));
         interpo = null;
     }
 
@@ -122,7 +155,7 @@ public class PeakCurve implements Serializable  {
 //        }
 //    }
     public void DetectPeakRegion() {
-        ArrayList<XYData> PeakArrayList = new ArrayList<>();
+        Unpack();
         PeakRidgeList = new SortedRidgeCollectionClass();
         PeakRegionList = new ArrayList<>();
         NoRidgeRegion = new ArrayList<>();
@@ -134,10 +167,14 @@ public class PeakCurve implements Serializable  {
 //            PeakArrayList.add(new XYPoint(PeakList.get(i).X, PeakList.get(i).Z));
 //        }
 
-        for (int i = 0; i < SmoothData.PointCount(); i++) {
-            PeakArrayList.add(new XYData(SmoothData.Data.get(i).getX(), SmoothData.Data.get(i).getY()));
+        int PointCount = SmoothData.PointCount();
+        float[] SmoothX = ScratchBuffer.Get().Floats(ScratchBuffer.WAVELET_X, PointCount);
+        float[] SmoothY = ScratchBuffer.Get().Floats(ScratchBuffer.WAVELET_Y, PointCount);
+        for (int i = 0; i < PointCount; i++) {
+            SmoothX[i] = SmoothData.GetX(i);
+            SmoothY[i] = SmoothData.GetY(i);
         }
-        waveletMassDetector = new WaveletMassDetector(parameter, PeakArrayList, (int) (RTWidth() * parameter.NoPeakPerMin));
+        waveletMassDetector = new WaveletMassDetector(parameter, SmoothX, SmoothY, PointCount, (int) (RTWidth() * parameter.NoPeakPerMin));
         waveletMassDetector.Run();
 
         int maxScale = waveletMassDetector.PeakRidge.length - 1;
@@ -231,28 +268,28 @@ public class PeakCurve implements Serializable  {
         }
 
         if (PeakRidgeList.size() <= 1) {
-            PeakRegionList.add(new XYZData(SmoothData.Data.get(0).getX(), ApexRT, SmoothData.Data.get(SmoothData.PointCount() - 1).getX()));
+            PeakRegionList.add(new XYZData(SmoothData.GetX(0), ApexRT, SmoothData.GetX(SmoothData.PointCount() - 1)));
             ArrayList<Float> RidgeRTs = new ArrayList<>();
             RidgeRTs.add(ApexRT);
             NoRidgeRegion.add(RidgeRTs);
         }
         if (PeakRidgeList.size() > 1) {
             XYData[] ValleyPoints = new XYData[PeakRidgeList.size() + 1];
-            ValleyPoints[0] = SmoothData.Data.get(0).cloneXYData();
+            ValleyPoints[0] = SmoothData.Get(0);
             PeakRidge currentridge = PeakRidgeList.get(0);
             XYData localmin = new XYData(-1f, Float.MAX_VALUE);
             int startidx = SmoothData.GetLowerIndexOfX(currentridge.RT);
 
             for (int j = 1; j < PeakRidgeList.size(); j++) {
                 PeakRidge nextridge = PeakRidgeList.get(j);
-                for (int i = startidx; i < SmoothData.Data.size(); i++) {
-                    XYData point = SmoothData.Data.get(i);
-                    if (point.getX() > currentridge.RT && point.getX() < nextridge.RT) {
-                        if (localmin.getY() > point.getY()) {
-                            localmin = point.cloneXYData();
+                for (int i = startidx; i < SmoothData.PointCount(); i++) {
+                    float x = SmoothData.GetX(i);
+                    if (x > currentridge.RT && x < nextridge.RT) {
+                        if (localmin.getY() > SmoothData.GetY(i)) {
+                            localmin = SmoothData.Get(i);
                         }
                     }
-                    if (point.getX() >= nextridge.RT) {
+                    if (x >= nextridge.RT) {
                         startidx = i;
                         break;
                     }
@@ -261,18 +298,18 @@ public class PeakCurve implements Serializable  {
                 localmin = new XYData(-1f, Float.MAX_VALUE);
                 currentridge = nextridge;
             }
-            ValleyPoints[PeakRidgeList.size()] = SmoothData.Data.get(SmoothData.PointCount() - 1).cloneXYData();
+            ValleyPoints[PeakRidgeList.size()] = SmoothData.Get(SmoothData.PointCount() - 1);
 
             //Correct ridge rt and intensity
             startidx = 0;
             for (int i = 0; i < PeakRidgeList.size(); i++) {
                 PeakRidge ridge = PeakRidgeList.get(i);
-                for (int j = startidx; j < SmoothData.Data.size(); j++) {
-                    XYData point = SmoothData.Data.get(j);
-                    if (point.getX() < ValleyPoints[i + 1].getX()) {
-                        if (ridge.intensity < point.getY()) {
-                            ridge.intensity = point.getY();
-                            ridge.RT = point.getX();
+                for (int j = startidx; j < SmoothData.PointCount(); j++) {
+                    float x = SmoothData.GetX(j);
+                    if (x < ValleyPoints[i + 1].getX()) {
+                        if (ridge.intensity < SmoothData.GetY(j)) {
+                            ridge.intensity = SmoothData.GetY(j);
+                            ridge.RT = x;
                         }
                     } else {
                         startidx = j;
@@ -314,8 +351,6 @@ public class PeakCurve implements Serializable  {
             NoRidgeRegion.add(RidgeRTs);
         }
         waveletMassDetector = null;
-        PeakArrayList.clear();
-        PeakArrayList = null;
         PeakRidgeList.clear();
         PeakRidgeList = null;
     }
@@ -365,8 +400,8 @@ public class PeakCurve implements Serializable  {
             if (region.getZ() - region.getX() > parameter.MaxCurveRTRange) {
                 int leftidx = GetSmoothedList().GetLowerIndexOfX(region.getX());
                 int rightidx = GetSmoothedList().GetHigherIndexOfX(region.getZ());
-                XYData left = GetSmoothedList().Data.get(leftidx);
-                XYData right = GetSmoothedList().Data.get(rightidx);
+                XYData left = GetSmoothedList().Get(leftidx);
+                XYData right = GetSmoothedList().Get(rightidx);
                 while ((right.getX() - left.getX()) > parameter.MaxCurveRTRange) {
                     if (right.getX() - region.getY() <= parameter.MaxCurveRTRange / 4f) {
                         leftidx++;
@@ -377,8 +412,8 @@ public class PeakCurve implements Serializable  {
                     } else {
                         rightidx--;
                     }
-                    left = GetSmoothedList().Data.get(leftidx);
-                    right = GetSmoothedList().Data.get(rightidx);
+                    left = GetSmoothedList().Get(leftidx);
+                    right = GetSmoothedList().Get(rightidx);
                 }
                 region.setX(left.getX());
                 region.setZ(right.getX());
@@ -396,12 +431,12 @@ public class PeakCurve implements Serializable  {
             }
         }
 
-        for (int i = 0; i < GetSmoothedList().Data.size(); i++) {
-            XYData peak = GetSmoothedList().Data.get(i);
+        for (int i = 0; i < GetSmoothedList().PointCount(); i++) {
+            float x = GetSmoothedList().GetX(i);
             for (int j = 0; j < GetPeakRegionList().size(); j++) {
                 XYZData region = GetPeakRegionList().get(j);
-                if (peak.getX() >= region.getX() && peak.getX() <= region.getZ()) {
-                    tempArrayList.get(j).GetSmoothedList().Data.add(peak);
+                if (x >= region.getX() && x <= region.getZ()) {
+                    tempArrayList.get(j).GetSmoothedList().AddPoint(x, GetSmoothedList().GetY(i));
                     break;
                 }
             }
@@ -409,7 +444,7 @@ public class PeakCurve implements Serializable  {
 
         for (PeakCurve peak : tempArrayList) {
             if (peak.PeakList.size() > 2) {
-                peak.GetSmoothedList().Data.Finalize();
+                peak.GetSmoothedList().Finalize();
                 returnArrayList.add(peak);
             }
         }
@@ -419,24 +454,24 @@ public class PeakCurve implements Serializable  {
 
     public PeakCurve(InstrumentParameter parameter) {
         this.parameter = parameter;
-        SmoothData = new XYPointCollection();
+        SmoothData = new XYPointArray();
         PeakList = new ArrayList<>();
         PeakRegionList = new ArrayList<>();
     }
 
     public float StartInt() {
         if (startint == 0f) {
-            startint = PeakList.get(0).getZ();
+            startint = GetPeakIntensity(0);
         }
         return startint;
     }
 
     public float StartRT() {
         if (startrt == -1f) {
-            if (SmoothData != null && SmoothData.Data.size() > 0) {
-                startrt = SmoothData.Data.get(0).getX();
+            if (SmoothPointCount() > 0) {
+                startrt = GetSmoothRT(0);
             } else {
-                startrt = PeakList.get(0).getX();
+                startrt = GetPeakRT(0);
             }
         }
         return startrt;
@@ -454,10 +489,11 @@ public class PeakCurve implements Serializable  {
 
     public float GetMaxIntensityByRegionRange(float StartRT, float EndRT) {
         float max = 0f;
-        for (int j = 0; j < GetSmoothedList().PointCount(); j++) {
-            XYData pt = GetSmoothedList().Data.get(j);
-            if (pt.getX() >= StartRT && pt.getX() <= EndRT && pt.getY() > max) {
-                max = pt.getY();
+        for (int j = 0; j < SmoothPointCount(); j++) {
+            float rt = GetSmoothRT(j);
+            float intensity = GetSmoothIntensity(j);
+            if (rt >= StartRT && rt <= EndRT && intensity > max) {
+                max = intensity;
             }
         }
         return max;
@@ -466,8 +502,8 @@ public class PeakCurve implements Serializable  {
     private void CalculateBaseLine() {
         _baseLine = 0f;
         PriorityQueue<Float> IntensityQueue = new PriorityQueue<>();
-        for (XYData point : SmoothData.Data) {
-            IntensityQueue.add(point.getY());
+        for (int i = 0; i < SmoothPointCount(); i++) {
+            IntensityQueue.add(GetSmoothIntensity(i));
         }
 
         if (IntensityQueue.size() > 10) {
@@ -511,18 +547,18 @@ public class PeakCurve implements Serializable  {
         if (endrt != -1) {
             return endrt;
         }
-        if (SmoothData != null && SmoothData.Data.size() > 0) {
-            return SmoothData.Data.get(SmoothData.PointCount() - 1).getX();
+        if (SmoothPointCount() > 0) {
+            return GetSmoothRT(SmoothPointCount() - 1);
         }
-        return PeakList.get(PeakList.size() - 1).getX();
+        return GetPeakRT(PeakCount() - 1);
     }
 
     public float FinalEndRT() {
         if (endrt == -1f) {
-            if (SmoothData != null && SmoothData.Data.size() > 0) {
-                endrt = SmoothData.Data.get(SmoothData.PointCount() - 1).getX();
+            if (SmoothPointCount() > 0) {
+                endrt = GetSmoothRT(SmoothPointCount() - 1);
             } else {
-                endrt = PeakList.get(PeakList.size() - 1).getX();
+                endrt = GetPeakRT(PeakCount() - 1);
             }
         }
         return endrt;
@@ -531,8 +567,8 @@ public class PeakCurve implements Serializable  {
     public XYPointCollection GetPeakCollection() {
         XYPointCollection PtCollection = new XYPointCollection();
 
-        for (int i = 0; i < SmoothData.Data.size(); i++) {
-            PtCollection.AddPoint(SmoothData.Data.get(i).getX(), SmoothData.Data.get(i).getY());
+        for (int i = 0; i < SmoothPointCount(); i++) {
+            PtCollection.AddPoint(GetSmoothRT(i), GetSmoothIntensity(i));
         }
         return PtCollection;
     }
@@ -540,12 +576,12 @@ public class PeakCurve implements Serializable  {
     public XYPointCollection GetSmoothPeakCollection(float startRT, float endRT) {
         XYPointCollection PtCollection = new XYPointCollection();
 
-        for (int i = 0; i < SmoothData.PointCount(); i++) {
-            XYData pt = SmoothData.Data.get(i);
-            if (pt.getX() > endRT) {
+        for (int i = 0; i < SmoothPointCount(); i++) {
+            float rt = GetSmoothRT(i);
+            if (rt > endRT) {
                 break;
-            } else if (pt.getX() >= startRT && pt.getX() <= endRT) {
-                PtCollection.AddPoint(pt.getX(), pt.getY());
+            } else if (rt >= startRT && rt <= endRT) {
+                PtCollection.AddPoint(rt, GetSmoothIntensity(i));
             }
         }
         return PtCollection;
@@ -553,11 +589,11 @@ public class PeakCurve implements Serializable  {
 
     public float DetermineIntByRTRange(float StartRT, float EndRT) {
         float Intensity = 0f;
-        for (int j = 0; j < GetSmoothedList().PointCount(); j++) {
-            XYData pt = GetSmoothedList().Data.get(j);
-            if (pt.getX() >= StartRT && pt.getX() <= EndRT) {
-                if (pt.getY() > Intensity) {
-                    Intensity = pt.getY();
+        for (int j = 0; j < SmoothPointCount(); j++) {
+            float rt = GetSmoothRT(j);
+            if (rt >= StartRT && rt <= EndRT) {
+                if (GetSmoothIntensity(j) > Intensity) {
+                    Intensity = GetSmoothIntensity(j);
                 }
             }
         }
@@ -587,10 +623,10 @@ public class PeakCurve implements Serializable  {
     public float RTWidth() {
 
         float Width = 0f;
-        if (PeakList.size() > 0) {
-            Width = PeakList.get(PeakList.size() - 1).getX() - PeakList.get(0).getX();
-        } else if (SmoothData.PointCount() > 0) {
-            Width = SmoothData.Data.get(SmoothData.PointCount() - 1).getX() - SmoothData.Data.get(0).getX();
+        if (PeakCount() > 0) {
+            Width = GetPeakRT(PeakCount() - 1) - GetPeakRT(0);
+        } else if (SmoothPointCount() > 0) {
+            Width = GetSmoothRT(SmoothPointCount() - 1) - GetSmoothRT(0);
         }
         return Width;
     }
@@ -621,16 +657,16 @@ public class PeakCurve implements Serializable  {
 //            //ReadPeakResult();
 //            ReadPeakResultMySQL(connection, Filename);
 //        }
-        return PeakList;
+        return UnpackPeaks();
     }
 
-    public XYPointCollection GetSmoothedList() {
+    public XYPointArray GetSmoothedList() {
 //        if(PeakList==null)
 //        {
 //            //ReadPeakResult();
 //            ReadPeakResultMySQL(connection, Filename);
 //        }        
-        return SmoothData;
+        return UnpackSmooth();
     }
 
     public ArrayList<XYZData> GetPeakRegionList() {
@@ -640,11 +676,17 @@ public class PeakCurve implements Serializable  {
     public void ReleasePeakData() {
 
         this.PeakList = null;
-        this.SmoothData.dispose();
+        this.PackedPeaks = null;
+        if (this.SmoothData != null) {
+            this.SmoothData.dispose();
+        }
         this.SmoothData = null;
+        this.PackedSmooth = null;
         this.PeakRegionList = null;
         this.PeakRidgeList = null;
-        this.waveletMassDetector.DataPoint.clear();
+        if (this.waveletMassDetector != null && this.waveletMassDetector.DataPoint != null) {
+            this.waveletMassDetector.DataPoint.clear();
+        }
 //        for (int i = 0; i < this.waveletMassDetector.waveletCWT.length; i++) {
 //            if (this.waveletMassDetector.waveletCWT[i] != null) {
 //                this.waveletMassDetector.waveletCWT[i].clear();
@@ -654,8 +696,14 @@ public class PeakCurve implements Serializable  {
         this.waveletMassDetector = null;
     }
 
+    public void ClearPeakList() {
+        this.PackedPeaks = null;
+        this.PeakList = new ArrayList<>();
+    }
+
     public void ReleaseRawPeak() {
         this.PeakList = null;
+        this.PackedPeaks = null;
         this.PeakRegionList = null;
         this.PeakRidgeList = null;
         this.waveletMassDetector = null;
@@ -663,8 +711,8 @@ public class PeakCurve implements Serializable  {
 
     public XYSeries GetChartXYDatasetRAW() {
         XYSeries series1 = new XYSeries("Curve:" + Index + "_RAW");
-        for (XYZData xYZPoint : PeakList) {
-            series1.add(xYZPoint.getX(), xYZPoint.getZ());
+        for (int i = 0; i < PeakCount(); i++) {
+            series1.add(GetPeakRT(i), GetPeakIntensity(i));
         }
         return series1;
     }
@@ -674,9 +722,8 @@ public class PeakCurve implements Serializable  {
         if (titleString != null) {
             series1.setKey(titleString);
         }
-        for (int i = 0; i < SmoothData.PointCount(); i++) {
-            XYData xYPoint = SmoothData.Data.get(i);
-            series1.add(xYPoint.getX(), xYPoint.getY());
+        for (int i = 0; i < SmoothPointCount(); i++) {
+            series1.add(GetSmoothRT(i), GetSmoothIntensity(i));
         }
         return series1;
     }
@@ -699,14 +746,15 @@ public class PeakCurve implements Serializable  {
 //                AddPeak(new XYZData(Float.parseFloat(Peak[i].split("_")[0]), Float.parseFloat(Peak[i].split("_")[1]), Float.parseFloat(Peak[i].split("_")[2])));
 //            }
 //        }
-        SmoothData = new XYPointCollection();
+        SmoothData = new XYPointArray();
+        PackedSmooth = null;
         String[] Peak = SmoothedPeak.split("#");
         for (int i = 0; i < Peak.length; i++) {
             if (Peak[i] != "") {
-                SmoothData.AddPoint(new XYData(Float.parseFloat(Peak[i].split("_")[0]), Float.parseFloat(Peak[i].split("_")[1])));
+                SmoothData.AddPoint(Float.parseFloat(Peak[i].split("_")[0]), Float.parseFloat(Peak[i].split("_")[1]));
             }
         }
-        SmoothData.Data.Finalize();
+        SmoothData.Finalize();
 //        PeakRegionList = new ArrayList<>();
 //        if (PeakRegion != null) {
 //            Peak = PeakRegion.split("#");
@@ -732,12 +780,12 @@ public class PeakCurve implements Serializable  {
 
         Statement state = connection.createStatement();
         String PeakString = "";
-        for (int j = 0; j < PeakList.size(); j++) {
-            PeakString += PeakList.get(j).getX() + "_" + PeakList.get(j).getY() + "_" + PeakList.get(j).getZ() + "#";
+        for (int j = 0; j < PeakCount(); j++) {
+            PeakString += GetPeakRT(j) + "_" + GetPeakMz(j) + "_" + GetPeakIntensity(j) + "#";
         }
         String SmoothedPeak = "";
-        for (int j = 0; j < SmoothData.PointCount(); j++) {
-            SmoothedPeak += SmoothData.Data.get(j).getX() + "_" + SmoothData.Data.get(j).getY() + "#";
+        for (int j = 0; j < SmoothPointCount(); j++) {
+            SmoothedPeak += GetSmoothRT(j) + "_" + GetSmoothIntensity(j) + "#";
         }
         String PeakRegion = "";
         for (int j = 0; j < PeakRegionList.size(); j++) {
@@ -761,8 +809,8 @@ public class PeakCurve implements Serializable  {
 //            PeakString += PeakList.get(j).getX() + "_" + PeakList.get(j).getY() + "_" + PeakList.get(j).getZ() + "#";
 //        }
         String SmoothedPeak = "";
-        for (int j = 0; j < SmoothData.PointCount(); j++) {
-            SmoothedPeak += SmoothData.Data.get(j).getX() + "_" + SmoothData.Data.get(j).getY() + "#";
+        for (int j = 0; j < SmoothPointCount(); j++) {
+            SmoothedPeak += GetSmoothRT(j) + "_" + GetSmoothIntensity(j) + "#";
         }
         String Ridges = "";
         for (Float ridge : RegionRidge) {
@@ -783,8 +831,8 @@ public class PeakCurve implements Serializable  {
 //            PeakString += PeakList.get(j).getX() + "_" + PeakList.get(j).getY() + "_" + PeakList.get(j).getZ() + "#";
 //        }
         String SmoothedPeak = "";
-        for (int j = 0; j < SmoothData.PointCount(); j++) {
-            SmoothedPeak += SmoothData.Data.get(j).getX() + "_" + SmoothData.Data.get(j).getY() + "#";
+        for (int j = 0; j < SmoothPointCount(); j++) {
+            SmoothedPeak += GetSmoothRT(j) + "_" + GetSmoothIntensity(j) + "#";
         }
         String Ridges = "";
         for (Float ridge : RegionRidge) {
@@ -795,7 +843,7 @@ public class PeakCurve implements Serializable  {
 
     public void AddPeak(XYZData xYZPoint) {
 
-        PeakList.add(xYZPoint);
+        GetPeakList().add(xYZPoint);
         TotalIntMzF += xYZPoint.getY() * xYZPoint.getZ() * xYZPoint.getZ();
         TotalIntF += xYZPoint.getZ() * xYZPoint.getZ();
         if (xYZPoint.getZ() > ApexInt) {
@@ -810,10 +858,208 @@ public class PeakCurve implements Serializable  {
 
     public void CalculateMzVar() {
         MzVar = 0f;
-        for (int j = 0; j < PeakList.size(); j++) {
-            MzVar += (PeakList.get(j).getX() - TargetMz) * (PeakList.get(j).getX() - TargetMz);
+        for (int j = 0; j < PeakCount(); j++) {
+            MzVar += (GetPeakRT(j) - TargetMz) * (GetPeakRT(j) - TargetMz);
+        }
+        MzVar /= PeakCount();
+    }
+
+    /**
+     * Stores the raw peaks and the smoothed signal as float arrays instead
+     * of one object per point; the accessors below read the arrays directly
+     * and GetPeakList()/GetSmoothedList() turn them back into lists.
+     */
+    public synchronized void Pack() {
+        if (PeakList != null) {
+            PackedPeaks = PeaksToArray();
+            PeakList = null;
+        }
+        if (SmoothData != null) {
+            PackedSmooth = SmoothToArray();
+            SmoothData = null;
+        }
+    }
+
+    //The raw peaks in PackedPeaks form, without packing the curve
+    private float[] PeaksToArray() {
+        float[] peaks = PackedPeaks;
+        ArrayList<XYZData> list = PeakList;
+        if (peaks != null || list == null) {
+            return peaks;
+        }
+        peaks = new float[list.size() * 3];
+        for (int i = 0; i < list.size(); i++) {
+            XYZData point = list.get(i);
+            peaks[i * 3] = point.getX();
+            peaks[i * 3 + 1] = point.getY();
+            peaks[i * 3 + 2] = point.getZ();
+        }
+        return peaks;
+    }
+
+    //The smoothed signal in PackedSmooth form, without packing the curve
+    private float[] SmoothToArray() {
+        float[] smooth = PackedSmooth;
+        XYPointArray array = SmoothData;
+        if (smooth != null || array == null) {
+            return smooth;
+        }
+        smooth = new float[array.PointCount() * 2];
+        for (int i = 0; i < array.PointCount(); i++) {
+            smooth[i * 2] = array.GetX(i);
+            smooth[i * 2 + 1] = array.GetY(i);
+        }
+        return smooth;
+    }
+
+    //The points are written as packed arrays (FixedPointCodec form with parameter.CompactPeakEncoding) after the other fields, the curve itself is left as it is
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        float[] peaks;
+        float[] smooth;
+        synchronized (this) {
+            peaks = PeaksToArray();
+            smooth = SmoothToArray();
+        }
+        stream.defaultWriteObject();
+        stream.writeInt(SERIAL_FORMAT);
+        boolean compact = parameter != null && parameter.CompactPeakEncoding;
+        stream.writeBoolean(compact);
+        if (compact) {
+            stream.writeObject(peaks != null ? FixedPointCodec.Encode(peaks, 3, 0, 1) : null);
+            stream.writeObject(smooth != null ? FixedPointCodec.Encode(smooth, 2, 0, -1) : null);
+        } else {
+            stream.writeObject(peaks);
+            stream.writeObject(smooth);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws ClassNotFoundException, IOException {
+        in.defaultReadObject();
+        int format;
+        try {
+            format = in.readInt();
+        } catch (IOException ex) {
+            format = -1;
+        }
+        if (format != SERIAL_FORMAT) {
+            throw new InvalidClassException(PeakCurve.class.getName(), "written by an older version, the peaks need to be detected again");
+        }
+        if (in.readBoolean()) {
+            byte[] peaks = (byte[]) in.readObject();
+            byte[] smooth = (byte[]) in.readObject();
+            PackedPeaks = peaks != null ? FixedPointCodec.Decode(peaks, 3) : null;
+            PackedSmooth = smooth != null ? FixedPointCodec.Decode(smooth, 2) : null;
+        } else {
+            PackedPeaks = (float[]) in.readObject();
+            PackedSmooth = (float[]) in.readObject();
+        }
+    }
+
+    public boolean IsPacked() {
+        return PackedPeaks != null || PackedSmooth != null;
+    }
+
+    public void Unpack() {
+        UnpackPeaks();
+        UnpackSmooth();
+    }
+
+    //Threads reading a packed curve concurrently unpack it once, the others wait and get the same list
+    private ArrayList<XYZData> UnpackPeaks() {
+        if (PackedPeaks == null) {
+            return PeakList;
+        }
+        synchronized (this) {
+            float[] peaks = PackedPeaks;
+            if (peaks != null) {
+                ArrayList<XYZData> list = new ArrayList<>(peaks.length / 3);
+                for (int i = 0; i < peaks.length; i += 3) {
+                    list.add(new XYZData(peaks[i], peaks[i + 1], peaks[i + 2]));
+                }
+                PeakList = list;
+                PackedPeaks = null;
+            }
+            return PeakList;
+        }
+    }
+
+    private XYPointArray UnpackSmooth() {
+        if (PackedSmooth == null) {
+            return SmoothData;
+        }
+        synchronized (this) {
+            float[] smooth = PackedSmooth;
+            if (smooth != null) {
+                XYPointArray array = new XYPointArray(smooth.length / 2);
+                for (int i = 0; i < smooth.length; i += 2) {
+                    array.AddPoint(smooth[i], smooth[i + 1]);
+                }
+                array.Finalize();
+                SmoothData = array;
+                PackedSmooth = null;
+            }
+            return SmoothData;
+        }
+    }
+
+    //The accessors below read the packed array once: another thread may unpack the curve meanwhile
+
+    public int PeakCount() {
+        float[] peaks = PackedPeaks;
+        if (peaks != null) {
+            return peaks.length / 3;
+        }
+        ArrayList<XYZData> list = PeakList;
+        return list != null ? list.size() : 0;
+    }
+
+    public float GetPeakRT(int i) {
+        float[] peaks = PackedPeaks;
+        if (peaks != null) {
+            return peaks[i * 3];
+        }
+        return PeakList.get(i).getX();
+    }
+
+    public float GetPeakMz(int i) {
+        float[] peaks = PackedPeaks;
+        if (peaks != null) {
+            return peaks[i * 3 + 1];
+        }
+        return PeakList.get(i).getY();
+    }
+
+    public float GetPeakIntensity(int i) {
+        float[] peaks = PackedPeaks;
+        if (peaks != null) {
+            return peaks[i * 3 + 2];
+        }
+        return PeakList.get(i).getZ();
+    }
+
+    public int SmoothPointCount() {
+        float[] smooth = PackedSmooth;
+        if (smooth != null) {
+            return smooth.length / 2;
+        }
+        XYPointArray array = SmoothData;
+        return array != null ? array.PointCount() : 0;
+    }
+
+    public float GetSmoothRT(int i) {
+        float[] smooth = PackedSmooth;
+        if (smooth != null) {
+            return smooth[i * 2];
+        }
+        return SmoothData.GetX(i);
+    }
+
+    public float GetSmoothIntensity(int i) {
+        float[] smooth = PackedSmooth;
+        if (smooth != null) {
+            return smooth[i * 2 + 1];
         }
-        MzVar /= PeakList.size();
+        return SmoothData.GetY(i);
     }
 
 }
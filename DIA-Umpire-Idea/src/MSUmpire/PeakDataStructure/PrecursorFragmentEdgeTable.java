@@ -0,0 +1,309 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeakDataStructure;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.RandomAccess;
+
+/**
+ * Precursor-fragment pairs grouped by cluster index, stored in compressed
+ * sparse row form: the sorted cluster indexes, the offset of each cluster's
+ * group and one array holding all the groups one after the other. Replaces
+ * HashMap&lt;Integer, ArrayList&lt;PrecursorFragmentPairEdge&gt;&gt;, which
+ * needs a boxed key, a map entry and an ArrayList for every cluster.
+ * <p>
+ * Pairs are appended with {@link #Add} and {@link #AddAll} in any cluster
+ * order (pairs of one cluster keep the order they were added in) to a
+ * pending buffer, which {@link #Freeze()} or the first query merges into the
+ * packed groups; the packed groups are not copied back when more pairs are
+ * added. Call Freeze() before sharing a table between threads. The pairs
+ * are written to the serialization stream as primitive columns.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class PrecursorFragmentEdgeTable implements Serializable {
+
+    private static final long serialVersionUID = 5618473326584127L;
+
+    //Pairs appended since the last Freeze(), a null edge only registers its key; merged into Keys/Offsets/Edges by Freeze()
+    private transient int[] AddedKeys;
+    private transient PrecursorFragmentPairEdge[] AddedEdges;
+    private transient int AddedCount = 0;
+
+    //The edges of Keys[i] are Edges[Offsets[i]] to Edges[Offsets[i+1]-1]
+    private transient int[] Keys = new int[0];
+    private transient int[] Offsets = new int[]{0};
+    private transient PrecursorFragmentPairEdge[] Edges = new PrecursorFragmentPairEdge[0];
+    private transient volatile boolean Frozen = true;
+
+    public PrecursorFragmentEdgeTable() {
+    }
+
+    /**
+     * Converts a table read from files written by earlier versions.
+     */
+    public static PrecursorFragmentEdgeTable FromHashMap(HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> map) {
+        PrecursorFragmentEdgeTable table = new PrecursorFragmentEdgeTable();
+        for (Entry<Integer, ArrayList<PrecursorFragmentPairEdge>> entry : map.entrySet()) {
+            table.AddAll(entry.getKey(), entry.getValue());
+        }
+        table.Freeze();
+        return table;
+    }
+
+    public synchronized void Add(int key, PrecursorFragmentPairEdge edge) {
+        Append(key, edge);
+    }
+
+    /**
+     * Appends the pairs of list to the group of key; key is added even if
+     * list is empty.
+     */
+    public synchronized void AddAll(int key, ArrayList<PrecursorFragmentPairEdge> list) {
+        if (list.isEmpty()) {
+            Append(key, null);
+        }
+        for (PrecursorFragmentPairEdge edge : list) {
+            Append(key, edge);
+        }
+    }
+
+    private void Append(int key, PrecursorFragmentPairEdge edge) {
+        if (AddedKeys == null) {
+            AddedKeys = new int[16];
+            AddedEdges = new PrecursorFragmentPairEdge[16];
+        }
+        Frozen = false;
+        if (AddedCount == AddedKeys.length) {
+            int capacity = AddedCount + (AddedCount >> 1) + 16;
+            AddedKeys = Arrays.copyOf(AddedKeys, capacity);
+            AddedEdges = Arrays.copyOf(AddedEdges, capacity);
+        }
+        AddedKeys[AddedCount] = key;
+        AddedEdges[AddedCount++] = edge;
+    }
+
+    /**
+     * Merges the appended pairs into the packed groups, grouped by key in
+     * ascending key order; the appended pairs of a key follow its packed
+     * ones.
+     */
+    public synchronized void Freeze() {
+        if (Frozen) {
+            return;
+        }
+        //(key, position) pairs of the appended pairs, sorted by key then position
+        long[] order = new long[AddedCount];
+        for (int i = 0; i < AddedCount; i++) {
+            order[i] = ((long) AddedKeys[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] keys = new int[Keys.length + AddedCount];
+        int[] offsets = new int[Keys.length + AddedCount + 1];
+        PrecursorFragmentPairEdge[] edges = new PrecursorFragmentPairEdge[Edges.length + AddedCount];
+        int keycount = 0;
+        int edgecount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < Keys.length || j < order.length) {
+            int key = j == order.length || (i < Keys.length && Keys[i] <= (int) (order[j] >> 32)) ? Keys[i] : (int) (order[j] >> 32);
+            keys[keycount] = key;
+            offsets[keycount++] = edgecount;
+            if (i < Keys.length && Keys[i] == key) {
+                System.arraycopy(Edges, Offsets[i], edges, edgecount, Offsets[i + 1] - Offsets[i]);
+                edgecount += Offsets[i + 1] - Offsets[i];
+                i++;
+            }
+            for (; j < order.length && (int) (order[j] >> 32) == key; j++) {
+                PrecursorFragmentPairEdge edge = AddedEdges[(int) order[j]];
+                if (edge != null) {
+                    edges[edgecount++] = edge;
+                }
+            }
+        }
+        offsets[keycount] = edgecount;
+        Keys = Arrays.copyOf(keys, keycount);
+        Offsets = Arrays.copyOf(offsets, keycount + 1);
+        Edges = Arrays.copyOf(edges, edgecount);
+        AddedKeys = null;
+        AddedEdges = null;
+        AddedCount = 0;
+        Frozen = true;
+    }
+
+    private void EnsureFrozen() {
+        if (!Frozen) {
+            Freeze();
+        }
+    }
+
+    /**
+     * @return the position of key in the table, -1 if it isn't there
+     */
+    public int IndexOfKey(int key) {
+        EnsureFrozen();
+        int index = Arrays.binarySearch(Keys, key);
+        return index < 0 ? -1 : index;
+    }
+
+    public boolean ContainsKey(int key) {
+        return IndexOfKey(key) != -1;
+    }
+
+    /**
+     * @return a read-only view of the pairs of key, null if key isn't in the
+     * table; pairs added afterwards are not in the view
+     */
+    public List<PrecursorFragmentPairEdge> Get(int key) {
+        int index = IndexOfKey(key);
+        if (index == -1) {
+            return null;
+        }
+        return new EdgeSlice(Edges, Offsets[index], Offsets[index + 1]);
+    }
+
+    //Edges[From] to Edges[To-1], without copying them
+    private static class EdgeSlice extends AbstractList<PrecursorFragmentPairEdge> implements RandomAccess {
+
+        private final PrecursorFragmentPairEdge[] Edges;
+        private final int From;
+        private final int To;
+
+        EdgeSlice(PrecursorFragmentPairEdge[] Edges, int From, int To) {
+            this.Edges = Edges;
+            this.From = From;
+            this.To = To;
+        }
+
+        @Override
+        public PrecursorFragmentPairEdge get(int index) {
+            if (index < 0 || index >= To - From) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (To - From));
+            }
+            return Edges[From + index];
+        }
+
+        @Override
+        public int size() {
+            return To - From;
+        }
+    }
+
+    public int KeyCount() {
+        EnsureFrozen();
+        return Keys.length;
+    }
+
+    public int EdgeCount() {
+        EnsureFrozen();
+        return Edges.length;
+    }
+
+    public int GetKey(int index) {
+        EnsureFrozen();
+        return Keys[index];
+    }
+
+    /**
+     * @return the position in the edge array of the first pair of the
+     * index-th key; GetOffset(KeyCount()) is EdgeCount()
+     */
+    public int GetOffset(int index) {
+        EnsureFrozen();
+        return Offsets[index];
+    }
+
+    public PrecursorFragmentPairEdge GetEdge(int pos) {
+        EnsureFrozen();
+        return Edges[pos];
+    }
+
+    /**
+     * Sorts the pairs within each key's group.
+     */
+    public synchronized void SortGroups(Comparator<PrecursorFragmentPairEdge> comparator) {
+        Freeze();
+        for (int i = 0; i < Keys.length; i++) {
+            Arrays.sort(Edges, Offsets[i], Offsets[i + 1], comparator);
+        }
+    }
+
+    private synchronized void writeObject(java.io.ObjectOutputStream stream) throws IOException {
+        Freeze();
+        stream.defaultWriteObject();
+        stream.writeInt(Keys.length);
+        for (int i = 0; i < Keys.length; i++) {
+            stream.writeInt(Keys[i]);
+            stream.writeInt(Offsets[i + 1] - Offsets[i]);
+        }
+        stream.writeInt(Edges.length);
+        for (PrecursorFragmentPairEdge edge : Edges) {
+            stream.writeInt(edge.PeakCurveIndexA);
+            stream.writeInt(edge.PeakCurveIndexB);
+            stream.writeFloat(edge.Correlation);
+            stream.writeFloat(edge.FragmentMz);
+            stream.writeFloat(edge.Intensity);
+            stream.writeFloat(edge.ApexDelta);
+            stream.writeFloat(edge.RTOverlapP);
+            stream.writeInt(edge.FragmentMS1Rank);
+            stream.writeFloat(edge.FragmentMS1RankScore);
+            stream.writeFloat(edge.AdjustedFragInt);
+            stream.writeBoolean(edge.ComplementaryFragment);
+            stream.writeFloat(edge.MatchedFragMz);
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws ClassNotFoundException, IOException {
+        in.defaultReadObject();
+        int keycount = in.readInt();
+        Keys = new int[keycount];
+        Offsets = new int[keycount + 1];
+        for (int i = 0; i < keycount; i++) {
+            Keys[i] = in.readInt();
+            Offsets[i + 1] = Offsets[i] + in.readInt();
+        }
+        Edges = new PrecursorFragmentPairEdge[in.readInt()];
+        for (int pos = 0; pos < Edges.length; pos++) {
+            PrecursorFragmentPairEdge edge = new PrecursorFragmentPairEdge();
+            edge.PeakCurveIndexA = in.readInt();
+            edge.PeakCurveIndexB = in.readInt();
+            edge.Correlation = in.readFloat();
+            edge.FragmentMz = in.readFloat();
+            edge.Intensity = in.readFloat();
+            edge.ApexDelta = in.readFloat();
+            edge.RTOverlapP = in.readFloat();
+            edge.FragmentMS1Rank = in.readInt();
+            edge.FragmentMS1RankScore = in.readFloat();
+            edge.AdjustedFragInt = in.readFloat();
+            edge.ComplementaryFragment = in.readBoolean();
+            edge.MatchedFragMz = in.readFloat();
+            Edges[pos] = edge;
+        }
+        Frozen = true;
+    }
+}
@@ -20,9 +20,12 @@
 package MSUmpire.PeakDataStructure;
 
 import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScratchBuffer;
 import MSUmpire.BaseDataStructure.XYData;
+import MSUmpire.MathPackage.FFT;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class implements the Continuous Wavelet Transform (CWT), Mexican Hat,
@@ -42,72 +45,133 @@ public class WaveletMassDetector implements Serializable{
     static boolean waveletDebug = false;
     private InstrumentParameter parameter;
     public ArrayList<XYData> DataPoint;
+    //Points of the curve, only valid during Run() when they are scratch arrays
+    private transient float[] DataX;
+    private transient float[] DataY;
+    private int PointCount;
     double waveletWindow = 0.3;
     private double[] MEXHAT;
     double NPOINTS_half;
+    //Wavelet values by NPOINTS, shared and never modified; read without locking by every new detector
+    private static final ConcurrentHashMap<Integer, double[]> MEXHATCache = new ConcurrentHashMap<>();
+    //Wavelet values by offset from the center point, by NPOINTS and scale level, shared and never modified
+    private static final ConcurrentHashMap<Long, double[]> KernelCache = new ConcurrentHashMap<>();
+    //NPOINTS follows the RT width of the curves, the caches are emptied when they reach these sizes
+    private static final int MAX_CACHED_MEXHAT = 256;
+    private static final int MAX_CACHED_KERNELS = 4096;
+    //Curves of at least FFT_MIN_POINTS points are convolved by FFT at the scales where that takes fewer operations
+    private static final int FFT_MIN_POINTS = 128;
+    private final int FFTMinPoints;
+    //FFT results closer to 0 than this fraction of the largest result of the scale are rounding errors of 0
+    private static final double FFT_ZERO_TOLERANCE = 1e-9;
+    //FFT size, its twiddle factors and the spectrum of the intensities, only valid during Run()
+    private transient int FFTSize;
+    private transient double[][] Twiddle;
+    private transient double[] SpectrumRe;
+    private transient double[] SpectrumIm;
 
     public WaveletMassDetector(InstrumentParameter parameter, ArrayList<XYData> DataPoint, int NoPoints) {
-        this.parameter = parameter;
+        this(parameter, NoPoints, FFT_MIN_POINTS);
         this.DataPoint = DataPoint;
-        this.NPOINTS = NoPoints;
+        this.PointCount = DataPoint.size();
+    }
 
-        double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
-        MEXHAT = new double[(int) NPOINTS];
+    /**
+     * Uses the first count points of x and y (e.g. the ScratchBuffer WAVELET_X
+     * and WAVELET_Y arrays of the current thread) without copying them, Run()
+     * must be called on the same thread before the arrays are reused.
+     */
+    public WaveletMassDetector(InstrumentParameter parameter, float[] x, float[] y, int count, int NoPoints) {
+        this(parameter, x, y, count, NoPoints, FFT_MIN_POINTS);
+    }
 
-        double waveletIndex = WAVELET_ESL;
-        for (int j = 0; j < NPOINTS; j++) {
-            // Pre calculate the values of the wavelet
-            MEXHAT[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
-            waveletIndex += wstep;
-        }
+    //FFTMinPoints replaces FFT_MIN_POINTS, for tests comparing the FFT and the direct convolution
+    WaveletMassDetector(InstrumentParameter parameter, float[] x, float[] y, int count, int NoPoints, int FFTMinPoints) {
+        this(parameter, NoPoints, FFTMinPoints);
+        this.DataX = x;
+        this.DataY = y;
+        this.PointCount = count;
+    }
 
+    private WaveletMassDetector(InstrumentParameter parameter, int NoPoints, int FFTMinPoints) {
+        this.parameter = parameter;
+        this.FFTMinPoints = FFTMinPoints;
+        this.NPOINTS = NoPoints;
+        MEXHAT = GetMEXHAT(NoPoints);
         NPOINTS_half = NPOINTS / 2;
         d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
     }
+
+    private double[] GetMEXHAT(int NoPoints) {
+        double[] mexhat = MEXHATCache.get(NoPoints);
+        if (mexhat == null) {
+            double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
+            mexhat = new double[(int) NPOINTS];
+
+            double waveletIndex = WAVELET_ESL;
+            for (int j = 0; j < NPOINTS; j++) {
+                // Pre calculate the values of the wavelet
+                mexhat[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
+                waveletIndex += wstep;
+            }
+            //threads racing on a new NPOINTS compute the same values, all keep the first stored array
+            mexhat = PutCached(MEXHATCache, MAX_CACHED_MEXHAT, NoPoints, mexhat);
+        }
+        return mexhat;
+    }
     int d;
     //public ArrayList<XYData>[] waveletCWT;
     public ArrayList<XYData>[] PeakRidge;
 
     public void Run() {
-
+        ScratchBuffer buffer = ScratchBuffer.Get();
+        if (DataPoint != null) {
+            DataX = buffer.Floats(ScratchBuffer.WAVELET_X, PointCount);
+            DataY = buffer.Floats(ScratchBuffer.WAVELET_Y, PointCount);
+            for (int i = 0; i < PointCount; i++) {
+                DataX[i] = DataPoint.get(i).getX();
+                DataY[i] = DataPoint.get(i).getY();
+            }
+        }
         //"Intensities less than this value are interpreted as noise",                
         //"Scale level",
         //"Number of wavelet'scale (coeficients) to use in m/z peak detection"
         //"Wavelet window size (%)",
         //"Size in % of wavelet window to apply in m/z peak detection");        
-        int maxscale = (int) (Math.max(Math.min((DataPoint.get(DataPoint.size() - 1).getX() - DataPoint.get(0).getX()), parameter.MaxCurveRTRange), 0.5f) * parameter.NoPeakPerMin / (WAVELET_ESR + WAVELET_ESR));
+        int maxscale = (int) (Math.max(Math.min((DataX[PointCount - 1] - DataX[0]), parameter.MaxCurveRTRange), 0.5f) * parameter.NoPeakPerMin / (WAVELET_ESR + WAVELET_ESR));
 
         //waveletCWT = new ArrayList[15];
         PeakRidge = new ArrayList[maxscale];
-        //XYData maxint = new XYData(0f, 0f);
+        FFTSize = FFT.PowerOf2(PointCount + ((maxscale - 1) * 2 + 5) * Math.max(-WAVELET_ESL, WAVELET_ESR));
+        float[] wavelet = buffer.Floats(ScratchBuffer.WAVELET_CWT, PointCount);
         for (int scaleLevel = 0; scaleLevel < maxscale; scaleLevel++) {
-            ArrayList<XYData> wavelet = performCWT(scaleLevel * 2 + 5);
+            performCWT(scaleLevel * 2 + 5, wavelet);
             PeakRidge[scaleLevel] = new ArrayList<>();
             //waveletCWT[scaleLevel] = wavelet;
-            XYData lastpt = wavelet.get(0);
-            XYData localmax = null;
-            XYData startpt = wavelet.get(0);
+            //indexes of the wavelet points, -1 for none
+            int lastpt = 0;
+            int localmax = -1;
+            int startpt = 0;
 
             boolean increasing = false;
             boolean decreasing = false;
-            XYData localmaxint = null;
 
-            for (int cwtidx = 1; cwtidx < wavelet.size(); cwtidx++) {
-                XYData CurrentPoint = wavelet.get(cwtidx);
-                if (CurrentPoint.getY() > lastpt.getY()) {//the peak is increasing
+            for (int cwtidx = 1; cwtidx < PointCount; cwtidx++) {
+                int CurrentPoint = cwtidx;
+                if (wavelet[CurrentPoint] > wavelet[lastpt]) {//the peak is increasing
                     if (decreasing) {//first increasing point, last point was a possible local minimum
                         //check if the peak was symetric
-                        if (localmax != null && (lastpt.getY() <= startpt.getY() || Math.abs(lastpt.getY() - startpt.getY()) / localmax.getY() < parameter.SymThreshold)) {
-                            PeakRidge[scaleLevel].add(localmax);
+                        if (localmax != -1 && (wavelet[lastpt] <= wavelet[startpt] || Math.abs(wavelet[lastpt] - wavelet[startpt]) / wavelet[localmax] < parameter.SymThreshold)) {
+                            PeakRidge[scaleLevel].add(new XYData(DataX[localmax], wavelet[localmax]));
                             localmax = CurrentPoint;
                             startpt = lastpt;
                         }
                     }
                     increasing = true;
                     decreasing = false;
-                } else if (CurrentPoint.getY() < lastpt.getY()) {//peak decreasing
+                } else if (wavelet[CurrentPoint] < wavelet[lastpt]) {//peak decreasing
                     if (increasing) {//first point decreasing, last point was a possible local maximum
-                        if (localmax == null || localmax.getY() < lastpt.getY()) {
+                        if (localmax == -1 || wavelet[localmax] < wavelet[lastpt]) {
                             localmax = lastpt;
                         }
                     }
@@ -115,31 +179,38 @@ public class WaveletMassDetector implements Serializable{
                     increasing = false;
                 }
                 lastpt = CurrentPoint;
-                if (localmaxint == null || CurrentPoint.getY() > localmaxint.getY()) {
-                    localmaxint = CurrentPoint;
-                }
-                if (cwtidx == wavelet.size() - 1 && decreasing) {
-                    if (localmax != null && (CurrentPoint.getY() <= startpt.getY() || Math.abs(CurrentPoint.getY() - startpt.getY()) / localmax.getY() < parameter.SymThreshold)) {
-                        PeakRidge[scaleLevel].add(localmax);
+                if (cwtidx == PointCount - 1 && decreasing) {
+                    if (localmax != -1 && (wavelet[CurrentPoint] <= wavelet[startpt] || Math.abs(wavelet[CurrentPoint] - wavelet[startpt]) / wavelet[localmax] < parameter.SymThreshold)) {
+                        PeakRidge[scaleLevel].add(new XYData(DataX[localmax], wavelet[localmax]));
                     }
                 }
             }
-
-            if (!waveletDebug) {
-                wavelet.clear();
-                //wavelet = null;
-            }
         }
+        DataX = null;
+        DataY = null;
+        Twiddle = null;
+        SpectrumRe = null;
+        SpectrumIm = null;
     }
 
     /**
-     * Perform the CWT over raw data points in the selected scale level
-     *
+     * Perform the CWT over raw data points in the selected scale level, the
+     * wavelet value of each point is written to cwt
      *
      */
-    private ArrayList<XYData> performCWT(int scaleLevel) {
-        int length = DataPoint.size();
-        ArrayList<XYData> cwtDataPoints = new ArrayList<XYData>();
+    private void performCWT(int scaleLevel, float[] cwt) {
+        double[] kernel = GetKernel(scaleLevel);
+        long directops = (long) PointCount * kernel.length;
+        long fftops = 5L * FFTSize * Integer.numberOfTrailingZeros(FFTSize);
+        if (PointCount >= FFTMinPoints && directops > fftops) {
+            performCWTbyFFT(scaleLevel, kernel, cwt);
+        } else {
+            performCWTDirect(scaleLevel, kernel, cwt);
+        }
+    }
+
+    private void performCWTDirect(int scaleLevel, double[] kernel, float[] cwt) {
+        int length = PointCount;
 
         int a_esl = scaleLevel * WAVELET_ESL;
         int a_esr = scaleLevel * WAVELET_ESR;
@@ -162,26 +233,86 @@ public class WaveletMassDetector implements Serializable{
              */
             float intensity = 0f;
             for (int i = t1; i <= t2; i++) {
-                int ind = (int) (NPOINTS_half) + ((int) d * (i - dx) / scaleLevel);
+                intensity += DataY[i] * kernel[i - dx - a_esl];
+            }
+            intensity /= sqrtScaleLevel;
+            // Eliminate the negative part of the wavelet map
+            if (intensity < 0) {
+                intensity = 0;
+            }
+            cwt[dx] = intensity;
+        }
+    }
+
+    //Same wavelet values as performCWTDirect() within rounding errors: the intensities (zero-padded to FFTSize) convolved with the reversed kernel
+    private void performCWTbyFFT(int scaleLevel, double[] kernel, float[] cwt) {
+        ScratchBuffer buffer = ScratchBuffer.Get();
+        int size = FFTSize;
+        if (SpectrumRe == null) {
+            Twiddle = FFT.GetTwiddle(size);
+            SpectrumRe = buffer.ZeroedDoubles(ScratchBuffer.FFT_DATA_RE, size);
+            SpectrumIm = buffer.ZeroedDoubles(ScratchBuffer.FFT_DATA_IM, size);
+            for (int i = 0; i < PointCount; i++) {
+                SpectrumRe[i] = DataY[i];
+            }
+            FFT.Transform(SpectrumRe, SpectrumIm, size, false, Twiddle);
+        }
+        double[] re = buffer.ZeroedDoubles(ScratchBuffer.FFT_WORK_RE, size);
+        double[] im = buffer.ZeroedDoubles(ScratchBuffer.FFT_WORK_IM, size);
+        int a_esl = scaleLevel * WAVELET_ESL;
+        for (int k = 0; k < kernel.length; k++) {
+            re[-(k + a_esl) & (size - 1)] = kernel[k];
+        }
+        FFT.Transform(re, im, size, false, Twiddle);
+        for (int i = 0; i < size; i++) {
+            double r = re[i] * SpectrumRe[i] - im[i] * SpectrumIm[i];
+            im[i] = re[i] * SpectrumIm[i] + im[i] * SpectrumRe[i];
+            re[i] = r;
+        }
+        FFT.Transform(re, im, size, true, Twiddle);
+
+        double scale = size * Math.sqrt(scaleLevel);
+        double max = 0;
+        for (int dx = 0; dx < PointCount; dx++) {
+            re[dx] /= scale;
+            max = Math.max(max, Math.abs(re[dx]));
+        }
+        double tolerance = max * FFT_ZERO_TOLERANCE;
+        for (int dx = 0; dx < PointCount; dx++) {
+            // Eliminate the negative part of the wavelet map
+            cwt[dx] = re[dx] > tolerance ? (float) re[dx] : 0f;
+        }
+    }
+
+    //kernel[k] is the wavelet value of the point k + scaleLevel * WAVELET_ESL away from the center
+    //resolved once per scale level by performCWT()
+    private double[] GetKernel(int scaleLevel) {
+        long key = ((long) MEXHAT.length << 32) | scaleLevel;
+        double[] kernel = KernelCache.get(key);
+        if (kernel == null) {
+            kernel = new double[scaleLevel * (WAVELET_ESR - WAVELET_ESL) + 1];
+            for (int k = 0; k < kernel.length; k++) {
+                int ind = (int) (NPOINTS_half) + ((int) d * (k + scaleLevel * WAVELET_ESL) / scaleLevel);
                 if (ind < 0) {
                     ind = 0;
                 }
                 if (ind >= NPOINTS) {
                     ind = (int) NPOINTS - 1;
                 }
-//                if(i<0 || ind<0){
-//                    System.out.print("");
-//                }
-                intensity += DataPoint.get(i).getY() * MEXHAT[ind];
+                kernel[k] = MEXHAT[ind];
             }
-            intensity /= sqrtScaleLevel;
-            // Eliminate the negative part of the wavelet map
-            if (intensity < 0) {
-                intensity = 0;
-            }
-            cwtDataPoints.add(new XYData(DataPoint.get(dx).getX(), intensity));
+            kernel = PutCached(KernelCache, MAX_CACHED_KERNELS, key, kernel);
+        }
+        return kernel;
+    }
+
+    //Stores values unless another thread stored some first (returns those), emptying the cache first if it has limit entries
+    private static <K> double[] PutCached(ConcurrentHashMap<K, double[]> cache, int limit, K key, double[] values) {
+        if (cache.size() >= limit) {
+            cache.clear();
         }
-        return cwtDataPoints;
+        double[] stored = cache.putIfAbsent(key, values);
+        return stored != null ? stored : values;
     }
 
     /**
@@ -22,6 +22,7 @@ package MSUmpire.PeptidePeakClusterDetection;
 import MSUmpire.BaseDataStructure.InstrumentParameter;
 import MSUmpire.BaseDataStructure.ScanCollection;
 import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
 import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.BaseDataStructure.XYZData;
 import MSUmpire.LCMSBaseStructure.LCMSPeakBase;
@@ -30,12 +31,18 @@ import MSUmpire.PeakDataStructure.PeakCluster;
 import MSUmpire.PeakDataStructure.PeakCurve;
 import MSUmpire.PeakDataStructure.SortedClusterCollectionClassApexRT;
 import MSUmpire.PeakDataStructure.SortedClusterCollectionClassMZ;
+import MSUmpire.SortedListLib.PatchWorkArray;
+import MSUmpire.spectrumparser.ScanStream;
 import Utility.UpdateProcess;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 
 /**
@@ -44,7 +51,6 @@ import org.apache.log4j.Logger;
  */
 public class PDHandlerBase {
     
-    protected HashSet<String> IncludedHashMap;
     protected int NoCPUs = 4;
     public float minSNR;
     public TreeMap<Float, XYData>[] IsotopePatternMap;
@@ -91,155 +97,505 @@ public class PDHandlerBase {
         }
     }
 
-    protected void FindAllPeakCurve(ScanCollection scanCollection) throws SQLException, IOException {
+    protected void FindAllPeakCurve(ScanCollection scanCollection) throws SQLException, IOException, InterruptedException, ExecutionException {
 
-        IncludedHashMap = new HashSet<>();
+        if (parameter.ParallelPeakCurveTracing && NoCPUs > 1 && scanCollection.GetPeakStore() == null) {
+            FindAllPeakCurveParallel(scanCollection);
+            return;
+        }
         Logger.getRootLogger().info("Processing all scans to detect possible peak curves....");
 
         //Get the ms1 scanNo array
         //LCMSPeakBase.PeakCurveListMZ = new SortedCurveCollectionMZ();
         
+        //Scans whose peaks are in a ScanPeakStore are read back by GetScan(), keep the recently traced ones
+        final int LoadedScanLimit = Math.max(64, parameter.PeakCurveScanQueue);
+        LinkedHashMap<Integer, ScanData> LoadedScans = new LinkedHashMap<Integer, ScanData>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ScanData> eldest) {
+                return size() > LoadedScanLimit;
+            }
+        };
+        ArrayList<Integer> ScanNoArray = scanCollection.GetScanNoArray(MSlevel);
+        //Included[idx] has a bit set for each peak of the idx-th scan already included in a peak curve,
+        //allocated when the scan is first reached and dropped when the scan is done
+        long[][] Included = new long[ScanNoArray.size()][];
         float preRT = 0f;
-        for (int idx = 0; idx < scanCollection.GetScanNoArray(MSlevel).size(); idx++) {
-            Integer scanNO = scanCollection.GetScanNoArray(MSlevel).get(idx);
-            ScanData scanData = scanCollection.GetScan(scanNO);
+        for (int idx = 0; idx < ScanNoArray.size(); idx++) {
+            Integer scanNO = ScanNoArray.get(idx);
+            ScanData scanData = LoadScan(scanCollection, LoadedScans, scanNO);
             if (idx == 0) {
                 preRT = scanData.RetentionTime - 0.01f;
             }
+            long[] IncludedPeaks = IncludedBits(Included, idx, scanData);
             for (int i = 0; i < scanData.PointCount(); i++) {
-                XYData peak = scanData.Data.get(i);
-                
-                //Include the mz-int pair to a hash
-                if (!IncludedHashMap.contains(scanNO + "_" + peak.getX())) {//The peak hasn't been included and checked
-                    IncludedHashMap.add(scanNO + "_" + peak.getX());
-
-                    float startmz = peak.getX();
-                    float startint = peak.getY();
-                    for (int j = i + 1; j < scanData.PointCount(); j++) {
-                        XYData currentpeak = scanData.Data.get(j);
-                        if (!IncludedHashMap.contains(scanNO + "_" + currentpeak.getX())) {
-                            if (InstrumentParameter.CalcPPM(currentpeak.getX(), startmz) <= PPM) {
-                                IncludedHashMap.add(scanNO + "_" + currentpeak.getX());
-
-                                if (currentpeak.getY() >= startint) {
-                                    startmz = currentpeak.getX();
-                                    startint = currentpeak.getY();
-                                }
-                            } else {
-                                break;
-                            }
-                        }
-                    }
-
-                    PeakCurve Peakcurve = new PeakCurve(parameter);
-                    Peakcurve.AddPeak(new XYZData(preRT, startmz, scanData.background));
-                    Peakcurve.AddPeak(new XYZData(scanData.RetentionTime, startmz, startint));
-                    Peakcurve.StartScan = scanNO;
-
+                //The peak hasn't been included and checked
+                if (!IsIncluded(IncludedPeaks, i)) {
+                    PeakCurve Peakcurve = StartPeakCurve(scanData, IncludedPeaks, i, 0, scanData.PointCount(), preRT, scanNO);
                     int missedScan = 0;
 
                     //Start with the next MS1 scan to group the mz-int pair within the N ppm window
-                    for (int idx2 = idx + 1; idx2 < scanCollection.GetScanNoArray(MSlevel).size() && missedScan < parameter.NoMissedScan; idx2++) {
-                        Integer scanNO2 = scanCollection.GetScanNoArray(MSlevel).get(idx2);
-                        ScanData scanData2 = scanCollection.GetScan(scanNO2);
-
-                        float currentmz = 0f;
-                        float currentint = 0f;
-
-                        if (scanData2.PointCount() == 0) {
-                            Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, Peakcurve.TargetMz, scanData2.background));
-                            missedScan++;
-                            continue;
-                        }
-
-                        int mzidx = scanData2.GetLowerIndexOfX(Peakcurve.TargetMz);
-                        for (int pkidx = mzidx; pkidx < scanData2.Data.size(); pkidx++) {
-                            XYData currentpeak = scanData2.Data.get(pkidx);
-                            if (!IncludedHashMap.contains(scanNO2 + "_" + currentpeak.getX())) {
-                                if (InstrumentParameter.CalcPPM(currentpeak.getX(), Peakcurve.TargetMz) > PPM) {
-                                    if (currentpeak.getX() > Peakcurve.TargetMz) {
-                                        break;
-                                    }
-                                } else {
-                                    //////////The peak is in the ppm window, select the highest peak
-                                    IncludedHashMap.add(scanNO2 + "_" + currentpeak.getX());
-                                    if (currentint < currentpeak.getY()) {
-                                        currentmz = currentpeak.getX();
-                                        currentint = currentpeak.getY();
-                                    }
-                                }
-                            }
-                        }
-                        if (currentmz == 0f) {
-                            Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, Peakcurve.TargetMz, scanData2.background));
-                            missedScan++;
-                        } else {
+                    for (int idx2 = idx + 1; idx2 < ScanNoArray.size() && missedScan < parameter.NoMissedScan; idx2++) {
+                        Integer scanNO2 = ScanNoArray.get(idx2);
+                        ScanData scanData2 = LoadScan(scanCollection, LoadedScans, scanNO2);
+                        long[] IncludedPeaks2 = IncludedBits(Included, idx2, scanData2);
+                        if (ExtendPeakCurve(Peakcurve, scanData2, IncludedPeaks2, 0, scanData2.PointCount(), scanNO2)) {
                             missedScan = 0;
-                            Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, currentmz, currentint));
-                            Peakcurve.EndScan = scanNO2;
+                        } else {
+                            missedScan++;
                         }
                     }
-//                    if (Peakcurve.TargetMz > 870.5 && Peakcurve.TargetMz < 872.7 && Peakcurve.StartRT() < 48.8 && Peakcurve.EndRT() > 48.8) {
-//                        System.out.println("");
-//                    }
 
-                    if (Peakcurve.GetRawSNR() > LCMSPeakBase.SNR && Peakcurve.GetPeakList().size() >= parameter.NoMissedScan + parameter.MinPeakPerPeakCurve+2) {
+                    if (IsPeakCurveAccepted(Peakcurve)) {
                         LCMSPeakBase.UnSortedPeakCurves.add(Peakcurve);
-                    } else {
-                        Peakcurve = null;
                     }
                 }
             }
+            //later scans never include peaks of this one
+            Included[idx] = null;
             preRT = scanData.RetentionTime;
+            LoadedScans.remove(scanNO);
             if (ReleaseScans) {
                 scanData.dispose();
             }
         }
 
         //System.out.print("PSM removed (PeakCurve generation):" + PSMRemoved );         
-        IncludedHashMap.clear();
-        IncludedHashMap = null;
 
         System.gc();
         Logger.getRootLogger().info(LCMSPeakBase.UnSortedPeakCurves.size() + " Peak curves found (Memory usage:" + Math.round((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + "MB)");
         //writer.close();
     }
 
+    private static long[] IncludedBits(long[][] Included, int idx, ScanData scanData) {
+        if (Included[idx] == null) {
+            Included[idx] = new long[(scanData.PointCount() + 63) >>> 6];
+        }
+        return Included[idx];
+    }
+
+    private static boolean IsIncluded(long[] bits, int idx) {
+        return (bits[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    /**
+     * Same peak curves, in the same order, as the serial FindAllPeakCurve,
+     * traced on NoCPUs threads. The m/z range is split into shards at gaps of
+     * more than 2*PPM (at least 1 ppm) without a peak in any scan: a curve
+     * only takes peaks within PPM of its m/z, so no curve can reach across
+     * such a gap, and the shards are traced independently. The curves of
+     * all shards are then merged in the serial order (by start scan, then by
+     * m/z). The result doesn't depend on the number of threads or shards.
+     * An exception in any shard is rethrown (as ExecutionException).
+     */
+    private void FindAllPeakCurveParallel(ScanCollection scanCollection) throws InterruptedException, ExecutionException {
+        ArrayList<Integer> ScanNoArray = scanCollection.GetScanNoArray(MSlevel);
+        ScanData[] Scans = new ScanData[ScanNoArray.size()];
+        for (int idx = 0; idx < Scans.length; idx++) {
+            Scans[idx] = scanCollection.GetScan(ScanNoArray.get(idx));
+        }
+        int[][] Bounds = ShardBounds(Scans, NoCPUs * 4);
+        int NoShards = Bounds.length == 0 ? 0 : Bounds[0].length - 1;
+        Logger.getRootLogger().info("Processing all scans to detect possible peak curves (" + NoShards + " m/z shards)....");
+
+        ExecutorService executorPool = Executors.newFixedThreadPool(NoCPUs);
+        ArrayList<PeakCurveTracingShard> ResultList = new ArrayList<>();
+        ArrayList<Future<?>> Futures = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < NoShards; shard++) {
+                PeakCurveTracingShard unit = new PeakCurveTracingShard(Scans, ScanNoArray, Bounds, shard);
+                ResultList.add(unit);
+                Futures.add(executorPool.submit(unit));
+            }
+            executorPool.shutdown();
+            for (Future<?> future : Futures) {
+                future.get();
+            }
+        } finally {
+            //stops the remaining shards if one failed
+            executorPool.shutdownNow();
+            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        int[] Next = new int[NoShards];
+        for (int idx = 0; idx < Scans.length; idx++) {
+            for (int shard = 0; shard < NoShards; shard++) {
+                PeakCurveTracingShard unit = ResultList.get(shard);
+                for (int i = 0; i < unit.CurvesPerScan[idx]; i++) {
+                    LCMSPeakBase.UnSortedPeakCurves.add(unit.Curves.get(Next[shard]++));
+                }
+            }
+        }
+        ResultList.clear();
+        if (ReleaseScans) {
+            for (ScanData scanData : Scans) {
+                scanData.dispose();
+            }
+        }
+        System.gc();
+        Logger.getRootLogger().info(LCMSPeakBase.UnSortedPeakCurves.size() + " Peak curves found (Memory usage:" + Math.round((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + "MB)");
+    }
+
+    /**
+     * Splits the m/z range into about MaxShards shards with similar numbers
+     * of peaks. m/z is binned in steps of PPM on a log scale; shards only
+     * start after 3 empty bins, which is a gap of more than 2*PPM.
+     *
+     * @return Bounds[idx][shard] is the index of the first peak of the
+     * shard in the idx-th scan, Bounds[idx][NoShards] is the scan's
+     * PointCount()
+     */
+    private int[][] ShardBounds(ScanData[] Scans, int MaxShards) {
+        float MinMz = Float.MAX_VALUE;
+        float MaxMz = 0f;
+        long TotalPeaks = 0;
+        for (ScanData scanData : Scans) {
+            for (int i = 0; i < scanData.PointCount(); i++) {
+                float mz = scanData.Data.GetX(i);
+                if (mz > 0f && mz < MinMz) {
+                    MinMz = mz;
+                }
+                MaxMz = Math.max(MaxMz, mz);
+            }
+            TotalPeaks += scanData.PointCount();
+        }
+        double BinWidth = Math.max(PPM, 1f) * 1e-6;
+        int[] BinCount = null;
+        if (MaxMz > 0f && Math.log(MaxMz / MinMz) / BinWidth < (1 << 24)) {
+            BinCount = new int[MzBin(MaxMz, MinMz, BinWidth) + 1];
+            for (ScanData scanData : Scans) {
+                for (int i = 0; i < scanData.PointCount(); i++) {
+                    BinCount[MzBin(scanData.Data.GetX(i), MinMz, BinWidth)]++;
+                }
+            }
+        }
+
+        //first bin of each shard
+        ArrayList<Integer> ShardStart = new ArrayList<>();
+        ShardStart.add(0);
+        if (BinCount != null) {
+            long Target = TotalPeaks / MaxShards + 1;
+            long Count = 0;
+            int EmptyBins = 0;
+            for (int bin = 0; bin < BinCount.length; bin++) {
+                if (BinCount[bin] == 0) {
+                    EmptyBins++;
+                    continue;
+                }
+                if (EmptyBins >= 3 && Count >= Target) {
+                    ShardStart.add(bin);
+                    Count = 0;
+                }
+                EmptyBins = 0;
+                Count += BinCount[bin];
+            }
+        }
+
+        int NoShards = ShardStart.size();
+        int[][] Bounds = new int[Scans.length][NoShards + 1];
+        for (int idx = 0; idx < Scans.length; idx++) {
+            ScanData scanData = Scans[idx];
+            int shard = 0;
+            for (int i = 0; i < scanData.PointCount(); i++) {
+                int bin = MzBin(scanData.Data.GetX(i), MinMz, BinWidth);
+                while (shard + 1 < NoShards && bin >= ShardStart.get(shard + 1)) {
+                    Bounds[idx][++shard] = i;
+                }
+            }
+            while (shard < NoShards) {
+                Bounds[idx][++shard] = scanData.PointCount();
+            }
+        }
+        return Bounds;
+    }
+
+    private static int MzBin(float mz, float MinMz, double BinWidth) {
+        if (!(mz > MinMz)) {
+            return 0;
+        }
+        return (int) (Math.log(mz / MinMz) / BinWidth);
+    }
+
+    //Traces the peak curves of one m/z shard, same steps as the serial FindAllPeakCurve limited to the shard's peaks
+    private class PeakCurveTracingShard implements Callable<Void> {
+
+        ScanData[] Scans;
+        ArrayList<Integer> ScanNoArray;
+        int[][] Bounds;
+        int Shard;
+        //accepted curves in the serial order, CurvesPerScan[idx] of them started in the idx-th scan
+        ArrayList<PeakCurve> Curves = new ArrayList<>();
+        int[] CurvesPerScan;
+
+        PeakCurveTracingShard(ScanData[] Scans, ArrayList<Integer> ScanNoArray, int[][] Bounds, int Shard) {
+            this.Scans = Scans;
+            this.ScanNoArray = ScanNoArray;
+            this.Bounds = Bounds;
+            this.Shard = Shard;
+            CurvesPerScan = new int[Scans.length];
+        }
+
+        @Override
+        public Void call() {
+            Trace();
+            return null;
+        }
+
+        private void Trace() {
+            //bits of the shard's peaks, bit 0 is the first peak of the shard in the scan
+            long[][] Included = new long[Scans.length][];
+            for (int idx = 0; idx < Scans.length; idx++) {
+                ScanData scanData = Scans[idx];
+                int lo = Bounds[idx][Shard];
+                int hi = Bounds[idx][Shard + 1];
+                float preRT = idx == 0 ? scanData.RetentionTime - 0.01f : Scans[idx - 1].RetentionTime;
+                long[] IncludedPeaks = ShardBits(Included, idx);
+                for (int i = lo; i < hi; i++) {
+                    if (IsIncluded(IncludedPeaks, i - lo)) {
+                        continue;
+                    }
+                    PeakCurve Peakcurve = StartPeakCurve(scanData, IncludedPeaks, i, lo, hi, preRT, ScanNoArray.get(idx));
+                    int missedScan = 0;
+                    for (int idx2 = idx + 1; idx2 < Scans.length && missedScan < parameter.NoMissedScan; idx2++) {
+                        //peaks outside the shard are out of the ppm window
+                        if (ExtendPeakCurve(Peakcurve, Scans[idx2], ShardBits(Included, idx2), Bounds[idx2][Shard], Bounds[idx2][Shard + 1], ScanNoArray.get(idx2))) {
+                            missedScan = 0;
+                        } else {
+                            missedScan++;
+                        }
+                    }
+                    if (IsPeakCurveAccepted(Peakcurve)) {
+                        Curves.add(Peakcurve);
+                        CurvesPerScan[idx]++;
+                    }
+                }
+                Included[idx] = null;
+            }
+        }
+
+        private long[] ShardBits(long[][] Included, int idx) {
+            if (Included[idx] == null) {
+                Included[idx] = new long[(Bounds[idx][Shard + 1] - Bounds[idx][Shard] + 63) >>> 6];
+            }
+            return Included[idx];
+        }
+    }
+
+    //The tracing steps shared by FindAllPeakCurve(ScanCollection), its parallel shards and FindAllPeakCurve(ScanStream):
+    //they work on the peaks lo to hi-1 of a scan, bits has bit 0 for peak lo and a bit set for each peak already included in a curve
+
+    /**
+     * Starts a peak curve at the i-th peak of the scan: the peak and the
+     * following ones within PPM of it are included, and the highest of them
+     * is the curve's first peak.
+     */
+    private PeakCurve StartPeakCurve(ScanData scanData, long[] bits, int i, int lo, int hi, float preRT, int scanNO) {
+        SortedXYCollectionClass Peaks = scanData.Data;
+        IncludePeak(Peaks, bits, i, lo, hi);
+        float startmz = Peaks.GetX(i);
+        float startint = Peaks.GetY(i);
+        for (int j = i + 1; j < hi; j++) {
+            if (!IsIncluded(bits, j - lo)) {
+                float currentmz = Peaks.GetX(j);
+                if (InstrumentParameter.CalcPPM(currentmz, startmz) <= PPM) {
+                    IncludePeak(Peaks, bits, j, lo, hi);
+                    if (Peaks.GetY(j) >= startint) {
+                        startmz = currentmz;
+                        startint = Peaks.GetY(j);
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+        PeakCurve Peakcurve = new PeakCurve(parameter);
+        Peakcurve.AddPeak(new XYZData(preRT, startmz, scanData.background));
+        Peakcurve.AddPeak(new XYZData(scanData.RetentionTime, startmz, startint));
+        Peakcurve.StartScan = scanNO;
+        return Peakcurve;
+    }
+
+    /**
+     * Extends the peak curve into the scan: the peaks within PPM of its m/z
+     * are included and the highest one is added to the curve, or the scan's
+     * background if there is none.
+     *
+     * @return whether a peak was found
+     */
+    private boolean ExtendPeakCurve(PeakCurve Peakcurve, ScanData scanData, long[] bits, int lo, int hi, int scanNO) {
+        float currentmz = 0f;
+        float currentint = 0f;
+        if (scanData.PointCount() > 0) {
+            SortedXYCollectionClass Peaks = scanData.Data;
+            for (int pkidx = Math.max(lo, scanData.GetLowerIndexOfX(Peakcurve.TargetMz)); pkidx < hi; pkidx++) {
+                if (!IsIncluded(bits, pkidx - lo)) {
+                    float peakmz = Peaks.GetX(pkidx);
+                    if (InstrumentParameter.CalcPPM(peakmz, Peakcurve.TargetMz) > PPM) {
+                        if (peakmz > Peakcurve.TargetMz) {
+                            break;
+                        }
+                    } else {
+                        //////////The peak is in the ppm window, select the highest peak
+                        IncludePeak(Peaks, bits, pkidx, lo, hi);
+                        if (currentint < Peaks.GetY(pkidx)) {
+                            currentmz = peakmz;
+                            currentint = Peaks.GetY(pkidx);
+                        }
+                    }
+                }
+            }
+        }
+        if (currentmz == 0f) {
+            Peakcurve.AddPeak(new XYZData(scanData.RetentionTime, Peakcurve.TargetMz, scanData.background));
+            return false;
+        }
+        Peakcurve.AddPeak(new XYZData(scanData.RetentionTime, currentmz, currentint));
+        Peakcurve.EndScan = scanNO;
+        return true;
+    }
+
+    //Marks the peak as included, together with the peaks of the same m/z (peaks used to be keyed by scan and m/z)
+    private static void IncludePeak(SortedXYCollectionClass Peaks, long[] bits, int idx, int lo, int hi) {
+        float mz = Peaks.GetX(idx);
+        bits[(idx - lo) >>> 6] |= 1L << (idx - lo);
+        for (int k = idx - 1; k >= lo && Peaks.GetX(k) == mz; k--) {
+            bits[(k - lo) >>> 6] |= 1L << (k - lo);
+        }
+        for (int k = idx + 1; k < hi && Peaks.GetX(k) == mz; k++) {
+            bits[(k - lo) >>> 6] |= 1L << (k - lo);
+        }
+    }
+
+    private boolean IsPeakCurveAccepted(PeakCurve Peakcurve) {
+        return Peakcurve.GetRawSNR() > LCMSPeakBase.SNR && Peakcurve.PeakCount() >= parameter.NoMissedScan + parameter.MinPeakPerPeakCurve + 2;
+    }
+
+    private ScanData LoadScan(ScanCollection scanCollection, LinkedHashMap<Integer, ScanData> LoadedScans, int scanNO) {
+        ScanData scanData = LoadedScans.get(scanNO);
+        if (scanData == null) {
+            scanData = scanCollection.GetScan(scanNO);
+            LoadedScans.put(scanNO, scanData);
+        }
+        return scanData;
+    }
+
+    //Peak curve being traced by FindAllPeakCurve(ScanStream)
+    private static class TracingCurve {
+
+        PeakCurve Curve;
+        //position of the curve in the order of FindAllPeakCurve(ScanCollection)
+        int Seq;
+        int MissedScan = 0;
+
+        TracingCurve(PeakCurve Curve, int Seq) {
+            this.Curve = Curve;
+            this.Seq = Seq;
+        }
+    }
+
+    /**
+     * Same peak curves as FindAllPeakCurve(ScanCollection), traced while the
+     * scans are being read: each scan is taken from the stream, the curves
+     * that are still open claim their peaks in it (in the order they were
+     * started), the remaining peaks start new curves, and the scan is
+     * released. Peaks are only claimed within the current scan, so only the
+     * current scan and the open curves are kept in memory.
+     */
+    protected void FindAllPeakCurve(ScanStream scanStream) throws InterruptedException, ExecutionException {
+        Logger.getRootLogger().info("Processing all scans to detect possible peak curves (streaming)....");
+
+        //curves in start order, rejected ones are set to null
+        ArrayList<PeakCurve> Traced = new ArrayList<>();
+        ArrayList<TracingCurve> OpenCurves = new ArrayList<>();
+        float preRT = 0f;
+        boolean first = true;
+        ScanData scanData;
+        while ((scanData = scanStream.Take()) != null) {
+            if (scanData.MsLevel != MSlevel) {
+                continue;
+            }
+            int scanNO = scanData.Num;
+            if (first) {
+                preRT = scanData.RetentionTime - 0.01f;
+                first = false;
+            }
+            int PointCount = scanData.PointCount();
+            long[] Included = new long[(PointCount + 63) >>> 6];
+
+            //extend the open curves into this scan
+            ArrayList<TracingCurve> StillOpen = new ArrayList<>();
+            for (TracingCurve tracing : OpenCurves) {
+                if (ExtendPeakCurve(tracing.Curve, scanData, Included, 0, PointCount, scanNO)) {
+                    tracing.MissedScan = 0;
+                } else {
+                    tracing.MissedScan++;
+                }
+                if (tracing.MissedScan < parameter.NoMissedScan) {
+                    StillOpen.add(tracing);
+                } else {
+                    CloseTracingCurve(tracing, Traced);
+                }
+            }
+            OpenCurves = StillOpen;
+
+            //start new curves from the peaks left in this scan
+            for (int i = 0; i < PointCount; i++) {
+                if (IsIncluded(Included, i)) {
+                    continue;
+                }
+                PeakCurve Peakcurve = StartPeakCurve(scanData, Included, i, 0, PointCount, preRT, scanNO);
+                TracingCurve tracing = new TracingCurve(Peakcurve, Traced.size());
+                Traced.add(Peakcurve);
+                if (parameter.NoMissedScan > 0) {
+                    OpenCurves.add(tracing);
+                } else {
+                    CloseTracingCurve(tracing, Traced);
+                }
+            }
+            preRT = scanData.RetentionTime;
+            if (ReleaseScans) {
+                scanData.dispose();
+            }
+        }
+        for (TracingCurve tracing : OpenCurves) {
+            CloseTracingCurve(tracing, Traced);
+        }
+        for (PeakCurve Peakcurve : Traced) {
+            if (Peakcurve != null) {
+                LCMSPeakBase.UnSortedPeakCurves.add(Peakcurve);
+            }
+        }
+        Logger.getRootLogger().info(LCMSPeakBase.UnSortedPeakCurves.size() + " Peak curves found (Memory usage:" + Math.round((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + "MB)");
+    }
+
+    private void CloseTracingCurve(TracingCurve tracing, ArrayList<PeakCurve> Traced) {
+        PeakCurve Peakcurve = tracing.Curve;
+        if (!IsPeakCurveAccepted(Peakcurve)) {
+            Traced.set(tracing.Seq, null);
+        }
+    }
+
     protected void WaveletDetectMax() {
         //System.out.print("Using multithreading now: " + NoCPUs + " processors");
         Logger.getRootLogger().info("Performing CWT to detect peak regions.....");
         
-        //UpdateProcess progress = new UpdateProcess();
-        UpdateProcess progress = null;
         ExecutorService executorPool = null;
         executorPool = Executors.newFixedThreadPool(NoCPUs);
         //executorPool = Executors.newFixedThreadPool(1);
-        //progress.SetTotal(LCMSPeakBase.PeakCurveListMZ.size());
-        //progress.SetTotal(LCMSPeakBase.UnSortedPeakCurves.size());
-        //Thread thread = new Thread(progress);
-        //thread.start();
-        ArrayList<WaveletRegionDetection> ResultList = new ArrayList<>();
-        for (PeakCurve Peakcurve : LCMSPeakBase.UnSortedPeakCurves) {
-            //if (Peakcurve.StartRT() < 32.6 && Peakcurve.EndRT() > 33 && Peakcurve.TargetMz > 322.68 && Peakcurve.TargetMz < 322.7) {          
-             //if (Peakcurve.TargetMz > 870.5 && Peakcurve.TargetMz < 872.7 && Peakcurve.StartRT() < 48.8 && Peakcurve.EndRT() > 48.8) {                        
-                    
-            WaveletRegionDetection unit = new WaveletRegionDetection(Peakcurve, parameter, progress);
-            ResultList.add(unit);
-
-            //unit.run();
+        //Curves are processed in batches of similar length, the results are added in the order of UnSortedPeakCurves
+        ArrayList<PeakCurve>[] ResultCurves = new ArrayList[LCMSPeakBase.UnSortedPeakCurves.size()];
+        for (WaveletRegionDetectionBatch unit : WaveletRegionDetectionBatch.CreateBatches(LCMSPeakBase.UnSortedPeakCurves, ResultCurves, parameter, NoCPUs)) {
             executorPool.execute(unit);
-            //}
         }
         executorPool.shutdown();
         while (!executorPool.isTerminated()) {
         }
-        //thread = null;
-        //progress.ClearMSG();
-        //progress = null;
         executorPool = null;
-        for (WaveletRegionDetection result : ResultList) {
-            LCMSPeakBase.PeakCurveListMZ.addAll(result.ResultCurves);
-            LCMSPeakBase.PeakCurveListRT.addAll(result.ResultCurves);
+        LCMSPeakBase.PeakCurveListMZ.BeginBulkLoad();
+        LCMSPeakBase.PeakCurveListRT.BeginBulkLoad();
+        for (ArrayList<PeakCurve> result : ResultCurves) {
+            LCMSPeakBase.PeakCurveListMZ.addAll(result);
+            LCMSPeakBase.PeakCurveListRT.addAll(result);
         }
 
         LCMSPeakBase.PeakCurveListMZ.Finalize();
@@ -248,6 +604,11 @@ public class PDHandlerBase {
         }
         LCMSPeakBase.PeakCurveListRT.Finalize();
         LCMSPeakBase.PeakCurveListMZ.Finalize();
+        if (parameter.PackPeakCurves) {
+            for (PeakCurve Peakcurve : LCMSPeakBase.PeakCurveListMZ) {
+                Peakcurve.Pack();
+            }
+        }
         LCMSPeakBase.UnSortedPeakCurves.clear();
         LCMSPeakBase.UnSortedPeakCurves = null;
         System.gc();
@@ -257,7 +618,7 @@ public class PDHandlerBase {
     protected void PeakCurveCorrClustering_V2(XYData mzRange) throws SQLException, IOException {
         Logger.getRootLogger().info("Grouping isotopic peak curves........");
 
-        LCMSPeakBase.PeakClusters = new ArrayList<>();
+        LCMSPeakBase.PeakClusters = new PatchWorkArray<>();
         LCMSPeakBase.MZSortedClusters = new SortedClusterCollectionClassMZ();
         LCMSPeakBase.ApexRTSortedClusters = new SortedClusterCollectionClassApexRT();
 
@@ -32,11 +32,14 @@ import MSUmpire.PeakDataStructure.SortedCurveCollectionIntensity;
 import MSUmpire.PeakDataStructure.SortedCurveCollectionApexRT;
 import MSUmpire.DIA.CorrCalcCluster2ClusterUnit;
 import MSUmpire.DIA.FragDirectedGroupingUnit;
+import MSUmpire.PeakDataStructure.PrecursorFragmentEdgeTable;
 import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
+import MSUmpire.SortedListLib.PatchWorkArray;
 import Utility.UpdateProcess;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import org.apache.log4j.Logger;
@@ -85,12 +88,13 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
     }
 
     public void pSMARTGrouping(ScanCollection scanCollection) throws FileNotFoundException, IOException, SQLException {
-        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur = new HashMap<>();
+        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur = new PrecursorFragmentEdgeTable();
         for (PeakCluster peakCluster : ms1lcms.PeakClusters) {
             if (peakCluster.TargetMz() >= DIAWindowMz.getX() && peakCluster.TargetMz() <= DIAWindowMz.getY()) {
                 ScanCollection SearchScans = scanCollection.GetSubCollectionByElutionTimeAndMZ(peakCluster.startRT, peakCluster.endRT, -1, -1, 2, false);
                 ArrayList<PrecursorFragmentPairEdge> ResultList = new ArrayList<>();
-                for (ScanData scan : SearchScans.ScanHashMap.values()) {
+                for (ScanData handle : SearchScans.ScanHashMap.values()) {
+                    ScanData scan = handle.Load();
                     for (int i = 0; i < scan.PointCount(); i++) {
                         XYData peak = scan.Data.get(i);
                         PrecursorFragmentPairEdge PrecursorFragmentPair = new PrecursorFragmentPairEdge();
@@ -106,16 +110,16 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
                         ResultList.add(PrecursorFragmentPair);
                     }
                 }
-                ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur.put(peakCluster.Index, ResultList);
+                ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur.AddAll(peakCluster.Index, ResultList);
             }
         }
         
         ((LCMSPeakDIAMS2) LCMSPeakBase).ExportCluster2CurveCorr();
     }
     
-    public void DetectPeakCurves(ScanCollection scanCollection) throws FileNotFoundException, IOException, SQLException {        
+    public void DetectPeakCurves(ScanCollection scanCollection) throws FileNotFoundException, IOException, SQLException, InterruptedException, ExecutionException {        
         ReadFragIsoPatternMap();
-        LCMSPeakBase.UnSortedPeakCurves = new ArrayList<>();
+        LCMSPeakBase.UnSortedPeakCurves = new PatchWorkArray<>();
         FindAllPeakCurve(scanCollection);
         //PeaksCheckingStage1AND2(1);
         WaveletDetectMax();
@@ -197,7 +201,7 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
         Logger.getRootLogger().info("Grouping unfragmented precursor ion peaks in SWATH isolation window........");
 
         if (LCMSPeakBase.PeakClusters == null) {
-            LCMSPeakBase.PeakClusters = new ArrayList<>();
+            LCMSPeakBase.PeakClusters = new PatchWorkArray<>();
         }
 
         ExecutorService executorPool = null;
@@ -272,9 +276,9 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
         while (!executorPool.isTerminated()) {
         }
 
-        ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Cur = new HashMap<>();
+        ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Cur = new PrecursorFragmentEdgeTable();
         for (CorrCalcCluster2CurveUnit unit : UnfragmentedIonPairList) {
-            ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Cur.put(unit.MS1PeakCluster.Index, unit.ResultList);
+            ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Cur.AddAll(unit.MS1PeakCluster.Index, unit.ResultList);
         }
         //thread.stop();
         //thread = null;
@@ -317,9 +321,9 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
         while (!executorPool.isTerminated()) {
         }
 
-        ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Clu = new HashMap<>();
+        ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Clu = new PrecursorFragmentEdgeTable();
         for (CorrCalcCluster2ClusterUnit unit : ResultArrayList) {
-            ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Clu.put(unit.MS1PeakCluster.Index, unit.ResultList);
+            ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Clu.AddAll(unit.MS1PeakCluster.Index, unit.ResultList);
         }
         //thread.stop();
         //thread = null;
@@ -362,9 +366,9 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
         while (!executorPool.isTerminated()) {
         }
 
-        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Clu = new HashMap<>();
+        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Clu = new PrecursorFragmentEdgeTable();
         for (CorrCalcCluster2ClusterUnit unit : ResultArrayList) {
-            ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Clu.put(unit.MS1PeakCluster.Index, unit.ResultList);
+            ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Clu.AddAll(unit.MS1PeakCluster.Index, unit.ResultList);
         }
         //thread.stop();
         //thread = null;
@@ -406,9 +410,9 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
         while (!executorPool.isTerminated()) {
         }
 
-        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur = new HashMap<>();
+        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur = new PrecursorFragmentEdgeTable();
         for (CorrCalcCluster2CurveUnit unit : PrecursorPairList) {
-            ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur.put(unit.MS1PeakCluster.Index, unit.ResultList);
+            ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur.AddAll(unit.MS1PeakCluster.Index, unit.ResultList);
         }
         //thread.stop();
         //thread = null;
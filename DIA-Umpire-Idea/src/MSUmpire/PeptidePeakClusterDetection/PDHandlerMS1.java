@@ -22,6 +22,8 @@ package MSUmpire.PeptidePeakClusterDetection;
 import MSUmpire.BaseDataStructure.ScanCollection;
 import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.LCMSBaseStructure.LCMSPeakBase;
+import MSUmpire.SortedListLib.PatchWorkArray;
+import MSUmpire.spectrumparser.ScanStream;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -44,7 +46,7 @@ public class PDHandlerMS1 extends PDHandlerBase {
 
     public void DetectPeakCurves(ArrayList<ScanCollection> scanCollections) throws InterruptedException, ExecutionException, IOException, SQLException {        
         ReadPepIsoMS1PatternMap();
-        LCMSPeakBase.UnSortedPeakCurves = new ArrayList<>();
+        LCMSPeakBase.UnSortedPeakCurves = new PatchWorkArray<>();
         for (ScanCollection scanCollection : scanCollections) {
             FindAllPeakCurve(scanCollection);
         }
@@ -52,6 +54,23 @@ public class PDHandlerMS1 extends PDHandlerBase {
         ClearRawPeaks();
         PeakCurveCorrClustering_V2(new XYData(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY));
     }
+
+    //Same as DetectPeakCurves, tracing the peak curves while the scans of each stream are read
+    public void DetectPeakCurvesFromStreams(ArrayList<ScanStream> scanStreams) throws InterruptedException, ExecutionException, IOException, SQLException {
+        ReadPepIsoMS1PatternMap();
+        LCMSPeakBase.UnSortedPeakCurves = new PatchWorkArray<>();
+        for (ScanStream scanStream : scanStreams) {
+            scanStream.Start();
+            try {
+                FindAllPeakCurve(scanStream);
+            } finally {
+                scanStream.Stop();
+            }
+        }
+        WaveletDetectMax();
+        ClearRawPeaks();
+        PeakCurveCorrClustering_V2(new XYData(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY));
+    }
     
     private void ReadPepIsoMS1PatternMap() throws FileNotFoundException, IOException {
 
@@ -22,9 +22,9 @@ package MSUmpire.PeptidePeakClusterDetection;
 import MSUmpire.BaseDataStructure.ScanCollection;
 import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.LCMSBaseStructure.LCMSPeakMS1Meta;
+import MSUmpire.SortedListLib.PatchWorkArray;
 import java.io.*;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 
@@ -44,7 +44,7 @@ public class PDHandlerMS1Meta extends PDHandlerBase {
 
     public void DetectPeakCurves(ScanCollection scanCollection) throws InterruptedException, ExecutionException, IOException, SQLException {
         ReadMetaIsoPatternMap();
-        LCMSPeakBase.UnSortedPeakCurves = new ArrayList<>();
+        LCMSPeakBase.UnSortedPeakCurves = new PatchWorkArray<>();
         FindAllPeakCurve(scanCollection);
         WaveletDetectMax();
         PeakCurveCorrClustering_V2(new XYData(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY));
@@ -191,8 +191,8 @@ public class PeakCurveClusteringCorrV2Unit implements Runnable {
                 peakCluster.UpdateIsoMapProb(IsotopePatternMap);
                 peakCluster.UpdateIsoMapError(IsotopePatternMap);
                 peakCluster.AssignConfilictCorr();
-                peakCluster.LeftInt = peakA.GetSmoothedList().Data.get(0).getY();
-                peakCluster.RightInt = peakA.GetSmoothedList().Data.get(peakA.GetSmoothedList().PointCount() - 1).getY();
+                peakCluster.LeftInt = peakA.GetSmoothIntensity(0);
+                peakCluster.RightInt = peakA.GetSmoothIntensity(peakA.SmoothPointCount() - 1);
                 ResultClusters.add(peakCluster);
                 if (peakCluster.Corrs[0] > 0.5f && peakCluster.OverlapP > 0.8f) {
                     for (int i = 1; i < peakCluster.IsoPeaksCurves.length; i++) {
@@ -0,0 +1,143 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeptidePeakClusterDetection;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScratchBuffer;
+import MSUmpire.PeakDataStructure.Bspline;
+import MSUmpire.PeakDataStructure.PeakCurve;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * B-spline smoothing, wavelet peak region detection and separation of peak
+ * curves by region for a batch of curves in one task. The raw points of the
+ * whole batch are packed into one pair of rt/intensity arrays and smoothed
+ * from there by Bspline.DeBoor(), without building a point collection for
+ * each curve. The curves are the same as with DoBspline(),
+ * DetectPeakRegion() and SeparatePeakByRegion() called curve by curve.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class WaveletRegionDetectionBatch implements Runnable {
+
+    //A batch takes curves until it has at least this many raw points, or a share of NoCPUs*8 batches of all points if that is less
+    private static final int BATCH_POINTS = 1 << 14;
+
+    private final List<PeakCurve> Curves;
+    //positions in Curves of the curves of this batch
+    private final int[] Positions;
+    //Results[i] is set to the curves separated from Curves.get(i)
+    private final ArrayList<PeakCurve>[] Results;
+    private final InstrumentParameter parameter;
+
+    private WaveletRegionDetectionBatch(List<PeakCurve> Curves, int[] Positions, ArrayList<PeakCurve>[] Results, InstrumentParameter parameter) {
+        this.Curves = Curves;
+        this.Positions = Positions;
+        this.Results = Results;
+        this.parameter = parameter;
+    }
+
+    /**
+     * Splits curves into batches of curves of similar length, longest curves
+     * first, enough batches to keep NoCPUs threads busy. Results must have
+     * curves.size() elements; once all batches have run, Results[i] has the
+     * curves separated from curves.get(i).
+     */
+    public static ArrayList<WaveletRegionDetectionBatch> CreateBatches(List<PeakCurve> curves, ArrayList<PeakCurve>[] Results, InstrumentParameter parameter, int NoCPUs) {
+        return CreateBatches(curves, Results, parameter, NoCPUs, BATCH_POINTS);
+    }
+
+    //BatchPoints replaces BATCH_POINTS, for tests comparing batch sizes
+    static ArrayList<WaveletRegionDetectionBatch> CreateBatches(List<PeakCurve> curves, ArrayList<PeakCurve>[] Results, InstrumentParameter parameter, int NoCPUs, int BatchPoints) {
+        //(Integer.MAX_VALUE - peak count, position) pairs, sorted by length then position
+        long[] order = new long[curves.size()];
+        long total = 0;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((long) (Integer.MAX_VALUE - curves.get(i).PeakCount()) << 32) | i;
+            total += curves.get(i).PeakCount();
+        }
+        Arrays.sort(order);
+        long batchpoints = Math.min(BatchPoints, total / (NoCPUs * 8L));
+
+        ArrayList<WaveletRegionDetectionBatch> batches = new ArrayList<>();
+        int start = 0;
+        while (start < order.length) {
+            int end = start;
+            long points = 0;
+            while (end < order.length && (end == start || points < batchpoints)) {
+                points += Integer.MAX_VALUE - (int) (order[end] >>> 32);
+                end++;
+            }
+            int[] positions = new int[end - start];
+            for (int i = start; i < end; i++) {
+                positions[i - start] = (int) order[i];
+            }
+            batches.add(new WaveletRegionDetectionBatch(curves, positions, Results, parameter));
+            start = end;
+        }
+        return batches;
+    }
+
+    @Override
+    public void run() {
+        ScratchBuffer buffer = ScratchBuffer.Get();
+        int[] offsets = new int[Positions.length + 1];
+        for (int k = 0; k < Positions.length; k++) {
+            offsets[k + 1] = offsets[k] + Curves.get(Positions[k]).PeakCount();
+        }
+        float[] rt = buffer.Floats(ScratchBuffer.BATCH_RT, offsets[Positions.length]);
+        float[] intensity = buffer.Floats(ScratchBuffer.BATCH_INTENSITY, offsets[Positions.length]);
+        for (int k = 0; k < Positions.length; k++) {
+            PeakCurve curve = Curves.get(Positions[k]);
+            for (int i = 0; i < offsets[k + 1] - offsets[k]; i++) {
+                rt[offsets[k] + i] = curve.GetPeakRT(i);
+                intensity[offsets[k] + i] = curve.GetPeakIntensity(i);
+            }
+        }
+
+        for (int k = 0; k < Positions.length; k++) {
+            PeakCurve curve = Curves.get(Positions[k]);
+            int count = offsets[k + 1] - offsets[k];
+            //DoBspline() sorts the points by rt, and returns too short curves as they are
+            if (count > PeakCurve.BSPLINE_DEGREE && Ascending(rt, offsets[k], count)) {
+                int PtNum = curve.BsplinePtNum();
+                float[] x = buffer.Floats(ScratchBuffer.SMOOTH_X, PtNum + 3);
+                float[] y = buffer.Floats(ScratchBuffer.SMOOTH_Y, PtNum + 3);
+                int size = Bspline.DeBoor(rt, intensity, offsets[k], count, PtNum, PeakCurve.BSPLINE_DEGREE, x, y);
+                curve.SetSmoothData(x, y, size);
+            } else {
+                curve.DoBspline();
+            }
+            curve.DetectPeakRegion();
+            Results[Positions[k]] = curve.SeparatePeakByRegion(parameter.SNThreshold);
+        }
+    }
+
+    private static boolean Ascending(float[] values, int offset, int count) {
+        for (int i = offset + 1; i < offset + count; i++) {
+            if (!(values[i] > values[i - 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
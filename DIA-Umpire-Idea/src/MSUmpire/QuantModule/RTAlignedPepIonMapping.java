@@ -21,6 +21,7 @@ package MSUmpire.QuantModule;
 
 import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.MathPackage.NonlinearRegression;
+import MSUmpire.PSMDataStructure.IDRegistry;
 import MSUmpire.PSMDataStructure.PepIonID;
 import MSUmpire.PSMDataStructure.LCMSID;
 import MSUmpire.BaseDataStructure.XYPointCollection;
@@ -61,12 +62,21 @@ public class RTAlignedPepIonMapping implements Runnable{
         this.LCMSA = LCMSA;
         this.LCMSB = LCMSB;
         this.Workfolder=Workfolder;
+        ShareRegistry();
     }
     public RTAlignedPepIonMapping(String Workfolder,LCMSID LCMSA, LCMSID LCMSB,UpdateProcess update) {
         this.LCMSA = LCMSA;
         this.LCMSB = LCMSB;
         this.update=update;
         this.Workfolder=Workfolder;
+        ShareRegistry();
+    }
+
+    //Peptide ions of the two files are joined by their IDs, which need the same registry
+    private void ShareRegistry() {
+        if (!LCMSB.IsOnRegistry(LCMSA.GetRegistry())) {
+            LCMSB.UseRegistry(LCMSA.GetRegistry());
+        }
     }
 
     public void GenerateModel() throws IOException {
@@ -75,9 +85,10 @@ public class RTAlignedPepIonMapping implements Runnable{
         XYSeries series = new XYSeries("Peptide ions");
         XYSeriesCollection xySeriesCollection = new XYSeriesCollection();
 
+        IDRegistry registry = LCMSA.GetRegistry();
         for (PepIonID pepA : LCMSA.GetPepIonList().values()) {
-            if (LCMSB.GetPepIonList().containsKey(pepA.GetKey())) {
-                PepIonID pepB = LCMSB.GetPepIonList().get(pepA.GetKey());
+            PepIonID pepB = LCMSB.GetPepIonByID(pepA.GetKeyID(registry));
+            if (pepB != null) {
                 points.AddPoint(pepA.GetRT(), pepB.GetRT());
                 series.add(new XYDataItem(pepA.GetRT(), pepB.GetRT()));
             }
@@ -123,17 +134,16 @@ public class RTAlignedPepIonMapping implements Runnable{
             return;
         }
         
+        IDRegistry registry = LCMSA.GetRegistry();
         for (PepIonID pepion : LCMSA.GetPepIonList().values()) {
-            PepIonID predictedPepIon = null;
-            if (!LCMSB.GetPepIonList().containsKey(pepion.GetKey())) {
-                if (LCMSB.GetMappedPepIonList().containsKey(pepion.GetKey())) {
-                    predictedPepIon = LCMSB.GetMappedPepIonList().get(pepion.GetKey());
-                } else {
+            int KeyID = pepion.GetKeyID(registry);
+            PepIonID predictedPepIon = LCMSB.GetPepIonByID(KeyID);
+            if (predictedPepIon == null) {
+                predictedPepIon = LCMSB.GetMappedPepIonByID(KeyID);
+                if (predictedPepIon == null) {
                     predictedPepIon = pepion.ClonePepIonID();
-                    LCMSB.GetMappedPepIonList().put(pepion.GetKey(), predictedPepIon);
+                    LCMSB.AddMappedPepIon(predictedPepIon);
                 }
-            } else {
-                predictedPepIon = LCMSB.GetPepIonList().get(pepion.GetKey());
             }
             float PRT = regression.GetPredictYByTimelist(pepion.GetIDRT());
             boolean added = true;
@@ -150,16 +160,14 @@ public class RTAlignedPepIonMapping implements Runnable{
         Logger.getRootLogger().info("Mapping predicted peptide ions for " + FilenameUtils.getBaseName(LCMSA.mzXMLFileName) + "...");
 
         for (PepIonID pepion : LCMSB.GetPepIonList().values()) {
-            PepIonID predictedPepIon = null;
-            if (!LCMSA.GetPepIonList().containsKey(pepion.GetKey())) {                
-                if (LCMSA.GetMappedPepIonList().containsKey(pepion.GetKey())) {
-                    predictedPepIon = LCMSA.GetMappedPepIonList().get(pepion.GetKey());
-                } else {
+            int KeyID = pepion.GetKeyID(registry);
+            PepIonID predictedPepIon = LCMSA.GetPepIonByID(KeyID);
+            if (predictedPepIon == null) {
+                predictedPepIon = LCMSA.GetMappedPepIonByID(KeyID);
+                if (predictedPepIon == null) {
                     predictedPepIon = pepion.ClonePepIonID();
-                    LCMSA.GetMappedPepIonList().put(pepion.GetKey(), predictedPepIon);
-                }            
-            } else {
-                predictedPepIon = LCMSA.GetPepIonList().get(pepion.GetKey());
+                    LCMSA.AddMappedPepIon(predictedPepIon);
+                }
             }
             float PRT = regression.GetPredictXByTimelist(pepion.GetIDRT());
             boolean added = true;
@@ -26,8 +26,14 @@ import java.io.Serializable;
 import java.util.*;
 
 /**
- * List implementation which is backed by an ArrayList and performs lazy
- * insertions and removals
+ * List implementation which is backed by a chunked array list and performs
+ * lazy insertions and removals
+ * <p>
+ * The backing list grows by fixed-size chunks, so appending to a list of tens
+ * of millions of elements never copies the elements already stored. As long
+ * as elements are only appended, the index of an element never changes and
+ * {@link #get(int)} is a direct chunk lookup, so indexes kept elsewhere (e.g.
+ * PeakCluster.Index) stay valid.
  * <p>
  * This implementation is not synchronised so if you need multi-threaded access
  * then consider wrapping it using the {@link Collections#synchronizedList}
@@ -62,28 +68,37 @@ public class PatchWorkArray<T> extends AbstractList<T> implements Serializable {
         NORMAL, NO_VALUE, SUB_LIST
     };
 
-    private List<Object> backingList; //the ArrayList that backs this list..
+    private List<Object> backingList; //the ChunkedList that backs this list..
     private final AlterationList alterations; //the Alterations that have been made to the backing list..
 
     //cached values to improve performance..
     private int size; //number of actual elements in the list.
 
     /**
-     * Creates a new {@code PatchWorkArray} backed by an ArrayList with an
-     * initial capacity of ten.
+     * Creates a new empty {@code PatchWorkArray}.
      */
     public PatchWorkArray() {
-        backingList = new ArrayList<Object>();
+        backingList = new ChunkedList();
         alterations = new AlterationList();
     }
 
     /**
-     * Creates a new {@code PatchWorkArray} backed by an ArrayList with the
-     * given initial capacity.
+     * Creates a new empty {@code PatchWorkArray}; the capacity is only kept
+     * for compatibility, chunks are allocated as elements are added.
      */
     public PatchWorkArray(int initialCapacity) {
-        backingList = new ArrayList<Object>(initialCapacity);
-        alterations = new AlterationList();
+        this();
+    }
+
+    /**
+     * Creates a new {@code PatchWorkArray} with the elements of the given
+     * collection, in the order of its iterator.
+     */
+    public PatchWorkArray(Collection<? extends T> elements) {
+        this();
+        for (T element : elements) {
+            add(element);
+        }
     }
 
     /**
@@ -101,6 +116,9 @@ public class PatchWorkArray<T> extends AbstractList<T> implements Serializable {
         if (index < 0 || index >= size()) {
             throw new IllegalArgumentException(index + " is not valid index.");
         }
+        if (alterations.isEmpty()) {
+            return (T) backingList.get(index);
+        }
         ArrayLocation loc = alterations.getLocationOf(index);
         return (loc.hasSubListIndex())
                 ? ((List<T>) backingList.get(loc.backingListIndex)).get(loc.subListIndex)
@@ -270,9 +288,12 @@ public class PatchWorkArray<T> extends AbstractList<T> implements Serializable {
             if (nextIndex == size) {
                 lastSubListNode = null;
             } else {
+                //next() returns the successor of lastSubListNode, or the element at nextBLIndex if it is null
                 ArrayLocation loc = alterations.getLocationOf(nextIndex);
                 nextBLIndex = loc.backingListIndex;
-                lastSubListNode = ((UnsortedList<T>) backingList.get(loc.backingListIndex)).findNodeAtIndex(loc.subListIndex);
+                lastSubListNode = (loc.hasSubListIndex() && loc.subListIndex > 0)
+                        ? ((UnsortedList<T>) backingList.get(loc.backingListIndex)).findNodeAtIndex(loc.subListIndex - 1)
+                        : null;
             }
 
             expectedModCount = modCount;
@@ -431,7 +452,7 @@ public class PatchWorkArray<T> extends AbstractList<T> implements Serializable {
      */
     public void fix() {
         //the new backing list and the next index to add to..
-        List<Object> fixedList = new ArrayList<Object>(size());
+        List<Object> fixedList = new ChunkedList();
 
         Iterator<Alteration> itr = alterations.iterator();
         int blIndex = 0; //index into backing list..
@@ -543,7 +564,7 @@ public class PatchWorkArray<T> extends AbstractList<T> implements Serializable {
 
             if (blIndex == backingListLastIndex) {
                 //this is the last element of the backing list, just remove it from there..
-                backingList.remove(backingListLastIndex);
+                valueRemoved = (T) backingList.remove(backingListLastIndex);
             } else { //removal is not from the end..
                 boolean removalToRight = (getTypeAtBackingListIndex(blIndex + 1) == ElementType.NO_VALUE);
                 if (blIndex > 0 && getTypeAtBackingListIndex(blIndex - 1) == ElementType.NO_VALUE) {
@@ -574,6 +595,108 @@ public class PatchWorkArray<T> extends AbstractList<T> implements Serializable {
         return valueRemoved;
     }
 
+    //Alterations hold sentinels and sub-lists, only the fixed backing list is written
+    private synchronized void writeObject(java.io.ObjectOutputStream stream) throws java.io.IOException {
+        if (!alterations.isEmpty()) {
+            fix();
+        }
+        stream.defaultWriteObject();
+    }
+
+    /**
+     * Removes the first occurrence of the given object, found with equals().
+     *
+     * @return whether the list contained the object.
+     */
+    @Override
+    public boolean remove(Object obj) {
+        int index = indexOf(obj);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Backing list made of fixed-size chunks: growing it allocates a new
+     * chunk and at most copies the array of chunk references, never the
+     * elements.
+     */
+    private static class ChunkedList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 4820364217759362816L;
+        private static final int CHUNK_BITS = 14;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private Object[][] chunks = new Object[4][];
+        private int count;
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException(index + " is not valid index.");
+            }
+            return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+        }
+
+        @Override
+        public Object set(int index, Object obj) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException(index + " is not valid index.");
+            }
+            Object[] chunk = chunks[index >>> CHUNK_BITS];
+            Object old = chunk[index & CHUNK_MASK];
+            chunk[index & CHUNK_MASK] = obj;
+            return old;
+        }
+
+        @Override
+        public boolean add(Object obj) {
+            int chunk = count >>> CHUNK_BITS;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new Object[CHUNK_SIZE];
+            }
+            chunks[chunk][count & CHUNK_MASK] = obj;
+            count++;
+            modCount++;
+            return true;
+        }
+
+        //Only used by PatchWorkArray to drop the last element, other
+        //positions are shifted one by one
+        @Override
+        public Object remove(int index) {
+            Object old = get(index);
+            for (int i = index; i < count - 1; i++) {
+                set(i, get(i + 1));
+            }
+            count--;
+            chunks[count >>> CHUNK_BITS][count & CHUNK_MASK] = null;
+            if ((count & CHUNK_MASK) == 0) {
+                chunks[count >>> CHUNK_BITS] = null;
+            }
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            chunks = new Object[4][];
+            count = 0;
+            modCount++;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
     //Class that defines sub-lists..
     private class SubList extends UnsortedList<T> {
 
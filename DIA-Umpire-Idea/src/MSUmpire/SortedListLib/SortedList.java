@@ -44,6 +44,10 @@ import java.util.*;
  * Once the tree is constructed, "Finalize" function can be called to transform
  * tree data structure to a sorted array to save memory
  *
+ * In bulk load mode (see {@link #BeginBulkLoad()}) added elements are only
+ * appended to an array and sorted once by "Finalize", without building the
+ * tree. Querying the list before that inserts them into the tree first.
+ *
  * @author orignalled by Mark Rhodes, modified by Chih-Chiang Tsou
  * @version 1.4
  * @see List
@@ -62,6 +66,10 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
     private transient final Comparator<? super T> comparator;
     protected Object[] FinalizedSortedArray = null;
     protected boolean Finalized = false;
+    //Elements added in bulk load mode which are not in the tree yet
+    private Object[] BulkArray = null;
+    private int BulkSize = 0;
+    private boolean BulkLoad = false;
 
     
 //    private synchronized void writeObject(java.io.ObjectOutputStream stream) throws java.io.IOException {
@@ -99,7 +107,40 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
         Finalized = true;
     }
 
+    /**
+     * Starts bulk load mode: elements added from now on are appended to an
+     * array in O(1) and sorted once when the list is finalized, which is
+     * much faster than inserting them one by one into the tree when the
+     * list is only queried after all elements are added.
+     */
+    public void BeginBulkLoad() {
+        BulkLoad = true;
+    }
+
+    //Inserts the elements added in bulk load mode into the tree, in the order they were added
+    @SuppressWarnings("unchecked")
+    protected void FlushBulkLoad() {
+        if (BulkSize == 0) {
+            return;
+        }
+        Object[] pending = BulkArray;
+        int count = BulkSize;
+        BulkArray = null;
+        BulkSize = 0;
+        for (int i = 0; i < count; i++) {
+            add(new Node((T) pending[i]));
+        }
+    }
+
+    //Number of elements in the tree and the bulk load array
+    protected int UnfinalizedSize() {
+        return ((root == null) ? 0 : 1 + root.numChildren) + BulkSize;
+    }
+
     public void ClearTree() {
+        BulkArray = null;
+        BulkSize = 0;
+        BulkLoad = false;
         if (root != null) {
             Node start = root.smallestNodeInSubTree(); //start with the smallest value.
             Node next = start.successor();
@@ -132,7 +173,16 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
             return false;
         }
         boolean treeAltered = false;
-        if (object != null) {
+        if (object != null && BulkLoad) {
+            if (BulkArray == null) {
+                BulkArray = new Object[16];
+            } else if (BulkSize == BulkArray.length) {
+                BulkArray = Arrays.copyOf(BulkArray, BulkSize + (BulkSize >> 1));
+            }
+            BulkArray[BulkSize++] = object;
+            modCount++;
+            treeAltered = true;
+        } else if (object != null) {
             //wrap the value in a node and add it..
             add(new Node(object)); //will ensure the modcount is increased..
             treeAltered = true;
@@ -228,6 +278,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
         if (Finalized) {
             return (Iterator<T>) Arrays.asList(FinalizedSortedArray).iterator();
         }
+        FlushBulkLoad();
         return new Itr();
     }
 
@@ -310,7 +361,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
     @Override
     public int size() {
         if (!Finalized) {
-            return (root == null) ? 0 : 1 + root.numChildren;
+            return UnfinalizedSize();
         }
         return FinalizedSortedArray.length;
     }
@@ -327,6 +378,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
             System.out.print("The array is finalized, operation of tree structure is prohibited.");
             return null;
         }
+        FlushBulkLoad();
         return root;
     }
 
@@ -368,6 +420,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
             System.out.print("The array is finalized, operation of tree structure is prohibited.");
             return null;
         }
+        FlushBulkLoad();
         Node current = root;
         while (current != null) {
             //use the comparator on the values, rather than nodes..
@@ -432,6 +485,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
             return false;
         }
         boolean treeAltered = false;
+        FlushBulkLoad();
         try {
             if (value != null && root != null) {
                 @SuppressWarnings("unchecked")
@@ -519,6 +573,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
             System.out.print("The array is finalized, operation of tree structure is prohibited.");
             return null;
         }
+        FlushBulkLoad();
         if (index < 0 || index >= size()) {
             throw new IllegalArgumentException(index + " is not valid index.");
         }
@@ -551,7 +606,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
     @Override
     public boolean isEmpty() {
         if (!Finalized) {
-            return root == null;
+            return UnfinalizedSize() == 0;
         }
         return FinalizedSortedArray.length == 0;
     }
@@ -563,6 +618,8 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
     public void clear() {
         root = null; //TF4GC.
         FinalizedSortedArray = null;
+        BulkArray = null;
+        BulkSize = 0;
     }
 
     /**
@@ -572,6 +629,7 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
      * @return an array representation of this list.
      */
     @Override
+    @SuppressWarnings("unchecked")
     public Object[] toArray() {
         if (Finalized) {
             return FinalizedSortedArray;
@@ -588,6 +646,11 @@ public class SortedList<T> extends AbstractList<T> implements Serializable {
                 next = next.successor();
             }
         }
+        if (BulkSize > 0) {
+            //the sort is stable and the tree elements come first, so equal elements stay in the order they were added
+            System.arraycopy(BulkArray, 0, array, positionToInsert, BulkSize);
+            Arrays.sort((T[]) array, comparator);
+        }
         return array;
     }
 
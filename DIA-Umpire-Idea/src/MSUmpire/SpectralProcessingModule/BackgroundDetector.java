@@ -20,8 +20,8 @@
 package MSUmpire.SpectralProcessingModule;
 
 import MSUmpire.BaseDataStructure.ScanData;
-import java.util.ArrayList;
-import java.util.Collections;
+import MSUmpire.BaseDataStructure.ScratchBuffer;
+import java.util.Arrays;
 
 /**
  *
@@ -40,28 +40,25 @@ public class BackgroundDetector {
         if (Scan.Data.isEmpty()) {
             return;
         }
-        ArrayList<Float> IntList = new ArrayList<>();
-        for (int i = 0; i < Scan.Data.size(); i++) {
-            IntList.add(Scan.Data.get(i).getY());
-        }
-        Collections.sort(IntList);
-        float lower = IntList.get((int) (IntList.size() * 0.6f));
+        int size = Scan.Data.size();
+        float[] IntList = SortedIntensities(null);
+        float lower = IntList[(int) (size * 0.6f)];
         int idx = 1;
         int count = 1;
-        int remainingNo = IntList.size();
-        while (idx < IntList.size()) {
-            if (IntList.get(idx).equals(IntList.get(idx - 1))) {
+        int remainingNo = size;
+        while (idx < size) {
+            if (IntList[idx] == IntList[idx - 1]) {
                 count++;
             } else {
                 if (count > remainingNo / 5) {
-                    Scan.background = IntList.get(idx - 1);
-                    remainingNo = Math.max(200, IntList.size() - idx);
-                    if (IntList.get(idx) > boundary) {
+                    Scan.background = IntList[idx - 1];
+                    remainingNo = Math.max(200, size - idx);
+                    if (IntList[idx] > boundary) {
                         break;
                     }
                 } else {
-                    if (IntList.get(idx - 1) <= lower) {
-                        Scan.background = IntList.get(idx - 1);
+                    if (IntList[idx - 1] <= lower) {
+                        Scan.background = IntList[idx - 1];
                     } else {
                         break;
                     }
@@ -70,44 +67,47 @@ public class BackgroundDetector {
             }
             idx++;
         }
-        IntList.clear();
-        IntList = null;
+    }
+
+    //Intensities of the scan (and an extra value if extra isn't null) in
+    //ascending order, in the BACKGROUND_INTENSITY scratch array
+    private float[] SortedIntensities(Float extra) {
+        int size = Scan.Data.size();
+        float[] IntList = ScratchBuffer.Get().Floats(ScratchBuffer.BACKGROUND_INTENSITY, size + 1);
+        for (int i = 0; i < size; i++) {
+            IntList[i] = Scan.Data.GetY(i);
+        }
+        if (extra != null) {
+            IntList[size++] = extra;
+        }
+        Arrays.sort(IntList, 0, size);
+        return IntList;
     }
 
     public void DetermineConstantBackground() {
         if (Scan.Data.isEmpty()) {
             return;
         }
-        ArrayList<Float> IntList = new ArrayList<>();
-        IntList.add(1f);
-        for (int i = 0; i < Scan.Data.size(); i++) {
-            IntList.add(Scan.Data.get(i).getY());
-        }
-        Collections.sort(IntList);
+        int size = Scan.Data.size() + 1;
+        float[] IntList = SortedIntensities(1f);
         int idx = 1;
-        while (idx < IntList.size()) {
-            if (IntList.get(idx).equals(IntList.get(idx - 1))) {
+        while (idx < size) {
+            if (IntList[idx] == IntList[idx - 1]) {
             } else {
-                Scan.background = IntList.get(idx - 1);
+                Scan.background = IntList[idx - 1];
             }
             idx++;
         }
-
-        IntList.clear();
-        IntList = null;
     }
 
     public void AdjacentPeakHistogram() {
         if (Scan.PointCount() < 10) {
             return;
         }
-        ArrayList<Float> IntList = new ArrayList<>();
-        for (int i = 0; i < Scan.Data.size(); i++) {
-            IntList.add(Scan.Data.get(i).getY());
-        }        
-        Collections.sort(IntList);
-        float upper = IntList.get((int) (IntList.size() * 0.7f));
-        float lower = IntList.get(0);
+        int size = Scan.Data.size();
+        float[] IntList = SortedIntensities(null);
+        float upper = IntList[(int) (size * 0.7f)];
+        float lower = IntList[0];
 
         //FileWriter writer = new FileWriter("C:\\Umich\\Box Sync\\Default Sync Folder\\Background\\Test\\" + Scan.Num + "_hist.xls");
         //FileWriter writer2 = new FileWriter("C:\\Umich\\Box Sync\\Default Sync Folder\\Background\\Test\\" + Scan.Num + "_count.xls");
@@ -131,17 +131,18 @@ public class BackgroundDetector {
             //writer2.write(bk+"\t");
             int preidx = -1;
             for (int i = 1; i < Scan.Data.size(); i++) {
-                if (Scan.Data.get(i).getY() > bk) {
+                if (Scan.Data.GetY(i) > bk) {
                     if (preidx != -1) {
-                        float dist = Scan.Data.get(i).getX() - Scan.Data.get(preidx).getX();
+                        float dist = Scan.Data.GetX(i) - Scan.Data.GetX(preidx);
+                        boolean decreasing = Scan.Data.GetY(preidx) > Scan.Data.GetY(i);
                         //writer.write(dist + "\t");
-                        if (dist > 0.95 && dist < 1.05 && Scan.Data.get(preidx).getY() > Scan.Data.get(i).getY()) {
+                        if (dist > 0.95 && dist < 1.05 && decreasing) {
                             count1++;
-                        } else if (dist > 0.45 && dist < 0.55 && Scan.Data.get(preidx).getY() > Scan.Data.get(i).getY()) {
+                        } else if (dist > 0.45 && dist < 0.55 && decreasing) {
                             count2++;
-                        } else if (dist > 0.3 && dist < 0.36 && Scan.Data.get(preidx).getY() > Scan.Data.get(i).getY()) {
+                        } else if (dist > 0.3 && dist < 0.36 && decreasing) {
                             count3++;
-                        } else if (dist > 0.24 && dist < 0.26 && Scan.Data.get(preidx).getY() > Scan.Data.get(i).getY()) {
+                        } else if (dist > 0.24 && dist < 0.26 && decreasing) {
                             count4++;
                         } else if (dist < 0.23f) {
                             noise++;
@@ -39,8 +39,9 @@ public class MGFWrapper {
 
     public void Export(String Filename) throws IOException {
         FileWriter mgfWriter = new FileWriter(Filename);
-        for (ScanData scan : scanCollection.ScanHashMap.values()) {
-            if (scan.MsLevel == 2) {
+        for (ScanData handle : scanCollection.ScanHashMap.values()) {
+            if (handle.MsLevel == 2) {
+                ScanData scan = handle.Load();
                 StringBuilder mgfString = new StringBuilder();
                 mgfString.append("BEGIN IONS\n");
                 mgfString.append("PEPMASS=" + scan.PrecursorMz + "\n");
@@ -51,7 +51,7 @@ public class mzXMLWrapper {
                 + "xsi:schemaLocation=\"http://sashimi.sourceforge.net/schema_revision/mzXML_3.2 http://sashimi.sourceforge.net/schema_revision/mzXML_3.2/mzXML_idx_3.2.xsd\">");
         int lastMS1ScanNo = 1;
         for (Integer ScanNo : scanCollection.ScanHashMap.keySet()) {
-            ScanData scanData = scanCollection.ScanHashMap.get(ScanNo);
+            ScanData scanData = scanCollection.GetScan(ScanNo);
             writer.write("<scan num=" + ScanNo + "\"\n");
             writer.write("scanType=\"Full\"\n");
             String line = "0";
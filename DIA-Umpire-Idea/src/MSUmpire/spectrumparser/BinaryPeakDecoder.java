@@ -0,0 +1,243 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import MSUmpire.BaseDataStructure.ScratchBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decoder for Base64 encoded (optionally zlib compressed) binary peak arrays
+ * of 32 or 64-bit floating point values in either byte order.
+ * <p>
+ * All buffers are kept and reused between calls, so decoding a spectrum
+ * doesn't allocate once the buffers have grown to the size of the largest
+ * spectrum. An instance is not thread-safe, use {@link #Get()} to get the
+ * decoder of the current thread. Growing a buffer is recorded in the
+ * {@link ScratchBuffer} allocation counters.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class BinaryPeakDecoder {
+
+    private static final byte[] BASE64TABLE = new byte[128];
+
+    static {
+        for (int i = 0; i < BASE64TABLE.length; i++) {
+            BASE64TABLE[i] = -1;
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+        //URL-safe alphabet
+        BASE64TABLE['-'] = 62;
+        BASE64TABLE['_'] = 63;
+    }
+
+    private static final ThreadLocal<BinaryPeakDecoder> DECODERS = new ThreadLocal<BinaryPeakDecoder>() {
+        @Override
+        protected BinaryPeakDecoder initialValue() {
+            return new BinaryPeakDecoder();
+        }
+    };
+
+    public static BinaryPeakDecoder Get() {
+        return DECODERS.get();
+    }
+
+    private byte[] DecodedBytes = new byte[1024];
+    private byte[] InflatedBytes = new byte[4096];
+    private final Inflater inflater = new Inflater();
+    private double[] DoubleValues = new double[256];
+    //Decoded values of the last call, only the first ValueCount are valid
+    public float[] Values = new float[256];
+    public int ValueCount;
+    //m/z and intensity of the points kept by PositivePairs/PositiveIntensities
+    public float[] Mz = new float[128];
+    public float[] Intensity = new float[128];
+    private int MzCount;
+
+    /**
+     * Decodes the Base64 text between from and to (characters outside the
+     * Base64 alphabet, e.g. line breaks, are skipped) into Values.
+     *
+     * @param precision 32 or 64
+     * @param zlib whether the binary data is zlib compressed
+     * @param order byte order of the values (mzXML "network" is big-endian)
+     * @return the number of decoded values
+     */
+    public int Decode(byte[] text, int from, int to, int precision, boolean zlib, ByteOrder order) throws DataFormatException {
+        int length = DecodeBase64(text, from, to);
+        byte[] bytes = DecodedBytes;
+        if (zlib) {
+            length = Inflate(length);
+            bytes = InflatedBytes;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length).order(order);
+        switch (precision) {
+            case (32): {
+                ValueCount = length / 4;
+                Values = Ensure(Values, ValueCount);
+                buffer.asFloatBuffer().get(Values, 0, ValueCount);
+                break;
+            }
+            case (64): {
+                ValueCount = length / 8;
+                Values = Ensure(Values, ValueCount);
+                if (DoubleValues.length < ValueCount) {
+                    DoubleValues = new double[Grow(DoubleValues.length, ValueCount)];
+                    ScratchBuffer.CountAllocation(DoubleValues.length * 8L);
+                }
+                buffer.asDoubleBuffer().get(DoubleValues, 0, ValueCount);
+                for (int i = 0; i < ValueCount; i++) {
+                    Values[i] = (float) DoubleValues[i];
+                }
+                break;
+            }
+            default: {
+                throw new DataFormatException("Unsupported peak precision: " + precision);
+            }
+        }
+        return ValueCount;
+    }
+
+    /**
+     * Splits the first maxPairs (m/z, intensity) pairs of the decoded values
+     * into Mz and Intensity, dropping the pairs without positive intensity.
+     *
+     * @return the number of pairs kept
+     */
+    public int PositivePairs(int maxPairs) {
+        int pairs = Math.min(maxPairs, ValueCount / 2);
+        Mz = Ensure(Mz, pairs);
+        Intensity = Ensure(Intensity, pairs);
+        int size = 0;
+        for (int i = 0; i < pairs; i++) {
+            if (Values[2 * i + 1] > 0f) {
+                Mz[size] = Values[2 * i];
+                Intensity[size++] = Values[2 * i + 1];
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Keeps the decoded values as the m/z array, for formats storing m/z and
+     * intensity in separate arrays (mzML). Decode the intensity array next and
+     * call {@link #PositiveIntensities(int)}.
+     */
+    public void KeepAsMz() {
+        Mz = Ensure(Mz, ValueCount);
+        System.arraycopy(Values, 0, Mz, 0, ValueCount);
+        MzCount = ValueCount;
+    }
+
+    /**
+     * Pairs the m/z array kept by KeepAsMz with the decoded intensities, the
+     * first maxPoints points without positive intensity are dropped.
+     *
+     * @return the number of points kept in Mz and Intensity
+     */
+    public int PositiveIntensities(int maxPoints) {
+        int points = Math.min(maxPoints, Math.min(MzCount, ValueCount));
+        Intensity = Ensure(Intensity, points);
+        int size = 0;
+        for (int i = 0; i < points; i++) {
+            if (Values[i] > 0f) {
+                Mz[size] = Mz[i];
+                Intensity[size++] = Values[i];
+            }
+        }
+        return size;
+    }
+
+    private int DecodeBase64(byte[] text, int from, int to) {
+        int maxlength = (to - from) / 4 * 3 + 3;
+        if (DecodedBytes.length < maxlength) {
+            DecodedBytes = new byte[Grow(DecodedBytes.length, maxlength)];
+            ScratchBuffer.CountAllocation(DecodedBytes.length);
+        }
+        byte[] out = DecodedBytes;
+        int length = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int c = text[i] & 0xff;
+            if (c == '=') {
+                break;
+            }
+            int value = c < 128 ? BASE64TABLE[c] : -1;
+            if (value < 0) {
+                continue;
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                out[length++] = (byte) (bits >> 16);
+                out[length++] = (byte) (bits >> 8);
+                out[length++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            out[length++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            out[length++] = (byte) (bits >> 10);
+            out[length++] = (byte) (bits >> 2);
+        }
+        return length;
+    }
+
+    private int Inflate(int length) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(DecodedBytes, 0, length);
+        int total = 0;
+        while (!inflater.finished()) {
+            if (total == InflatedBytes.length) {
+                byte[] grown = new byte[InflatedBytes.length * 2];
+                System.arraycopy(InflatedBytes, 0, grown, 0, total);
+                InflatedBytes = grown;
+                ScratchBuffer.CountAllocation(grown.length);
+            }
+            int count = inflater.inflate(InflatedBytes, total, InflatedBytes.length - total);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    private static float[] Ensure(float[] array, int size) {
+        if (array.length >= size) {
+            return array;
+        }
+        float[] grown = new float[Grow(array.length, size)];
+        ScratchBuffer.CountAllocation(grown.length * 4L);
+        return grown;
+    }
+
+    private static int Grow(int current, int required) {
+        return Math.max(required, current + (current >> 1));
+    }
+}
@@ -0,0 +1,254 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import MSUmpire.BaseDataStructure.ScanCollection;
+import MSUmpire.BaseDataStructure.XYData;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Loads the MS2 scans of several DIA windows in one sequential read of the
+ * mzXML file instead of seeking through the whole file once per window.
+ * <p>
+ * The windows are handled in the given order, at most MaxWindowsInFlight of
+ * them at a time. For each group of windows the scan index is walked once in
+ * file order, every scan is routed to the ScanCollection of its window and
+ * a window is handed to the consumer as soon as its last scan is decoded.
+ * The next group is only read after the consumer took (or released) the
+ * windows of the current one, so memory is bounded by MaxWindowsInFlight
+ * window collections.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class DIAWindowDemultiplexer implements Runnable {
+
+    private final mzXMLParser mzxml;
+    private final ArrayList<XYData> Windows;
+    private final int MaxWindowsInFlight;
+    private final Semaphore InFlight;
+    //Windows routed by this demultiplexer and not yet taken or released
+    private final TreeMap<XYData, Boolean> Pending = new TreeMap<>();
+    private final TreeMap<XYData, ScanCollection> Completed = new TreeMap<>();
+    private final TreeMap<XYData, Boolean> Released = new TreeMap<>();
+    private Exception Failure = null;
+    private Thread ReaderThread;
+    private ExecutorService executorPool;
+
+    public DIAWindowDemultiplexer(mzXMLParser mzxml, List<XYData> Windows, int MaxWindowsInFlight) {
+        this.mzxml = mzxml;
+        this.Windows = new ArrayList<>(Windows);
+        this.MaxWindowsInFlight = Math.max(1, MaxWindowsInFlight);
+        this.InFlight = new Semaphore(this.MaxWindowsInFlight);
+        for (XYData window : Windows) {
+            Pending.put(window, true);
+        }
+    }
+
+    public void Start() {
+        //daemon threads, so that a consumer failing without calling Stop() doesn't keep the JVM alive
+        executorPool = Executors.newFixedThreadPool(mzxml.NoCPUs, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = Executors.defaultThreadFactory().newThread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ReaderThread = new Thread(this);
+        ReaderThread.setDaemon(true);
+        ReaderThread.start();
+    }
+
+    public synchronized boolean Contains(XYData window) {
+        return Pending.containsKey(window);
+    }
+
+    /**
+     * Waits until all scans of the window are decoded and hands the
+     * collection over, the demultiplexer doesn't keep a reference to it.
+     */
+    public synchronized ScanCollection Take(XYData window) throws InterruptedException, ExecutionException {
+        if (!Pending.containsKey(window)) {
+            return null;
+        }
+        while (!Completed.containsKey(window) && Failure == null) {
+            wait();
+        }
+        if (Failure != null) {
+            throw new ExecutionException(Failure);
+        }
+        Pending.remove(window);
+        InFlight.release();
+        return Completed.remove(window);
+    }
+
+    /**
+     * Drops a window that is not going to be taken (e.g. it was already
+     * processed in a previous run), so that the next windows can be read.
+     */
+    public synchronized void Release(XYData window) {
+        if (!Pending.containsKey(window)) {
+            return;
+        }
+        Pending.remove(window);
+        if (Completed.remove(window) != null) {
+            InFlight.release();
+        } else {
+            Released.put(window, true);
+        }
+    }
+
+    public void Stop() {
+        if (ReaderThread != null) {
+            ReaderThread.interrupt();
+            ReaderThread = null;
+        }
+        if (executorPool != null) {
+            executorPool.shutdownNow();
+            executorPool = null;
+        }
+    }
+
+    private synchronized void Publish(XYData window, ScanCollection scans) {
+        if (Released.remove(window) != null) {
+            InFlight.release();
+            return;
+        }
+        Completed.put(window, scans);
+        notifyAll();
+    }
+
+    private synchronized void Fail(Exception ex) {
+        Failure = ex;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < Windows.size(); i += MaxWindowsInFlight) {
+                List<XYData> group = Windows.subList(i, Math.min(i + MaxWindowsInFlight, Windows.size()));
+                InFlight.acquire(group.size());
+                ReadWindowGroup(group);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            Fail(ex);
+        }
+    }
+
+    private void ReadWindowGroup(List<XYData> group) throws IOException, InterruptedException, ExecutionException {
+        //scan number -> positions of its windows in the group (MSX scans belong to several windows)
+        HashMap<Integer, ArrayList<Integer>> ScanToWindow = new HashMap<>();
+        int[] LastScan = new int[group.size()];
+        ArrayList<ArrayList<MzXMLthreadUnit>> Units = new ArrayList<>();
+        ArrayList<ArrayList<Future<?>>> Futures = new ArrayList<>();
+        for (int i = 0; i < group.size(); i++) {
+            LastScan[i] = -1;
+            for (int scanno : mzxml.dIA_Setting.DIAWindows.get(group.get(i))) {
+                if (!ScanToWindow.containsKey(scanno)) {
+                    ScanToWindow.put(scanno, new ArrayList<Integer>());
+                }
+                ScanToWindow.get(scanno).add(i);
+                LastScan[i] = Math.max(LastScan[i], scanno);
+            }
+            Units.add(new ArrayList<MzXMLthreadUnit>());
+            Futures.add(new ArrayList<Future<?>>());
+            if (LastScan[i] == -1) {
+                Publish(group.get(i), mzxml.NewScanCollection());
+            }
+        }
+
+        try (RandomAccessFile fileHandler = new RandomAccessFile(mzxml.filename, "r")) {
+            Iterator<Entry<Integer, Long>> iter = mzxml.ScanIndex.entrySet().iterator();
+            Entry<Integer, Long> ent = iter.next();
+            long currentIdx = ent.getValue();
+            int nextScanNo = ent.getKey();
+            while (iter.hasNext()) {
+                ent = iter.next();
+                long startposition = currentIdx;
+                long nexposition = ent.getValue();
+                int currentScanNo = nextScanNo;
+                nextScanNo = ent.getKey();
+                currentIdx = nexposition;
+
+                ArrayList<Integer> windows = ScanToWindow.get(currentScanNo);
+                if (windows == null) {
+                    continue;
+                }
+                byte[] buffer = null;
+                for (int window : windows) {
+                    //each window gets its own ScanData, as when the windows are read one by one
+                    MzXMLthreadUnit unit = mzxml.CachedThreadUnit(currentScanNo);
+                    if (unit == null) {
+                        if (buffer == null) {
+                            buffer = new byte[(int) (nexposition - startposition)];
+                            fileHandler.seek(startposition);
+                            fileHandler.readFully(buffer);
+                        }
+                        unit = mzxml.NewThreadUnit(buffer, null, true);
+                    }
+                    Units.get(window).add(unit);
+                    Futures.get(window).add(executorPool.submit(unit));
+                    if (currentScanNo == LastScan[window]) {
+                        Publish(group.get(window), CollectWindow(Units.get(window), Futures.get(window)));
+                        Units.set(window, null);
+                        Futures.set(window, null);
+                    }
+                }
+            }
+        }
+        //windows whose last scan is missing from the index
+        for (int i = 0; i < group.size(); i++) {
+            if (LastScan[i] != -1 && Units.get(i) != null) {
+                Publish(group.get(i), CollectWindow(Units.get(i), Futures.get(i)));
+            }
+        }
+    }
+
+    private ScanCollection CollectWindow(ArrayList<MzXMLthreadUnit> units, ArrayList<Future<?>> futures) throws InterruptedException, ExecutionException {
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        ScanCollection swathScanCollection = mzxml.NewScanCollection();
+        for (MzXMLthreadUnit result : units) {
+            swathScanCollection.AddScan(result.scan);
+            swathScanCollection.ElutionTimeToScanNoMap.put(result.scan.RetentionTime, result.scan.Num);
+        }
+        return swathScanCollection;
+    }
+}
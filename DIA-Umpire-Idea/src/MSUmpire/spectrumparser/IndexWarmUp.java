@@ -0,0 +1,177 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.SpectralDataType;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Builds the scan, RT and DIA window indices (and their FST cache files) of
+ * a batch of mzXML/mzML files concurrently, so that the files processed one
+ * after another later don't have to. Files whose index caches are up to
+ * date are skipped, and the parsers built for the others are kept to be
+ * handed to the processing of each file (see {@link #GetParser(String)}).
+ * <p>
+ * The files are indexed by NoThreads threads, but at most MaxReaders of them
+ * read a raw file at the same time: building an index is a sequential sweep
+ * over the whole file, and several of them on the same disk are slower than
+ * a few at a time.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class IndexWarmUp {
+
+    private final int NoThreads;
+    private final Semaphore DiskReaders;
+    private final ArrayList<WarmUpFile> Files = new ArrayList<>();
+    private final HashMap<String, mzXMLParser> Parsers = new HashMap<>();
+
+    private static class WarmUpFile {
+
+        String Filename;
+        InstrumentParameter parameter;
+        SpectralDataType.DataType datatype;
+        DIA_Setting dIA_Setting;
+        //Set by WarmUp() if the indices were built
+        mzXMLParser Parser;
+    }
+
+    public IndexWarmUp(int NoThreads, int MaxReaders) {
+        this.NoThreads = Math.max(1, NoThreads);
+        this.DiskReaders = new Semaphore(Math.max(1, MaxReaders), true);
+    }
+
+    /**
+     * Adds a file, dIA_Setting is updated by the index building the same way
+     * as by the mzXMLParser constructor.
+     */
+    public void AddFile(String Filename, InstrumentParameter parameter, SpectralDataType.DataType datatype, DIA_Setting dIA_Setting) {
+        WarmUpFile file = new WarmUpFile();
+        file.Filename = Filename;
+        file.parameter = parameter;
+        file.datatype = datatype;
+        file.dIA_Setting = dIA_Setting;
+        Files.add(file);
+    }
+
+    /**
+     * Adds a file processed by DIA_Umpire_SE before, using the parameters and
+     * DIA setting it serialized.
+     *
+     * @return false if the serialized parameters or DIA setting don't exist
+     */
+    public boolean AddProcessedFile(String Filename) {
+        InstrumentParameter parameter = InstrumentParameter.ReadParametersSerialization(Filename);
+        DIA_Setting dIA_Setting = DIA_Setting.ReadDIASettingSerialization(Filename);
+        if (parameter == null || dIA_Setting == null) {
+            return false;
+        }
+        AddFile(Filename, parameter, dIA_Setting.dataType, dIA_Setting);
+        return true;
+    }
+
+    /**
+     * Builds the indices of the added files whose index caches are missing
+     * or stale, a failed file is logged and skipped.
+     *
+     * @return the files whose indices could not be built
+     */
+    public ArrayList<String> Run() throws InterruptedException {
+        long time = System.currentTimeMillis();
+        ExecutorService executorPool = Executors.newFixedThreadPool(Math.min(NoThreads, Math.max(1, Files.size())));
+        ArrayList<Future<Boolean>> futures = new ArrayList<>();
+        for (final WarmUpFile file : Files) {
+            futures.add(executorPool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return WarmUp(file);
+                }
+            }));
+        }
+        executorPool.shutdown();
+        ArrayList<String> failed = new ArrayList<>();
+        for (int i = 0; i < Files.size(); i++) {
+            boolean success = false;
+            try {
+                success = futures.get(i).get();
+            } catch (Exception ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
+            if (!success) {
+                failed.add(Files.get(i).Filename);
+            } else if (Files.get(i).Parser != null) {
+                Parsers.put(Files.get(i).Filename, Files.get(i).Parser);
+            }
+        }
+        Logger.getRootLogger().info("Indexed " + Parsers.size() + "/" + Files.size() + " files (" + (Files.size() - failed.size() - Parsers.size()) + " already cached) in " + (System.currentTimeMillis() - time) / 1000 + " sec");
+        return failed;
+    }
+
+    /**
+     * The parser whose indices were built by Run() for the file, so that
+     * they don't have to be read back from the cache. The parser is handed
+     * over only once.
+     *
+     * @return null if the file's index caches were up to date, or its
+     * indices could not be built
+     */
+    public mzXMLParser GetParser(String Filename) {
+        return Parsers.remove(Filename);
+    }
+
+    private boolean WarmUp(WarmUpFile file) throws InterruptedException {
+        if (!new File(file.Filename).exists()) {
+            Logger.getRootLogger().warn("File: " + file.Filename + " does not exist.");
+            return false;
+        }
+        if (mzXMLParser.IndexCached(file.Filename)) {
+            Logger.getRootLogger().debug("Index of " + file.Filename + " is cached.");
+            return true;
+        }
+        DiskReaders.acquire();
+        try {
+            Logger.getRootLogger().debug("Building index of " + file.Filename);
+            //the constructor builds the indices and caches them
+            if ("mzML".equalsIgnoreCase(FilenameUtils.getExtension(file.Filename))) {
+                file.Parser = new mzMLParser(file.Filename, file.parameter, file.datatype, file.dIA_Setting, 1);
+            } else {
+                file.Parser = new mzXMLParser(file.Filename, file.parameter, file.datatype, file.dIA_Setting, 1);
+            }
+            return true;
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            Logger.getRootLogger().error("Building index of " + file.Filename + " failed.");
+            return false;
+        } finally {
+            DiskReaders.release();
+        }
+    }
+}
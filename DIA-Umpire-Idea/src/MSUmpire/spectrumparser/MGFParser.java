@@ -25,10 +25,26 @@ import MSUmpire.BaseDataStructure.ScanData;
 import MSUmpire.BaseDataStructure.SpectralDataType;
 import MSUmpire.SpectralProcessingModule.BackgroundDetector;
 import MSUmpire.SpectralProcessingModule.Deisotoping;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
 
 /**
  *
@@ -42,6 +58,12 @@ public class MGFParser {
     public int TotalScan;
     public int NoCPUs = 4;
     public SpectralDataType.DataType datatype;
+    //Spectrum index (see LoadIndex), SpectrumOffsets ends with the file length
+    private long[] SpectrumOffsets;
+    private int[] SpectrumScanNos;
+    private String[] SpectrumTitles;
+    private HashMap<String, Integer> TitleIndex;
+    private HashMap<Integer, Integer> ScanNoIndex;
 
     public MGFParser(String filename, InstrumentParameter parameter, SpectralDataType.DataType datatype, int NoCPUs) throws IOException {
         this.filename = filename;
@@ -66,75 +88,286 @@ public class MGFParser {
     public void GetAllScanCollectionDDA() throws FileNotFoundException, IOException {
         BufferedReader reader = new BufferedReader(new FileReader(filename));
         String line = "";
-        String[] Values = null;
         int ScanNum = 1;
 
         while ((line = reader.readLine()) != null) {
             if (line.trim().startsWith("BEGIN IONS")) {
-                ScanData scan = new ScanData();
-                while (!(line = reader.readLine()).trim().startsWith("END IONS")) {
-                    if (line.trim().startsWith("PEPMASS=")) {
-                        scan.PrecursorMz = Float.parseFloat(line.trim().subSequence(8, line.trim().length()).toString());
-                    }
-                    if (line.trim().startsWith("CHARGE=")) {
-                        scan.PrecursorCharge = Integer.parseInt(line.trim().subSequence(7, line.trim().length() - 1).toString());
-                    }
-                    if (line.trim().startsWith("RTINSECONDS=")) {
-                        scan.RetentionTime = Float.parseFloat(line.trim().subSequence(12, line.trim().length()).toString()) / 60f;
-                    }
-                    if (line.trim().startsWith("TITLE=")) {
-                        scan.MGFTitle = line.trim().subSequence(6, line.trim().length()).toString().replace(",", "_");
-                        if (scan.MGFTitle.contains(" RT:")) {
-                            scan.RetentionTime = Float.parseFloat(scan.MGFTitle.substring(scan.MGFTitle.indexOf(" RT:") + 4).split(" ")[0]);
-                        }
-                        if (scan.MGFTitle.contains("=Scan:")) {
-                            scan.Num = Integer.parseInt(scan.MGFTitle.substring(scan.MGFTitle.indexOf("=Scan:") + 6).split(" ")[0]);
-                            ScanNum = scan.Num;
-                        }
-                    }
-                    if ((Values = line.split(" ")).length == 2) {
-                        scan.AddPoint(Float.parseFloat(Values[0]), Float.parseFloat(Values[1]));
-                    } else if ((Values = line.split("\t")).length == 2) {
-                        scan.AddPoint(Float.parseFloat(Values[0]), Float.parseFloat(Values[1]));
-                    }
-                }
+                ScanData scan = ReadSpectrum(reader);
                 if (scan.Num == 0) {
                     scan.Num = ScanNum++;
-                }
-                if (scan.PrecursorCharge == 0) {
-                    scan.MsLevel = 1;
                 } else {
-                    scan.MsLevel = 2;
+                    ScanNum = scan.Num;
                 }
-                scan.centroided = false;
-                scan.Data.Finalize();
-                scan.background = 0f;
-                if (parameter.EstimateBG) {
-                    BackgroundDetector detector=new BackgroundDetector(scan);
-                    detector.DetermineConstantBackground();
-                } else {
-                    if (scan.MsLevel == 1) {
-                        scan.background = parameter.MinMSIntensity;
+                ProcessSpectrum(scan);
+                scanCollection.AddScan(scan);
+            }
+        }
+        reader.close();
+    }
+
+    //Reads the lines of a spectrum after its BEGIN IONS line, Num is 0 if the title doesn't have the scan number
+    private ScanData ReadSpectrum(BufferedReader reader) throws IOException {
+        String line = "";
+        String[] Values = null;
+        ScanData scan = new ScanData();
+        scan.Data.BeginBulkLoad();
+        while (!(line = reader.readLine()).trim().startsWith("END IONS")) {
+            if (line.trim().startsWith("PEPMASS=")) {
+                scan.PrecursorMz = Float.parseFloat(line.trim().subSequence(8, line.trim().length()).toString());
+            }
+            if (line.trim().startsWith("CHARGE=")) {
+                scan.PrecursorCharge = Integer.parseInt(line.trim().subSequence(7, line.trim().length() - 1).toString());
+            }
+            if (line.trim().startsWith("RTINSECONDS=")) {
+                scan.RetentionTime = Float.parseFloat(line.trim().subSequence(12, line.trim().length()).toString()) / 60f;
+            }
+            if (line.trim().startsWith("TITLE=")) {
+                scan.MGFTitle = line.trim().subSequence(6, line.trim().length()).toString().replace(",", "_");
+                if (scan.MGFTitle.contains(" RT:")) {
+                    scan.RetentionTime = Float.parseFloat(scan.MGFTitle.substring(scan.MGFTitle.indexOf(" RT:") + 4).split(" ")[0]);
+                }
+                scan.Num = TitleScanNo(scan.MGFTitle);
+            }
+            if ((Values = line.split(" ")).length == 2) {
+                scan.AddPoint(Float.parseFloat(Values[0]), Float.parseFloat(Values[1]));
+            } else if ((Values = line.split("\t")).length == 2) {
+                scan.AddPoint(Float.parseFloat(Values[0]), Float.parseFloat(Values[1]));
+            }
+        }
+        return scan;
+    }
+
+    //Scan number given in the (comma replaced) title, 0 if none
+    private static int TitleScanNo(String title) {
+        if (title.contains("=Scan:")) {
+            return Integer.parseInt(title.substring(title.indexOf("=Scan:") + 6).split(" ")[0]);
+        }
+        return 0;
+    }
+
+    private void ProcessSpectrum(ScanData scan) {
+        if (scan.PrecursorCharge == 0) {
+            scan.MsLevel = 1;
+        } else {
+            scan.MsLevel = 2;
+        }
+        scan.centroided = false;
+        scan.Data.Finalize();
+        scan.background = 0f;
+        if (parameter.EstimateBG) {
+            BackgroundDetector detector=new BackgroundDetector(scan);
+            detector.DetermineConstantBackground();
+        } else {
+            if (scan.MsLevel == 1) {
+                scan.background = parameter.MinMSIntensity;
+            }
+            if (scan.MsLevel == 2) {
+                scan.background = parameter.MinMSMSIntensity;
+            }
+        }
+
+        if (parameter.Denoise) {
+            scan.RemoveSignalBelowBG();
+        }
+
+        if (!scan.centroided) {
+            scan.Centroiding(parameter.Resolution, scan.background);
+        }
+        if (parameter.Deisotoping && scan.MsLevel == 1) {
+            new Deisotoping(scan, parameter);
+        }
+    }
+
+    /**
+     * Loads the spectrum index of the file from the .MGFidxFS file next to
+     * it, or builds it with one sequential pass over the file (and writes
+     * it) if the index file is missing or the MGF file has changed since.
+     * The index holds the byte offset, title and scan number of every
+     * spectrum; spectra are only decoded when they are requested by
+     * GetScanByTitle, GetScanByScanNo or GetScanByIndex.
+     */
+    public void LoadIndex() throws IOException {
+        if (!FSIndexRead()) {
+            BuildIndex();
+            FSIndexWrite();
+        }
+        TitleIndex = new HashMap<>(SpectrumTitles.length * 2);
+        ScanNoIndex = new HashMap<>(SpectrumScanNos.length * 2);
+        for (int i = 0; i < SpectrumTitles.length; i++) {
+            //as ScanCollection.AddScan, the first spectrum of a scan number is kept
+            if (SpectrumTitles[i] != null && !TitleIndex.containsKey(SpectrumTitles[i])) {
+                TitleIndex.put(SpectrumTitles[i], i);
+            }
+            if (!ScanNoIndex.containsKey(SpectrumScanNos[i])) {
+                ScanNoIndex.put(SpectrumScanNos[i], i);
+            }
+        }
+        TotalScan = SpectrumScanNos.length;
+    }
+
+    public int SpectrumCount() {
+        return SpectrumScanNos.length;
+    }
+
+    public int GetScanNoByIndex(int idx) {
+        return SpectrumScanNos[idx];
+    }
+
+    //Title with commas replaced by "_", as in ScanData.MGFTitle
+    public String GetTitleByIndex(int idx) {
+        return SpectrumTitles[idx];
+    }
+
+    public ScanData GetScanByTitle(String title) throws IOException {
+        Integer idx = TitleIndex.get(title.replace(",", "_"));
+        return idx == null ? null : GetScanByIndex(idx);
+    }
+
+    public ScanData GetScanByScanNo(int scanNo) throws IOException {
+        Integer idx = ScanNoIndex.get(scanNo);
+        return idx == null ? null : GetScanByIndex(idx);
+    }
+
+    /**
+     * Reads and processes the idx-th spectrum of the file, the same way as
+     * GetAllScanCollectionDDA. The scan isn't added to scanCollection.
+     */
+    public ScanData GetScanByIndex(int idx) throws IOException {
+        long start = SpectrumOffsets[idx];
+        byte[] buffer = new byte[(int) (SpectrumOffsets[idx + 1] - start)];
+        RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
+        fileHandler.seek(start);
+        fileHandler.readFully(buffer);
+        fileHandler.close();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buffer)));
+        reader.readLine();
+        ScanData scan = ReadSpectrum(reader);
+        reader.close();
+        scan.Num = SpectrumScanNos[idx];
+        ProcessSpectrum(scan);
+        return scan;
+    }
+
+    private String IndexFileName() {
+        return FilenameUtils.removeExtension(filename) + ".MGFidxFS";
+    }
+
+    //Sequential pass recording the offset, title and scan number of each BEGIN IONS block
+    private void BuildIndex() throws IOException {
+        Logger.getRootLogger().debug("Building spectrum index of " + filename);
+        ArrayList<Long> offsets = new ArrayList<>();
+        ArrayList<Integer> scannos = new ArrayList<>();
+        ArrayList<String> titles = new ArrayList<>();
+        long length = new File(filename).length();
+        int ScanNum = 1;
+        String title = null;
+        boolean inspectrum = false;
+        byte[] line = new byte[256];
+        long offset = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 20)) {
+            while (offset < length) {
+                long linestart = offset;
+                int size = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    offset++;
+                    if (b == '\n') {
+                        break;
                     }
-                    if (scan.MsLevel == 2) {
-                        scan.background = parameter.MinMSMSIntensity;
+                    if (size == line.length) {
+                        line = Arrays.copyOf(line, size * 2);
                     }
+                    line[size++] = (byte) b;
                 }
-
-                if (parameter.Denoise) {
-                    scan.RemoveSignalBelowBG();
+                if (b == -1 && size == 0) {
+                    break;
                 }
-
-                if (!scan.centroided) {
-                    scan.Centroiding(parameter.Resolution, scan.background);
+                int from = 0;
+                while (from < size && line[from] <= ' ') {
+                    from++;
                 }
-                if (parameter.Deisotoping && scan.MsLevel == 1) {
-                    new Deisotoping(scan, parameter);
+                //only header lines start with a letter, skip the peak lines without decoding them
+                if (from == size || (line[from] != 'B' && line[from] != 'T' && line[from] != 'E')) {
+                    continue;
+                }
+                String text = new String(line, 0, size).trim();
+                if (text.startsWith("BEGIN IONS")) {
+                    offsets.add(linestart);
+                    title = null;
+                    inspectrum = true;
+                } else if (inspectrum && text.startsWith("TITLE=")) {
+                    title = text.substring(6).replace(",", "_");
+                } else if (inspectrum && text.startsWith("END IONS")) {
+                    int num = title == null ? 0 : TitleScanNo(title);
+                    if (num == 0) {
+                        num = ScanNum++;
+                    } else {
+                        ScanNum = num;
+                    }
+                    scannos.add(num);
+                    titles.add(title);
+                    inspectrum = false;
                 }
-                scanCollection.AddScan(scan);
             }
         }
-        reader.close();
+        if (inspectrum) {
+            //spectrum without END IONS at the end of the file
+            offsets.remove(offsets.size() - 1);
+        }
+        SpectrumOffsets = new long[offsets.size() + 1];
+        SpectrumScanNos = new int[scannos.size()];
+        SpectrumTitles = titles.toArray(new String[titles.size()]);
+        for (int i = 0; i < offsets.size(); i++) {
+            SpectrumOffsets[i] = offsets.get(i);
+            SpectrumScanNos[i] = scannos.get(i);
+        }
+        SpectrumOffsets[offsets.size()] = length;
+    }
+
+    private void FSIndexWrite() {
+        try {
+            Logger.getRootLogger().debug("Writing spectrum index to file:" + IndexFileName() + "..");
+            File file = new File(filename);
+            FileOutputStream fout = new FileOutputStream(IndexFileName(), false);
+            FSTObjectOutput oos = new FSTObjectOutput(fout);
+            oos.writeObject(new long[]{file.length(), file.lastModified()});
+            oos.writeObject(SpectrumOffsets);
+            oos.writeObject(SpectrumScanNos);
+            oos.writeObject(SpectrumTitles);
+            oos.close();
+            fout.close();
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+        }
+    }
+
+    private boolean FSIndexRead() {
+        if (!new File(IndexFileName()).exists()) {
+            return false;
+        }
+        try {
+            Logger.getRootLogger().debug("Reading spectrum index:" + IndexFileName() + "...");
+            File file = new File(filename);
+            FileInputStream fileIn = new FileInputStream(IndexFileName());
+            FSTObjectInput in = new FSTObjectInput(fileIn);
+            long[] stamp = (long[]) in.readObject();
+            if (stamp[0] != file.length() || stamp[1] != file.lastModified()) {
+                in.close();
+                fileIn.close();
+                Logger.getRootLogger().debug(filename + " changed, rebuilding the spectrum index");
+                return false;
+            }
+            SpectrumOffsets = (long[]) in.readObject();
+            SpectrumScanNos = (int[]) in.readObject();
+            SpectrumTitles = (String[]) in.readObject();
+            in.close();
+            fileIn.close();
+        } catch (Exception ex) {
+            Logger.getRootLogger().debug("Spectrum index serialization file failed");
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            return false;
+        }
+        return true;
     }
 
     private void Parse() throws FileNotFoundException, IOException {
@@ -157,6 +390,7 @@ public class MGFParser {
         while ((line = reader.readLine()) != null) {
             if (line.trim().startsWith("BEGIN IONS")) {
                 ScanData scan = new ScanData();
+                scan.Data.BeginBulkLoad();
                 scan.Num = ScanNum++;
                 scan.MsLevel = 2;
                 while (!(line = reader.readLine()).trim().startsWith("END IONS")) {
@@ -52,10 +52,15 @@ public class MzXMLthreadUnit implements Runnable {
     ReentrantReadWriteLock Lock = new ReentrantReadWriteLock();
     public ScanData scan;
     private String XMLtext;
+    private byte[] XMLbytes;
     private InstrumentParameter parameter;
     UpdateProcess update;
     boolean ReadPeak = true;
     SpectralDataType.DataType dataType = SpectralDataType.DataType.DDA;
+    //Processed scan cache the result is written to, if any
+    ProcessedScanCache ScanCache = null;
+    //Param groups of the mzML file the scan is read from
+    mzMLParamGroups ParamGroups = null;
 
     public MzXMLthreadUnit(String XMLtext, InstrumentParameter parameter, SpectralDataType.DataType dataType, UpdateProcess update, boolean ReadPeak) {
         this.XMLtext = XMLtext;
@@ -71,6 +76,25 @@ public class MzXMLthreadUnit implements Runnable {
         this.dataType = dataType;
     }
 
+    public MzXMLthreadUnit(byte[] XMLbytes, InstrumentParameter parameter, SpectralDataType.DataType dataType, UpdateProcess update, boolean ReadPeak) {
+        this.XMLbytes = XMLbytes;
+        this.update = update;
+        this.parameter = parameter;
+        this.ReadPeak = ReadPeak;
+        this.dataType = dataType;
+    }
+
+    public MzXMLthreadUnit(byte[] XMLbytes, InstrumentParameter parameter, SpectralDataType.DataType dataType) {
+        this.XMLbytes = XMLbytes;
+        this.parameter = parameter;
+        this.dataType = dataType;
+    }
+
+    //Unit of a scan read from the processed scan cache, there is nothing left to do in run()
+    public MzXMLthreadUnit(ScanData scan) {
+        this.scan = scan;
+    }
+
     private void DrawIntDis() {
         double[] PeakInt = new double[scan.Data.size()];
         for (int i = 0; i < scan.Data.size(); i++) {
@@ -94,14 +118,22 @@ public class MzXMLthreadUnit implements Runnable {
     }
 
     private void Read() throws FileNotFoundException, IOException, ParserConfigurationException, SAXException, DataFormatException {
-        mzXMLReadUnit read = new mzXMLReadUnit(this.XMLtext);
-        this.scan = read.Parse();
+        if (XMLbytes != null && mzMLReadUnit.IsSpectrum(XMLbytes)) {
+            this.scan = new mzMLReadUnit(XMLbytes, ParamGroups).Parse();
+        } else {
+            mzXMLReadUnit read = XMLbytes != null ? new mzXMLReadUnit(this.XMLbytes) : new mzXMLReadUnit(this.XMLtext);
+            this.scan = parameter.StreamingScanDecoder ? read.ParseStreaming() : read.Parse();
+            read = null;
+        }
         this.XMLtext = null;
-        read = null;
+        this.XMLbytes = null;
     }
 
     @Override
     public void run() {
+        if (scan != null) {
+            return;
+        }
         try {
             Read();
         } catch (Exception ex) {
@@ -130,6 +162,13 @@ public class MzXMLthreadUnit implements Runnable {
         if (parameter.Deisotoping && scan.MsLevel == 1) {
             new Deisotoping(scan, parameter);
         }
+        if (ScanCache != null) {
+            try {
+                ScanCache.Put(scan);
+            } catch (IOException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
+        }
         if (update != null) {
             update.Update();
         }
@@ -0,0 +1,238 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScanData;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import org.apache.log4j.Logger;
+
+/**
+ * On-disk cache of the scans processed by {@link MzXMLthreadUnit} (centroided,
+ * background estimated, denoised and deisotoped), so that re-running a file
+ * doesn't decode and process the raw scans again.
+ * <p>
+ * The cache is one binary file next to the raw file. Its header holds the
+ * size, modification time and CRC32 checksum of the raw file and a key made
+ * of the InstrumentParameter fields used for processing the scans; the cache
+ * is emptied when either the checksum or the key differs. The header is
+ * followed by the scans in the order they were processed, each stored as
+ * [scan number][length][{@link ScanData#WriteBinary}], and an in-memory
+ * index from scan number to record offset gives random access by scan
+ * number. An incomplete record at the end (e.g. an interrupted run) is
+ * dropped when the cache is opened.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class ProcessedScanCache {
+
+    private static final int MAGIC = 0x44555343;
+    private static final int VERSION = 1;
+
+    private final String RawFile;
+    private final String CacheFile;
+    private final RandomAccessFile fileHandler;
+    //scan number -> offset of the record
+    private final HashMap<Integer, Long> Index = new HashMap<>();
+
+    /**
+     * Opens the cache of RawFile, keeping the cached scans if they were
+     * processed from the same file with the same parameters.
+     */
+    public ProcessedScanCache(String RawFile, String CacheFile, InstrumentParameter parameter) throws IOException {
+        this.RawFile = RawFile;
+        this.CacheFile = CacheFile;
+        File raw = new File(RawFile);
+        String key = ParameterKey(parameter);
+        fileHandler = new RandomAccessFile(CacheFile, "rw");
+        long checksum = -1;
+        boolean valid = false;
+        if (fileHandler.length() > 0) {
+            try {
+                fileHandler.seek(0);
+                if (fileHandler.readInt() == MAGIC && fileHandler.readInt() == VERSION) {
+                    long length = fileHandler.readLong();
+                    long modified = fileHandler.readLong();
+                    long cachedchecksum = fileHandler.readLong();
+                    String cachedkey = fileHandler.readUTF();
+                    if (cachedkey.equals(key)) {
+                        if (length == raw.length() && modified == raw.lastModified()) {
+                            valid = true;
+                        } else {
+                            //touched or copied, only the content matters
+                            checksum = Checksum(raw);
+                            valid = checksum == cachedchecksum;
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                valid = false;
+            }
+        }
+        if (valid) {
+            if (checksum != -1) {
+                WriteHeader(raw, checksum, key);
+            }
+            ReadIndex();
+            Logger.getRootLogger().info("Processed scan cache " + CacheFile + ": " + Index.size() + " scans");
+        } else {
+            fileHandler.setLength(0);
+            WriteHeader(raw, checksum != -1 ? checksum : Checksum(raw), key);
+        }
+    }
+
+    /**
+     * InstrumentParameter fields that change the result of
+     * MzXMLthreadUnit.run(), the cache is emptied when any of them changes.
+     */
+    public static String ParameterKey(InstrumentParameter parameter) {
+        return "Resolution=" + parameter.Resolution
+                + ";MinMZ=" + parameter.MinMZ
+                + ";EstimateBG=" + parameter.EstimateBG
+                + ";MinMSIntensity=" + parameter.MinMSIntensity
+                + ";MinMSMSIntensity=" + parameter.MinMSMSIntensity
+                + ";Denoise=" + parameter.Denoise
+                + ";Deisotoping=" + parameter.Deisotoping
+                + ";StartCharge=" + parameter.StartCharge
+                + ";EndCharge=" + parameter.EndCharge
+                + ";MaxNoPeakCluster=" + parameter.MaxNoPeakCluster
+                + ";MinNoPeakCluster=" + parameter.MinNoPeakCluster
+                + ";MS2StartCharge=" + parameter.MS2StartCharge
+                + ";MaxMS2NoPeakCluster=" + parameter.MaxMS2NoPeakCluster
+                + ";MinMS2NoPeakCluster=" + parameter.MinMS2NoPeakCluster
+                + ";MS1PPM=" + parameter.MS1PPM;
+    }
+
+    public synchronized boolean Contains(int scanNO) {
+        return Index.containsKey(scanNO);
+    }
+
+    public synchronized int Size() {
+        return Index.size();
+    }
+
+    /**
+     * Returns the cached processed scan, or null if the scan isn't cached.
+     */
+    public ScanData Get(int scanNO) throws IOException {
+        byte[] record;
+        synchronized (this) {
+            Long offset = Index.get(scanNO);
+            if (offset == null) {
+                return null;
+            }
+            fileHandler.seek(offset + 4);
+            record = new byte[fileHandler.readInt()];
+            fileHandler.readFully(record);
+        }
+        return ScanData.ReadBinary(new DataInputStream(new ByteArrayInputStream(record)));
+    }
+
+    /**
+     * Appends a processed scan, scans already cached are not written again.
+     */
+    public void Put(ScanData scan) throws IOException {
+        if (Contains(scan.Num)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + scan.PointCount() * 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(scan.Num);
+        out.writeInt(0);
+        scan.WriteBinary(out);
+        out.flush();
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 8;
+        record[4] = (byte) (length >>> 24);
+        record[5] = (byte) (length >>> 16);
+        record[6] = (byte) (length >>> 8);
+        record[7] = (byte) length;
+        synchronized (this) {
+            if (Index.containsKey(scan.Num)) {
+                return;
+            }
+            long offset = fileHandler.length();
+            fileHandler.seek(offset);
+            fileHandler.write(record);
+            Index.put(scan.Num, offset);
+        }
+    }
+
+    public synchronized void Close() {
+        try {
+            fileHandler.close();
+        } catch (IOException ex) {
+            Logger.getRootLogger().warn("Closing " + CacheFile + " failed: " + ex.getMessage());
+        }
+    }
+
+    private void WriteHeader(File raw, long checksum, String key) throws IOException {
+        fileHandler.seek(0);
+        fileHandler.writeInt(MAGIC);
+        fileHandler.writeInt(VERSION);
+        fileHandler.writeLong(raw.length());
+        fileHandler.writeLong(raw.lastModified());
+        fileHandler.writeLong(checksum);
+        fileHandler.writeUTF(key);
+    }
+
+    //Rebuilds the index by skipping from record to record, fileHandler is just after the header
+    private void ReadIndex() throws IOException {
+        long end = fileHandler.length();
+        long offset = fileHandler.getFilePointer();
+        while (offset + 8 <= end) {
+            fileHandler.seek(offset);
+            int scanNO = fileHandler.readInt();
+            int length = fileHandler.readInt();
+            if (length < 0 || offset + 8 + length > end) {
+                break;
+            }
+            Index.put(scanNO, offset);
+            offset += 8 + length;
+        }
+        if (offset < end) {
+            Logger.getRootLogger().warn("Dropping incomplete record at the end of " + CacheFile);
+            fileHandler.setLength(offset);
+        }
+    }
+
+    private long Checksum(File raw) throws IOException {
+        Logger.getRootLogger().debug("Computing checksum of " + RawFile);
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 20];
+        try (InputStream in = new FileInputStream(raw)) {
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+            }
+        }
+        return crc.getValue();
+    }
+}
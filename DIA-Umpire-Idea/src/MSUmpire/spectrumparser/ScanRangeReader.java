@@ -0,0 +1,134 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.apache.log4j.Logger;
+
+/**
+ * Reads the byte ranges of many scans with a few large sequential reads
+ * instead of opening, seeking and reading the file once per scan.
+ * <p>
+ * The ranges are sorted by offset, and neighbouring ranges are read together
+ * when the gap between them is at most MaxGap bytes (the gap is read and
+ * thrown away) and the whole read is at most MaxReadSize bytes. All reads go
+ * through one file channel opened by {@link #Read()}, so a reader is used by
+ * one thread at a time.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class ScanRangeReader {
+
+    private final String filename;
+    private final long MaxGap;
+    private final int MaxReadSize;
+    private long[] Starts = new long[64];
+    private long[] Ends = new long[64];
+    private int Count = 0;
+
+    public ScanRangeReader(String filename, long MaxGap, int MaxReadSize) {
+        this.filename = filename;
+        this.MaxGap = Math.max(0, MaxGap);
+        this.MaxReadSize = Math.max(1, MaxReadSize);
+    }
+
+    public void Add(long startposition, long nexposition) {
+        if (Count == Starts.length) {
+            int size = Count * 2;
+            Starts = Arrays.copyOf(Starts, size);
+            Ends = Arrays.copyOf(Ends, size);
+        }
+        Starts[Count] = startposition;
+        Ends[Count] = nexposition;
+        Count++;
+    }
+
+    public int Size() {
+        return Count;
+    }
+
+    /**
+     * Reads all added ranges.
+     *
+     * @return the bytes of each range, in the order the ranges were added
+     */
+    public byte[][] Read() throws IOException {
+        byte[][] results = new byte[Count][];
+        if (Count == 0) {
+            return results;
+        }
+        Integer[] order = new Integer[Count];
+        for (int i = 0; i < Count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(Starts[o1], Starts[o2]);
+            }
+        });
+        int reads = 0;
+        long bytesread = 0;
+        ByteBuffer buffer = null;
+        try (RandomAccessFile fileHandler = new RandomAccessFile(filename, "r")) {
+            FileChannel channel = fileHandler.getChannel();
+            int i = 0;
+            while (i < Count) {
+                long from = Starts[order[i]];
+                long to = Ends[order[i]];
+                int j = i + 1;
+                while (j < Count && Starts[order[j]] - to <= MaxGap && Math.max(to, Ends[order[j]]) - from <= MaxReadSize) {
+                    to = Math.max(to, Ends[order[j]]);
+                    j++;
+                }
+                int length = (int) (to - from);
+                if (buffer == null || buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(Math.max(length, Math.min(MaxReadSize, 1 << 20)));
+                }
+                buffer.clear();
+                buffer.limit(length);
+                long position = from;
+                while (buffer.hasRemaining()) {
+                    int count = channel.read(buffer, position);
+                    if (count < 0) {
+                        //short file, keep what was read as RandomAccessFile.read does
+                        break;
+                    }
+                    position += count;
+                }
+                byte[] bytes = buffer.array();
+                for (int k = i; k < j; k++) {
+                    int idx = order[k];
+                    results[idx] = Arrays.copyOfRange(bytes, (int) (Starts[idx] - from), (int) (Ends[idx] - from));
+                }
+                reads++;
+                bytesread += length;
+                i = j;
+            }
+        }
+        Logger.getRootLogger().debug("Read " + Count + " scans of " + filename + " in " + reads + " reads (" + bytesread / 1048576 + " MB)");
+        return results;
+    }
+}
@@ -0,0 +1,145 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import MSUmpire.BaseDataStructure.ScanData;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded producer/consumer pipe of processed scans: a background thread
+ * decodes and processes the given scans with NoCPUs workers (the same
+ * MzXMLthreadUnit work as the ScanCollection methods of mzXMLParser) and
+ * hands them to the consumer in the given (scan number, i.e. RT) order.
+ * <p>
+ * At most Capacity scans wait in the queue and at most Capacity more are
+ * being decoded, so the consumer can work on the scans while the file is
+ * read without the whole scan collection being in memory.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class ScanStream implements Runnable {
+
+    //Marks the end of the stream in the queue
+    private static final ScanData END = new ScanData();
+
+    private final mzXMLParser mzxml;
+    private final ArrayList<Integer> ScanNos;
+    private final int Capacity;
+    private final ArrayBlockingQueue<ScanData> Queue;
+    private volatile Exception Failure = null;
+    private boolean Ended = false;
+    private Thread ReaderThread;
+    private ExecutorService executorPool;
+
+    public ScanStream(mzXMLParser mzxml, List<Integer> ScanNos, int Capacity) {
+        this.mzxml = mzxml;
+        this.ScanNos = new ArrayList<>(ScanNos);
+        this.Capacity = Math.max(1, Capacity);
+        this.Queue = new ArrayBlockingQueue<>(this.Capacity + 1);
+    }
+
+    public void Start() {
+        executorPool = Executors.newFixedThreadPool(mzxml.NoCPUs);
+        ReaderThread = new Thread(this);
+        ReaderThread.setDaemon(true);
+        ReaderThread.start();
+    }
+
+    public int Size() {
+        return ScanNos.size();
+    }
+
+    /**
+     * Waits for the next scan.
+     *
+     * @return the next scan, or null at the end of the stream
+     */
+    public ScanData Take() throws InterruptedException, ExecutionException {
+        if (Ended) {
+            return null;
+        }
+        ScanData scan = Queue.take();
+        if (scan == END) {
+            Ended = true;
+            if (Failure != null) {
+                throw new ExecutionException(Failure);
+            }
+            return null;
+        }
+        return scan;
+    }
+
+    public void Stop() {
+        if (ReaderThread != null) {
+            ReaderThread.interrupt();
+            ReaderThread = null;
+        }
+        if (executorPool != null) {
+            executorPool.shutdownNow();
+            executorPool = null;
+        }
+        Queue.clear();
+    }
+
+    @Override
+    public void run() {
+        ArrayDeque<MzXMLthreadUnit> Units = new ArrayDeque<>();
+        ArrayDeque<Future<?>> Futures = new ArrayDeque<>();
+        try {
+            for (int scanNO : ScanNos) {
+                long startposition = mzxml.ScanIndex.get(scanNO);
+                long nexposition = mzxml.ScanIndex.higherEntry(scanNO).getValue();
+                MzXMLthreadUnit unit = mzxml.CreateThreadUnit(scanNO, startposition, nexposition, null, true);
+                Units.add(unit);
+                Futures.add(executorPool.submit(unit));
+                if (Units.size() >= Capacity) {
+                    Futures.poll().get();
+                    Queue.put(Units.poll().scan);
+                }
+            }
+            while (!Units.isEmpty()) {
+                Futures.poll().get();
+                Queue.put(Units.poll().scan);
+            }
+            Queue.put(END);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            Failure = ex;
+            Queue.clear();
+            Queue.offer(END);
+        } finally {
+            ExecutorService pool = executorPool;
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+}
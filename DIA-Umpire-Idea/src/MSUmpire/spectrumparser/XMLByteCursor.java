@@ -0,0 +1,176 @@
+/*
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics,
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import java.nio.charset.StandardCharsets;
+import org.xml.sax.SAXException;
+
+/**
+ * Forward-only cursor over the raw bytes of an XML element, used by the
+ * streaming mzXML and mzML scan decoders. It recognizes tags, reads the
+ * attributes of the current start tag and the text up to the next tag; it
+ * doesn't validate the document or resolve entities.
+ *
+ * @author Chih-Chiang Tsou
+ */
+class XMLByteCursor {
+
+    private static final byte[] COMMENTEND = "-->".getBytes(StandardCharsets.ISO_8859_1);
+
+    byte[] buf;
+    int cursor;
+    int limit;
+    //Attribute read by the last NextAttribute() call
+    String attrName;
+    String attrValue;
+    //Whether the last start tag closed by NextAttribute() was an empty element ("/>")
+    boolean emptyElement;
+
+    XMLByteCursor(byte[] buf) {
+        this.buf = buf;
+        this.limit = buf.length;
+    }
+
+    //Whether a start (or end, if name starts with '/') tag with the given name begins at the cursor
+    boolean IsTag(String name) {
+        int end = cursor + 1 + name.length();
+        if (end >= limit || buf[cursor] != '<') {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (buf[cursor + 1 + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        byte next = buf[end];
+        return next == '>' || next == '/' || IsWhitespace(next);
+    }
+
+    boolean StartsWith(String prefix) {
+        if (cursor + prefix.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf[cursor + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int IndexOf(byte value, int from) {
+        for (int i = from; i < limit; i++) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int IndexOf(byte[] value, int from) {
+        for (int i = from; i <= limit - value.length; i++) {
+            int j = 0;
+            while (j < value.length && buf[i + j] == value[j]) {
+                j++;
+            }
+            if (j == value.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean IsWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    //Reads the next attribute of the current start tag into attrName/attrValue,
+    //returns false once the tag is closed (emptyElement tells whether it was "/>")
+    boolean NextAttribute() throws SAXException {
+        while (cursor < limit && IsWhitespace(buf[cursor])) {
+            cursor++;
+        }
+        if (cursor >= limit) {
+            throw new SAXException("Unterminated start tag");
+        }
+        if (buf[cursor] == '>') {
+            cursor++;
+            emptyElement = false;
+            return false;
+        }
+        if (buf[cursor] == '/') {
+            cursor += 2;
+            emptyElement = true;
+            return false;
+        }
+        int start = cursor;
+        while (cursor < limit && buf[cursor] != '=' && !IsWhitespace(buf[cursor])) {
+            cursor++;
+        }
+        attrName = new String(buf, start, cursor - start, StandardCharsets.ISO_8859_1);
+        cursor = IndexOf((byte) '=', cursor) + 1;
+        while (cursor > 0 && cursor < limit && IsWhitespace(buf[cursor])) {
+            cursor++;
+        }
+        if (cursor <= 0 || cursor >= limit) {
+            throw new SAXException("Malformed attribute " + attrName);
+        }
+        byte quote = buf[cursor];
+        start = ++cursor;
+        cursor = IndexOf(quote, cursor);
+        if (cursor < 0) {
+            throw new SAXException("Unterminated attribute " + attrName);
+        }
+        attrValue = new String(buf, start, cursor - start, StandardCharsets.ISO_8859_1);
+        cursor++;
+        return true;
+    }
+
+    //Skips the remaining attributes of the current start tag
+    void SkipAttributes() throws SAXException {
+        while (NextAttribute()) {
+        }
+    }
+
+    //Text from the cursor up to the next tag, the cursor is left on the '<'
+    String ReadText() throws SAXException {
+        int start = cursor;
+        cursor = IndexOf((byte) '<', cursor);
+        if (cursor < 0) {
+            throw new SAXException("Unterminated element text");
+        }
+        return new String(buf, start, cursor - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Moves the cursor past a comment or the tag it is on, to where the
+     * next tag is searched from.
+     *
+     * @return false if the comment or tag is not terminated
+     */
+    boolean SkipTag() {
+        if (StartsWith("<!--")) {
+            cursor = IndexOf(COMMENTEND, cursor);
+        } else {
+            cursor = IndexOf((byte) '>', cursor);
+        }
+        return cursor >= 0;
+    }
+}
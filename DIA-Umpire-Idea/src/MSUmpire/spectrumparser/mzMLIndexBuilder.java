@@ -0,0 +1,147 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.HashMap;
+import org.xml.sax.SAXException;
+
+/**
+ * mzML counterpart of {@link mzXMLIndexBuilder}: builds the offset index of
+ * the spectrum elements and reads the cvParams needed for the elution and DIA
+ * window indices in one sweep over the memory-mapped file. The
+ * &lt;indexList&gt; of indexed mzML is not needed.
+ * <p>
+ * Spectra are numbered by the "scan=" part of their native id, or by index+1
+ * if the id doesn't have one (see {@link mzMLReadUnit#ScanNumber}). The
+ * cvParams of referenced param groups are read as if written in place.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class mzMLIndexBuilder extends mzXMLIndexBuilder {
+
+    //isolation window / selected ion of the precursor being read
+    private float IsolationTarget = Float.NaN;
+    private float LowerOffset = Float.NaN;
+    private float UpperOffset = Float.NaN;
+    private float SelectedIonMz = Float.NaN;
+    private mzMLParamGroups ParamGroups;
+
+    public mzMLIndexBuilder(String filename) {
+        super(filename);
+    }
+
+    @Override
+    public void Build() throws IOException {
+        try {
+            ParamGroups = mzMLParamGroups.Read(filename);
+        } catch (SAXException ex) {
+            throw new IOException(filename + ": " + ex.getMessage(), ex);
+        }
+        super.Build();
+        //ScanIndex relies on scan numbers increasing in file order
+        int lastnum = Integer.MIN_VALUE;
+        for (ScanHeader header : ScanHeaders) {
+            if (header.Num <= lastnum) {
+                throw new IOException(filename + ": spectrum numbers are not increasing in file order (spectrum " + header.Num + ")");
+            }
+            lastnum = header.Num;
+        }
+    }
+
+    @Override
+    protected int HandleTag(MappedByteBuffer map, long base, int pos, int tagEnd, int limit) throws IOException {
+        if (IsTag(map, pos, limit, "spectrum")) {
+            HashMap<String, String> attributes = ReadAttributes(map, pos + 9, tagEnd);
+            current = new ScanHeader();
+            current.Num = mzMLReadUnit.ScanNumber(attributes.get("id"), attributes.get("index"));
+            current.Offset = base + pos;
+            current.ScanType = "Full";
+            ScanHeaders.add(current);
+            ScanIndex.put(current.Num, current.Offset);
+        } else if (current != null && IsTag(map, pos, limit, "cvParam")) {
+            ReadCvParam(ReadAttributes(map, pos + 8, tagEnd));
+        } else if (current != null && IsTag(map, pos, limit, "referenceableParamGroupRef")) {
+            String ref = ReadAttributes(map, pos + 27, tagEnd).get("ref");
+            try {
+                for (HashMap<String, String> cvParam : ParamGroups.Get(ref)) {
+                    ReadCvParam(cvParam);
+                }
+            } catch (SAXException ex) {
+                throw new IOException(filename + ": spectrum " + current.Num + ": " + ex.getMessage(), ex);
+            }
+        } else if (current != null && IsTag(map, pos, limit, "precursor")) {
+            IsolationTarget = Float.NaN;
+            LowerOffset = Float.NaN;
+            UpperOffset = Float.NaN;
+            SelectedIonMz = Float.NaN;
+        } else if (current != null && IsTag(map, pos, limit, "/precursor")) {
+            float precursormz = mzMLReadUnit.PrecursorMz(SelectedIonMz, IsolationTarget);
+            if (!Float.isNaN(precursormz)) {
+                current.PrecursorMz.add(precursormz);
+                current.WindowWideness.add(mzMLReadUnit.WindowWideness(LowerOffset, UpperOffset));
+            }
+        } else if (IsTag(map, pos, limit, "/spectrumList")) {
+            return DONE;
+        }
+        return tagEnd;
+    }
+
+    private void ReadCvParam(HashMap<String, String> attributes) {
+        String accession = attributes.get("accession");
+        String value = attributes.get("value");
+        if (accession == null) {
+            return;
+        }
+        switch (accession) {
+            case ("MS:1000511"):
+                current.MsLevel = Integer.parseInt(value);
+                break;
+            case ("MS:1000016"):
+                current.RetentionTime = mzMLReadUnit.ScanStartTimeSecond(value, attributes.get("unitName"), attributes.get("unitAccession"));
+                break;
+            case ("MS:1000582"):
+                current.ScanType = "SIM";
+                break;
+            case ("MS:1000928"):
+                current.ScanType = "calibration";
+                break;
+            case ("MS:1000501"):
+                current.LowMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000500"):
+                current.HighMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000827"):
+                IsolationTarget = Float.parseFloat(value);
+                break;
+            case ("MS:1000828"):
+                LowerOffset = Float.parseFloat(value);
+                break;
+            case ("MS:1000829"):
+                UpperOffset = Float.parseFloat(value);
+                break;
+            case ("MS:1000744"):
+                SelectedIonMz = Float.parseFloat(value);
+                break;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics,
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import org.xml.sax.SAXException;
+
+/**
+ * cvParams of the &lt;referenceableParamGroup&gt; elements of an mzML file,
+ * by group id. A &lt;referenceableParamGroupRef&gt; in a spectrum stands for
+ * the cvParams of the group, which are handled as if they were written in
+ * place (each cvParam is kept as its attribute map).
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class mzMLParamGroups {
+
+    //The group list precedes <run>, the file is read in chunks of this size until <run> is found
+    private static final int CHUNK = 1 << 16;
+
+    private final HashMap<String, ArrayList<HashMap<String, String>>> Groups = new HashMap<>();
+
+    public void Add(String id, HashMap<String, String> cvParam) {
+        ArrayList<HashMap<String, String>> group = Groups.get(id);
+        if (group == null) {
+            group = new ArrayList<>();
+            Groups.put(id, group);
+        }
+        group.add(cvParam);
+    }
+
+    /**
+     * cvParams of the referenced group.
+     *
+     * @throws SAXException if the file doesn't define the group
+     */
+    public List<HashMap<String, String>> Get(String ref) throws SAXException {
+        ArrayList<HashMap<String, String>> group = Groups.get(ref);
+        if (group == null) {
+            throw new SAXException("referenceableParamGroup \"" + ref + "\" is referenced but not defined");
+        }
+        return group;
+    }
+
+    /**
+     * Reads the groups declared in the header of the mzML file, the
+     * spectra are not read.
+     */
+    public static mzMLParamGroups Read(String filename) throws IOException, SAXException {
+        byte[] head = new byte[CHUNK];
+        int length = 0;
+        try (InputStream stream = new FileInputStream(filename)) {
+            while (true) {
+                if (length == head.length) {
+                    head = Arrays.copyOf(head, head.length * 2);
+                }
+                int count = stream.read(head, length, head.length - length);
+                if (count < 0) {
+                    break;
+                }
+                //search the new bytes, and the few before them in case <run is split between reads
+                if (ContainsRunTag(head, Math.max(0, length - 5), length + count)) {
+                    length += count;
+                    break;
+                }
+                length += count;
+            }
+        }
+        mzMLParamGroups groups = new mzMLParamGroups();
+        XMLByteCursor xml = new XMLByteCursor(Arrays.copyOf(head, length));
+        String id = null;
+        while ((xml.cursor = xml.IndexOf((byte) '<', xml.cursor)) >= 0) {
+            if (xml.IsTag("run") || xml.IsTag("spectrumList")) {
+                break;
+            }
+            if (xml.IsTag("referenceableParamGroup")) {
+                xml.cursor += 24;
+                id = null;
+                while (xml.NextAttribute()) {
+                    if ("id".equals(xml.attrName)) {
+                        id = xml.attrValue;
+                    }
+                }
+                if (xml.emptyElement) {
+                    id = null;
+                }
+            } else if (xml.IsTag("/referenceableParamGroup")) {
+                id = null;
+                xml.cursor++;
+            } else if (id != null && xml.IsTag("cvParam")) {
+                xml.cursor += 8;
+                HashMap<String, String> cvParam = new HashMap<>();
+                while (xml.NextAttribute()) {
+                    cvParam.put(xml.attrName, xml.attrValue);
+                }
+                groups.Add(id, cvParam);
+            } else if (!xml.SkipTag()) {
+                break;
+            }
+        }
+        return groups;
+    }
+
+    private static boolean ContainsRunTag(byte[] bytes, int from, int to) {
+        for (int i = from; i + 4 < to; i++) {
+            if (bytes[i] == '<' && bytes[i + 1] == 'r' && bytes[i + 2] == 'u' && bytes[i + 3] == 'n'
+                    && (XMLByteCursor.IsWhitespace(bytes[i + 4]) || bytes[i + 4] == '>')) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
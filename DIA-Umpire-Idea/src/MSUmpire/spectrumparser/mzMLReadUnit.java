@@ -0,0 +1,418 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import MSUmpire.BaseDataStructure.ScanData;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import org.xml.sax.SAXException;
+
+/**
+ * Decodes one mzML &lt;spectrum&gt; element into a ScanData by streaming over
+ * its raw bytes (no JAXB object tree). Header cvParams are mapped to the same
+ * ScanData fields as the mzXML attributes and the m/z and intensity
+ * binaryDataArrays are decoded directly by {@link BinaryPeakDecoder}.
+ * &lt;referenceableParamGroupRef&gt;s are replaced by the cvParams of the
+ * group, a spectrum referencing a group that is not defined is rejected.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class mzMLReadUnit {
+
+    private final XMLByteCursor xml;
+    private final mzMLParamGroups ParamGroups;
+
+    //cvParam values collected while reading the spectrum
+    private String accession;
+    private String value;
+    private String unitName;
+    private String unitAccession;
+
+    //spectrum being read and the header values resolved once it is complete
+    private ScanData scan;
+    private float observedLowMz;
+    private float observedHighMz;
+    private float windowLowMz;
+    private float windowHighMz;
+    private float isolationTarget;
+    private float lowerOffset;
+    private float upperOffset;
+    private float selectedIonMz;
+    //encoding of the binaryDataArray being read
+    private boolean inBinaryArray;
+    private int precision;
+    private boolean zlib;
+    private int arrayType;
+
+    public mzMLReadUnit(byte[] XMLbytes) {
+        this(XMLbytes, null);
+    }
+
+    /**
+     * @param ParamGroups referenceable param groups of the file, null if it
+     * doesn't declare any
+     */
+    public mzMLReadUnit(byte[] XMLbytes, mzMLParamGroups ParamGroups) {
+        this.xml = new XMLByteCursor(XMLbytes);
+        this.ParamGroups = ParamGroups;
+    }
+
+    //Whether the bytes start (after whitespace) with a spectrum element
+    public static boolean IsSpectrum(byte[] bytes) {
+        int pos = 0;
+        while (pos < bytes.length && XMLByteCursor.IsWhitespace(bytes[pos])) {
+            pos++;
+        }
+        String tag = "<spectrum";
+        if (pos + tag.length() >= bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (bytes[pos + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return XMLByteCursor.IsWhitespace(bytes[pos + tag.length()]) || bytes[pos + tag.length()] == '>';
+    }
+
+    /**
+     * Scan number of a spectrum: the "scan=" value of its native id (e.g.
+     * "controllerType=0 controllerNumber=1 scan=123"), or index+1 when the id
+     * doesn't have one or the scan numbers restart per function (Waters).
+     */
+    public static int ScanNumber(String id, String index) {
+        if (id != null && !id.contains("function=")) {
+            int pos = id.indexOf("scan=");
+            if (pos >= 0 && (pos == 0 || id.charAt(pos - 1) == ' ')) {
+                int end = pos + 5;
+                while (end < id.length() && Character.isDigit(id.charAt(end))) {
+                    end++;
+                }
+                if (end > pos + 5) {
+                    return Integer.parseInt(id.substring(pos + 5, end));
+                }
+            }
+        }
+        return Integer.parseInt(index) + 1;
+    }
+
+    //Scan start time in seconds, ScanData keeps it in minutes (seconds / 60) as for mzXML
+    public static float ScanStartTimeSecond(String value, String unitName, String unitAccession) {
+        float time = Float.parseFloat(value);
+        if ("second".equals(unitName) || "UO:0000010".equals(unitAccession)) {
+            return time;
+        }
+        return time * 60f;
+    }
+
+    /**
+     * Precursor m/z of a precursor element, shared by the index builder
+     * (which files the scan under a DIA window by it) and the scan decoder
+     * so both agree: the selected ion m/z, as mzXML converters write to
+     * precursorMz, or the isolation window target if there is no selected
+     * ion. NaN if neither is given.
+     */
+    public static float PrecursorMz(float selectedIonMz, float isolationTarget) {
+        return Float.isNaN(selectedIonMz) ? isolationTarget : selectedIonMz;
+    }
+
+    //Isolation window width from its lower and upper offsets, NaN if either is missing
+    public static float WindowWideness(float lowerOffset, float upperOffset) {
+        return Float.isNaN(lowerOffset) || Float.isNaN(upperOffset) ? Float.NaN : lowerOffset + upperOffset;
+    }
+
+    public ScanData Parse() throws SAXException, DataFormatException {
+        xml.cursor = xml.IndexOf((byte) '<', 0);
+        while (xml.cursor >= 0 && !xml.IsTag("spectrum")) {
+            xml.cursor = xml.IndexOf((byte) '<', xml.cursor + 1);
+        }
+        if (xml.cursor < 0) {
+            throw new SAXException("<spectrum> element not found");
+        }
+        scan = new ScanData();
+        scan.scanType = "Full";
+        String id = null;
+        String index = "0";
+        xml.cursor += 9;
+        while (xml.NextAttribute()) {
+            switch (xml.attrName) {
+                case ("id"):
+                    id = xml.attrValue;
+                    break;
+                case ("index"):
+                    index = xml.attrValue;
+                    break;
+                case ("defaultArrayLength"):
+                    scan.PeaksCountString = Integer.parseInt(xml.attrValue);
+                    break;
+            }
+        }
+        scan.Num = ScanNumber(id, index);
+
+        observedLowMz = Float.NaN;
+        observedHighMz = Float.NaN;
+        windowLowMz = Float.NaN;
+        windowHighMz = Float.NaN;
+        isolationTarget = Float.NaN;
+        lowerOffset = Float.NaN;
+        upperOffset = Float.NaN;
+        selectedIonMz = Float.NaN;
+        inBinaryArray = false;
+        precision = 32;
+        zlib = false;
+        arrayType = 0;
+        int binaryStart = -1;
+        int binaryEnd = -1;
+        //encoding and byte range of the m/z (0) and intensity (1) arrays
+        int[] arrayPrecision = new int[2];
+        boolean[] arrayZlib = new boolean[2];
+        int[] arrayStart = new int[]{-1, -1};
+        int[] arrayEnd = new int[2];
+
+        while (!xml.emptyElement) {
+            xml.cursor = xml.IndexOf((byte) '<', xml.cursor);
+            if (xml.cursor < 0 || xml.IsTag("/spectrum") || xml.IsTag("spectrum")) {
+                break;
+            }
+            if (xml.IsTag("cvParam")) {
+                xml.cursor += 8;
+                ReadCvParam();
+                HandleCvParam();
+            } else if (xml.IsTag("referenceableParamGroupRef")) {
+                xml.cursor += 27;
+                String ref = null;
+                while (xml.NextAttribute()) {
+                    if ("ref".equals(xml.attrName)) {
+                        ref = xml.attrValue;
+                    }
+                }
+                xml.emptyElement = false;
+                if (ParamGroups == null) {
+                    throw new SAXException("Spectrum " + scan.Num + " references referenceableParamGroup \"" + ref + "\" but the file doesn't define any");
+                }
+                for (HashMap<String, String> cvParam : ParamGroups.Get(ref)) {
+                    accession = cvParam.get("accession");
+                    value = cvParam.get("value");
+                    unitName = cvParam.get("unitName");
+                    unitAccession = cvParam.get("unitAccession");
+                    HandleCvParam();
+                }
+            } else if (xml.IsTag("precursor")) {
+                xml.cursor += 10;
+                while (xml.NextAttribute()) {
+                    if ("spectrumRef".equals(xml.attrName)) {
+                        scan.precursorScanNum = ScanNumber(xml.attrValue, "-1");
+                    }
+                }
+                xml.emptyElement = false;
+            } else if (xml.IsTag("binaryDataArray")) {
+                xml.cursor += 16;
+                xml.SkipAttributes();
+                inBinaryArray = !xml.emptyElement;
+                xml.emptyElement = false;
+                precision = 32;
+                zlib = false;
+                arrayType = 0;
+                binaryStart = -1;
+            } else if (xml.IsTag("binary")) {
+                xml.cursor += 7;
+                xml.SkipAttributes();
+                binaryStart = xml.cursor;
+                binaryEnd = xml.cursor;
+                if (!xml.emptyElement) {
+                    binaryEnd = xml.IndexOf((byte) '<', xml.cursor);
+                    if (binaryEnd < 0) {
+                        throw new SAXException("Unterminated <binary> element in spectrum " + scan.Num);
+                    }
+                    xml.cursor = binaryEnd;
+                }
+                xml.emptyElement = false;
+            } else if (xml.IsTag("/binaryDataArray")) {
+                if (arrayType > 0 && binaryStart >= 0) {
+                    arrayPrecision[arrayType - 1] = precision;
+                    arrayZlib[arrayType - 1] = zlib;
+                    arrayStart[arrayType - 1] = binaryStart;
+                    arrayEnd[arrayType - 1] = binaryEnd;
+                }
+                inBinaryArray = false;
+                xml.cursor++;
+            } else if (!xml.SkipTag()) {
+                break;
+            }
+        }
+
+        scan.StartMz = Float.isNaN(windowLowMz) ? (Float.isNaN(observedLowMz) ? 0f : observedLowMz) : windowLowMz;
+        scan.EndMz = Float.isNaN(windowHighMz) ? (Float.isNaN(observedHighMz) ? 0f : observedHighMz) : windowHighMz;
+        float precursormz = PrecursorMz(selectedIonMz, isolationTarget);
+        if (!Float.isNaN(precursormz)) {
+            scan.PrecursorMz = precursormz;
+        }
+        float wideness = WindowWideness(lowerOffset, upperOffset);
+        if (!Float.isNaN(wideness)) {
+            scan.windowWideness = wideness;
+        }
+        if ("calibration".equals(scan.scanType)) {
+            scan.MsLevel = -1;
+        }
+        if (arrayStart[0] >= 0 && arrayStart[1] >= 0) {
+            scan.precision = arrayPrecision[0];
+            scan.compressionType = arrayZlib[0] ? "zlib" : "none";
+            //binary data arrays of mzML are little-endian
+            BinaryPeakDecoder decoder = BinaryPeakDecoder.Get();
+            decoder.Decode(xml.buf, arrayStart[0], arrayEnd[0], arrayPrecision[0], arrayZlib[0], ByteOrder.LITTLE_ENDIAN);
+            decoder.KeepAsMz();
+            decoder.Decode(xml.buf, arrayStart[1], arrayEnd[1], arrayPrecision[1], arrayZlib[1], ByteOrder.LITTLE_ENDIAN);
+            int size = decoder.PositiveIntensities(scan.PeaksCountString);
+            scan.AddPoints(decoder.Mz, decoder.Intensity, size);
+        }
+        xml.buf = null;
+        ScanData result = scan;
+        scan = null;
+        result.Data.Finalize();
+        return result;
+    }
+
+    private void ReadCvParam() throws SAXException {
+        accession = null;
+        value = null;
+        unitName = null;
+        unitAccession = null;
+        while (xml.NextAttribute()) {
+            switch (xml.attrName) {
+                case ("accession"):
+                    accession = xml.attrValue;
+                    break;
+                case ("value"):
+                    value = xml.attrValue;
+                    break;
+                case ("unitName"):
+                    unitName = xml.attrValue;
+                    break;
+                case ("unitAccession"):
+                    unitAccession = xml.attrValue;
+                    break;
+            }
+        }
+        xml.emptyElement = false;
+    }
+
+    //Applies the cvParam in accession/value/unitName/unitAccession to the spectrum or the binaryDataArray being read
+    private void HandleCvParam() throws DataFormatException {
+        if (accession == null) {
+            return;
+        }
+        if (inBinaryArray) {
+            switch (accession) {
+                case ("MS:1000521"):
+                    precision = 32;
+                    break;
+                case ("MS:1000523"):
+                    precision = 64;
+                    break;
+                case ("MS:1000574"):
+                    zlib = true;
+                    break;
+                case ("MS:1000576"):
+                    zlib = false;
+                    break;
+                case ("MS:1000514"):
+                    arrayType = 1;
+                    break;
+                case ("MS:1000515"):
+                    arrayType = 2;
+                    break;
+                default:
+                    if (accession.startsWith("MS:10025")) {
+                        throw new DataFormatException("Unsupported binary compression " + accession + " in spectrum " + scan.Num);
+                    }
+            }
+            return;
+        }
+        switch (accession) {
+            case ("MS:1000511"):
+                scan.MsLevel = Integer.parseInt(value);
+                break;
+            case ("MS:1000127"):
+                scan.centroided = true;
+                break;
+            case ("MS:1000128"):
+                scan.centroided = false;
+                break;
+            case ("MS:1000582"):
+                scan.scanType = "SIM";
+                break;
+            case ("MS:1000928"):
+                scan.scanType = "calibration";
+                break;
+            case ("MS:1000504"):
+                scan.BasePeakMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000505"):
+                scan.BasePeakIntensity = Float.parseFloat(value);
+                break;
+            case ("MS:1000285"):
+                scan.SetTotIonCurrent(Float.parseFloat(value));
+                break;
+            case ("MS:1000528"):
+                observedLowMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000527"):
+                observedHighMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000016"):
+                scan.RetentionTime = ScanStartTimeSecond(value, unitName, unitAccession) / 60f;
+                break;
+            case ("MS:1000501"):
+                windowLowMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000500"):
+                windowHighMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000827"):
+                isolationTarget = Float.parseFloat(value);
+                break;
+            case ("MS:1000828"):
+                lowerOffset = Float.parseFloat(value);
+                break;
+            case ("MS:1000829"):
+                upperOffset = Float.parseFloat(value);
+                break;
+            case ("MS:1000744"):
+                selectedIonMz = Float.parseFloat(value);
+                break;
+            case ("MS:1000041"):
+                scan.PrecursorCharge = Integer.parseInt(value);
+                break;
+            case ("MS:1000042"):
+                scan.PrecursorIntensity = Float.parseFloat(value);
+                break;
+            case ("MS:1000133"):
+                scan.ActivationMethod = "CID";
+                break;
+            case ("MS:1000422"):
+                scan.ActivationMethod = "HCD";
+                break;
+            case ("MS:1000598"):
+                scan.ActivationMethod = "ETD";
+                break;
+        }
+    }
+}
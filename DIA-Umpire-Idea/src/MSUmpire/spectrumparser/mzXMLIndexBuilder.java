@@ -0,0 +1,280 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.spectrumparser;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Builds the scan offset index of an mzXML file together with the scan
+ * header information needed for the elution and DIA window indices
+ * (retention time, MS level, scan type, m/z range and precursor windows) in
+ * one sequential sweep over a memory-mapped view of the file.
+ * <p>
+ * The offsets are taken from the scan tags themselves, so the builder does
+ * not need the &lt;index&gt; element and also works for files where it is
+ * missing or corrupt. Peak payloads are skipped, nothing but the tags are
+ * decoded.
+ *
+ * @author Chih-Chiang Tsou
+ */
+public class mzXMLIndexBuilder {
+
+    //Files larger than this are mapped and swept region by region
+    private static final long MAPSIZE = 1L << 30;
+
+    public static class ScanHeader {
+
+        public int Num;
+        public long Offset;
+        public int MsLevel;
+        //Retention time in seconds, NaN if the scan doesn't have one
+        public float RetentionTime = Float.NaN;
+        public String ScanType;
+        public float LowMz = Float.NaN;
+        public float HighMz = Float.NaN;
+        public ArrayList<Float> PrecursorMz = new ArrayList<>();
+        //Window wideness of each precursor, NaN if not given
+        public ArrayList<Float> WindowWideness = new ArrayList<>();
+    }
+
+    protected static final int RESUME = -1;
+    protected static final int DONE = -2;
+
+    protected final String filename;
+    //Scan whose tags are being read
+    protected ScanHeader current;
+    public TreeMap<Integer, Long> ScanIndex = new TreeMap<>();
+    public ArrayList<ScanHeader> ScanHeaders = new ArrayList<>();
+    //Offset of the end of the last scan (</msRun>, <index> or end of file)
+    public long RunEndOffset = -1;
+
+    public mzXMLIndexBuilder(String filename) {
+        this.filename = filename;
+    }
+
+    public void Build() throws IOException {
+        ScanIndex = new TreeMap<>();
+        ScanHeaders = new ArrayList<>();
+        try (RandomAccessFile fileHandler = new RandomAccessFile(filename, "r")) {
+            FileChannel channel = fileHandler.getChannel();
+            long length = channel.size();
+            long base = 0;
+            current = null;
+            boolean done = false;
+            while (!done && base < length) {
+                int limit = (int) Math.min(MAPSIZE, length - base);
+                boolean lastregion = base + limit >= length;
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, base, limit);
+                //where the next region starts, moved back when a tag crosses the end of this region
+                int resume = limit;
+                int pos = 0;
+                while (pos < limit) {
+                    if (map.get(pos) != '<') {
+                        pos++;
+                        continue;
+                    }
+                    if (StartsWith(map, pos, limit, "<!--")) {
+                        int end = IndexOf(map, "-->", pos, limit);
+                        if (end < 0) {
+                            resume = pos;
+                            break;
+                        }
+                        pos = end + 3;
+                        continue;
+                    }
+                    int tagEnd = IndexOf(map, (byte) '>', pos, limit);
+                    if (tagEnd < 0) {
+                        resume = pos;
+                        break;
+                    }
+                    int next = HandleTag(map, base, pos, tagEnd, limit);
+                    if (next == RESUME) {
+                        resume = pos;
+                        break;
+                    }
+                    if (next == DONE) {
+                        RunEndOffset = base + pos;
+                        done = true;
+                        break;
+                    }
+                    pos = next + 1;
+                }
+                if (lastregion) {
+                    break;
+                }
+                if (!done && resume == 0) {
+                    throw new IOException(filename + ": xml tag at offset " + base + " is longer than the mapped region");
+                }
+                base += resume;
+            }
+            if (RunEndOffset < 0) {
+                RunEndOffset = length;
+            }
+        }
+        ScanIndex.put(Integer.MAX_VALUE, RunEndOffset);
+    }
+
+    /**
+     * Handles the tag starting at pos (its closing '&gt;' is at tagEnd).
+     *
+     * @return the position of the last byte consumed, RESUME if the tag needs
+     * bytes beyond limit, or DONE at the end of the scan list
+     */
+    protected int HandleTag(MappedByteBuffer map, long base, int pos, int tagEnd, int limit) throws IOException {
+        if (IsTag(map, pos, limit, "scan")) {
+            current = ReadScanTag(map, pos, tagEnd);
+            current.Offset = base + pos;
+            ScanHeaders.add(current);
+            ScanIndex.put(current.Num, current.Offset);
+        } else if (current != null && IsTag(map, pos, limit, "precursorMz")) {
+            int textEnd = IndexOf(map, (byte) '<', tagEnd + 1, limit);
+            if (textEnd < 0) {
+                return RESUME;
+            }
+            HashMap<String, String> attributes = ReadAttributes(map, pos + 12, tagEnd);
+            current.PrecursorMz.add(Float.parseFloat(GetString(map, tagEnd + 1, textEnd).trim()));
+            current.WindowWideness.add(attributes.containsKey("windowWideness") ? Float.parseFloat(attributes.get("windowWideness")) : Float.NaN);
+            return textEnd - 1;
+        } else if (IsTag(map, pos, limit, "/msRun") || IsTag(map, pos, limit, "index")) {
+            return DONE;
+        }
+        return tagEnd;
+    }
+
+    private static ScanHeader ReadScanTag(MappedByteBuffer map, int pos, int tagEnd) {
+        ScanHeader header = new ScanHeader();
+        HashMap<String, String> attributes = ReadAttributes(map, pos + 5, tagEnd);
+        header.Num = Integer.parseInt(attributes.get("num"));
+        if (attributes.containsKey("msLevel")) {
+            header.MsLevel = Integer.parseInt(attributes.get("msLevel"));
+        }
+        String rt = attributes.get("retentionTime");
+        if (rt != null && rt.startsWith("PT")) {
+            header.RetentionTime = Float.parseFloat(rt.substring(2, rt.indexOf("S")));
+        }
+        header.ScanType = attributes.get("scanType");
+        header.LowMz = ParseMz(attributes.get("lowMz"), Float.MIN_VALUE);
+        header.HighMz = ParseMz(attributes.get("highMz"), Float.MAX_VALUE);
+        return header;
+    }
+
+    private static float ParseMz(String value, float inf) {
+        if (value == null) {
+            return Float.NaN;
+        }
+        if ("inf".equals(value)) {
+            return inf;
+        }
+        return Float.parseFloat(value);
+    }
+
+    //Attributes of the start tag between from (just after the tag name) and the closing '>'
+    protected static HashMap<String, String> ReadAttributes(MappedByteBuffer map, int from, int to) {
+        HashMap<String, String> attributes = new HashMap<>();
+        int pos = from;
+        while (pos < to) {
+            while (pos < to && IsWhitespace(map.get(pos))) {
+                pos++;
+            }
+            int nameStart = pos;
+            while (pos < to && map.get(pos) != '=' && !IsWhitespace(map.get(pos))) {
+                pos++;
+            }
+            int nameEnd = pos;
+            while (pos < to && map.get(pos) != '"' && map.get(pos) != '\'') {
+                pos++;
+            }
+            if (pos >= to) {
+                break;
+            }
+            byte quote = map.get(pos);
+            int valueStart = ++pos;
+            while (pos < to && map.get(pos) != quote) {
+                pos++;
+            }
+            attributes.put(GetString(map, nameStart, nameEnd), GetString(map, valueStart, pos));
+            pos++;
+        }
+        return attributes;
+    }
+
+    protected static String GetString(MappedByteBuffer map, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = map.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    protected static boolean IsTag(MappedByteBuffer map, int pos, int limit, String name) {
+        int end = pos + 1 + name.length();
+        if (end >= limit) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (map.get(pos + 1 + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        byte next = map.get(end);
+        return next == '>' || next == '/' || IsWhitespace(next);
+    }
+
+    protected static boolean StartsWith(MappedByteBuffer map, int pos, int limit, String prefix) {
+        if (pos + prefix.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (map.get(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static int IndexOf(MappedByteBuffer map, byte value, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (map.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static int IndexOf(MappedByteBuffer map, String value, int from, int limit) {
+        for (int i = from; i <= limit - value.length(); i++) {
+            if (StartsWith(map, i, limit, value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    protected static boolean IsWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
@@ -22,17 +22,20 @@ package MSUmpire.spectrumparser;
 import MSUmpire.BaseDataStructure.InstrumentParameter;
 import MSUmpire.BaseDataStructure.ScanCollection;
 import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.ScanPeakStore;
 import MSUmpire.BaseDataStructure.SpectralDataType;
 import MSUmpire.BaseDataStructure.XYData;
 import Utility.UpdateProcess;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.zip.DataFormatException;
 import javax.xml.parsers.ParserConfigurationException;
@@ -52,7 +55,7 @@ import org.xml.sax.SAXException;
  *
  * @author Chih-Chiang Tsou
  */
-public final class mzXMLParser {
+public class mzXMLParser {
 
     public ScanCollection scanCollection = null;
     public String filename;
@@ -78,20 +81,32 @@ public final class mzXMLParser {
     public TreeMap<Float, Integer> ElutionTimeToScanNoMap;
     private HashMap<Integer, Float> ScanToElutionTime;
     public int NoMS1Scans = 0;
+    private DIAWindowDemultiplexer DIAMS2Demultiplexer = null;
+    private ProcessedScanCache ScanCache = null;
+    private boolean ScanCacheOpened = false;
+    //Referenceable param groups the spectra of an mzML file may refer to, null for mzXML
+    protected mzMLParamGroups ParamGroups = null;
 
     public mzXMLParser(String filename, InstrumentParameter parameter, SpectralDataType.DataType datatype, DIA_Setting dIA_Setting, int NoCPUs) throws Exception {
         this.filename = filename;
         this.ElutionTimeToScanNoMap = new TreeMap<>();
         this.dIA_Setting = dIA_Setting;
         this.MsLevelList = new TreeMap<>();
-        this.scanCollection = new ScanCollection(parameter.Resolution);
-        this.scanCollection.Filename = filename;
         this.parameter = parameter;
+        this.scanCollection = NewScanCollection();
+        this.scanCollection.Filename = filename;
         this.datatype = datatype;
         this.NoCPUs = NoCPUs;
         ReadElutionAndScanIndex();
     }
 
+    //Scan collection keeping the peaks where parameter.ScanPeakStorage says
+    ScanCollection NewScanCollection() {
+        ScanCollection collection = new ScanCollection(parameter.Resolution);
+        collection.SetPeakStore(ScanPeakStore.Create(parameter.ScanPeakStorage, filename));
+        return collection;
+    }
+
     public float GetMS1CycleTime() {
         return (ElutionTimeToScanNoMap.lastKey() - ElutionTimeToScanNoMap.firstKey()) / NoMS1Scans;
     }
@@ -102,25 +117,246 @@ public final class mzXMLParser {
 
     public void ReadElutionAndScanIndex() throws Exception {
         //long startRead =System.nanoTime();
-        if (!FSScanPosRead()) {
+        if (!IndexCached(filename) || !FSScanPosRead() || !FSElutionIndexRead()) {
             //long start =System.nanoTime();
-            ParseIndex();
-            //System.out.printf("ParseIndex() took: %.0f ms\n", (System.nanoTime() - start)/1e6);
+            BuildIndexSinglePass();
+            //System.out.printf("BuildIndexSinglePass() took: %.0f ms\n", (System.nanoTime() - start)/1e6);
             //start =System.nanoTime();
             WriteIndexSerialization();
-            //System.out.printf("WriteIndexSerialization() took: %.0f ms\n", (System.nanoTime() - start)/1e6);
-        }
-        //System.out.printf("FSScanPosRead() took: %.0f ms\n", (System.nanoTime() - startRead)/1e6);
-        //startRead =System.nanoTime();
-        if (!FSElutionIndexRead()) {
-            //long start =System.nanoTime();
-            ParseElutionIndex();
-            //System.out.printf("ParseElutionIndex() took: %.0f ms\n", (System.nanoTime() - start)/1e6);
-            //start =System.nanoTime();
             FSElutionIndexWrite();
-            //System.out.printf("FSElutionIndexWrite() took: %.0f ms\n", (System.nanoTime() - start)/1e6);
+            //System.out.printf("Index serialization took: %.0f ms\n", (System.nanoTime() - start)/1e6);
+        }
+        //System.out.printf("Index reading took: %.0f ms\n", (System.nanoTime() - startRead)/1e6);
+    }
+
+    /**
+     * Builds ScanIndex together with the RT, MS level and DIA window indices
+     * in one sequential sweep over the memory-mapped file (see
+     * {@link mzXMLIndexBuilder}) instead of reading the &lt;index&gt; element
+     * backwards and then re-reading every scan. Works for files without or
+     * with a corrupt &lt;index&gt;.
+     */
+    public void BuildIndexSinglePass() throws IOException {
+        Logger.getRootLogger().debug("Building scan index of " + filename + " by sequential scan");
+        mzXMLIndexBuilder builder = CreateIndexBuilder();
+        builder.Build();
+        ScanIndex = builder.ScanIndex;
+        TotalScan = ScanIndex.size();
+        ElutionTimeToScanNoMap = new TreeMap<>();
+        scanCollection.ElutionTimeToScanNoMap = new TreeMap<>();
+        ScanToElutionTime = new HashMap<>();
+        MsLevelList = new TreeMap<>();
+        NoMS1Scans = 0;
+        if (datatype != SpectralDataType.DataType.DDA && datatype != SpectralDataType.DataType.DIA_V_Window) {
+            dIA_Setting.DIAWindows = new TreeMap<>();
+        }
+        for (mzXMLIndexBuilder.ScanHeader header : builder.ScanHeaders) {
+            AddScanHeaderToIndex(header);
+        }
+    }
+
+    protected mzXMLIndexBuilder CreateIndexBuilder() {
+        return new mzXMLIndexBuilder(filename);
+    }
+
+    //Path prefix of the index cache files (.ScanPosFS, .RTidxFS, ...)
+    protected String CacheBaseName() {
+        return CacheBaseName(filename);
+    }
+
+    //Keep the index of x.mzML apart from the one of x.mzXML
+    private static String CacheBaseName(String filename) {
+        if ("mzML".equalsIgnoreCase(FilenameUtils.getExtension(filename))) {
+            return filename;
+        }
+        return FilenameUtils.removeExtension(filename);
+    }
+
+    /**
+     * Whether the index cache files of the file exist and are not older than
+     * the file, i.e. whether a parser reads its indices from them instead of
+     * building them.
+     */
+    public static boolean IndexCached(String filename) {
+        long modified = new File(filename).lastModified();
+        String basename = CacheBaseName(filename);
+        for (String suffix : new String[]{".ScanPosFS", ".RTidxFS", ".ScanRTFS", ".ScanidxFS"}) {
+            File cache = new File(basename + suffix);
+            if (!cache.exists() || cache.lastModified() < modified) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Processed scan cache of the file, opened on first use if parameter.CacheProcessedScans is set
+    synchronized ProcessedScanCache GetProcessedScanCache() {
+        if (!ScanCacheOpened) {
+            ScanCacheOpened = true;
+            if (parameter.CacheProcessedScans) {
+                try {
+                    ScanCache = new ProcessedScanCache(filename, CacheBaseName() + ".ScanCache", parameter);
+                } catch (IOException ex) {
+                    Logger.getRootLogger().warn("Processed scan cache of " + filename + " is not used: " + ex.getMessage());
+                }
+            }
+        }
+        return ScanCache;
+    }
+
+    public synchronized void CloseProcessedScanCache() {
+        if (ScanCache != null) {
+            ScanCache.Close();
+            ScanCache = null;
+        }
+        ScanCacheOpened = false;
+    }
+
+    //Unit holding the processed scan if it is in the processed scan cache, null otherwise
+    MzXMLthreadUnit CachedThreadUnit(int scanNO) {
+        ProcessedScanCache cache = GetProcessedScanCache();
+        if (cache == null) {
+            return null;
+        }
+        try {
+            ScanData scan = cache.Get(scanNO);
+            if (scan != null) {
+                return new MzXMLthreadUnit(scan);
+            }
+        } catch (IOException ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+        }
+        return null;
+    }
+
+    //Unit processing the scan bytes, the result goes to the processed scan cache
+    MzXMLthreadUnit NewThreadUnit(byte[] buffer, UpdateProcess progress, boolean ReadPeak) {
+        MzXMLthreadUnit unit = new MzXMLthreadUnit(buffer, parameter, datatype, progress, ReadPeak);
+        unit.ScanCache = GetProcessedScanCache();
+        unit.ParamGroups = ParamGroups;
+        return unit;
+    }
+
+    //Unit of the scan between startposition and nexposition, from the processed scan cache if possible
+    MzXMLthreadUnit CreateThreadUnit(int scanNO, long startposition, long nexposition, UpdateProcess progress, boolean ReadPeak) throws IOException {
+        MzXMLthreadUnit unit = CachedThreadUnit(scanNO);
+        if (unit != null) {
+            return unit;
+        }
+        byte[] buffer = new byte[(int) (nexposition - startposition)];
+        RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
+        fileHandler.seek(startposition);
+        fileHandler.read(buffer, 0, (int) (nexposition - startposition));
+        fileHandler.close();
+        return NewThreadUnit(buffer, progress, ReadPeak);
+    }
+
+    //Units of the given scans, the scans not in the processed scan cache are read with coalesced sequential reads
+    List<MzXMLthreadUnit> CreateThreadUnits(List<Integer> ScanNos, boolean[] ReadPeak, UpdateProcess progress) throws IOException {
+        MzXMLthreadUnit[] units = new MzXMLthreadUnit[ScanNos.size()];
+        ScanRangeReader reader = new ScanRangeReader(filename, parameter.ReadAheadGap, parameter.ReadAheadMaxRead);
+        ArrayList<Integer> ReadIdx = new ArrayList<>();
+        for (int i = 0; i < units.length; i++) {
+            int scanNO = ScanNos.get(i);
+            units[i] = CachedThreadUnit(scanNO);
+            if (units[i] == null) {
+                reader.Add(ScanIndex.get(scanNO), ScanIndex.higherEntry(scanNO).getValue());
+                ReadIdx.add(i);
+            }
+        }
+        byte[][] buffers = reader.Read();
+        for (int i = 0; i < buffers.length; i++) {
+            int idx = ReadIdx.get(i);
+            units[idx] = NewThreadUnit(buffers[i], progress, ReadPeak[idx]);
+        }
+        ArrayList<MzXMLthreadUnit> ScanList = new ArrayList<>(units.length);
+        for (MzXMLthreadUnit unit : units) {
+            ScanList.add(unit);
+        }
+        return ScanList;
+    }
+
+    //Decodes a scan read from the file without processing it
+    private ScanData ParseRawScan(byte[] buffer) throws SAXException, IOException, ParserConfigurationException, DataFormatException {
+        if (mzMLReadUnit.IsSpectrum(buffer)) {
+            return new mzMLReadUnit(buffer, ParamGroups).Parse();
+        }
+        mzXMLReadUnit read = new mzXMLReadUnit(buffer);
+        return parameter.StreamingScanDecoder ? read.ParseStreaming() : read.Parse();
+    }
+
+    private void AddScanHeaderToIndex(mzXMLIndexBuilder.ScanHeader header) {
+        int scanno = header.Num;
+        if (Float.isNaN(header.RetentionTime)) {
+            Logger.getRootLogger().error("index of mzXML error, scan " + scanno + " doesn't have retentionTime");
+            System.exit(1);
+        }
+        int mslevel = header.MsLevel;
+        if ("calibration".equals(header.ScanType)) {
+            mslevel = -1;
+        }
+        if (mslevel == 1) {
+            NoMS1Scans++;
+            if ("SIM".equals(header.ScanType) && datatype == SpectralDataType.DataType.WiSIM) {
+                for (XYData MS1win : dIA_Setting.MS1Windows.keySet()) {
+                    if (MS1win.getX() <= header.LowMz && MS1win.getY() >= header.HighMz) {
+                        dIA_Setting.MS1Windows.get(MS1win).add(scanno);
+                    }
+                }
+            }
+        }
+        if (datatype != SpectralDataType.DataType.DDA && mslevel == 2) {
+            if (datatype == SpectralDataType.DataType.MSX) {
+                for (int i = 0; i < header.PrecursorMz.size(); i++) {
+                    float windowwideness = header.WindowWideness.get(i);
+                    if (Float.isNaN(windowwideness)) {
+                        Logger.getRootLogger().error("windowWideness of precursor " + header.PrecursorMz.get(i) + " is missing. scan number :" + scanno);
+                        continue;
+                    }
+                    AddDIAWindowScan(new XYData(header.PrecursorMz.get(i) - windowwideness / 2f, header.PrecursorMz.get(i) + windowwideness / 2f), scanno);
+                }
+            } else if (datatype == SpectralDataType.DataType.DIA_F_Window || datatype == SpectralDataType.DataType.pSMART || datatype == SpectralDataType.DataType.WiSIM) {
+                if (header.PrecursorMz.isEmpty()) {
+                    Logger.getRootLogger().error("Parsing </precursorMz> failed. scan number :" + scanno);
+                    System.exit(3);
+                }
+                float precursormz = header.PrecursorMz.get(0);
+                float Loffset = (dIA_Setting.F_DIA_WindowSize + 1) * 0.2f;
+                float Roffset = (dIA_Setting.F_DIA_WindowSize + 1) * 0.8f;
+                for (Float windowwideness : header.WindowWideness) {
+                    if (!Float.isNaN(windowwideness)) {
+                        Loffset = windowwideness / 2f;
+                        Roffset = windowwideness / 2f;
+                        break;
+                    }
+                }
+                AddDIAWindowScan(new XYData(precursormz - Loffset, precursormz + Roffset), scanno);
+            } else if (datatype == SpectralDataType.DataType.DIA_V_Window) {
+                if (!header.PrecursorMz.isEmpty()) {
+                    float precursormz = header.PrecursorMz.get(0);
+                    for (XYData window : dIA_Setting.DIAWindows.keySet()) {
+                        if (window.getX() <= precursormz && window.getY() >= precursormz) {
+                            dIA_Setting.DIAWindows.get(window).add(scanno);
+                            break;
+                        }
+                    }
+                }
+            } else if (datatype == SpectralDataType.DataType.MSe) {
+                AddDIAWindowScan(new XYData(0f, 10000f), scanno);
+            }
+        }
+        float nowtime = header.RetentionTime;
+        ElutionTimeToScanNoMap.put(nowtime / 60f, scanno);
+        scanCollection.ElutionTimeToScanNoMap.put(nowtime / 60f, scanno);
+        ScanToElutionTime.put(scanno, nowtime / 60f);
+        MsLevelList.put(scanno, mslevel);
+    }
+
+    private void AddDIAWindowScan(XYData window, int scanno) {
+        if (!dIA_Setting.DIAWindows.containsKey(window)) {
+            dIA_Setting.DIAWindows.put(window, new ArrayList<Integer>());
         }
-        //System.out.printf("FSElutionIndexRead() took: %.0f ms\n", (System.nanoTime() - startRead)/1e6);
+        dIA_Setting.DIAWindows.get(window).add(scanno);
     }
 
     private void WriteIndexSerialization() {
@@ -129,8 +365,8 @@ public final class mzXMLParser {
 
     private void FSScanIdxWrite() {
         try {
-            Logger.getRootLogger().debug("Writing ScanPos to file:" + FilenameUtils.removeExtension(filename) + ".ScanPosFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".ScanPosFS", false);
+            Logger.getRootLogger().debug("Writing ScanPos to file:" + CacheBaseName() + ".ScanPosFS..");
+            FileOutputStream fout = new FileOutputStream(CacheBaseName() + ".ScanPosFS", false);
             FSTObjectOutput oos = new FSTObjectOutput(fout);
             oos.writeObject(ScanIndex);
             oos.close();
@@ -141,12 +377,12 @@ public final class mzXMLParser {
     }
 
     private boolean FSScanPosRead() {
-        if (!new File(FilenameUtils.removeExtension(filename) + ".ScanPosFS").exists()) {
+        if (!new File(CacheBaseName() + ".ScanPosFS").exists()) {
             return false;
         }
         try {
-            Logger.getRootLogger().debug("Reading ScanPos:" + FilenameUtils.removeExtension(filename) + ".ScanPosFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".ScanPosFS");
+            Logger.getRootLogger().debug("Reading ScanPos:" + CacheBaseName() + ".ScanPosFS...");
+            FileInputStream fileIn = new FileInputStream(CacheBaseName() + ".ScanPosFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
             ScanIndex = (TreeMap<Integer, Long>) in.readObject();
             TotalScan = ScanIndex.size();
@@ -430,8 +666,8 @@ public final class mzXMLParser {
     private void FSElutionIndexWrite() throws IOException {
 
         try {
-            Logger.getRootLogger().debug("Writing RTidx to file:" + FilenameUtils.removeExtension(filename) + ".RTidxFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".RTidxFS", false);
+            Logger.getRootLogger().debug("Writing RTidx to file:" + CacheBaseName() + ".RTidxFS..");
+            FileOutputStream fout = new FileOutputStream(CacheBaseName() + ".RTidxFS", false);
             FSTObjectOutput oos = new FSTObjectOutput(fout);
             oos.writeObject(ElutionTimeToScanNoMap);
             oos.close();
@@ -441,8 +677,8 @@ public final class mzXMLParser {
         }
 
         try {
-            Logger.getRootLogger().debug("Writing Scanidx to file:" + FilenameUtils.removeExtension(filename) + ".ScanidxFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".ScanidxFS", false);
+            Logger.getRootLogger().debug("Writing Scanidx to file:" + CacheBaseName() + ".ScanidxFS..");
+            FileOutputStream fout = new FileOutputStream(CacheBaseName() + ".ScanidxFS", false);
             FSTObjectOutput oos = new FSTObjectOutput(fout);
             oos.writeObject(MsLevelList);
             oos.close();
@@ -452,8 +688,8 @@ public final class mzXMLParser {
         }
 
         try {
-            Logger.getRootLogger().debug("Writing ScanRT to file:" + FilenameUtils.removeExtension(filename) + ".ScanRTFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".ScanRTFS", false);
+            Logger.getRootLogger().debug("Writing ScanRT to file:" + CacheBaseName() + ".ScanRTFS..");
+            FileOutputStream fout = new FileOutputStream(CacheBaseName() + ".ScanRTFS", false);
             FSTObjectOutput oos = new FSTObjectOutput(fout);
             oos.writeObject(ScanToElutionTime);
             oos.close();
@@ -464,8 +700,8 @@ public final class mzXMLParser {
 
         if (datatype !=  SpectralDataType.DataType.DDA) {
             try {
-                Logger.getRootLogger().debug("Writing DIAWindows to file:" + FilenameUtils.removeExtension(filename) + ".DIAWindowsFS..");
-                FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".DIAWindowsFS", false);
+                Logger.getRootLogger().debug("Writing DIAWindows to file:" + CacheBaseName() + ".DIAWindowsFS..");
+                FileOutputStream fout = new FileOutputStream(CacheBaseName() + ".DIAWindowsFS", false);
                 FSTObjectOutput oos = new FSTObjectOutput(fout);
                 oos.writeObject(dIA_Setting.DIAWindows);
                 oos.close();
@@ -476,8 +712,8 @@ public final class mzXMLParser {
         }
          if (datatype ==  SpectralDataType.DataType.WiSIM) {
             try {
-                Logger.getRootLogger().debug("Writing MS1 windows to file:" + FilenameUtils.removeExtension(filename) + ".MS1WindowsFS..");
-                FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".MS1WindowsFS", false);
+                Logger.getRootLogger().debug("Writing MS1 windows to file:" + CacheBaseName() + ".MS1WindowsFS..");
+                FileOutputStream fout = new FileOutputStream(CacheBaseName() + ".MS1WindowsFS", false);
                 FSTObjectOutput oos = new FSTObjectOutput(fout);
                 oos.writeObject(dIA_Setting.MS1Windows);
                 oos.close();
@@ -558,20 +794,20 @@ public final class mzXMLParser {
 //</editor-fold>
     
     private boolean FSElutionIndexRead() throws NumberFormatException, FileNotFoundException, IOException {
-        if (!new File(FilenameUtils.removeExtension(filename) + ".RTidxFS").exists()) {
+        if (!new File(CacheBaseName() + ".RTidxFS").exists()) {
             return false;
         }
-        if (!new File(FilenameUtils.removeExtension(filename) + ".ScanRTFS").exists()) {
+        if (!new File(CacheBaseName() + ".ScanRTFS").exists()) {
             return false;
         }
-        if (!new File(FilenameUtils.removeExtension(filename) + ".ScanidxFS").exists()) {
+        if (!new File(CacheBaseName() + ".ScanidxFS").exists()) {
             return false;
         }
         
                 
         try {
-            Logger.getRootLogger().debug("Reading RTidx:" + FilenameUtils.removeExtension(filename) + ".RTidxFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".RTidxFS");
+            Logger.getRootLogger().debug("Reading RTidx:" + CacheBaseName() + ".RTidxFS...");
+            FileInputStream fileIn = new FileInputStream(CacheBaseName() + ".RTidxFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
             ElutionTimeToScanNoMap = (TreeMap<Float, Integer>) in.readObject();
             scanCollection.ElutionTimeToScanNoMap = ElutionTimeToScanNoMap;
@@ -586,8 +822,8 @@ public final class mzXMLParser {
 
         //////////
         try {
-            Logger.getRootLogger().debug("Reading ScanRT:" + FilenameUtils.removeExtension(filename) + ".ScanRTFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".ScanRTFS");
+            Logger.getRootLogger().debug("Reading ScanRT:" + CacheBaseName() + ".ScanRTFS...");
+            FileInputStream fileIn = new FileInputStream(CacheBaseName() + ".ScanRTFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
             ScanToElutionTime = (HashMap<Integer, Float>) in.readObject();
             in.close();
@@ -601,8 +837,8 @@ public final class mzXMLParser {
         ///////////
 
         try {
-            Logger.getRootLogger().debug("Reading Scanidx:" + FilenameUtils.removeExtension(filename) + ".ScanidxFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".ScanidxFS");
+            Logger.getRootLogger().debug("Reading Scanidx:" + CacheBaseName() + ".ScanidxFS...");
+            FileInputStream fileIn = new FileInputStream(CacheBaseName() + ".ScanidxFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
             MsLevelList = (TreeMap<Integer, Integer>) in.readObject();
             for (Integer value : MsLevelList.values()) {
@@ -620,12 +856,12 @@ public final class mzXMLParser {
         }
 
         if (datatype != SpectralDataType.DataType.DDA) {
-            if (!new File(FilenameUtils.removeExtension(filename) + ".DIAWindowsFS").exists()) {
+            if (!new File(CacheBaseName() + ".DIAWindowsFS").exists()) {
                 return false;
             }
             try {
-                Logger.getRootLogger().debug("Reading DIAWindows:" + FilenameUtils.removeExtension(filename) + ".DIAWindowsFS...");
-                FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".DIAWindowsFS");
+                Logger.getRootLogger().debug("Reading DIAWindows:" + CacheBaseName() + ".DIAWindowsFS...");
+                FileInputStream fileIn = new FileInputStream(CacheBaseName() + ".DIAWindowsFS");
                 FSTObjectInput in = new FSTObjectInput(fileIn);
                 dIA_Setting.DIAWindows = (TreeMap<XYData, ArrayList<Integer>>) in.readObject();
                 in.close();
@@ -639,12 +875,12 @@ public final class mzXMLParser {
         }
         
          if (datatype == SpectralDataType.DataType.WiSIM) {
-            if (!new File(FilenameUtils.removeExtension(filename) + ".MS1WindowsFS").exists()) {
+            if (!new File(CacheBaseName() + ".MS1WindowsFS").exists()) {
                 return false;
             }
             try {
-                Logger.getRootLogger().debug("Reading MS1 Windows:" + FilenameUtils.removeExtension(filename) + ".MS1WindowsFS...");
-                FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".MS1WindowsFS");
+                Logger.getRootLogger().debug("Reading MS1 Windows:" + CacheBaseName() + ".MS1WindowsFS...");
+                FileInputStream fileIn = new FileInputStream(CacheBaseName() + ".MS1WindowsFS");
                 FSTObjectInput in = new FSTObjectInput(fileIn);
                 dIA_Setting.MS1Windows = (TreeMap<XYData, ArrayList<Integer>>) in.readObject();
                 in.close();
@@ -672,14 +908,8 @@ public final class mzXMLParser {
             RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
             fileHandler.seek(startposition);
             fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-            String xmltext = new String(buffer);
-            if (ent.getKey() == Integer.MAX_VALUE) {
-                xmltext = xmltext.replaceAll("</msRun>", "");
-            }
-
-            mzXMLReadUnit read = new mzXMLReadUnit(xmltext);
             try {
-                ScanData scanData = read.Parse();
+                ScanData scanData = ParseRawScan(buffer);
                 scanCollection.AddScan(scanData);
                 Logger.getRootLogger().debug(scanData.Num + ":" + scanData.Data.size() + "\n");
             } catch (Exception ex) {
@@ -687,7 +917,6 @@ public final class mzXMLParser {
                 Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             }
             buffer = null;
-            xmltext = null;
             fileHandler.close();
         }
     }
@@ -709,7 +938,7 @@ public final class mzXMLParser {
             Logger.getRootLogger().error(filename + " is not DIA data");
             return null;
         }
-        ScanCollection MS1WindowScanCollection = new ScanCollection(parameter.Resolution);
+        ScanCollection MS1WindowScanCollection = NewScanCollection();
         //System.out.print("Multithreading: "+NoCPUs +" processors (Memory usage:"+ Math.round((Runtime.getRuntime().totalMemory() -Runtime.getRuntime().freeMemory())/1048576)+"MB)\n");
         //System.out.print("...Reading all scans of SWATH window:" + swathwin.X + " - " + swathwin.Y + "....");        
         ExecutorService executorPool = null;
@@ -756,22 +985,9 @@ public final class mzXMLParser {
             currentIdx = nexposition;
 
             if (currentScanNo >= StartScanNo && currentScanNo <= EndScanNo && dIA_Setting.MS1Windows.get(MS1Window).contains(currentScanNo)) {
-                byte[] buffer = new byte[(int) (nexposition - startposition)];
-                RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
-                fileHandler.seek(startposition);
-                fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-                fileHandler.close();
-                String xmltext = new String(buffer);
-                if (ent.getKey() == Integer.MAX_VALUE) {
-                    xmltext = xmltext.replaceAll("</msRun>", "");
-                    buffer = null;
-                }
                 boolean ReadPeak = true;
-                MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype, progress, ReadPeak);
+                MzXMLthreadUnit unit = CreateThreadUnit(currentScanNo, startposition, nexposition, progress, ReadPeak);
                 ScanList.add(unit);
-                buffer = null;
-                xmltext = null;
-                fileHandler = null;
             }
         }
 
@@ -804,12 +1020,75 @@ public final class mzXMLParser {
         return MS1WindowScanCollection;
     }
 
-    
+    /**
+     * Unstarted {@link ScanStream} of the scans of the MS1 window in scan
+     * order, for consuming the scans while they are read instead of loading
+     * the whole window with GetScanCollectionMS1Window.
+     */
+    public ScanStream StreamScanCollectionMS1Window(XYData MS1Window, int Capacity) {
+        if (dIA_Setting == null) {
+            Logger.getRootLogger().error(filename + " is not DIA data");
+            return null;
+        }
+        TreeSet<Integer> ScanNos = new TreeSet<>();
+        for (int scanNO : dIA_Setting.MS1Windows.get(MS1Window)) {
+            if (ScanIndex.containsKey(scanNO)) {
+                ScanNos.add(scanNO);
+            }
+        }
+        return new ScanStream(this, new ArrayList<>(ScanNos), Capacity);
+    }
+
+    /**
+     * Unstarted {@link ScanStream} of all the scans of the MS level in scan
+     * order.
+     */
+    public ScanStream StreamScanCollectionByMSLevel(int MsLevel, int Capacity) {
+        ArrayList<Integer> ScanNos = new ArrayList<>();
+        for (Entry<Integer, Integer> entry : MsLevelList.entrySet()) {
+            if (entry.getValue() == MsLevel && ScanIndex.containsKey(entry.getKey())) {
+                ScanNos.add(entry.getKey());
+            }
+        }
+        return new ScanStream(this, ScanNos, Capacity);
+    }
+
+    /**
+     * Starts reading the MS2 scans of the given DIA windows in the background,
+     * MaxWindowsInFlight windows per sequential pass over the file (see
+     * {@link DIAWindowDemultiplexer}). Until StopDIAMS2Demultiplexer is called,
+     * GetScanCollectionDIAMS2(window, true) hands over the demultiplexed
+     * collection of these windows instead of reading the window by itself.
+     */
+    public void StartDIAMS2Demultiplexer(List<XYData> Windows, int MaxWindowsInFlight) {
+        StopDIAMS2Demultiplexer();
+        DIAMS2Demultiplexer = new DIAWindowDemultiplexer(this, Windows, MaxWindowsInFlight);
+        DIAMS2Demultiplexer.Start();
+    }
+
+    //Lets the demultiplexer move on when a window's scans are not needed
+    public void ReleaseDIAMS2Window(XYData DIAWindow) {
+        if (DIAMS2Demultiplexer != null) {
+            DIAMS2Demultiplexer.Release(DIAWindow);
+        }
+    }
+
+    public void StopDIAMS2Demultiplexer() {
+        if (DIAMS2Demultiplexer != null) {
+            DIAMS2Demultiplexer.Stop();
+            DIAMS2Demultiplexer = null;
+        }
+    }
+
     public ScanCollection GetScanCollectionDIAMS2(XYData DIAWindow, boolean IncludePeak) throws InterruptedException, ExecutionException, IOException {
         if (dIA_Setting == null) {
             Logger.getRootLogger().error("This is not DIA data" + filename);
             return null;
         }
+        if (IncludePeak && DIAMS2Demultiplexer != null && DIAMS2Demultiplexer.Contains(DIAWindow)) {
+            //handed over to the caller and not cached, the window is processed only once
+            return DIAMS2Demultiplexer.Take(DIAWindow);
+        }
         if (!DIAMS2Scans.containsKey(DIAWindow)) {
             DIAMS2Scans.put(DIAWindow, GetScanCollectionDIAMS2(DIAWindow, IncludePeak, 0f, 999999f));
         }
@@ -821,7 +1100,7 @@ public final class mzXMLParser {
             Logger.getRootLogger().error(filename + " is not DIA data");
             return null;
         }
-        ScanCollection swathScanCollection = new ScanCollection(parameter.Resolution);
+        ScanCollection swathScanCollection = NewScanCollection();
         //System.out.print("Multithreading: "+NoCPUs +" processors (Memory usage:"+ Math.round((Runtime.getRuntime().totalMemory() -Runtime.getRuntime().freeMemory())/1048576)+"MB)\n");
         //System.out.print("...Reading all scans of SWATH window:" + swathwin.X + " - " + swathwin.Y + "....");        
         ExecutorService executorPool = null;
@@ -868,22 +1147,9 @@ public final class mzXMLParser {
             currentIdx = nexposition;
 
             if (currentScanNo >= StartScanNo && currentScanNo <= EndScanNo && dIA_Setting.DIAWindows.get(DIAWindow).contains(currentScanNo)) {
-                byte[] buffer = new byte[(int) (nexposition - startposition)];
-                RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
-                fileHandler.seek(startposition);
-                fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-                fileHandler.close();
-                String xmltext = new String(buffer);
-                if (ent.getKey() == Integer.MAX_VALUE) {
-                    xmltext = xmltext.replaceAll("</msRun>", "");
-                    buffer = null;
-                }
                 boolean ReadPeak = true;
-                MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype, progress, ReadPeak);
+                MzXMLthreadUnit unit = CreateThreadUnit(currentScanNo, startposition, nexposition, progress, ReadPeak);
                 ScanList.add(unit);
-                buffer = null;
-                xmltext = null;
-                fileHandler = null;
             }
         }
 
@@ -961,45 +1227,23 @@ public final class mzXMLParser {
                 EndScanNo = ElutionTimeToScanNoMap.higherEntry(endTime).getValue();
             }
         }
-        Iterator<Entry<Integer, Long>> iter = ScanIndex.entrySet().iterator();
-
-        Entry<Integer, Long> ent = iter.next();
-        Long currentIdx = ent.getValue();
-        int nextScanNo = ent.getKey();
-
-        while (iter.hasNext()) {
-            ent = iter.next();
-            long startposition = currentIdx;
-            long nexposition = ent.getValue();
-            int currentScanNo = nextScanNo;
-            nextScanNo = ent.getKey();
-            currentIdx = nexposition;
-
-            if (currentScanNo >= StartScanNo && currentScanNo <= EndScanNo && IncludedMSlevel.contains(MsLevelList.get(currentScanNo))) {
-                byte[] buffer = new byte[(int) (nexposition - startposition)];
-                RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
-                fileHandler.seek(startposition);
-                fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-                fileHandler.close();
-                String xmltext = new String(buffer);
-                if (ent.getKey() == Integer.MAX_VALUE) {
-                    xmltext = xmltext.replaceAll("</msRun>", "");
-                    buffer = null;
-                }
-                boolean ReadPeak = true;
-                if (MsLevelList.get(currentScanNo) == 1) {
-                    ReadPeak = MS1Peak;
-                }
-                if (MsLevelList.get(currentScanNo) == 2) {
-                    ReadPeak = MS2Peak;
-                }
-                MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype, progress, ReadPeak);
-                ScanList.add(unit);
-                buffer = null;
-                xmltext = null;
-                fileHandler = null;
+        ArrayList<Integer> ScanNos = new ArrayList<>();
+        for (Integer currentScanNo : ScanIndex.keySet()) {
+            if (currentScanNo != Integer.MAX_VALUE && currentScanNo >= StartScanNo && currentScanNo <= EndScanNo && IncludedMSlevel.contains(MsLevelList.get(currentScanNo))) {
+                ScanNos.add(currentScanNo);
             }
         }
+        boolean[] ReadPeak = new boolean[ScanNos.size()];
+        for (int i = 0; i < ScanNos.size(); i++) {
+            ReadPeak[i] = true;
+            if (MsLevelList.get(ScanNos.get(i)) == 1) {
+                ReadPeak[i] = MS1Peak;
+            }
+            if (MsLevelList.get(ScanNos.get(i)) == 2) {
+                ReadPeak[i] = MS2Peak;
+            }
+        }
+        ScanList = CreateThreadUnits(ScanNos, ReadPeak, progress);
         //progress.SetTotal(ScanList.size());
         //Thread thread = new Thread(progress);
         //thread.start();
@@ -1019,8 +1263,6 @@ public final class mzXMLParser {
         executorPool = null;
         ScanList.clear();
         ScanList = null;
-        ent = null;
-        iter = null;
 
         System.gc();
         //System.out.print(".....done\n");
@@ -1062,25 +1304,12 @@ public final class mzXMLParser {
             currentIdx = nexposition;
 
             if (IncludedMSlevel.contains(MsLevelList.get(currentScanNo))) {
-                byte[] buffer = new byte[(int) (nexposition - startposition)];
-                RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
-                fileHandler.seek(startposition);
-                fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-                fileHandler.close();
-                String xmltext = new String(buffer);
-                if (ent.getKey() == Integer.MAX_VALUE) {
-                    xmltext = xmltext.replaceAll("</msRun>", "");
-                    buffer = null;
-                }
                 boolean ReadPeak = true;
                 if (MsLevelList.get(currentScanNo) == 2) {
                     ReadPeak = MS2Peak;
                 }
-                MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype, progress, ReadPeak);
+                MzXMLthreadUnit unit = CreateThreadUnit(currentScanNo, startposition, nexposition, progress, ReadPeak);
                 ScanList.add(unit);
-                buffer = null;
-                xmltext = null;
-                fileHandler = null;
             }
         }
         //progress.SetTotal(ScanList.size());
@@ -1116,13 +1345,7 @@ public final class mzXMLParser {
         RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
         fileHandler.seek(startposition);
         fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-        String xmltext = new String(buffer);
-        xmltext = xmltext.replaceAll("</msRun>", "");
-
-        mzXMLReadUnit read = new mzXMLReadUnit(xmltext);
-        ScanData scan = read.Parse();
-        xmltext = null;
-        read = null;
+        ScanData scan = ParseRawScan(buffer);
         fileHandler.close();
         return scan;
     }
@@ -1131,16 +1354,8 @@ public final class mzXMLParser {
         if (!scanCollection.ScanAdded(scanNO)) {
             long startposition = ScanIndex.get(scanNO);
             long nexposition = ScanIndex.ceilingEntry(scanNO + 1).getValue();
-            byte[] buffer = new byte[(int) (nexposition - startposition)];
-            RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
-            fileHandler.seek(startposition);
-            fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-            String xmltext = new String(buffer);
-            xmltext = xmltext.replaceAll("</msRun>", "");
-
-            MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype);
+            MzXMLthreadUnit unit = CreateThreadUnit(scanNO, startposition, nexposition, null, true);
             unit.run();
-            fileHandler.close();
             return unit.scan;
         }
         return scanCollection.GetScan(scanNO);
@@ -1156,23 +1371,9 @@ public final class mzXMLParser {
 
         //UpdateProcess progress = new UpdateProcess();
         executorPool = Executors.newFixedThreadPool(NoCPUs);
-        for (Integer scanNO : ScanNos) {
-            long startposition = ScanIndex.get(scanNO);
-            long nexposition = ScanIndex.ceilingEntry(scanNO + 1).getValue();
-            byte[] buffer = new byte[(int) (nexposition - startposition)];
-            RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
-            fileHandler.seek(startposition);
-            fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-            String xmltext = new String(buffer);
-            if (nexposition == Integer.MAX_VALUE) {
-                xmltext = xmltext.replaceAll("</msRun>", "");
-            }
-            MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype);
-            ScanList.add(unit);
-            buffer = null;
-            xmltext = null;
-            fileHandler.close();
-        }
+        boolean[] ReadPeak = new boolean[ScanNos.size()];
+        Arrays.fill(ReadPeak, true);
+        ScanList = CreateThreadUnits(ScanNos, ReadPeak, null);
         //progress.SetTotal(ScanList.size());
         //Thread thread = new Thread(progress);
         //thread.start();
@@ -1202,19 +1403,9 @@ public final class mzXMLParser {
         if (!scanCollection.ScanAdded(scanNO)) {
             long startposition = ScanIndex.get(scanNO);
             long nexposition = ScanIndex.ceilingEntry(scanNO + 1).getValue();
-            byte[] buffer = new byte[(int) (nexposition - startposition)];
-            RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
-            fileHandler.seek(startposition);
-            fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-            String xmltext = new String(buffer);
-            if (nexposition == Integer.MAX_VALUE) {
-                xmltext = xmltext.replaceAll("</msRun>", "");
-            }
-            MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype);
+            MzXMLthreadUnit unit = CreateThreadUnit(scanNO, startposition, nexposition, null, true);
             unit.run();
             scanCollection.AddScan(unit.scan);
-            buffer = null;
-            fileHandler.close();
         }
         return scanCollection.GetScan(scanNO);
     }
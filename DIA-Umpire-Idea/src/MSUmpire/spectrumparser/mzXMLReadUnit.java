@@ -23,13 +23,13 @@ import MSUmpire.BaseDataStructure.ScanData;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
-import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
@@ -46,12 +46,23 @@ import org.xml.sax.SAXException;
 public class mzXMLReadUnit {
 
     String XMLtext;
+    byte[] XMLbytes;
+    //byteOrder of the <peaks> element, "network" (big-endian) unless specified
+    private ByteOrder PeaksByteOrder = ByteOrder.BIG_ENDIAN;
 
     public mzXMLReadUnit(String XMLtext) {
         this.XMLtext = XMLtext;
     }
 
+    public mzXMLReadUnit(byte[] XMLbytes) {
+        this.XMLbytes = XMLbytes;
+    }
+
     public ScanData Parse() throws ParserConfigurationException, SAXException, IOException, DataFormatException {
+        if (XMLtext == null) {
+            XMLtext = new String(XMLbytes).replaceAll("</msRun>", "");
+            XMLbytes = null;
+        }
         if (XMLtext.replaceFirst("</scan>", "").contains("</scan>")) {
             XMLtext = XMLtext.replaceFirst("</scan>", "");
         }
@@ -71,72 +82,7 @@ public class mzXMLReadUnit {
         }
         Node root = doc.getFirstChild();
         for (int i = 0; i < root.getAttributes().getLength(); i++) {
-            switch (root.getAttributes().item(i).getNodeName()) {
-                case ("num"):
-                    scan.Num = Integer.parseInt(root.getAttributes().item(i).getNodeValue());
-                    break;
-                case ("centroided"): {
-                    if ("1".equals(root.getAttributes().item(i).getNodeValue())) {
-                        scan.centroided = true;
-                    } else {
-                        scan.centroided = false;
-                    }
-                    break;
-                }
-                case ("msLevel"):
-                    scan.MsLevel = Integer.parseInt(root.getAttributes().item(i).getNodeValue());
-                    break;
-                case ("scanType"):
-                    scan.scanType = root.getAttributes().item(i).getNodeValue();
-                    break;
-                case ("peaksCount"):
-                    scan.PeaksCountString = Integer.parseInt(root.getAttributes().item(i).getNodeValue());
-                    break;
-                case ("retentionTime"):
-                    scan.RetentionTime = Float.parseFloat(root.getAttributes().item(i).getNodeValue().substring(2, root.getAttributes().item(i).getNodeValue().indexOf("S"))) / 60f;
-                    break;
-                case ("lowMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
-                    if ("inf".equals(value)) {
-                        value = String.valueOf(Float.MIN_VALUE);
-                    }
-                    scan.StartMz = Float.parseFloat(value);
-                    break;
-                }
-                case ("highMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
-                    if ("inf".equals(value)) {
-                        value = String.valueOf(Float.MAX_VALUE);
-                    }
-                    scan.EndMz = Float.parseFloat(value);
-                    break;
-                }
-                case ("startMz"):
-                    scan.StartMz = Float.parseFloat(root.getAttributes().item(i).getNodeValue());
-                    break;
-                case ("endMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
-                    if ("inf".equals(value)) {
-                        value = String.valueOf(Float.MAX_VALUE);
-                    }
-                    scan.EndMz = Float.parseFloat(value);
-                    break;
-                }
-                case ("basePeakMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
-                    if ("inf".equals(value)) {
-                        value = String.valueOf(Float.MAX_VALUE);
-                    }
-                    scan.BasePeakMz = Float.parseFloat(value);
-                    break;
-                }
-                case ("basePeakIntensity"):
-                    scan.BasePeakIntensity = Float.parseFloat(root.getAttributes().item(i).getNodeValue());
-                    break;
-                case ("totIonCurrent"):
-                    scan.SetTotIonCurrent(Float.parseFloat(root.getAttributes().item(i).getNodeValue()));
-                    break;
-            }
+            SetScanAttribute(scan, root.getAttributes().item(i).getNodeName(), root.getAttributes().item(i).getNodeValue());
         }
         for (int i = 0; i < root.getChildNodes().getLength(); i++) {
             Node childNode = root.getChildNodes().item(i);
@@ -144,36 +90,13 @@ public class mzXMLReadUnit {
                 case ("precursorMz"): {
                     scan.PrecursorMz = Float.parseFloat(childNode.getTextContent());
                     for (int j = 0; j < childNode.getAttributes().getLength(); j++) {
-                        switch (childNode.getAttributes().item(j).getNodeName()) {
-                            case ("precursorScanNum"):
-                                scan.precursorScanNum = Integer.parseInt(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                            case ("precursorIntensity"):
-                                scan.PrecursorIntensity = Float.parseFloat(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                            case ("precursorCharge"):
-                                scan.PrecursorCharge = Integer.parseInt(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                            case ("activationMethod"):
-                                scan.ActivationMethod = childNode.getAttributes().item(j).getNodeValue();
-                                break;
-                            case ("windowWideness"):
-                                scan.windowWideness = Float.parseFloat(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                        }
+                        SetPrecursorAttribute(scan, childNode.getAttributes().item(j).getNodeName(), childNode.getAttributes().item(j).getNodeValue());
                     }
                     break;
                 }
                 case ("peaks"): {
                     for (int j = 0; j < childNode.getAttributes().getLength(); j++) {
-                        switch (childNode.getAttributes().item(j).getNodeName()) {
-                            case ("compressionType"):
-                                scan.compressionType = childNode.getAttributes().item(j).getNodeValue();
-                                break;
-                            case ("precision"):
-                                scan.precision = Integer.parseInt(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                        }
+                        SetPeaksAttribute(scan, childNode.getAttributes().item(j).getNodeName(), childNode.getAttributes().item(j).getNodeValue());
                     }
                     ParsePeakString(scan, childNode.getTextContent());
                     break;
@@ -194,6 +117,208 @@ public class mzXMLReadUnit {
         return scan;
     }
 
+    //<editor-fold defaultstate="collapsed" desc="Streaming scan decoder">
+    private XMLByteCursor xml;
+
+    /**
+     * Decodes the scan by scanning the raw bytes once, without building a DOM.
+     * Only the first scan element, its precursorMz and its peaks child are
+     * read; decoding stops at the first closing or nested scan tag, so the
+     * string fix-ups needed by {@link #Parse()} for nested scans and the
+     * trailing msRun tag are not required. Produces the same ScanData as
+     * {@link #Parse()}.
+     */
+    public ScanData ParseStreaming() throws SAXException, IOException, DataFormatException {
+        if (XMLbytes == null) {
+            XMLbytes = XMLtext.getBytes();
+            XMLtext = null;
+        }
+        xml = new XMLByteCursor(XMLbytes);
+        xml.cursor = xml.IndexOf((byte) '<', 0);
+        while (xml.cursor >= 0 && !xml.IsTag("scan")) {
+            xml.cursor = xml.IndexOf((byte) '<', xml.cursor + 1);
+        }
+        if (xml.cursor < 0) {
+            throw new SAXException("<scan> element not found");
+        }
+        ScanData scan = new ScanData();
+        xml.cursor += 5;
+
+        //DOM attributes are visited in name order, keep the same precedence for the m/z range
+        String lowMz = null;
+        String highMz = null;
+        String startMz = null;
+        String endMz = null;
+        while (xml.NextAttribute()) {
+            switch (xml.attrName) {
+                case ("lowMz"):
+                    lowMz = xml.attrValue;
+                    break;
+                case ("highMz"):
+                    highMz = xml.attrValue;
+                    break;
+                case ("startMz"):
+                    startMz = xml.attrValue;
+                    break;
+                case ("endMz"):
+                    endMz = xml.attrValue;
+                    break;
+                default:
+                    SetScanAttribute(scan, xml.attrName, xml.attrValue);
+            }
+        }
+        if (endMz != null) {
+            SetScanAttribute(scan, "endMz", endMz);
+        }
+        if (highMz != null) {
+            SetScanAttribute(scan, "highMz", highMz);
+        }
+        if (lowMz != null) {
+            SetScanAttribute(scan, "lowMz", lowMz);
+        }
+        if (startMz != null) {
+            SetScanAttribute(scan, "startMz", startMz);
+        }
+
+        while (!xml.emptyElement) {
+            xml.cursor = xml.IndexOf((byte) '<', xml.cursor);
+            if (xml.cursor < 0 || xml.IsTag("scan") || xml.IsTag("/scan")) {
+                break;
+            }
+            if (xml.IsTag("precursorMz")) {
+                xml.cursor += 12;
+                while (xml.NextAttribute()) {
+                    SetPrecursorAttribute(scan, xml.attrName, xml.attrValue);
+                }
+                scan.PrecursorMz = Float.parseFloat(xml.emptyElement ? "" : xml.ReadText());
+                xml.emptyElement = false;
+            } else if (xml.IsTag("peaks")) {
+                xml.cursor += 6;
+                while (xml.NextAttribute()) {
+                    SetPeaksAttribute(scan, xml.attrName, xml.attrValue);
+                }
+                int start = xml.cursor;
+                if (!xml.emptyElement) {
+                    xml.cursor = xml.IndexOf((byte) '<', xml.cursor);
+                    if (xml.cursor < 0) {
+                        throw new SAXException("Unterminated <peaks> element in scan " + scan.Num);
+                    }
+                }
+                ParsePeaks(scan, xml.buf, start, xml.emptyElement ? start : xml.cursor);
+                xml.emptyElement = false;
+            } else if (!xml.SkipTag()) {
+                break;
+            }
+        }
+        if ("calibration".equals(scan.scanType)) {
+            scan.MsLevel = -1;
+        }
+        xml = null;
+        XMLbytes = null;
+        scan.Data.Finalize();
+        return scan;
+    }
+    //</editor-fold>
+
+    private void SetScanAttribute(ScanData scan, String name, String value) {
+        switch (name) {
+            case ("num"):
+                scan.Num = Integer.parseInt(value);
+                break;
+            case ("centroided"): {
+                if ("1".equals(value)) {
+                    scan.centroided = true;
+                } else {
+                    scan.centroided = false;
+                }
+                break;
+            }
+            case ("msLevel"):
+                scan.MsLevel = Integer.parseInt(value);
+                break;
+            case ("scanType"):
+                scan.scanType = value;
+                break;
+            case ("peaksCount"):
+                scan.PeaksCountString = Integer.parseInt(value);
+                break;
+            case ("retentionTime"):
+                scan.RetentionTime = Float.parseFloat(value.substring(2, value.indexOf("S"))) / 60f;
+                break;
+            case ("lowMz"): {
+                if ("inf".equals(value)) {
+                    value = String.valueOf(Float.MIN_VALUE);
+                }
+                scan.StartMz = Float.parseFloat(value);
+                break;
+            }
+            case ("highMz"): {
+                if ("inf".equals(value)) {
+                    value = String.valueOf(Float.MAX_VALUE);
+                }
+                scan.EndMz = Float.parseFloat(value);
+                break;
+            }
+            case ("startMz"):
+                scan.StartMz = Float.parseFloat(value);
+                break;
+            case ("endMz"): {
+                if ("inf".equals(value)) {
+                    value = String.valueOf(Float.MAX_VALUE);
+                }
+                scan.EndMz = Float.parseFloat(value);
+                break;
+            }
+            case ("basePeakMz"): {
+                if ("inf".equals(value)) {
+                    value = String.valueOf(Float.MAX_VALUE);
+                }
+                scan.BasePeakMz = Float.parseFloat(value);
+                break;
+            }
+            case ("basePeakIntensity"):
+                scan.BasePeakIntensity = Float.parseFloat(value);
+                break;
+            case ("totIonCurrent"):
+                scan.SetTotIonCurrent(Float.parseFloat(value));
+                break;
+        }
+    }
+
+    private void SetPrecursorAttribute(ScanData scan, String name, String value) {
+        switch (name) {
+            case ("precursorScanNum"):
+                scan.precursorScanNum = Integer.parseInt(value);
+                break;
+            case ("precursorIntensity"):
+                scan.PrecursorIntensity = Float.parseFloat(value);
+                break;
+            case ("precursorCharge"):
+                scan.PrecursorCharge = Integer.parseInt(value);
+                break;
+            case ("activationMethod"):
+                scan.ActivationMethod = value;
+                break;
+            case ("windowWideness"):
+                scan.windowWideness = Float.parseFloat(value);
+                break;
+        }
+    }
+
+    private void SetPeaksAttribute(ScanData scan, String name, String value) {
+        switch (name) {
+            case ("compressionType"):
+                scan.compressionType = value;
+                break;
+            case ("precision"):
+                scan.precision = Integer.parseInt(value);
+                break;
+            case ("byteOrder"):
+                PeaksByteOrder = "little".equals(value) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+                break;
+        }
+    }
+
     public byte[] ZlibUncompressBuffer(byte[] compressed) throws IOException, DataFormatException {
 
         Inflater decompressor = new Inflater();
@@ -225,61 +350,15 @@ public class mzXMLReadUnit {
     }
 
     private void ParsePeakString(ScanData scan, String peakString) throws IOException, DataFormatException {
-        int offset;
-
-        peakString = peakString.replaceAll("\n", "");
-        byte[] decoded = Base64.decodeBase64(peakString.getBytes());
+        byte[] text = peakString.getBytes(StandardCharsets.ISO_8859_1);
+        ParsePeaks(scan, text, 0, text.length);
+    }
 
-        if ("zlib".equals(scan.compressionType)) {
-            decoded = ZlibUncompressBuffer(decoded);
-        }
-        switch (scan.precision) {
-            case (32): {
-                offset = 0;
-                for (int i = 0; i < scan.PeaksCountString; i++) {
-                    byte[] mz = new byte[]{decoded[offset], decoded[offset + 1], decoded[offset + 2], decoded[offset + 3]};
-                    byte[] intensity = new byte[]{decoded[offset + 4], decoded[offset + 5], decoded[offset + 6], decoded[offset + 7]};
-                    ByteBuffer mzBuffer = ByteBuffer.wrap(mz);
-                    ByteBuffer intBuffer = ByteBuffer.wrap(intensity);
-                    float intensityfloat = intBuffer.getFloat();
-                    float mzfloat = mzBuffer.getFloat();
-                    if (intensityfloat > 0f) {
-                        scan.AddPoint(mzfloat, intensityfloat);
-                    }
-                    mz = null;
-                    intensity = null;
-                    mzBuffer.clear();
-                    intBuffer.clear();
-                    mzBuffer = null;
-                    intBuffer = null;
-                    offset += 8;
-                }
-                break;
-            }
-            case (64): {
-                offset = 0;
-                for (int i = 0; i < scan.PeaksCountString; i++) {
-                    byte[] mz = new byte[]{decoded[offset], decoded[offset + 1], decoded[offset + 2], decoded[offset + 3], decoded[offset + 4], decoded[offset + 5], decoded[offset + 6], decoded[offset + 7]};
-                    byte[] intensity = new byte[]{decoded[offset + 8], decoded[offset + 9], decoded[offset + 10], decoded[offset + 11], decoded[offset + 12], decoded[offset + 13], decoded[offset + 14], decoded[offset + 15]};
-                    ByteBuffer mzBuffer = ByteBuffer.wrap(mz);
-                    ByteBuffer intBuffer = ByteBuffer.wrap(intensity);
-                    float intensityfloat = (float) intBuffer.getDouble();
-                    float mzfloat = (float) mzBuffer.getDouble();
-                    if (intensityfloat > 0f) {
-                        scan.AddPoint(mzfloat, intensityfloat);
-                    }
-                    mz = null;
-                    intensity = null;
-                    mzBuffer.clear();
-                    intBuffer.clear();
-                    mzBuffer = null;
-                    intBuffer = null;
-                    offset += 16;
-                }
-                break;
-            }
-        }
-        peakString = null;
-        decoded = null;
+    //Decodes the Base64 peak list between from and to and adds the points with positive intensity
+    private void ParsePeaks(ScanData scan, byte[] text, int from, int to) throws IOException, DataFormatException {
+        BinaryPeakDecoder decoder = BinaryPeakDecoder.Get();
+        decoder.Decode(text, from, to, scan.precision, "zlib".equals(scan.compressionType), PeaksByteOrder);
+        int size = decoder.PositivePairs(scan.PeaksCountString);
+        scan.AddPoints(decoder.Mz, decoder.Intensity, size);
     }
 }
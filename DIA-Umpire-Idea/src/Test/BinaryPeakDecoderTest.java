@@ -0,0 +1,184 @@
+/*
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics,
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package Test;
+
+import MSUmpire.BaseDataStructure.XYPointCollection;
+import MSUmpire.spectrumparser.BinaryPeakDecoder;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * Round-trip driver for BinaryPeakDecoder: encodes known peak arrays for
+ * every combination of 32/64-bit precision, byte order and zlib/no
+ * compression, decodes them back and compares the values. Exits with status
+ * 1 if any case fails.
+ *
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class BinaryPeakDecoderTest {
+
+    private static int Cases = 0;
+    private static int Failures = 0;
+
+    public static void main(String[] args) throws DataFormatException {
+        float[][] sorted = new float[][]{
+            {100.05f, 200.5f, 350.25f, 350.2501f, 899.999f, 1500.75f},
+            {10f, 0f, 2500.5f, 1e6f, 3.25f, 77f}};
+        float[][] unsorted = new float[][]{
+            {899.999f, 100.05f, 1500.75f, 350.25f, 200.5f, 350.2501f},
+            {3.25f, 10f, 77f, 2500.5f, 0f, 1e6f}};
+        float[][] empty = new float[][]{{}, {}};
+
+        for (int precision : new int[]{32, 64}) {
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                for (boolean zlib : new boolean[]{false, true}) {
+                    String setting = precision + "-bit " + order + (zlib ? " zlib" : " none");
+                    TestPairs(setting + " sorted", sorted, precision, order, zlib);
+                    TestPairs(setting + " unsorted", unsorted, precision, order, zlib);
+                    TestPairs(setting + " empty", empty, precision, order, zlib);
+                    TestSeparateArrays(setting + " sorted", sorted, precision, order, zlib);
+                    TestSeparateArrays(setting + " unsorted", unsorted, precision, order, zlib);
+                    TestSeparateArrays(setting + " empty", empty, precision, order, zlib);
+                }
+            }
+        }
+        //An empty <peaks></peaks> element has no payload at all
+        BinaryPeakDecoder decoder = BinaryPeakDecoder.Get();
+        byte[] blank = new byte[0];
+        Check("empty payload", decoder.Decode(blank, 0, 0, 32, false, ByteOrder.BIG_ENDIAN) == 0 && decoder.PositivePairs(0) == 0);
+
+        System.out.println((Cases - Failures) + "/" + Cases + " cases passed");
+        if (Failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    //mzXML layout: m/z and intensity interleaved in one array
+    private static void TestPairs(String name, float[][] peaks, int precision, ByteOrder order, boolean zlib) throws DataFormatException {
+        int count = peaks[0].length;
+        double[] values = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            values[2 * i] = peaks[0][i];
+            values[2 * i + 1] = peaks[1][i];
+        }
+        byte[] text = Encode(values, precision, order, zlib);
+        BinaryPeakDecoder decoder = BinaryPeakDecoder.Get();
+        boolean pass = decoder.Decode(text, 0, text.length, precision, zlib, order) == values.length;
+        for (int i = 0; pass && i < values.length; i++) {
+            pass = decoder.Values[i] == (float) values[i];
+        }
+        int size = decoder.PositivePairs(count);
+        pass = pass && CheckPositive(peaks, decoder.Mz, decoder.Intensity, size);
+        pass = pass && CheckCollection(peaks, decoder.Mz, decoder.Intensity, size);
+        Check("pairs " + name, pass);
+    }
+
+    //mzML layout: separate m/z and intensity arrays
+    private static void TestSeparateArrays(String name, float[][] peaks, int precision, ByteOrder order, boolean zlib) throws DataFormatException {
+        int count = peaks[0].length;
+        double[] mz = new double[count];
+        double[] intensity = new double[count];
+        for (int i = 0; i < count; i++) {
+            mz[i] = peaks[0][i];
+            intensity[i] = peaks[1][i];
+        }
+        BinaryPeakDecoder decoder = BinaryPeakDecoder.Get();
+        byte[] text = Encode(mz, precision, order, zlib);
+        boolean pass = decoder.Decode(text, 0, text.length, precision, zlib, order) == count;
+        decoder.KeepAsMz();
+        text = Encode(intensity, precision, order, zlib);
+        pass = pass && decoder.Decode(text, 0, text.length, precision, zlib, order) == count;
+        int size = decoder.PositiveIntensities(count);
+        pass = pass && CheckPositive(peaks, decoder.Mz, decoder.Intensity, size);
+        Check("arrays " + name, pass);
+    }
+
+    //The decoded points must be the input points with positive intensity, in input order
+    private static boolean CheckPositive(float[][] peaks, float[] mz, float[] intensity, int size) {
+        int idx = 0;
+        for (int i = 0; i < peaks[0].length; i++) {
+            if (peaks[1][i] > 0f) {
+                if (idx >= size || mz[idx] != peaks[0][i] || intensity[idx] != peaks[1][i]) {
+                    return false;
+                }
+                idx++;
+            }
+        }
+        return idx == size;
+    }
+
+    //Adding the points to a collection must give them sorted by m/z, whether or not the input was sorted
+    private static boolean CheckCollection(float[][] peaks, float[] mz, float[] intensity, int size) {
+        XYPointCollection collection = new XYPointCollection();
+        collection.AddPoints(mz, intensity, size);
+        collection.Data.Finalize();
+        if (collection.PointCount() != size) {
+            return false;
+        }
+        float[] expected = Arrays.copyOf(mz, size);
+        Arrays.sort(expected);
+        for (int i = 0; i < size; i++) {
+            if (collection.Data.get(i).getX() != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] Encode(double[] values, int precision, ByteOrder order, boolean zlib) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * precision / 8).order(order);
+        for (double value : values) {
+            if (precision == 32) {
+                buffer.putFloat((float) value);
+            } else {
+                buffer.putDouble(value);
+            }
+        }
+        byte[] bytes = buffer.array();
+        if (zlib) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[256];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            deflater.end();
+            bytes = out.toByteArray();
+        }
+        //MIME encoding wraps the text in lines, the decoder has to skip the line breaks
+        return Base64.getMimeEncoder().encodeToString(bytes).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void Check(String name, boolean pass) {
+        Cases++;
+        if (!pass) {
+            Failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
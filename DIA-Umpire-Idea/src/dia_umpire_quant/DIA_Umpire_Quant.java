@@ -29,6 +29,7 @@ import MSUmpire.FragmentLib.FragmentLibManager;
 import MSUmpire.MSMSDBSearch.DBSearchParam;
 import MSUmpire.MSMSDBSearch.TandemParam;
 import MSUmpire.PSMDataStructure.FragmentPeak;
+import MSUmpire.PSMDataStructure.IDRegistry;
 import MSUmpire.PSMDataStructure.LCMSID;
 import MSUmpire.PSMDataStructure.PTMManager;
 import MSUmpire.PSMDataStructure.ProtID;
@@ -36,6 +37,8 @@ import MSUmpire.PSMDataStructure.FragmentSelection;
 import MSUmpire.PostProcessing.ExportTable;
 import MSUmpire.QuantModule.RTAlignedPepIonMapping;
 import MSUmpire.SearchResultParser.ProtXMLParser;
+import MSUmpire.spectrumparser.IndexWarmUp;
+import MSUmpire.spectrumparser.mzXMLParser;
 import Utility.ConsoleLogger;
 import Utility.DateTimeTag;
 import java.io.BufferedReader;
@@ -84,6 +87,7 @@ public class DIA_Umpire_Quant {
         String line = "";
         String WorkFolder = "";
         int NoCPUs = 2;
+        int IndexReaders = 2;
 
         String UserMod = "";
         String Combined_Prot = "";
@@ -149,6 +153,10 @@ public class DIA_Umpire_Quant {
                         NoCPUs = Integer.parseInt(value);
                         break;
                     }
+                    case "IndexReaders": {
+                        IndexReaders = Integer.parseInt(value);
+                        break;
+                    }
                     case "Fasta": {
                         tandemPara.FastaPath = value;
                         break;
@@ -303,18 +311,12 @@ public class DIA_Umpire_Quant {
         try {
             File folder = new File(WorkFolder);
             for (final File fileEntry : folder.listFiles()) {
-                if (fileEntry.isFile() && fileEntry.getAbsolutePath().toLowerCase().endsWith(".mzxml")
-                        && !fileEntry.getAbsolutePath().toLowerCase().endsWith("q1.mzxml")
-                        && !fileEntry.getAbsolutePath().toLowerCase().endsWith("q2.mzxml")
-                        && !fileEntry.getAbsolutePath().toLowerCase().endsWith("q3.mzxml")) {
+                if (IsDIAFile(fileEntry)) {
                     AssignFiles.put(fileEntry.getAbsolutePath(), fileEntry);
                 }
                 if (fileEntry.isDirectory()) {
                     for (final File fileEntry2 : fileEntry.listFiles()) {
-                        if (fileEntry2.isFile() && fileEntry2.getAbsolutePath().toLowerCase().endsWith(".mzxml")
-                                && !fileEntry2.getAbsolutePath().toLowerCase().endsWith("q1.mzxml")
-                                && !fileEntry2.getAbsolutePath().toLowerCase().endsWith("q2.mzxml")
-                                && !fileEntry2.getAbsolutePath().toLowerCase().endsWith("q3.mzxml")) {
+                        if (IsDIAFile(fileEntry2)) {
                             AssignFiles.put(fileEntry2.getAbsolutePath(), fileEntry2);
                         }
                     }
@@ -325,8 +327,18 @@ public class DIA_Umpire_Quant {
             for (File fileEntry : AssignFiles.values()) {
                 Logger.getRootLogger().info(fileEntry.getAbsolutePath());
             }
+            IndexWarmUp warmup = new IndexWarmUp(NoCPUs, IndexReaders);
+            if (AssignFiles.size() > 1) {
+                //Build the missing or stale scan indices of all files up front, ProcessDIA then uses the built parsers
+                for (File fileEntry : AssignFiles.values()) {
+                    if (!warmup.AddProcessedFile(fileEntry.getAbsolutePath())) {
+                        Logger.getRootLogger().warn("Parameters or DIA setting of " + fileEntry.getAbsolutePath() + " not found, its index is not built in advance.");
+                    }
+                }
+                warmup.Run();
+            }
             for (File fileEntry : AssignFiles.values()) {
-                ProcessDIA(fileEntry, NoCPUs, tandemPara, FileList, IDSummaryFragments, protID);
+                ProcessDIA(fileEntry, NoCPUs, tandemPara, FileList, IDSummaryFragments, protID, warmup.GetParser(fileEntry.getAbsolutePath()));
             }
 
             Logger.getRootLogger().info("=================================================================================================");
@@ -348,6 +360,11 @@ public class DIA_Umpire_Quant {
                 libManager.ReduceMemoryUsage();
 
                 Logger.getRootLogger().info("Building retention time prediction model and generate candiate peptide list");
+                //Peptide ions are joined across the files by their IDs in one registry, dropped after this module
+                IDRegistry PepIonIDs = new IDRegistry();
+                for (DIAPack dia : FileList) {
+                    dia.IDsummary.UseRegistry(PepIonIDs);
+                }
                 for (int i = 0; i < FileList.size(); i++) {
                     for (int j = i + 1; j < FileList.size(); j++) {
                         RTAlignedPepIonMapping alignment = new RTAlignedPepIonMapping(WorkFolder, FileList.get(i).IDsummary, FileList.get(j).IDsummary);
@@ -503,9 +520,20 @@ public class DIA_Umpire_Quant {
         }
     }
 
-    private static void ProcessDIA(final File fileEntry, int NoCPUs, TandemParam tandemPara, ArrayList<DIAPack> FileList, HashMap<String, HashMap<String, FragmentPeak>> IDSummaryFragments, LCMSID protID) throws IOException, FileNotFoundException, DataFormatException, InterruptedException, ExecutionException, ParserConfigurationException, SAXException, SQLException, Exception {
+    //mzXML/mzML file of a DIA run, not one of the Q1/Q2/Q3 pseudo MS/MS files written by DIA_Umpire_SE
+    private static boolean IsDIAFile(File fileEntry) {
+        String name = fileEntry.getAbsolutePath().toLowerCase();
+        if (!fileEntry.isFile() || !(name.endsWith(".mzxml") || name.endsWith(".mzml"))) {
+            return false;
+        }
+        String basename = FilenameUtils.removeExtension(name);
+        return !basename.endsWith("q1") && !basename.endsWith("q2") && !basename.endsWith("q3");
+    }
+
+    //parser: the file's parser built by IndexWarmUp, null if there is none
+    private static void ProcessDIA(final File fileEntry, int NoCPUs, TandemParam tandemPara, ArrayList<DIAPack> FileList, HashMap<String, HashMap<String, FragmentPeak>> IDSummaryFragments, LCMSID protID, mzXMLParser parser) throws IOException, FileNotFoundException, DataFormatException, InterruptedException, ExecutionException, ParserConfigurationException, SAXException, SQLException, Exception {
         String mzXMLFile = fileEntry.getAbsolutePath();
-        if (mzXMLFile.toLowerCase().endsWith(".mzxml")) {
+        if (mzXMLFile.toLowerCase().endsWith(".mzxml") || mzXMLFile.toLowerCase().endsWith(".mzml")) {
             long time = System.currentTimeMillis();
 
             DIAPack DiaFile = new DIAPack(mzXMLFile, NoCPUs);
@@ -529,6 +557,9 @@ public class DIA_Umpire_Quant {
                 Logger.getRootLogger().info("Loading parameters failed, job is incomplete");
                 System.exit(1);
             }
+            if (parser != null) {
+                DiaFile.SetMzXML(parser);
+            }
             Logger.getRootLogger().info("Loading identification results " + mzXMLFile + "....");
             
             if (!DiaFile.ReadSerializedLCMSID()) {
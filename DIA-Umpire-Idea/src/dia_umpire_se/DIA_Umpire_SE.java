@@ -20,6 +20,7 @@
 package dia_umpire_se;
 
 import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScratchBuffer;
 import MSUmpire.BaseDataStructure.SpectralDataType;
 import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.DIA.DIAPack;
@@ -240,6 +241,46 @@ public class DIA_Umpire_SE {
                         para.MinFrag = Integer.parseInt(value);
                         break;
                     }
+                    case "SE.StreamingScanDecoder": {
+                        para.StreamingScanDecoder = Boolean.valueOf(value);
+                        break;
+                    }
+                    case "SE.DIAWindowsInFlight": {
+                        para.DIAWindowsInFlight = Integer.parseInt(value);
+                        break;
+                    }
+                    case "SE.CacheProcessedScans": {
+                        para.CacheProcessedScans = Boolean.valueOf(value);
+                        break;
+                    }
+                    case "SE.PeakCurveScanQueue": {
+                        para.PeakCurveScanQueue = Integer.parseInt(value);
+                        break;
+                    }
+                    case "SE.ReadAheadGap": {
+                        para.ReadAheadGap = Long.parseLong(value);
+                        break;
+                    }
+                    case "SE.ReadAheadMaxRead": {
+                        para.ReadAheadMaxRead = Integer.parseInt(value);
+                        break;
+                    }
+                    case "SE.PackPeakCurves": {
+                        para.PackPeakCurves = Boolean.valueOf(value);
+                        break;
+                    }
+                    case "SE.ScanPeakStorage": {
+                        para.ScanPeakStorage = value;
+                        break;
+                    }
+                    case "SE.CompactPeakEncoding": {
+                        para.CompactPeakEncoding = Boolean.valueOf(value);
+                        break;
+                    }
+                    case "SE.ParallelPeakCurveTracing": {
+                        para.ParallelPeakCurveTracing = Boolean.valueOf(value);
+                        break;
+                    }
 //</editor-fold>
                     case "WindowType": {
                         WindowType = value;
@@ -296,6 +337,7 @@ public class DIA_Umpire_SE {
                 DiaFile.process();
                 time = System.currentTimeMillis() - time;
                 Logger.getRootLogger().info(mzXMLPath + " processed time:" + String.format("%d hour, %d min, %d sec", TimeUnit.MILLISECONDS.toHours(time), TimeUnit.MILLISECONDS.toMinutes(time) - TimeUnit.HOURS.toMinutes(TimeUnit.MILLISECONDS.toHours(time)), TimeUnit.MILLISECONDS.toSeconds(time) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(time))));
+                Logger.getRootLogger().debug(ScratchBuffer.CounterSummary());
             }
             Logger.getRootLogger().info("Job complete");
             Logger.getRootLogger().info("=================================================================================================");